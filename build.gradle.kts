@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "dev.x341.aonbas2srv"
@@ -43,7 +44,13 @@ dependencies {
     testImplementation("org.mockito:mockito-core:5.+")
 
     implementation("io.netty:netty-all:4.2.7.Final")
+    // Native transports picked at runtime by ServerTransport (falls back to NIO when unavailable)
+    runtimeOnly("io.netty:netty-transport-native-epoll:4.2.7.Final:linux-x86_64")
+    runtimeOnly("io.netty:netty-transport-native-epoll:4.2.7.Final:linux-aarch_64")
+    runtimeOnly("io.netty:netty-transport-native-io_uring:4.2.7.Final:linux-x86_64")
+    runtimeOnly("io.netty:netty-transport-native-io_uring:4.2.7.Final:linux-aarch_64")
     implementation("com.google.inject:guice:7.0.0")
+    implementation("com.github.ben-manes.caffeine:caffeine:3.2.2")
     implementation("com.squareup.okhttp3:okhttp:5.2.1")
     implementation("org.slf4j:slf4j-api:2.0.9")
 
@@ -63,6 +70,21 @@ tasks.test {
     useJUnitPlatform()
 }
 
+// Benchmarks live in src/jmh/java; run with ./gradlew jmh (optionally -Pjmh.includes=<regex>)
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(2)
+    iterations.set(5)
+    resultFormat.set("TEXT")
+    if (project.hasProperty("jmh.includes")) {
+        includes.set(listOf(project.property("jmh.includes").toString()))
+    }
+    if (project.hasProperty("jmh.profilers")) {
+        profilers.set(project.property("jmh.profilers").toString().split(",").toList())
+    }
+}
+
 
 tasks.register<JavaExec>("runServer") {
     group = "other"
@@ -71,3 +93,11 @@ tasks.register<JavaExec>("runServer") {
     mainClass.set("dev.x341.aonbas2srv.Main")
     classpath = sourceSets["main"].runtimeClasspath
 }
+
+tasks.register<JavaExec>("metroFootprint") {
+    group = "other"
+    description = "Print the heap retained by cached metro sets, as DTOs and compacted"
+
+    mainClass.set("dev.x341.aonbas2srv.dto.CompactMetroFootprint")
+    classpath = sourceSets["jmh"].runtimeClasspath
+}
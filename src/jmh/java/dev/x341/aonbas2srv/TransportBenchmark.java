@@ -0,0 +1,180 @@
+package dev.x341.aonbas2srv;
+
+import dev.x341.aonbas2srv.services.HttpServerHandler;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of GET /status per transport, with and without SO_REUSEPORT listener sharding.
+ * {@code keepAlive} reuses one persistent connection per JMH thread and measures the read/write path;
+ * {@code connectPerRequest} opens a fresh connection every time, which is where accept sharding shows.
+ * <p>
+ * Transports not available on the host fail their own trial; the others still run.
+ * Run with: ./gradlew jmh -Pjmh.includes=TransportBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class TransportBenchmark {
+
+    @Param({"nio", "epoll", "io_uring"})
+    public String transport;
+
+    @Param({"false", "true"})
+    public boolean reusePort;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private final List<Channel> listeners = new ArrayList<>();
+    int port;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        ServerTransport t = ServerTransport.select(transport);
+        if (!t.id().equals(transport)) {
+            throw new IllegalStateException(transport + " transport not available on this host");
+        }
+        if (reusePort && !t.supportsReusePort()) {
+            throw new IllegalStateException(transport + " transport does not support SO_REUSEPORT");
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        int bossThreads = reusePort ? cores : 1;
+        bossGroup = t.newEventLoopGroup(bossThreads, "bench-boss");
+        workerGroup = t.newEventLoopGroup(cores, "bench-worker");
+
+        ServerBootstrap b = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(t.serverChannelClass())
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpServerCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                        // /status never reaches the services
+                        ch.pipeline().addLast(new HttpServerHandler(null, null, null, null, null, null, null, Runnable::run));
+                    }
+                })
+                .option(ChannelOption.SO_BACKLOG, 1024);
+        if (reusePort) b.option(t.reusePortOption(), true);
+
+        Channel first = b.bind("127.0.0.1", 0).sync().channel();
+        listeners.add(first);
+        port = ((InetSocketAddress) first.localAddress()).getPort();
+        for (int i = 1; i < bossThreads; i++) {
+            listeners.add(b.bind("127.0.0.1", port).sync().channel());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        for (Channel c : listeners) c.close().syncUninterruptibly();
+        listeners.clear();
+        if (workerGroup != null) workerGroup.shutdownGracefully().syncUninterruptibly();
+        if (bossGroup != null) bossGroup.shutdownGracefully().syncUninterruptibly();
+    }
+
+    /** One keep-alive connection per benchmark thread. */
+    @State(Scope.Thread)
+    public static class Connection {
+        private static final byte[] REQUEST =
+                "GET /status HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        Socket socket;
+        OutputStream out;
+        InputStream in;
+        final byte[] buf = new byte[4096];
+
+        @Setup(Level.Trial)
+        public void connect(TransportBenchmark server) throws IOException {
+            socket = new Socket("127.0.0.1", server.port);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = socket.getInputStream();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        /**
+         * Send one request and read exactly one response (headers plus Content-Length body).
+         *
+         * @return the status code
+         */
+        int roundTrip() throws IOException {
+            out.write(REQUEST);
+            out.flush();
+            int len = 0;
+            int headerEnd = -1;
+            while (headerEnd < 0) {
+                int n = in.read(buf, len, buf.length - len);
+                if (n < 0) throw new IOException("connection closed");
+                len += n;
+                headerEnd = indexOfHeaderEnd(buf, len);
+            }
+            String head = new String(buf, 0, headerEnd, StandardCharsets.US_ASCII);
+            int contentLength = 0;
+            for (String line : head.split("\r\n")) {
+                if (line.regionMatches(true, 0, "content-length:", 0, 15)) {
+                    contentLength = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+            int remaining = contentLength - (len - headerEnd - 4);
+            while (remaining > 0) {
+                int n = in.read(buf, 0, Math.min(buf.length, remaining));
+                if (n < 0) throw new IOException("connection closed");
+                remaining -= n;
+            }
+            return Integer.parseInt(head.substring(9, 12));
+        }
+
+        private static int indexOfHeaderEnd(byte[] b, int len) {
+            for (int i = 3; i < len; i++) {
+                if (b[i - 3] == '\r' && b[i - 2] == '\n' && b[i - 1] == '\r' && b[i] == '\n') return i - 3;
+            }
+            return -1;
+        }
+    }
+
+    @Benchmark
+    public int keepAlive(Connection connection) throws IOException {
+        return connection.roundTrip();
+    }
+
+    private static final byte[] CLOSE_REQUEST =
+            "GET /status HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Benchmark
+    public int connectPerRequest() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setTcpNoDelay(true);
+            socket.getOutputStream().write(CLOSE_REQUEST);
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[512];
+            int total = 0;
+            int n;
+            // The server closes after the response, so read to EOF
+            while ((n = in.read(buf)) >= 0) total += n;
+            return total;
+        }
+    }
+}
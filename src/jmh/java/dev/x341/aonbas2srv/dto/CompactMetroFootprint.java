@@ -0,0 +1,94 @@
+package dev.x341.aonbas2srv.dto;
+
+import dev.x341.aonbas2srv.services.MetroLinesCacheBenchmark;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Heap retained per cached metro set: the DTO graph as decoded from TMB's JSON (what the object tier held before)
+ * against {@link CompactMetroDto}. Holds {@value #COPIES} independent copies of each form, forces GCs and divides
+ * the growth in used heap, so the numbers are approximate but stable enough to compare. The sets are the lines list
+ * of {@link MetroLinesCacheBenchmark} and a stations list of point features.
+ * Run with: ./gradlew metroFootprint
+ */
+public final class CompactMetroFootprint {
+
+    private static final int COPIES = 200;
+    private static final JsonCodec JSON = JsonCodec.shared();
+
+    public static void main(String[] args) {
+        report("lines", JSON.toJson(MetroLinesCacheBenchmark.lines()));
+        report("stations", JSON.toJson(stations()));
+    }
+
+    private static void report(String name, String json) {
+        long dto = retained(() -> JSON.fromJson(json, MetroDto.class));
+        long compact = retained(() -> CompactMetroDto.of(JSON.fromJson(json, MetroDto.class)));
+        long estimate = CompactMetroDto.of(JSON.fromJson(json, MetroDto.class)).estimatedBytes();
+        System.out.printf("%-9s json %,9d chars   dto %,9d B   compact %,9d B (estimate %,d B)   %.1fx%n",
+                name, json.length(), dto, compact, estimate, (double) dto / compact);
+    }
+
+    /** Average bytes retained by one value from {@code factory}. */
+    private static long retained(Supplier<Object> factory) {
+        long before = usedAfterGc();
+        List<Object> held = new ArrayList<>(COPIES);
+        for (int i = 0; i < COPIES; i++) held.add(factory.get());
+        long after = usedAfterGc();
+        if (held.size() != COPIES) throw new AssertionError();
+        return (after - before) / COPIES;
+    }
+
+    private static long usedAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** About as many stations as the metro network has, each a point with the line and station properties. */
+    private static MetroDto stations() {
+        List<MetroDto.Feature> features = new ArrayList<>();
+        for (int s = 0; s < 180; s++) {
+            int line = s % 12 + 1;
+            MetroDto.Properties p = new MetroDto.Properties();
+            p.setID_ESTACIO_LINIA(s);
+            p.setCODI_ESTACIO_LINIA(line * 100 + s);
+            p.setID_ESTACIO(s);
+            p.setCODI_ESTACIO(100 + s);
+            p.setORDRE_ESTACIO(s / 12);
+            p.setCODI_LINIA(line);
+            p.setNOM_LINIA("L" + line);
+            p.setNOM_ESTACIO("Estació " + s);
+            p.setORIGEN_SERVEI("Origen " + line);
+            p.setDESTI_SERVEI("Destí " + line);
+            p.setNOM_TIPUS_ACCESSIBILITAT("Accessible");
+            p.setNOM_TIPUS_ESTAT("Operativa");
+            p.setCOLOR_LINIA("CE1126");
+            p.setDATA("2024-01-01");
+            MetroDto.Geometry g = new MetroDto.Geometry();
+            g.setType("Point");
+            g.setCoordinates(List.of(2.1 + s * 0.0005, 41.35 + s * 0.0003));
+            MetroDto.Feature f = new MetroDto.Feature();
+            f.setType("Feature");
+            f.setId("ESTACIONS_LINIA." + s);
+            f.setGeometry(g);
+            f.setGeometry_name("GEOMETRY");
+            f.setProperties(p);
+            features.add(f);
+        }
+        MetroDto dto = new MetroDto();
+        dto.setType("FeatureCollection");
+        dto.setFeatures(features);
+        return dto;
+    }
+}
@@ -0,0 +1,99 @@
+package dev.x341.aonbas2srv.services;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded read/write mix over a skewed key set: {@link CacheService} (Caffeine, weight bound, W-TinyLFU)
+ * against the previous eldest-first LinkedHashMap, wrapped in a synchronized map since the original was not safe
+ * to share between threads at all. Both get room for the same number of entries; the aux counters report hits
+ * and misses so throughput and hit ratio can be read side by side.
+ * Run with: ./gradlew jmh -Pjmh.includes=CacheServiceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+public class CacheServiceBenchmark {
+
+    private static final int KEYS = 4096;
+    private static final int CAPACITY = 512;
+    private static final String VALUE = "v".repeat(200);
+
+    /** Share of operations that are writes (misses refill the cache the same way the API clients do). */
+    @Param({"10"})
+    public int writePercent;
+
+    private String[] keys;
+    private CacheService cacheService;
+    private Map<String, String> legacy;
+
+    @Setup
+    public void setup() {
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) keys[i] = "stations:" + i;
+        // Same entry budget for both: CAPACITY entries of this key/value size
+        long weight = (long) CAPACITY * (96 + 2 * (keys[KEYS - 1].length() + VALUE.length()));
+        cacheService = new CacheService(weight, weight);
+        legacy = Collections.synchronizedMap(new LinkedHashMap<>(CAPACITY, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > CAPACITY;
+            }
+        });
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Hits {
+        public long hits;
+        public long misses;
+    }
+
+    /** Zipf-like pick: low indexes are requested far more often than the tail. */
+    private String nextKey() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        return keys[(int) (KEYS * u * u * u)];
+    }
+
+    private boolean isWrite() {
+        return ThreadLocalRandom.current().nextInt(100) < writePercent;
+    }
+
+    @Benchmark
+    public String caffeine(Hits counters) {
+        String key = nextKey();
+        if (isWrite()) {
+            cacheService.put(key, VALUE);
+            return null;
+        }
+        String v = cacheService.get(key);
+        if (v != null) counters.hits++;
+        else {
+            counters.misses++;
+            cacheService.put(key, VALUE);
+        }
+        return v;
+    }
+
+    @Benchmark
+    public String synchronizedLinkedHashMap(Hits counters) {
+        String key = nextKey();
+        if (isWrite()) {
+            legacy.put(key, VALUE);
+            return null;
+        }
+        String v = legacy.get(key);
+        if (v != null) counters.hits++;
+        else {
+            counters.misses++;
+            legacy.put(key, VALUE);
+        }
+        return v;
+    }
+}
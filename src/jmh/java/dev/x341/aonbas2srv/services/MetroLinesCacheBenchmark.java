@@ -0,0 +1,103 @@
+package dev.x341.aonbas2srv.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.x341.aonbas2srv.dto.CompactMetroDto;
+import dev.x341.aonbas2srv.dto.MetroDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one cache hit for /metro/lines: the previous string tier, which stored the re-serialized lines and
+ * parsed and serialized them again on every hit, against the object tier, which hands out the stored DTO and its
+ * JSON. The payload mimics TMB's metro line list (12 lines with multi-line geometries of a few hundred points).
+ * Run with: ./gradlew jmh -Pjmh.includes=MetroLinesCacheBenchmark -Pjmh.profilers=gc (gc.alloc.rate.norm is the
+ * allocation per hit)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetroLinesCacheBenchmark {
+
+    private static final String KEY = MetroService.linesKey();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private CacheService cacheService;
+
+    @Setup
+    public void setup() throws IOException {
+        MetroDto lines = lines();
+        String json = objectMapper.writeValueAsString(lines);
+        cacheService = new CacheService();
+        cacheService.put(KEY, json);
+        cacheService.getOrLoadObjectAsync(KEY,
+                () -> CompletableFuture.completedFuture(new CacheService.Typed<>(CompactMetroDto.of(lines), json, 8L * json.length())))
+                .join();
+    }
+
+    /** Previous getLinesJson hit: read the string, parse it, serialize the DTO again. */
+    @Benchmark
+    public String stringTierJson() throws IOException {
+        return objectMapper.writeValueAsString(objectMapper.readValue(cacheService.get(KEY), MetroDto.class));
+    }
+
+    /** Previous getLinesDto hit: read the string and parse it. */
+    @Benchmark
+    public MetroDto stringTierDto() throws IOException {
+        return objectMapper.readValue(cacheService.get(KEY), MetroDto.class);
+    }
+
+    @Benchmark
+    public String objectTierJson() {
+        CacheService.Typed<CompactMetroDto> hit = cacheService.<CompactMetroDto>getOrLoadObjectAsync(KEY, () -> null).join();
+        return hit.encoded();
+    }
+
+    @Benchmark
+    public MetroDto objectTierDto() {
+        CacheService.Typed<CompactMetroDto> hit = cacheService.<CompactMetroDto>getOrLoadObjectAsync(KEY, () -> null).join();
+        return hit.value().toDto();
+    }
+
+    /** TMB-like metro lines payload, shared with other benchmarks. */
+    public static MetroDto lines() {
+        MetroDto dto = new MetroDto();
+        dto.setType("FeatureCollection");
+        List<MetroDto.Feature> features = new ArrayList<>();
+        for (int l = 1; l <= 12; l++) {
+            MetroDto.Properties p = new MetroDto.Properties();
+            p.setID_LINIA(l);
+            p.setCODI_LINIA(l);
+            p.setNOM_LINIA("L" + l);
+            p.setDESC_LINIA("Origen " + l + " - Destí " + l);
+            p.setORIGEN_LINIA("Origen " + l);
+            p.setDESTI_LINIA("Destí " + l);
+            p.setNOM_OPERADOR("Metro");
+            p.setNOM_TIPUS_TRANSPORT("METRO");
+            p.setCOLOR_LINIA("CE1126");
+            p.setCOLOR_TEXT_LINIA("FFFFFF");
+            List<List<List<Double>>> parts = new ArrayList<>();
+            for (int part = 0; part < 2; part++) {
+                List<List<Double>> points = new ArrayList<>();
+                for (int i = 0; i < 150; i++) points.add(List.of(2.1 + i * 0.0007 + l * 0.001, 41.35 + i * 0.0005));
+                parts.add(points);
+            }
+            MetroDto.Geometry g = new MetroDto.Geometry();
+            g.setType("MultiLineString");
+            g.setCoordinates(parts);
+            MetroDto.Feature f = new MetroDto.Feature();
+            f.setType("Feature");
+            f.setId("LINIES_METRO." + l);
+            f.setGeometry(g);
+            f.setGeometry_name("GEOMETRY");
+            f.setProperties(p);
+            features.add(f);
+        }
+        dto.setFeatures(features);
+        return dto;
+    }
+}
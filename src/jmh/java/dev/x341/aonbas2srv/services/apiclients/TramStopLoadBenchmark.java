@@ -0,0 +1,103 @@
+package dev.x341.aonbas2srv.services.apiclients;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.x341.aonbas2srv.dto.Stop;
+import dev.x341.aonbas2srv.services.CacheService;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold {@link TramApiClient#getAllStops()} (cache cleared before every call) against a local stub of the
+ * paginated TRAM API that answers every page after {@code latencyMs}. Both networks hold {@code pages} full pages
+ * plus a short last one, so a sequential walk ({@code concurrency} 1) pays 2 * (pages + 1) round trips while the
+ * parallel fetch pays about (pages + 1) / window of them. Pages are decoded as they stream in; with
+ * -Pjmh.profilers=gc, gc.alloc.rate.norm is the allocation of one load.
+ * Run with: ./gradlew jmh -Pjmh.includes=TramStopLoadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+public class TramStopLoadBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1", "4", "8"})
+    public int concurrency;
+
+    @Param({"20"})
+    public int latencyMs;
+
+    @Param({"3"})
+    public int pages;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private CacheService cacheService;
+    private TramApiClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/stops", this::stops);
+        server.start();
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(64);
+        cacheService = new CacheService();
+        client = new TramApiClient(cacheService, new OkHttpClient.Builder().dispatcher(dispatcher).build(),
+                "http://127.0.0.1:" + server.getAddress().getPort(), concurrency);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Setup(Level.Invocation)
+    public void coldCache() {
+        cacheService.clear();
+    }
+
+    private void stops(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        int page = Integer.parseInt(query.replaceAll(".*page=(\\d+).*", "$1"));
+        String network = query.replaceAll(".*networkId=(\\d+).*", "$1");
+        int count = page < pages ? PAGE_SIZE : page == pages ? PAGE_SIZE / 2 : 0;
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            int n = page * PAGE_SIZE + i;
+            sb.append("{\"id\":").append(n).append(",\"gtfsCode\":\"N").append(network).append('-').append(n)
+                    .append("\",\"name\":\"Stop ").append(n).append("\",\"latitude\":41.4,\"longitude\":2.1}");
+        }
+        byte[] body = sb.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            Thread.sleep(latencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    @Benchmark
+    public List<Stop> loadAllStops() throws IOException {
+        return client.getAllStops();
+    }
+}
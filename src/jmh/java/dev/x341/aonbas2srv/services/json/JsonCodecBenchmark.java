@@ -0,0 +1,162 @@
+package dev.x341.aonbas2srv.services.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import dev.x341.aonbas2srv.dto.MetroDto;
+import dev.x341.aonbas2srv.dto.Stop;
+import dev.x341.aonbas2srv.services.MetroLinesCacheBenchmark;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The codec's hand-written adapters against the paths they replace: reflective Gson (handler, API clients,
+ * {@code Stop.toJson}), Jackson (the web metro JSON) and, for stops, the JsonObject tree walk of the old
+ * {@code Stop.fromJson}. The metro payload is the lines list of {@link MetroLinesCacheBenchmark}; the stop payload
+ * is about as many stops as both TRAM networks publish.
+ * Run with: ./gradlew jmh -Pjmh.includes=JsonCodecBenchmark -Pjmh.profilers=gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonCodecBenchmark {
+
+    private final JsonCodec codec = new JsonCodec();
+    private final Gson gson = new Gson();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MetroDto lines;
+    private String linesJson;
+    private List<Stop> stops;
+    private String stopsJson;
+
+    @Setup
+    public void setup() {
+        lines = MetroLinesCacheBenchmark.lines();
+        linesJson = gson.toJson(lines);
+        stops = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Stop s = new Stop();
+            s.setName("Parada " + i);
+            s.setDescription("Descripció de la parada " + i);
+            s.setLatitude(41.38 + i * 0.0007);
+            s.setLongitude(2.13 + i * 0.0009);
+            s.setOutboundCode(1000 + i);
+            s.setReturnCode(2000 + i);
+            s.setGtfsCode("S" + i);
+            s.setOrder(i);
+            s.setImage("https://opendata.tram.cat/img/" + i + ".jpg");
+            s.setId(i);
+            stops.add(s);
+        }
+        stopsJson = gson.toJson(stops);
+    }
+
+    // -------------------- METRO LINES --------------------
+    @Benchmark
+    public String metroEncodeCodec() {
+        return codec.toJson(lines);
+    }
+
+    @Benchmark
+    public String metroEncodeGson() {
+        return gson.toJson(lines);
+    }
+
+    /** The web variant's format, which is what Jackson used to produce. */
+    @Benchmark
+    public String metroEncodeCodecWeb() {
+        return codec.toWebJson(lines);
+    }
+
+    @Benchmark
+    public String metroEncodeJackson() throws IOException {
+        return objectMapper.writeValueAsString(lines);
+    }
+
+    /** Encoding into a pooled buffer, as the handler does for bodies it does not keep as a String. */
+    @Benchmark
+    public int metroEncodeCodecByteBuf() {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            codec.write(lines, buf);
+            return buf.readableBytes();
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Benchmark
+    public MetroDto metroDecodeCodec() {
+        return codec.fromJson(linesJson, MetroDto.class);
+    }
+
+    @Benchmark
+    public MetroDto metroDecodeGson() {
+        return gson.fromJson(linesJson, MetroDto.class);
+    }
+
+    @Benchmark
+    public MetroDto metroDecodeJackson() throws IOException {
+        return objectMapper.readValue(linesJson, MetroDto.class);
+    }
+
+    // -------------------- STOPS --------------------
+    @Benchmark
+    public String stopsEncodeCodec() {
+        return codec.toJson(stops);
+    }
+
+    @Benchmark
+    public String stopsEncodeGson() {
+        return gson.toJson(stops);
+    }
+
+    @Benchmark
+    public List<Stop> stopsDecodeCodec() {
+        return codec.readStops(new StringReader(stopsJson));
+    }
+
+    /** The previous parse: a JsonArray tree, then a multi-key lookup per field of every stop. */
+    @Benchmark
+    public List<Stop> stopsDecodeTree() {
+        List<Stop> out = new ArrayList<>();
+        for (JsonElement el : JsonParser.parseString(stopsJson).getAsJsonArray()) out.add(treeStop(el));
+        return out;
+    }
+
+    private static Stop treeStop(JsonElement el) {
+        JsonObject obj = el.getAsJsonObject();
+        Stop stop = new Stop();
+        stop.setName(string(obj, "name"));
+        stop.setDescription(string(obj, "description"));
+        stop.setLatitude(number(obj, "latitude", "lat"));
+        stop.setLongitude(number(obj, "longitude", "lon", "lng"));
+        stop.setOutboundCode((int) number(obj, "outboundCode", "outbound_code"));
+        stop.setReturnCode((int) number(obj, "returnCode", "return_code"));
+        stop.setGtfsCode(string(obj, "gtfsCode", "gtfs_id", "gtfsId", "code"));
+        stop.setOrder((int) number(obj, "order"));
+        stop.setImage(string(obj, "image", "img"));
+        stop.setId((int) number(obj, "id", "stopId"));
+        return stop;
+    }
+
+    private static String string(JsonObject obj, String... keys) {
+        for (String k : keys) if (obj.has(k) && !obj.get(k).isJsonNull()) return obj.get(k).getAsString();
+        return null;
+    }
+
+    private static double number(JsonObject obj, String... keys) {
+        for (String k : keys) if (obj.has(k) && !obj.get(k).isJsonNull()) return obj.get(k).getAsDouble();
+        return 0;
+    }
+}
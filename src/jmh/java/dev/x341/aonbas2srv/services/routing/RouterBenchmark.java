@@ -0,0 +1,64 @@
+package dev.x341.aonbas2srv.services.routing;
+
+import io.netty.handler.codec.http.HttpMethod;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route resolution cost: the compiled {@link Route#TABLE} trie against the previous
+ * split-and-compare chain that HttpServerHandler used to run per request.
+ * Run with: ./gradlew jmh -Pjmh.includes=RouterBenchmark (add -Pjmh.profilers=gc for allocation rates)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouterBenchmark {
+
+    @Param({
+            "/status",
+            "/metro/lines",
+            "/metro/line/3/station/319a325/corresp",
+            "/tram/line/T4/stop/GLORIES?x=1",
+            "/tram/does/not/exist"
+    })
+    public String uri;
+
+    @Benchmark
+    public void compiledTrie(Blackhole bh) {
+        RouteMatch<Route> m = Route.TABLE.match(HttpMethod.GET, uri);
+        if (m != null && m.paramCount() > 0) {
+            bh.consume(m.param(m.paramCount() - 1));
+        }
+        bh.consume(m);
+    }
+
+    @Benchmark
+    public void legacySplit(Blackhole bh) {
+        String path = uri.split("\\?")[0];
+        String[] seg = path.substring(1).split("/");
+        bh.consume(legacyRoute(path, seg));
+    }
+
+    /** The original per-request routing logic, reduced to returning which handler would run. */
+    private static Object legacyRoute(String path, String[] seg) {
+        if (path.equals("/status")) return Route.STATUS;
+        if (path.equals("/metro/lines")) return Route.METRO_LINES;
+        if (seg.length > 1 && "metro".equals(seg[0])) {
+            if (seg.length == 3 && "line".equals(seg[1])) return seg[2];
+            if (seg.length == 5 && "line".equals(seg[1]) && "station".equals(seg[3])) return seg[4];
+            if (seg.length == 6 && "line".equals(seg[1]) && "station".equals(seg[3]) && "corresp".equals(seg[5])) return seg[4];
+            return null;
+        }
+        if (seg.length > 0 && "tram".equals(seg[0])) {
+            if (seg.length == 1) return Route.TRAM_LINES;
+            if (seg.length == 3 && "line".equals(seg[1])) return seg[2];
+            if (seg.length == 5 && "line".equals(seg[1]) && "stop".equals(seg[3])) return seg[4];
+            if (seg.length == 2 && "codes".equals(seg[1])) return Route.TRAM_CODES;
+            if (seg.length == 3 && "check-missing".equals(seg[1])) return seg[2];
+            if (seg.length == 2 && "raw-stops".equals(seg[1])) return Route.TRAM_RAW_STOPS;
+        }
+        return null;
+    }
+}
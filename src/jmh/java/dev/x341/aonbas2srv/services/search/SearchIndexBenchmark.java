@@ -0,0 +1,53 @@
+package dev.x341.aonbas2srv.services.search;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typeahead latency distribution of {@link SearchIndex#search} over roughly as many places as TRAM and TMB publish
+ * together, one keystroke at a time. SampleTime reports the percentiles; p99 is what the endpoint has to keep low.
+ * Run with: ./gradlew jmh -Pjmh.includes=SearchIndexBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchIndexBenchmark {
+
+    private static final String[] WORDS = {
+            "Plaça", "de", "les", "Glòries", "Catalanes", "Sant", "Joan", "Passeig", "Gràcia", "Avinguda",
+            "Diagonal", "Francesc", "Macià", "Llacuna", "Poblenou", "Ciutadella", "Vila", "Olímpica", "Marina",
+            "Paral·lel", "Espanya", "Universitat", "Sagrada", "Família", "Verdaguer", "Besòs", "Mar", "Fabra",
+            "Puig", "Camp", "Nou", "Collblanc", "Hospital", "Clínic", "Maria", "Cristina", "Palau", "Reial"
+    };
+
+    @Param({"g", "glo", "plaça de", "passeig de gr", "zzz"})
+    public String query;
+
+    private SearchIndex index;
+
+    @Setup(Level.Trial)
+    public void build() {
+        Random rnd = new Random(42);
+        List<Place> places = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            int n = 1 + rnd.nextInt(4);
+            StringBuilder name = new StringBuilder();
+            for (int w = 0; w < n; w++) {
+                if (w > 0) name.append(' ');
+                name.append(WORDS[rnd.nextInt(WORDS.length)]);
+            }
+            String type = i % 3 == 0 ? Place.TRAM : Place.METRO;
+            places.add(new Place(type, String.valueOf(i), type + i, name.toString(), List.of(), 41.4, 2.18));
+        }
+        index = new SearchIndex(places);
+    }
+
+    @Benchmark
+    public List<Place> search() {
+        return index.search(query, 10);
+    }
+}
@@ -2,30 +2,32 @@ package dev.x341.aonbas2srv;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
-import dev.x341.aonbas2srv.services.HttpServerHandler;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import dev.x341.aonbas2srv.services.GtfsRtPoller;
 import dev.x341.aonbas2srv.services.ServerModule;
+import dev.x341.aonbas2srv.util.AOBConfig;
 import dev.x341.aonbas2srv.util.AOBConstants;
 import dev.x341.aonbas2srv.util.AOBLogger;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelInitializer;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpServerCodec;
-import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Application entry point for the server.
  *
  * Notes:
- * - This class currently uses NIO EventLoop groups for portability. Some Netty
- *   distributions may provide platform-specific implementations (Epoll, IO_URING) which
- *   offer better performance on Linux. If you add the native transport dependency, prefer
- *   to construct the platform-specific EventLoopGroup when available.
+ * - The transport is chosen at runtime (see {@link ServerTransport}): io_uring, then epoll, then NIO.
+ * - With SERVER_REUSEPORT on a native transport, one listener is bound per boss thread with SO_REUSEPORT
+ *   so the kernel spreads incoming connections across them instead of funnelling every accept through
+ *   a single thread.
+ * - Connections speak HTTP/1.1 and, unless SERVER_H2C is off, HTTP/2 via h2c upgrade or prior knowledge
+ *   (see {@link ServerInitializer}).
  */
 public class Main {
 
@@ -44,52 +46,53 @@ public class Main {
         Injector injector = Guice.createInjector(new ServerModule());
         AOBLogger.log("Guice Injector initialized");
 
-        int bossThreads = 1;
+        AOBConfig config = injector.getInstance(AOBConfig.class);
+        GtfsRtPoller gtfsRtPoller = injector.getInstance(GtfsRtPoller.class);
+        gtfsRtPoller.start();
+        ServerTransport transport = ServerTransport.select(config.getServerTransport());
+
+        boolean reusePort = config.isServerReusePort();
+        if (reusePort && !transport.supportsReusePort()) {
+            AOBLogger.log("SO_REUSEPORT requested but not supported by " + transport.id() + " transport, using a single listener");
+            reusePort = false;
+        }
+
+        int bossThreads = reusePort ? config.getServerListeners() : 1;
         int workerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() * 2);
 
-        EventLoopGroup bossGroup = createEventLoopGroup(bossThreads, "aon-boss");
-        EventLoopGroup workerGroup = createEventLoopGroup(workerThreads, "aon-worker");
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(bossThreads, "aon-boss");
+        EventLoopGroup workerGroup = transport.newEventLoopGroup(workerThreads, "aon-worker");
 
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel ch) {
-                            ch.pipeline().addLast(new HttpServerCodec());
-                            ch.pipeline().addLast(new HttpObjectAggregator(65536));
-
-                            ch.pipeline().addLast(injector.getInstance(HttpServerHandler.class));
-                        }
-                    })
+                    .channel(transport.serverChannelClass())
+                    .childHandler(injector.getInstance(ServerInitializer.class))
                     .option(ChannelOption.SO_BACKLOG, 128)
                     .childOption(ChannelOption.SO_KEEPALIVE, true);
+            if (reusePort) {
+                b.option(transport.reusePortOption(), true);
+            }
 
             int port = AOBConstants.DEFAULT_PORT;
-            ChannelFuture f = b.bind(port).sync();
-            AOBLogger.log("Server started on port " + port);
+            // Each bind registers its listener on the next boss loop, so N binds give N accepting threads
+            List<Channel> listeners = new ArrayList<>(bossThreads);
+            for (int i = 0; i < bossThreads; i++) {
+                listeners.add(b.bind(port).sync().channel());
+            }
+            AOBLogger.log("Server started on port " + port + " using " + transport.id() + " transport ("
+                    + listeners.size() + (reusePort ? " SO_REUSEPORT listeners" : " listener") + ", "
+                    + workerThreads + " workers, " + (config.isServerH2c() ? "HTTP/1.1 + h2c" : "HTTP/1.1") + ")");
 
-            f.channel().closeFuture().sync();
+            for (Channel listener : listeners) {
+                listener.closeFuture().sync();
+            }
         } finally {
             workerGroup.shutdownGracefully();
             bossGroup.shutdownGracefully();
+            gtfsRtPoller.stop();
+            injector.getInstance(Key.get(ExecutorService.class, Names.named(AOBConstants.HANDLER_EXECUTOR))).shutdown();
             AOBLogger.log("Server shut down.");
         }
     }
-
-    /**
-     * Helper to construct an EventLoopGroup. We suppress the deprecation annotation locally
-     * to avoid IDE warnings while keeping runtime behavior unchanged. If you add a native
-     * transport (epoll, io_uring), replace this implementation to return the platform-optimized
-     * EventLoopGroup when available.
-     *
-     * @param threads number of threads
-     * @param namePrefix thread name prefix
-     * @return constructed EventLoopGroup
-     */
-    @SuppressWarnings("deprecation")
-    private static EventLoopGroup createEventLoopGroup(int threads, String namePrefix) {
-        return new NioEventLoopGroup(threads, new DefaultThreadFactory(namePrefix));
-    }
 }
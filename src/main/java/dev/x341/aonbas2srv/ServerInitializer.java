@@ -0,0 +1,111 @@
+package dev.x341.aonbas2srv;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import dev.x341.aonbas2srv.services.HttpServerHandler;
+import dev.x341.aonbas2srv.util.AOBConfig;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Per-connection pipeline.
+ * <p>
+ * With SERVER_H2C on (the default) a connection starts as HTTP/1.1 and can switch to HTTP/2 either through
+ * {@code Upgrade: h2c} or by opening with the HTTP/2 connection preface (prior knowledge). On HTTP/2 every
+ * stream gets its own child channel holding the same {@link HttpServerHandler} the HTTP/1.1 path uses, with
+ * frames converted to and from {@code FullHttpRequest}/{@code FullHttpResponse}, so routing is unchanged for
+ * both protocols.
+ */
+public class ServerInitializer extends ChannelInitializer<SocketChannel> {
+
+    static final int MAX_CONTENT_LENGTH = 65536;
+
+    private final Provider<HttpServerHandler> handlers;
+    private final boolean h2c;
+    private final Http2Settings http2Settings;
+
+    @Inject
+    public ServerInitializer(AOBConfig config, Provider<HttpServerHandler> handlers) {
+        this.handlers = handlers;
+        this.h2c = config.isServerH2c();
+        this.http2Settings = Http2Settings.defaultSettings()
+                .maxConcurrentStreams(config.getH2MaxConcurrentStreams())
+                .initialWindowSize(config.getH2InitialWindowSize())
+                .maxFrameSize(config.getH2MaxFrameSize())
+                .maxHeaderListSize(config.getH2MaxHeaderListSize());
+    }
+
+    @Override
+    protected void initChannel(SocketChannel ch) {
+        ChannelPipeline p = ch.pipeline();
+        if (!h2c) {
+            p.addLast(new HttpServerCodec());
+            p.addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+            p.addLast(handlers.get());
+            return;
+        }
+
+        HttpServerCodec httpCodec = new HttpServerCodec();
+        HttpServerUpgradeHandler.UpgradeCodecFactory upgradeCodecFactory = protocol ->
+                AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)
+                        ? new Http2ServerUpgradeCodec(http2FrameCodec(), http2MultiplexHandler())
+                        : null;
+        HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(httpCodec, upgradeCodecFactory, MAX_CONTENT_LENGTH);
+
+        // Handles both the h2c upgrade and a connection that opens with the HTTP/2 preface
+        p.addLast(new CleartextHttp2ServerUpgradeHandler(httpCodec, upgradeHandler, new ChannelInitializer<>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline().addLast(http2FrameCodec(), http2MultiplexHandler());
+            }
+        }));
+        // Reached only by plain HTTP/1.1 requests: swap in the regular aggregator + handler on the first one
+        p.addLast(new SimpleChannelInboundHandler<HttpMessage>() {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, HttpMessage msg) {
+                ChannelPipeline pipeline = ctx.pipeline();
+                pipeline.addAfter(ctx.name(), null, handlers.get());
+                pipeline.replace(this, null, new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+                ctx.fireChannelRead(ReferenceCountUtil.retain(msg));
+            }
+        });
+    }
+
+    private Http2FrameCodec http2FrameCodec() {
+        return Http2FrameCodecBuilder.forServer().initialSettings(http2Settings).build();
+    }
+
+    private Http2MultiplexHandler http2MultiplexHandler() {
+        return new Http2MultiplexHandler(new StreamInitializer());
+    }
+
+    /** Pipeline of one HTTP/2 stream: frames to HTTP objects, aggregated, then the usual handler. */
+    @ChannelHandler.Sharable
+    private final class StreamInitializer extends ChannelInitializer<Channel> {
+        @Override
+        protected void initChannel(Channel ch) {
+            ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(true));
+            ch.pipeline().addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+            ch.pipeline().addLast(handlers.get());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package dev.x341.aonbas2srv;
+
+import dev.x341.aonbas2srv.util.AOBLogger;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.IoHandlerFactory;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.uring.IoUring;
+import io.netty.channel.uring.IoUringIoHandler;
+import io.netty.channel.uring.IoUringServerSocketChannel;
+import io.netty.channel.unix.UnixChannelOption;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Netty transports the server can run on, in order of preference.
+ * <p>
+ * The native transports (io_uring, epoll) are only available on Linux with the matching native library
+ * on the classpath; NIO works everywhere and is the fallback.
+ */
+public enum ServerTransport {
+    IO_URING("io_uring") {
+        @Override public boolean isAvailable() { return IoUring.isAvailable(); }
+        @Override public Throwable unavailabilityCause() { return IoUring.unavailabilityCause(); }
+        @Override IoHandlerFactory ioHandlerFactory() { return IoUringIoHandler.newFactory(); }
+        @Override public Class<? extends ServerChannel> serverChannelClass() { return IoUringServerSocketChannel.class; }
+        @Override public ChannelOption<Boolean> reusePortOption() { return UnixChannelOption.SO_REUSEPORT; }
+    },
+    EPOLL("epoll") {
+        @Override public boolean isAvailable() { return Epoll.isAvailable(); }
+        @Override public Throwable unavailabilityCause() { return Epoll.unavailabilityCause(); }
+        @Override IoHandlerFactory ioHandlerFactory() { return EpollIoHandler.newFactory(); }
+        @Override public Class<? extends ServerChannel> serverChannelClass() { return EpollServerSocketChannel.class; }
+        @Override public ChannelOption<Boolean> reusePortOption() { return UnixChannelOption.SO_REUSEPORT; }
+    },
+    NIO("nio") {
+        @Override public boolean isAvailable() { return true; }
+        @Override public Throwable unavailabilityCause() { return null; }
+        @Override IoHandlerFactory ioHandlerFactory() { return NioIoHandler.newFactory(); }
+        @Override public Class<? extends ServerChannel> serverChannelClass() { return NioServerSocketChannel.class; }
+        @Override public ChannelOption<Boolean> reusePortOption() { return null; }
+    };
+
+    private final String id;
+
+    ServerTransport(String id) {
+        this.id = id;
+    }
+
+    public String id() { return id; }
+
+    public abstract boolean isAvailable();
+
+    /**
+     * @return why the transport cannot be used on this host, or null if it is available
+     */
+    public abstract Throwable unavailabilityCause();
+
+    abstract IoHandlerFactory ioHandlerFactory();
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    /**
+     * @return the SO_REUSEPORT option for this transport, or null if it cannot shard listeners
+     */
+    public abstract ChannelOption<Boolean> reusePortOption();
+
+    public boolean supportsReusePort() {
+        return reusePortOption() != null;
+    }
+
+    /**
+     * Construct an EventLoopGroup backed by this transport's IO handler.
+     *
+     * @param threads number of threads
+     * @param namePrefix thread name prefix
+     * @return constructed EventLoopGroup
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, String namePrefix) {
+        return new MultiThreadIoEventLoopGroup(threads, new DefaultThreadFactory(namePrefix), ioHandlerFactory());
+    }
+
+    /**
+     * Pick the transport to run on. "auto" (or null) tries io_uring, then epoll, then NIO. An explicit
+     * choice that is not available on this host falls back the same way and logs why.
+     *
+     * @param preferred "auto", "io_uring", "epoll" or "nio"
+     * @return the first available transport
+     */
+    public static ServerTransport select(String preferred) {
+        ServerTransport wanted = fromId(preferred);
+        if (wanted != null) {
+            if (wanted.isAvailable()) return wanted;
+            AOBLogger.log("Transport " + wanted.id + " unavailable: " + wanted.unavailabilityCause());
+        }
+        for (ServerTransport t : values()) {
+            if (t.isAvailable()) return t;
+            AOBLogger.debug("Transport " + t.id + " unavailable: " + t.unavailabilityCause());
+        }
+        return NIO;
+    }
+
+    private static ServerTransport fromId(String id) {
+        if (id == null) return null;
+        for (ServerTransport t : values()) {
+            if (t.id.equalsIgnoreCase(id.trim())) return t;
+        }
+        return null;
+    }
+}
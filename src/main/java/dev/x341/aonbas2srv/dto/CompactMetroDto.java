@@ -0,0 +1,387 @@
+package dev.x341.aonbas2srv.dto;
+
+import dev.x341.aonbas2srv.dto.MetroDto.Feature;
+import dev.x341.aonbas2srv.dto.MetroDto.Geometry;
+import dev.x341.aonbas2srv.dto.MetroDto.Properties;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compact, immutable copy of a {@link MetroDto} feature collection, as the metro lines and stations are cached.
+ * <p>
+ * Coordinates are packed into one {@code double[]}: per feature, an offset into it, the position size, and the
+ * sizes of the nested lists above the positions (lines, rings, polygons), so a MultiLineString costs 8 bytes per
+ * number instead of an ArrayList per point and a Double per number. Properties live in flat int slots and in indices
+ * into a table holding each distinct string once, so the line names, colours, operator and calendar types repeated
+ * on every feature are stored once per set. Coordinates that are not uniformly nested lists of numbers are kept as
+ * they are.
+ * <p>
+ * Code that reads a few properties uses the accessors. Code written against the DTO calls {@link #toDto()}, which
+ * builds the object graph on first use.
+ */
+public final class CompactMetroDto {
+
+    /** The int fields of {@link Properties}, in declaration order. */
+    public enum IntProperty {
+        ID_LINIA(Properties::getID_LINIA, Properties::setID_LINIA),
+        CODI_LINIA(Properties::getCODI_LINIA, Properties::setCODI_LINIA),
+        NUM_PAQUETS(Properties::getNUM_PAQUETS, Properties::setNUM_PAQUETS),
+        ID_OPERADOR(Properties::getID_OPERADOR, Properties::setID_OPERADOR),
+        CODI_FAMILIA(Properties::getCODI_FAMILIA, Properties::setCODI_FAMILIA),
+        ORDRE_FAMILIA(Properties::getORDRE_FAMILIA, Properties::setORDRE_FAMILIA),
+        ORDRE_LINIA(Properties::getORDRE_LINIA, Properties::setORDRE_LINIA),
+        ID_ESTACIO_LINIA(Properties::getID_ESTACIO_LINIA, Properties::setID_ESTACIO_LINIA),
+        CODI_ESTACIO_LINIA(Properties::getCODI_ESTACIO_LINIA, Properties::setCODI_ESTACIO_LINIA),
+        ID_ESTACIO(Properties::getID_ESTACIO, Properties::setID_ESTACIO),
+        CODI_ESTACIO(Properties::getCODI_ESTACIO, Properties::setCODI_ESTACIO),
+        ORDRE_ESTACIO(Properties::getORDRE_ESTACIO, Properties::setORDRE_ESTACIO);
+
+        private final ToIntFunction<Properties> getter;
+        private final ObjIntConsumer<Properties> setter;
+
+        IntProperty(ToIntFunction<Properties> getter, ObjIntConsumer<Properties> setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    /** The String fields of {@link Properties}, in declaration order. */
+    public enum StringProperty {
+        NOM_LINIA(Properties::getNOM_LINIA, Properties::setNOM_LINIA),
+        DESC_LINIA(Properties::getDESC_LINIA, Properties::setDESC_LINIA),
+        ORIGEN_LINIA(Properties::getORIGEN_LINIA, Properties::setORIGEN_LINIA),
+        DESTI_LINIA(Properties::getDESTI_LINIA, Properties::setDESTI_LINIA),
+        NOM_OPERADOR(Properties::getNOM_OPERADOR, Properties::setNOM_OPERADOR),
+        NOM_TIPUS_TRANSPORT(Properties::getNOM_TIPUS_TRANSPORT, Properties::setNOM_TIPUS_TRANSPORT),
+        NOM_FAMILIA(Properties::getNOM_FAMILIA, Properties::setNOM_FAMILIA),
+        CODI_TIPUS_CALENDARI(Properties::getCODI_TIPUS_CALENDARI, Properties::setCODI_TIPUS_CALENDARI),
+        NOM_TIPUS_CALENDARI(Properties::getNOM_TIPUS_CALENDARI, Properties::setNOM_TIPUS_CALENDARI),
+        DATA(Properties::getDATA, Properties::setDATA),
+        COLOR_LINIA(Properties::getCOLOR_LINIA, Properties::setCOLOR_LINIA),
+        COLOR_AUX_LINIA(Properties::getCOLOR_AUX_LINIA, Properties::setCOLOR_AUX_LINIA),
+        COLOR_TEXT_LINIA(Properties::getCOLOR_TEXT_LINIA, Properties::setCOLOR_TEXT_LINIA),
+        NOM_ESTACIO(Properties::getNOM_ESTACIO, Properties::setNOM_ESTACIO),
+        DESC_SERVEI(Properties::getDESC_SERVEI, Properties::setDESC_SERVEI),
+        ORIGEN_SERVEI(Properties::getORIGEN_SERVEI, Properties::setORIGEN_SERVEI),
+        DESTI_SERVEI(Properties::getDESTI_SERVEI, Properties::setDESTI_SERVEI),
+        NOM_TIPUS_ACCESSIBILITAT(Properties::getNOM_TIPUS_ACCESSIBILITAT, Properties::setNOM_TIPUS_ACCESSIBILITAT),
+        NOM_TIPUS_ESTAT(Properties::getNOM_TIPUS_ESTAT, Properties::setNOM_TIPUS_ESTAT),
+        DATA_INAUGURACIO(Properties::getDATA_INAUGURACIO, Properties::setDATA_INAUGURACIO),
+        PICTO(Properties::getPICTO, Properties::setPICTO);
+
+        private final Function<Properties, String> getter;
+        private final BiConsumer<Properties, String> setter;
+
+        StringProperty(Function<Properties, String> getter, BiConsumer<Properties, String> setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    private static final IntProperty[] INT_PROPERTIES = IntProperty.values();
+    private static final StringProperty[] STRING_PROPERTIES = StringProperty.values();
+
+    // Feature flags
+    private static final byte PRESENT = 1, HAS_GEOMETRY = 2, HAS_PROPERTIES = 4, PACKED = 8, RAW = 16;
+    // String slots of a feature and its geometry
+    private static final int TYPE = 0, ID = 1, GEOMETRY_NAME = 2, GEOMETRY_TYPE = 3, FEATURE_STRINGS = 4;
+
+    private final String type;
+    private final long timestamp;
+    private final List<MetroDto.Linia> linies;
+    private final boolean hasFeatures;
+    private final String[] table;          // each distinct string once; slots below hold indices, -1 for null
+    private final byte[] flags;
+    private final int[] featureStrings;    // FEATURE_STRINGS per feature
+    private final int[] ints;              // INT_PROPERTIES per feature
+    private final int[] strings;           // STRING_PROPERTIES per feature
+    private final double[] coords;         // every packed number, feature after feature
+    private final int[] coordStart;        // per feature, plus the end
+    private final int[] shape;             // sizes of the lists above the positions, depth first
+    private final int[] shapeStart;        // per feature, plus the end
+    private final byte[] depth;            // list levels above the positions: 0 Point, 1 LineString, 2 MultiLineString...
+    private final byte[] dimension;        // numbers per position
+    private final Object[] raw;            // coordinates that could not be packed, or null if there are none
+
+    private volatile SoftReference<MetroDto> view;
+
+    /** @return the compact form of {@code dto}, or null for null */
+    public static CompactMetroDto of(MetroDto dto) {
+        return dto != null ? new CompactMetroDto(dto) : null;
+    }
+
+    private CompactMetroDto(MetroDto dto) {
+        this.type = dto.getType();
+        this.timestamp = dto.getTimestamp();
+        this.linies = dto.getLinies();
+        List<Feature> features = dto.getFeatures();
+        this.hasFeatures = features != null;
+        int n = features != null ? features.size() : 0;
+
+        StringTable table = new StringTable();
+        this.flags = new byte[n];
+        this.featureStrings = new int[n * FEATURE_STRINGS];
+        this.ints = new int[n * INT_PROPERTIES.length];
+        this.strings = new int[n * STRING_PROPERTIES.length];
+        Arrays.fill(featureStrings, -1);
+        Arrays.fill(strings, -1);
+        this.coordStart = new int[n + 1];
+        this.shapeStart = new int[n + 1];
+        this.depth = new byte[n];
+        this.dimension = new byte[n];
+        Object[] raw = null;
+        DoubleList coords = new DoubleList();
+        IntList shape = new IntList();
+
+        for (int f = 0; f < n; f++) {
+            coordStart[f] = coords.size;
+            shapeStart[f] = shape.size;
+            Feature feature = features.get(f);
+            if (feature == null) continue;
+            byte flag = PRESENT;
+            int s = f * FEATURE_STRINGS;
+            featureStrings[s + TYPE] = table.index(feature.getType());
+            featureStrings[s + ID] = table.index(feature.getId());
+            featureStrings[s + GEOMETRY_NAME] = table.index(feature.getGeometry_name());
+
+            Properties p = feature.getProperties();
+            if (p != null) {
+                flag |= HAS_PROPERTIES;
+                for (IntProperty property : INT_PROPERTIES) {
+                    ints[f * INT_PROPERTIES.length + property.ordinal()] = property.getter.applyAsInt(p);
+                }
+                for (StringProperty property : STRING_PROPERTIES) {
+                    strings[f * STRING_PROPERTIES.length + property.ordinal()] = table.index(property.getter.apply(p));
+                }
+            }
+
+            Geometry g = feature.getGeometry();
+            if (g != null) {
+                flag |= HAS_GEOMETRY;
+                featureStrings[s + GEOMETRY_TYPE] = table.index(g.getType());
+                Object c = g.getCoordinates();
+                if (c != null) {
+                    if (pack(c, f, coords, shape)) {
+                        flag |= PACKED;
+                    } else {
+                        coords.size = coordStart[f];
+                        shape.size = shapeStart[f];
+                        if (raw == null) raw = new Object[n];
+                        raw[f] = c;
+                        flag |= RAW;
+                    }
+                }
+            }
+            flags[f] = flag;
+        }
+        coordStart[n] = coords.size;
+        shapeStart[n] = shape.size;
+        this.table = table.values.toArray(new String[0]);
+        this.coords = Arrays.copyOf(coords.values, coords.size);
+        this.shape = Arrays.copyOf(shape.values, shape.size);
+        this.raw = raw;
+    }
+
+    // -------------------- PACKING --------------------
+    /** Pack {@code coordinates} of feature {@code f} if they are uniformly nested lists of Doubles. */
+    private boolean pack(Object coordinates, int f, DoubleList coords, IntList shape) {
+        // Follow the first elements down to the first position to learn the nesting
+        int levels = 0;
+        Object node = coordinates;
+        while (node instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof List<?> first) {
+            node = first;
+            levels++;
+        }
+        if (!(node instanceof List<?> position) || position.isEmpty() || position.size() > Byte.MAX_VALUE
+                || levels > Byte.MAX_VALUE) {
+            return false;
+        }
+        depth[f] = (byte) levels;
+        dimension[f] = (byte) position.size();
+        return pack(coordinates, 0, levels, position.size(), coords, shape);
+    }
+
+    private static boolean pack(Object node, int level, int levels, int dim, DoubleList coords, IntList shape) {
+        if (!(node instanceof List<?> list)) return false;
+        if (level == levels) {
+            if (list.size() != dim) return false;
+            for (Object value : list) {
+                if (!(value instanceof Double d)) return false;
+                coords.add(d);
+            }
+            return true;
+        }
+        shape.add(list.size());
+        for (Object child : list) {
+            if (!pack(child, level + 1, levels, dim, coords, shape)) return false;
+        }
+        return true;
+    }
+
+    // -------------------- ACCESSORS --------------------
+    public String getType() { return type; }
+    public long getTimestamp() { return timestamp; }
+
+    /** Number of features; 0 when the collection has none. */
+    public int size() {
+        return flags.length;
+    }
+
+    /** Whether feature {@code f} has properties; without them every property reads as 0 or null. */
+    public boolean hasProperties(int f) {
+        return (flags[f] & HAS_PROPERTIES) != 0;
+    }
+
+    public int intProperty(int f, IntProperty property) {
+        return ints[f * INT_PROPERTIES.length + property.ordinal()];
+    }
+
+    public String stringProperty(int f, StringProperty property) {
+        return string(strings[f * STRING_PROPERTIES.length + property.ordinal()]);
+    }
+
+    /** [lon, lat] of feature {@code f} if its coordinates are a GeoJSON position, otherwise null. */
+    public double[] lonLat(int f) {
+        if ((flags[f] & PACKED) != 0) {
+            if (depth[f] != 0 || dimension[f] < 2) return null;
+            return new double[]{coords[coordStart[f]], coords[coordStart[f] + 1]};
+        }
+        if ((flags[f] & RAW) == 0 || !(raw[f] instanceof List<?> c) || c.size() < 2) return null;
+        if (!(c.get(0) instanceof Number lon) || !(c.get(1) instanceof Number lat)) return null;
+        return new double[]{lon.doubleValue(), lat.doubleValue()};
+    }
+
+    /** Rough heap held by this instance, in bytes: its arrays plus each distinct string once. */
+    public long estimatedBytes() {
+        long bytes = 96 + 16L * 12
+                + 8L * coords.length
+                + 4L * (featureStrings.length + ints.length + strings.length + coordStart.length + shape.length
+                        + shapeStart.length + table.length)
+                + 3L * flags.length;
+        for (String s : table) bytes += 40 + s.length();
+        if (raw != null) {
+            bytes += 4L * raw.length;
+            for (Object c : raw) bytes += rawBytes(c);
+        }
+        return bytes;
+    }
+
+    private static long rawBytes(Object node) {
+        if (node instanceof List<?> list) {
+            long bytes = 40 + 4L * list.size();
+            for (Object child : list) bytes += rawBytes(child);
+            return bytes;
+        }
+        return node != null ? 16 : 0;
+    }
+
+    // -------------------- LEGACY VIEW --------------------
+    /**
+     * The collection as a {@link MetroDto}, built on first use and kept while memory allows, so callers usually
+     * share one instance. It is equal to the DTO this was made from (same JSON); do not modify it.
+     */
+    public MetroDto toDto() {
+        SoftReference<MetroDto> ref = view;
+        MetroDto dto = ref != null ? ref.get() : null;
+        if (dto == null) {
+            dto = materialize();
+            view = new SoftReference<>(dto);
+        }
+        return dto;
+    }
+
+    private MetroDto materialize() {
+        MetroDto dto = new MetroDto();
+        dto.setType(type);
+        dto.setTimestamp(timestamp);
+        dto.setLinies(linies);
+        if (!hasFeatures) return dto;
+        List<Feature> features = new ArrayList<>(flags.length);
+        for (int f = 0; f < flags.length; f++) features.add(feature(f));
+        dto.setFeatures(features);
+        return dto;
+    }
+
+    private Feature feature(int f) {
+        if ((flags[f] & PRESENT) == 0) return null;
+        int s = f * FEATURE_STRINGS;
+        Feature feature = new Feature();
+        feature.setType(string(featureStrings[s + TYPE]));
+        feature.setId(string(featureStrings[s + ID]));
+        feature.setGeometry_name(string(featureStrings[s + GEOMETRY_NAME]));
+        if ((flags[f] & HAS_PROPERTIES) != 0) {
+            Properties p = new Properties();
+            for (IntProperty property : INT_PROPERTIES) property.setter.accept(p, intProperty(f, property));
+            for (StringProperty property : STRING_PROPERTIES) property.setter.accept(p, stringProperty(f, property));
+            feature.setProperties(p);
+        }
+        if ((flags[f] & HAS_GEOMETRY) != 0) {
+            Geometry g = new Geometry();
+            g.setType(string(featureStrings[s + GEOMETRY_TYPE]));
+            if ((flags[f] & PACKED) != 0) g.setCoordinates(unpack(0, depth[f], dimension[f], new int[]{shapeStart[f], coordStart[f]}));
+            else if ((flags[f] & RAW) != 0) g.setCoordinates(raw[f]);
+            feature.setGeometry(g);
+        }
+        return feature;
+    }
+
+    /** @param cursor next shape entry and next coordinate, advanced as they are used */
+    private List<Object> unpack(int level, int levels, int dim, int[] cursor) {
+        if (level == levels) {
+            List<Object> position = new ArrayList<>(dim);
+            for (int i = 0; i < dim; i++) position.add(coords[cursor[1]++]);
+            return position;
+        }
+        int n = shape[cursor[0]++];
+        List<Object> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) list.add(unpack(level + 1, levels, dim, cursor));
+        return list;
+    }
+
+    private String string(int index) {
+        return index >= 0 ? table[index] : null;
+    }
+
+    // -------------------- BUILD HELPERS --------------------
+    private static final class StringTable {
+        final Map<String, Integer> indices = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+
+        int index(String value) {
+            if (value == null) return -1;
+            return indices.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+    }
+
+    private static final class DoubleList {
+        double[] values = new double[256];
+        int size;
+
+        void add(double value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[64];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
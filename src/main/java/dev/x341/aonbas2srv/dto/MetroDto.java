@@ -62,7 +62,7 @@ public class MetroDto {
         private String CODI_TIPUS_CALENDARI; private String NOM_TIPUS_CALENDARI; private String DATA;
         private String COLOR_LINIA; private String COLOR_AUX_LINIA; private String COLOR_TEXT_LINIA;
         // MetroLineDto
-        private int ID_ESTACIO_LINIA; private int CODI_ESTACIO_LINIA; private int ID_ESTACIO; private String NOM_ESTACIO;
+        private int ID_ESTACIO_LINIA; private int CODI_ESTACIO_LINIA; private int ID_ESTACIO; private int CODI_ESTACIO; private String NOM_ESTACIO;
         private int ORDRE_ESTACIO; private String DESC_SERVEI; private String ORIGEN_SERVEI; private String DESTI_SERVEI;
         private String NOM_TIPUS_ACCESSIBILITAT; private String NOM_TIPUS_ESTAT; private String DATA_INAUGURACIO;
         private String PICTO;
@@ -90,6 +90,7 @@ public class MetroDto {
         public int getID_ESTACIO_LINIA() { return ID_ESTACIO_LINIA; } public void setID_ESTACIO_LINIA(int ID_ESTACIO_LINIA) { this.ID_ESTACIO_LINIA = ID_ESTACIO_LINIA; }
         public int getCODI_ESTACIO_LINIA() { return CODI_ESTACIO_LINIA; } public void setCODI_ESTACIO_LINIA(int CODI_ESTACIO_LINIA) { this.CODI_ESTACIO_LINIA = CODI_ESTACIO_LINIA; }
         public int getID_ESTACIO() { return ID_ESTACIO; } public void setID_ESTACIO(int ID_ESTACIO) { this.ID_ESTACIO = ID_ESTACIO; }
+        public int getCODI_ESTACIO() { return CODI_ESTACIO; } public void setCODI_ESTACIO(int CODI_ESTACIO) { this.CODI_ESTACIO = CODI_ESTACIO; }
         public String getNOM_ESTACIO() { return NOM_ESTACIO; } public void setNOM_ESTACIO(String NOM_ESTACIO) { this.NOM_ESTACIO = NOM_ESTACIO; }
         public int getORDRE_ESTACIO() { return ORDRE_ESTACIO; } public void setORDRE_ESTACIO(int ORDRE_ESTACIO) { this.ORDRE_ESTACIO = ORDRE_ESTACIO; }
         public String getDESC_SERVEI() { return DESC_SERVEI; } public void setDESC_SERVEI(String DESC_SERVEI) { this.DESC_SERVEI = DESC_SERVEI; }
@@ -0,0 +1,57 @@
+package dev.x341.aonbas2srv.dto;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * GTFS-RT data of one TRAM network: the trip-update feed and the vehicle-position feed as they were parsed.
+ * {@link #getEntityList()} is a read-only view over both entity lists (trip updates first), so merging them
+ * copies no entities.
+ */
+public final class RealtimeFeed {
+    private final FeedMessage tripUpdates;
+    private final FeedMessage vehiclePositions;
+    private final long timestamp;
+    private final List<FeedEntity> entities;
+
+    /**
+     * @param tripUpdates parsed /gtfsrealtime feed
+     * @param vehiclePositions parsed /gtfsrealtime/vehicleUpdate feed
+     * @param timestamp when both were fetched, in POSIX seconds
+     */
+    public RealtimeFeed(FeedMessage tripUpdates, FeedMessage vehiclePositions, long timestamp) {
+        this.tripUpdates = tripUpdates;
+        this.vehiclePositions = vehiclePositions;
+        this.timestamp = timestamp;
+        List<FeedEntity> trips = tripUpdates.getEntityList();
+        List<FeedEntity> vehicles = vehiclePositions.getEntityList();
+        this.entities = new AbstractList<>() {
+            @Override
+            public FeedEntity get(int index) {
+                return index < trips.size() ? trips.get(index) : vehicles.get(index - trips.size());
+            }
+
+            @Override
+            public int size() {
+                return trips.size() + vehicles.size();
+            }
+        };
+    }
+
+    public FeedMessage getTripUpdates() { return tripUpdates; }
+    public FeedMessage getVehiclePositions() { return vehiclePositions; }
+    public long getTimestamp() { return timestamp; }
+
+    /** Entities of both feeds, trip updates first. */
+    public List<FeedEntity> getEntityList() { return entities; }
+
+    public int getEntityCount() { return entities.size(); }
+
+    /** Encoded size of both feeds, used to weigh cache entries. */
+    public int getSerializedSize() {
+        return tripUpdates.getSerializedSize() + vehiclePositions.getSerializedSize();
+    }
+}
@@ -0,0 +1,188 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import dev.x341.aonbas2srv.dto.RealtimeFeed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Upcoming arrivals of one network's GTFS-RT feed, grouped by stop id (upper case) and sorted by time. Built once
+ * per feed version so a stop lookup costs a hash probe plus a binary search instead of a scan of every
+ * StopTimeUpdate in the feed. Immutable; {@link #update} derives the index of the next feed version by redoing
+ * only the trips that changed and the stops they serve.
+ */
+public final class ArrivalIndex {
+
+    private static final Comparator<Arrival> BY_TIME = Comparator.comparingLong(Arrival::arrival);
+
+    /**
+     * One predicted arrival.
+     *
+     * @param network network the feed belongs to (e.g. TRAMBESOS)
+     * @param tripId GTFS trip id
+     * @param routeId GTFS route (line) id
+     * @param stopId stop id as it appears in the feed
+     * @param arrival predicted arrival, POSIX seconds
+     * @param delay delay in seconds if the feed reports one, else null
+     */
+    public record Arrival(String network, String tripId, String routeId, String stopId, long arrival, Integer delay) {}
+
+    /** A trip update as last seen and the arrivals it contributed. */
+    private record Trip(TripUpdate update, Arrival[] arrivals) {}
+
+    private final String network;
+    private final RealtimeFeed feed;
+    private final Map<String, Arrival[]> byStop;
+    private final Map<String, Trip> byTrip;
+    private final int size;
+    private final int changedTrips;
+
+    private ArrivalIndex(String network, RealtimeFeed feed, Map<String, Arrival[]> byStop, Map<String, Trip> byTrip,
+                         int size, int changedTrips) {
+        this.network = network;
+        this.feed = feed;
+        this.byStop = byStop;
+        this.byTrip = byTrip;
+        this.size = size;
+        this.changedTrips = changedTrips;
+    }
+
+    /**
+     * Index every stop time update with an arrival time in a feed.
+     *
+     * @param network network name recorded on each arrival
+     * @param feed the feed to index
+     * @return the index
+     */
+    public static ArrivalIndex build(String network, RealtimeFeed feed) {
+        return new ArrivalIndex(network, null, Map.of(), Map.of(), 0, 0).update(feed);
+    }
+
+    /**
+     * Index of a newer version of the same network's feed. Trips are matched by trip id (entity id when the trip
+     * has none); only trips that were added, removed or changed are re-read, and only the stops they serve get new
+     * arrival arrays, the rest are shared with this index.
+     *
+     * @param next the newer feed
+     * @return the index of {@code next}; this one is left untouched
+     */
+    public ArrivalIndex update(RealtimeFeed next) {
+        if (next == feed) return this;
+        Map<String, Trip> trips = new HashMap<>(Math.max(16, byTrip.size() * 2));
+        List<Trip> added = new ArrayList<>();
+        List<Trip> removed = new ArrayList<>();
+        for (FeedEntity entity : next.getEntityList()) {
+            if (!entity.hasTripUpdate()) continue;
+            TripUpdate update = entity.getTripUpdate();
+            String key = update.getTrip().getTripId().isEmpty() ? entity.getId() : update.getTrip().getTripId();
+            // A trip listed twice keeps both updates under distinct keys
+            if (trips.containsKey(key)) key = key + '\u0000' + entity.getId();
+            Trip old = byTrip.get(key);
+            if (old != null && old.update().equals(update)) {
+                trips.put(key, old);
+                continue;
+            }
+            Trip trip = new Trip(update, arrivals(update));
+            trips.put(key, trip);
+            added.add(trip);
+            if (old != null) removed.add(old);
+        }
+        for (Map.Entry<String, Trip> e : byTrip.entrySet()) {
+            if (!trips.containsKey(e.getKey())) removed.add(e.getValue());
+        }
+        if (added.isEmpty() && removed.isEmpty()) {
+            return new ArrivalIndex(network, next, byStop, trips, size, 0);
+        }
+
+        Set<Arrival> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<String, List<Arrival>> touched = new HashMap<>();
+        for (Trip trip : removed) {
+            for (Arrival a : trip.arrivals()) {
+                gone.add(a);
+                touched.computeIfAbsent(a.stopId().toUpperCase(), k -> new ArrayList<>());
+            }
+        }
+        for (Trip trip : added) {
+            for (Arrival a : trip.arrivals()) {
+                touched.computeIfAbsent(a.stopId().toUpperCase(), k -> new ArrayList<>()).add(a);
+            }
+        }
+        Map<String, Arrival[]> stops = new HashMap<>(byStop);
+        int newSize = size - gone.size();
+        for (Map.Entry<String, List<Arrival>> e : touched.entrySet()) {
+            List<Arrival> list = e.getValue();
+            newSize += list.size();
+            Arrival[] current = stops.get(e.getKey());
+            if (current != null) {
+                for (Arrival a : current) if (!gone.contains(a)) list.add(a);
+            }
+            if (list.isEmpty()) {
+                stops.remove(e.getKey());
+                continue;
+            }
+            Arrival[] arr = list.toArray(new Arrival[0]);
+            Arrays.sort(arr, BY_TIME);
+            stops.put(e.getKey(), arr);
+        }
+        return new ArrivalIndex(network, next, stops, trips, newSize, added.size() + removed.size());
+    }
+
+    private Arrival[] arrivals(TripUpdate trip) {
+        String tripId = trip.getTrip().getTripId();
+        String routeId = trip.getTrip().getRouteId();
+        List<Arrival> out = new ArrayList<>(trip.getStopTimeUpdateCount());
+        for (TripUpdate.StopTimeUpdate stu : trip.getStopTimeUpdateList()) {
+            if (!stu.hasStopId() || !stu.hasArrival()) continue;
+            long time = stu.getArrival().getTime();
+            if (time <= 0) continue;
+            Integer delay = stu.getArrival().hasDelay() ? stu.getArrival().getDelay() : null;
+            out.add(new Arrival(network, tripId, routeId, stu.getStopId(), time, delay));
+        }
+        return out.toArray(new Arrival[0]);
+    }
+
+    /** The feed this index was built from; a different instance means the index is outdated. */
+    public RealtimeFeed feed() { return feed; }
+
+    public String network() { return network; }
+
+    /** @return number of indexed arrivals */
+    public int size() { return size; }
+
+    /** @return trips added, removed or changed relative to the index this one was updated from */
+    public int changedTrips() { return changedTrips; }
+
+    /**
+     * Arrivals at a stop at or after a time, earliest first, appended to {@code out}.
+     *
+     * @param stopId stop id in any case
+     * @param fromSeconds POSIX seconds; earlier arrivals are skipped
+     * @param out receives the arrivals
+     */
+    public void arrivalsAt(String stopId, long fromSeconds, List<Arrival> out) {
+        if (stopId == null) return;
+        Arrival[] arr = byStop.get(stopId.toUpperCase());
+        if (arr == null) return;
+        int lo = 0, hi = arr.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (arr[mid].arrival() < fromSeconds) lo = mid + 1;
+            else hi = mid;
+        }
+        out.addAll(Arrays.asList(arr).subList(lo, arr.length));
+    }
+
+    /** Order a merged list of arrivals from several stops or networks. */
+    public static void sort(List<Arrival> arrivals) {
+        arrivals.sort(BY_TIME);
+    }
+}
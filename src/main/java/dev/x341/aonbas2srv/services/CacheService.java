@@ -1,74 +1,380 @@
 package dev.x341.aonbas2srv.services;
 
-import com.google.transit.realtime.GtfsRealtime;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.inject.Inject;
+import dev.x341.aonbas2srv.dto.RealtimeFeed;
+import dev.x341.aonbas2srv.util.AOBConfig;
 import dev.x341.aonbas2srv.util.AOBLogger;
+import dev.x341.aonbas2srv.util.Futures;
+import dev.x341.aonbas2srv.util.SingleFlight;
 
-import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
- * Simple small in-memory cache used to store recent API responses and tokens.
+ * In-memory cache for recent API responses, GTFS-RT feeds, parsed API objects and tokens, shared by every handler
+ * thread.
  * <p>
- * The cache keeps up to MAX_API_CALLS entries and evicts the eldest entry when capacity is exceeded.
+ * All maps are Caffeine caches: lock-free reads, bounded by the approximate bytes they hold (CACHE_MAX_MB,
+ * GTFS_CACHE_MAX_MB and OBJECT_CACHE_MAX_MB) rather than an entry count, with W-TinyLFU deciding what to keep, so a burst of one-off
+ * keys (stations of rarely requested lines) no longer pushes out hot entries such as the line list. Each entry
+ * expires after its own TTL. The tram token weighs nothing and is never evicted for size.
+ * <p>
+ * The object tier ({@link #getOrLoadObjectAsync}) holds {@link Typed} values: a parsed DTO together with its
+ * encoded JSON, so a hit hands out both without parsing or serializing anything.
+ * <p>
+ * Entries stored through {@link #getOrLoadAsync} also have a stale grace period after their TTL. Within it the old
+ * value is still returned straight away while a single background refresh runs; if the refresh fails the old
+ * value keeps being served until the grace period ends (stale-while-revalidate / stale-if-error).
+ * <p>
+ * Loads are single-flight per key: when many requests miss the same key at once (e.g. a popular station's train
+ * times right after they expire) one of them calls upstream and the rest join its result.
+ * {@link #upstreamStats()} reports how many upstream calls each key caused and how many callers shared them.
+ * <p>
+ * Misses return a future completing when the {@link AsyncLoader}'s call does, so no thread waits on upstream.
+ * {@link #getOrLoad} only adapts a blocking loader and waits on that same path.
+ * <p>
+ * Every stored value gets a new version number; {@link #stamp(String)} exposes it so derived data (e.g. encoded
+ * HTTP responses) can tell whether it is still current, and invalidation listeners hear about every key that is
+ * replaced, removed, evicted or expired.
  */
 public class CacheService {
 
-    private static final int MAX_API_CALLS = 10;
+    private static final int DEFAULT_MAX_MB = 64;
+    private static final int DEFAULT_GTFS_MAX_MB = 32;
+    private static final int DEFAULT_OBJECT_MAX_MB = 32;
+    private static final int DEFAULT_TTL_SECONDS = 31536000;
     private static final String TRAM_TOKEN_KEY = "tram_access_token";
+    // Rough per-entry cost of the entry object, key object and Caffeine node
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+    // After a failed background refresh, wait this long before letting another request retry it
+    private static final long REFRESH_RETRY_MILLIS = 2000;
+
+    /**
+     * Produces a fresh value for a key, usually by calling an upstream API.
+     *
+     * @param <T> value type
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        /**
+         * @return the value, or null if there is nothing to cache
+         */
+        T load() throws IOException;
+    }
 
-    private final Map<String, ApiCacheEntry> apiCache;
+    /**
+     * Starts producing a fresh value for a key without blocking, usually by enqueueing an upstream call.
+     *
+     * @param <T> value type
+     */
+    @FunctionalInterface
+    public interface AsyncLoader<T> {
+        /**
+         * @return future completing with the value (null if there is nothing to cache) or the load failure
+         */
+        CompletableFuture<T> load();
+    }
 
-    private final Map<String, GtfsCacheEntry> gtfsCache;
+    private final Cache<String, Entry<String>> apiCache;
+
+    private final Cache<String, Entry<RealtimeFeed>> gtfsCache;
+
+    private final Cache<String, Entry<Typed<?>>> objectCache;
+
+    private final AtomicLong versions = new AtomicLong();
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+    private final Executor refreshExecutor;
+    private final Map<String, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final SingleFlight<String> apiFlights = new SingleFlight<>();
+    private final SingleFlight<RealtimeFeed> gtfsFlights = new SingleFlight<>();
+    private final SingleFlight<Typed<?>> objectFlights = new SingleFlight<>();
 
     /**
-     * Create a CacheService instance with a bounded LinkedHashMap that evicts oldest entries when
-     * size exceeds MAX_API_CALLS.
+     * A parsed value held by the object tier, with its encoded form. Values are shared by every caller and must
+     * not be modified.
+     *
+     * @param value the parsed value
+     * @param encoded the value as JSON, or null if the owner does not keep one
+     * @param weight approximate bytes held by the value and its encoded form
+     * @param <T> value type
      */
+    public record Typed<T>(T value, String encoded, long weight) {}
+
+    @Inject
+    public CacheService(AOBConfig config) {
+        this(config.getCacheMaxMb() * 1024L * 1024L, config.getGtfsCacheMaxMb() * 1024L * 1024L,
+                config.getObjectCacheMaxMb() * 1024L * 1024L, newRefreshExecutor());
+    }
+
     public CacheService() {
-        this.apiCache = new LinkedHashMap<>(MAX_API_CALLS, 0.75f, false) {
-
-            /**
-             * Returns true if the oldest entry must be removed
-             *
-             * @param eldest the eldest entry in the map
-             * @return true if the map size exceeded the configured capacity
-             */
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, ApiCacheEntry> eldest) {
-                boolean remove = size() > MAX_API_CALLS;
-                if (remove) {
-                    AOBLogger.log("Removed old entry from cache: " + eldest.getKey());
-                }
-                return remove;
-            }
-        };
-        this.gtfsCache = new LinkedHashMap<>();
-        AOBLogger.log("Cache initialized with " + MAX_API_CALLS + " capacity.");
+        this(DEFAULT_MAX_MB * 1024L * 1024L, DEFAULT_GTFS_MAX_MB * 1024L * 1024L);
+    }
+
+    /**
+     * @param maxBytes weight bound for API responses and tokens
+     * @param gtfsMaxBytes weight bound for GTFS-RT feeds
+     */
+    public CacheService(long maxBytes, long gtfsMaxBytes) {
+        this(maxBytes, gtfsMaxBytes, newRefreshExecutor());
+    }
+
+    /**
+     * @param maxBytes weight bound for API responses and tokens
+     * @param gtfsMaxBytes weight bound for GTFS-RT feeds
+     * @param refreshExecutor runs background refreshes of stale entries
+     */
+    public CacheService(long maxBytes, long gtfsMaxBytes, Executor refreshExecutor) {
+        this(maxBytes, gtfsMaxBytes, DEFAULT_OBJECT_MAX_MB * 1024L * 1024L, refreshExecutor);
+    }
+
+    /**
+     * @param maxBytes weight bound for API responses and tokens
+     * @param gtfsMaxBytes weight bound for GTFS-RT feeds
+     * @param objectMaxBytes weight bound for parsed objects
+     * @param refreshExecutor runs background refreshes of stale entries
+     */
+    public CacheService(long maxBytes, long gtfsMaxBytes, long objectMaxBytes, Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+        // Removal callbacks run on the thread that caused them, like the listeners did before
+        this.apiCache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, Entry<String> e) ->
+                        TRAM_TOKEN_KEY.equals(key) ? 0 : ENTRY_OVERHEAD_BYTES + 2 * (key.length() + e.value.length()))
+                .expireAfter(new EntryExpiry<String>())
+                .executor(Runnable::run)
+                .removalListener(this::onRemoval)
+                .build();
+        this.gtfsCache = Caffeine.newBuilder()
+                .maximumWeight(gtfsMaxBytes)
+                .weigher((String key, Entry<RealtimeFeed> e) ->
+                        ENTRY_OVERHEAD_BYTES + 2 * key.length() + e.value.getSerializedSize())
+                .expireAfter(new EntryExpiry<RealtimeFeed>())
+                .executor(Runnable::run)
+                .removalListener(this::onRemoval)
+                .build();
+        this.objectCache = Caffeine.newBuilder()
+                .maximumWeight(objectMaxBytes)
+                .weigher((String key, Entry<Typed<?>> e) ->
+                        (int) Math.min(Integer.MAX_VALUE, ENTRY_OVERHEAD_BYTES + 2L * key.length() + e.value.weight()))
+                .expireAfter(new EntryExpiry<Typed<?>>())
+                .executor(Runnable::run)
+                .removalListener(this::onRemoval)
+                .build();
+        AOBLogger.log("Cache initialized with " + (maxBytes >> 20) + " MB for API responses, "
+                + (gtfsMaxBytes >> 20) + " MB for GTFS-RT feeds and " + (objectMaxBytes >> 20) + " MB for parsed objects.");
+    }
+
+    private static Executor newRefreshExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("aon-cache-refresh-", 0).factory());
     }
 
     /**
      * Retrieve a value from the cache by key.
      *
      * @param key the cache key
-     * @return the cached value or null if not present
+     * @return the cached value or null if not present or past its TTL
      */
     public String get(String key) {
-        ApiCacheEntry entry = apiCache.get(key);
+        Entry<String> entry = apiCache.getIfPresent(key);
+        if (entry != null && !entry.expired()) {
+            AOBLogger.debug("Cache hit for: " + key);
+            return entry.value;
+        }
+        return null;
+    }
+
+    /**
+     * Blocking {@link #getOrLoadAsync(String, int, int, AsyncLoader)} for callers with a blocking loader: the
+     * loader runs on the refresh executor, for misses as for background refreshes, and the caller waits for it.
+     *
+     * @param key the cache key
+     * @param ttlSeconds how long a loaded value is fresh
+     * @param graceSeconds how long after that it may still be served while refreshing or on upstream errors
+     * @param loader produces the value
+     * @return the value, or null if the loader returned null (which is not cached)
+     * @throws IOException if the load this caller waited for fails
+     */
+    public String getOrLoad(String key, int ttlSeconds, int graceSeconds, Loader<String> loader) throws IOException {
+        return Futures.await(getOrLoadAsync(key, ttlSeconds, graceSeconds, onRefreshExecutor(loader)));
+    }
+
+    /**
+     * Return the cached value for a key, loading it on a miss.
+     * <ul>
+     *   <li>Fresh entry: completes immediately with it.</li>
+     *   <li>Past its TTL but within the grace period: completes immediately with it, and one background refresh is
+     *       started (concurrent callers do not start more). A failed refresh leaves the old value in place.</li>
+     *   <li>Absent or past the grace period: completes when the (shared) load does, with its failure if it
+     *       fails.</li>
+     * </ul>
+     *
+     * @param key the cache key
+     * @param ttlSeconds how long a loaded value is fresh
+     * @param graceSeconds how long after that it may still be served while refreshing or on upstream errors
+     * @param loader starts the load
+     * @return future of the value, or of null if the loader produced null (which is not cached)
+     */
+    public CompletableFuture<String> getOrLoadAsync(String key, int ttlSeconds, int graceSeconds,
+                                                    AsyncLoader<String> loader) {
+        return getOrLoadAsync(apiCache, apiFlights, key, ttlSeconds, graceSeconds, loader);
+    }
+
+    /**
+     * {@link #getOrLoadAsync(String, int, int, AsyncLoader)} for values that practically never expire.
+     */
+    public CompletableFuture<String> getOrLoadAsync(String key, AsyncLoader<String> loader) {
+        return getOrLoadAsync(apiCache, apiFlights, key, DEFAULT_TTL_SECONDS, 0, loader);
+    }
+
+    /**
+     * {@link #getOrLoadAsync(String, int, int, AsyncLoader)} for GTFS-RT feeds.
+     */
+    public CompletableFuture<RealtimeFeed> getOrLoadGtfsRtAsync(String cacheKey, int ttlSeconds, int graceSeconds,
+                                                                AsyncLoader<RealtimeFeed> loader) {
+        return getOrLoadAsync(gtfsCache, gtfsFlights, cacheKey, ttlSeconds, graceSeconds, loader);
+    }
+
+    /**
+     * Load a GTFS-RT feed now and store it whether or not the cached one has expired, so callers of
+     * {@link #getOrLoadGtfsRtAsync} keep finding a fresh entry. A concurrent load of the same key is joined
+     * instead of started again. If the loader returns the instance already cached (the feed did not change), the
+     * entry's lifetime is renewed but it keeps its version.
+     *
+     * @return future of the stored feed, or of the load's failure (the cached entry is then left as it was)
+     */
+    public CompletableFuture<RealtimeFeed> refreshGtfsRtAsync(String cacheKey, int ttlSeconds, int graceSeconds,
+                                                              AsyncLoader<RealtimeFeed> loader) {
+        return gtfsFlights.executeAsync(cacheKey, () -> loader.load().thenApply(value -> {
+            if (value != null) {
+                Entry<RealtimeFeed> current = gtfsCache.policy().getIfPresentQuietly(cacheKey);
+                long version = current != null && current.value == value ? current.version : versions.incrementAndGet();
+                gtfsCache.put(cacheKey, new Entry<>(value, ttlSeconds, graceSeconds, version, loader));
+            }
+            return value;
+        }));
+    }
+
+    /**
+     * {@link #getOrLoadAsync(String, int, int, AsyncLoader)} for the object tier: a hit completes with the stored
+     * {@link Typed} instance itself, the same one until the entry is replaced.
+     *
+     * @return future of the value, or of null if the loader produced null (which is not cached)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<Typed<T>> getOrLoadObjectAsync(String key, int ttlSeconds, int graceSeconds,
+                                                                AsyncLoader<Typed<T>> loader) {
+        // Values of a key are only ever produced by its loader, so they have the loader's type
+        AsyncLoader<Typed<?>> untyped = (AsyncLoader<Typed<?>>) (AsyncLoader<?>) loader;
+        CompletableFuture<?> value = getOrLoadAsync(objectCache, objectFlights, key, ttlSeconds, graceSeconds, untyped);
+        return (CompletableFuture<Typed<T>>) value;
+    }
+
+    /**
+     * {@link #getOrLoadObjectAsync(String, int, int, AsyncLoader)} for values that practically never expire.
+     */
+    public <T> CompletableFuture<Typed<T>> getOrLoadObjectAsync(String key, AsyncLoader<Typed<T>> loader) {
+        return getOrLoadObjectAsync(key, DEFAULT_TTL_SECONDS, 0, loader);
+    }
+
+    private <T> CompletableFuture<T> getOrLoadAsync(Cache<String, Entry<T>> cache, SingleFlight<T> flights, String key,
+                                                    int ttlSeconds, int graceSeconds, AsyncLoader<T> loader) {
+        Entry<T> entry = cache.getIfPresent(key);
         if (entry != null) {
             if (!entry.expired()) {
-                AOBLogger.log("Cache hit for: " + key);
-                return entry.value;
-            } else {
-                apiCache.remove(key);
-                AOBLogger.log("Cache expired for: " + key);
+                AOBLogger.debug("Cache hit for: " + key);
+                return CompletableFuture.completedFuture(entry.value);
+            }
+            if (!entry.pastGrace()) {
+                AOBLogger.debug("Serving stale value for: " + key);
+                refreshInBackground(cache, flights, key, entry, loader);
+                return CompletableFuture.completedFuture(entry.value);
             }
         }
-        return null;
+        return flights.executeAsync(key, () -> {
+            Entry<T> current = cache.policy().getIfPresentQuietly(key);
+            if (current != null && !current.expired()) return CompletableFuture.completedFuture(current.value);
+            return loader.load().thenApply(value -> {
+                if (value != null) {
+                    cache.put(key, new Entry<>(value, ttlSeconds, graceSeconds, versions.incrementAndGet(), loader));
+                }
+                return value;
+            });
+        });
+    }
+
+    /** Run a blocking loader on the refresh executor so refreshes never block the caller that noticed staleness. */
+    private <T> AsyncLoader<T> onRefreshExecutor(Loader<T> loader) {
+        return () -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return loader.load();
+            } catch (IOException e) {
+                throw Futures.wrap(e);
+            }
+        }, refreshExecutor);
+    }
+
+    /**
+     * Start a background refresh of a key if its entry is past its TTL but still within its grace period, e.g.
+     * because a response derived from it was just served from elsewhere.
+     *
+     * @param key the cache key
+     */
+    public void revalidate(String key) {
+        Entry<String> entry = apiCache.policy().getIfPresentQuietly(key);
+        if (entry != null) {
+            if (entry.expired() && !entry.pastGrace()) refreshInBackground(apiCache, apiFlights, key, entry, entry.loader);
+            return;
+        }
+        Entry<Typed<?>> object = objectCache.policy().getIfPresentQuietly(key);
+        if (object != null) {
+            if (object.expired() && !object.pastGrace()) refreshInBackground(objectCache, objectFlights, key, object, object.loader);
+            return;
+        }
+        Entry<RealtimeFeed> gtfs = gtfsCache.policy().getIfPresentQuietly(key);
+        if (gtfs != null && gtfs.expired() && !gtfs.pastGrace()) refreshInBackground(gtfsCache, gtfsFlights, key, gtfs, gtfs.loader);
+    }
+
+    private <T> void refreshInBackground(Cache<String, Entry<T>> cache, SingleFlight<T> flights, String key,
+                                         Entry<T> stale, AsyncLoader<T> loader) {
+        if (loader == null || System.currentTimeMillis() < stale.retryAt) return;
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null) return;
+        // A loader that cannot even be started (e.g. refresh executor saturated) fails its future, handled below
+        flights.executeAsync(key, loader::load).whenComplete((value, error) -> {
+            try {
+                Throwable failure = error != null ? Futures.unwrap(error)
+                        : value == null ? new IOException("loader returned no value") : null;
+                if (failure != null) {
+                    stale.retryAt = System.currentTimeMillis() + REFRESH_RETRY_MILLIS;
+                    AOBLogger.error("Background refresh failed for " + key + ", serving stale value", failure);
+                    return;
+                }
+                Entry<T> fresh = new Entry<>(value, stale.ttlSeconds, stale.graceSeconds, versions.incrementAndGet(), loader);
+                // Keep whatever a concurrent put stored; only replace the entry we refreshed (or fill its gap)
+                cache.asMap().compute(key, (k, current) -> current == null || current == stale ? fresh : current);
+                AOBLogger.debug("Refreshed stale cache entry: " + key);
+            } finally {
+                refreshing.remove(key);
+            }
+        });
     }
 
     /**
      * Put a key/value pair into the cache with time to live. If the value is null the key will be removed.
-     * If the cache size exceeds capacity the oldest entry will be evicted automatically.
+     * If the cache exceeds its weight bound, the entries least likely to be used again are evicted.
      *
      * @param key the cache key
      * @param value the value to store, or null to remove the key
@@ -76,23 +382,23 @@ public class CacheService {
      */
     public void put(String key, String value, int ttlSeconds) {
         if (value == null) {
-            apiCache.remove(key);
+            apiCache.invalidate(key);
             AOBLogger.log("Cache REMOVE for key: " + key);
             return;
         }
-        apiCache.put(key, new ApiCacheEntry(value, ttlSeconds));
-        AOBLogger.log("Cache PUT for key: " + key + " with TTL " + ttlSeconds + "s");
+        apiCache.put(key, new Entry<>(value, ttlSeconds, 0, versions.incrementAndGet(), null));
+        AOBLogger.debug("Cache PUT for key: " + key + " with TTL " + ttlSeconds + "s");
     }
 
     /**
      * Put a key/value pair into the cache. If the value is null the key will be removed.
-     * If the cache size exceeds capacity the oldest entry will be evicted automatically.
+     * If the cache exceeds its weight bound, the entries least likely to be used again are evicted.
      *
      * @param key   the cache key
      * @param value the value to store, or null to remove the key
      */
     public void put(String key, String value) {
-        put(key, value, 31536000);
+        put(key, value, DEFAULT_TTL_SECONDS);
     }
 
     /**
@@ -104,7 +410,7 @@ public class CacheService {
      */
     public void putTramAccessToken(String token) {
         if (token == null) {
-            apiCache.remove(TRAM_TOKEN_KEY);
+            apiCache.invalidate(TRAM_TOKEN_KEY);
             AOBLogger.log("Tram access token removed from cache");
             return;
         }
@@ -119,74 +425,159 @@ public class CacheService {
      * @return the token if present, otherwise null
      */
     public String getTramAccessToken() {
-        ApiCacheEntry entry = apiCache.get(TRAM_TOKEN_KEY);
         return get(TRAM_TOKEN_KEY);
     }
     /**
-     * Clear all entries from the cache.
+     * Clear all entries from the cache, API responses and the objects parsed from them alike.
      */
     public void clear() {
-        apiCache.clear();
+        apiCache.invalidateAll();
+        objectCache.invalidateAll();
         AOBLogger.log("Cache cleared manually");
     }
 
+    /**
+     * Version and lifetime of a live cache entry.
+     *
+     * @param version unique, increasing number assigned when the value was stored
+     * @param storedAtMillis when the value was stored
+     * @param expiresAtMillis when the value stops being fresh
+     * @param staleUntilMillis when the value stops being served at all (equal to expiresAtMillis without grace)
+     */
+    public record Stamp(long version, long storedAtMillis, long expiresAtMillis, long staleUntilMillis) {}
 
-    private static class GtfsCacheEntry {
-        final GtfsRealtime.FeedMessage feed;
-        final long expiresAt;
-
-        GtfsCacheEntry(GtfsRealtime.FeedMessage feed, int ttlSecconds) {
-            this.feed = feed;
-            this.expiresAt = System.currentTimeMillis()/1000 + ttlSecconds;
+    /**
+     * Describe the current entry for a key without counting it as a hit. Works for API, object and GTFS-RT keys.
+     *
+     * @param key the cache key
+     * @return the entry's stamp, or null if the key is absent or past its grace period
+     */
+    public Stamp stamp(String key) {
+        Entry<String> entry = apiCache.policy().getIfPresentQuietly(key);
+        if (entry != null) {
+            return entry.pastGrace() ? null : entry.stamp();
         }
-
-        boolean expired() {
-            return System.currentTimeMillis()/1000 >= expiresAt;
+        Entry<Typed<?>> object = objectCache.policy().getIfPresentQuietly(key);
+        if (object != null) {
+            return object.pastGrace() ? null : object.stamp();
+        }
+        Entry<RealtimeFeed> gtfs = gtfsCache.policy().getIfPresentQuietly(key);
+        if (gtfs != null && !gtfs.pastGrace()) {
+            return gtfs.stamp();
         }
+        return null;
     }
 
     /**
-     * Get a GTFS-RT feed from cache if present and not expired.
-     * @param cacheKey network or identifier
-     * @return feed or null if not cached/expired
+     * Register a callback run with the key whenever an entry is replaced, removed, evicted or expired.
+     * Callbacks run on the thread that caused the change and must be quick.
+     *
+     * @param listener callback receiving the invalidated key
      */
-    public GtfsRealtime.FeedMessage getGtfsRt(String cacheKey) {
-        GtfsCacheEntry entry = gtfsCache.get(cacheKey);
-        if (entry != null) {
-            if (!entry.expired()) {
-                AOBLogger.log("GTFS-RT cache hit for " + cacheKey);
-                return entry.feed;
-            } else {
-                gtfsCache.remove(cacheKey);
-                AOBLogger.log("GTFS-RT cache expired for " + cacheKey);
-            }
-        }
-        return null;
+    public void addInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.add(listener);
     }
 
     /**
-     * Put a GTFS-RT feed into cache with TTL.
-     * @param cacheKey network or identifier
-     * @param feed feed to store
-     * @param ttlSeconds seconds until expiration
+     * @return cache key -> {"calls": upstream loads, "joined": callers that waited for another caller's load}
      */
-    public void putGtfsRt(String cacheKey, GtfsRealtime.FeedMessage feed, int ttlSeconds) {
-        gtfsCache.put(cacheKey, new GtfsCacheEntry(feed, ttlSeconds));
-        AOBLogger.log("GTFS-RT cached for " + cacheKey + "with TTL " + ttlSeconds + "s");
+    public Map<String, Map<String, Long>> upstreamStats() {
+        Map<String, Map<String, Long>> out = new TreeMap<>(apiFlights.stats());
+        out.putAll(objectFlights.stats());
+        out.putAll(gtfsFlights.stats());
+        return out;
     }
 
+    /**
+     * @return approximate bytes held by API entries, parsed objects and GTFS-RT feeds
+     */
+    public long weightedSize() {
+        long api = apiCache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L);
+        long objects = objectCache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L);
+        long gtfs = gtfsCache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L);
+        return api + objects + gtfs;
+    }
 
-    public static class ApiCacheEntry {
-        final String value;
-        final long ttlSeconds;
+    /** Run pending evictions and expirations now instead of on a later read or write. */
+    public void cleanUp() {
+        apiCache.cleanUp();
+        objectCache.cleanUp();
+        gtfsCache.cleanUp();
+    }
 
-        ApiCacheEntry(String value, int ttlSeconds) {
+    private void onRemoval(String key, Object value, RemovalCause cause) {
+        if (key == null) return;
+        switch (cause) {
+            case SIZE -> AOBLogger.debug("Evicted entry from cache: " + key);
+            case EXPIRED -> AOBLogger.debug("Cache expired for: " + key);
+            default -> { }
+        }
+        notifyInvalidated(key);
+    }
+
+    private void notifyInvalidated(String key) {
+        for (Consumer<String> l : invalidationListeners) {
+            try {
+                l.accept(key);
+            } catch (RuntimeException e) {
+                AOBLogger.error("Cache invalidation listener failed for " + key, e);
+            }
+        }
+    }
+
+    /**
+     * A cached value with its lifetime in wall-clock millis and, for loaded entries, the loader used to refresh it.
+     */
+    static final class Entry<T> {
+        final T value;
+        final long storedAt;
+        final long expiresAt;
+        final long staleUntil;
+        final long version;
+        final int ttlSeconds;
+        final int graceSeconds;
+        final AsyncLoader<T> loader;
+        volatile long retryAt;
+
+        Entry(T value, int ttlSeconds, int graceSeconds, long version, AsyncLoader<T> loader) {
             this.value = value;
-            this.ttlSeconds = System.currentTimeMillis() + (long)ttlSeconds * 1000L;
+            this.storedAt = System.currentTimeMillis();
+            this.expiresAt = storedAt + (long) ttlSeconds * 1000L;
+            this.staleUntil = expiresAt + (long) graceSeconds * 1000L;
+            this.version = version;
+            this.ttlSeconds = ttlSeconds;
+            this.graceSeconds = graceSeconds;
+            this.loader = loader;
         }
 
         boolean expired() {
-            return System.currentTimeMillis() >= ttlSeconds;
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+        boolean pastGrace() {
+            return System.currentTimeMillis() >= staleUntil;
+        }
+
+        Stamp stamp() {
+            return new Stamp(version, storedAt, expiresAt, staleUntil);
+        }
+    }
+
+    /** Caffeine expiry keeping each entry until the end of its grace period; reads do not extend it. */
+    private static final class EntryExpiry<T> implements Expiry<String, Entry<T>> {
+        @Override
+        public long expireAfterCreate(String key, Entry<T> entry, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, entry.staleUntil - System.currentTimeMillis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Entry<T> entry, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Entry<T> entry, long currentTime, long currentDuration) {
+            return currentDuration;
         }
     }
 }
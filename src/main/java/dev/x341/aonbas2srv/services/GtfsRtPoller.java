@@ -0,0 +1,145 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.inject.Inject;
+import dev.x341.aonbas2srv.dto.RealtimeFeed;
+import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import dev.x341.aonbas2srv.util.AOBConfig;
+import dev.x341.aonbas2srv.util.AOBLogger;
+import dev.x341.aonbas2srv.util.Futures;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the GTFS-RT feeds of both TRAM networks fresh in the background and maintains their {@link ArrivalIndex} and
+ * {@link VehicleIndex}.
+ * Every {@code GTFS_RT_POLL_SECONDS} each network's feeds are downloaded and cached; an unchanged download is
+ * recognised by {@link TramApiClient} (checksum / header timestamp) and costs no parsing or indexing, and a changed
+ * one updates the arrival index incrementally, per changed trip, and rebuilds the vehicle index only if the
+ * vehicleUpdate feed itself changed.
+ * <p>
+ * While polls succeed, requests read the current indexes without touching upstream. Before the first poll, with
+ * polling disabled, or once polls have been failing for a few intervals, they fall back to the cached feed.
+ */
+public class GtfsRtPoller {
+
+    public static final List<String> NETWORKS = List.of("TRAMBESOS", "TRAMBAIX");
+    // Polls that may fail in a row before requests stop trusting the index and go through the cache
+    private static final int MAX_MISSED_POLLS = 4;
+
+    private final TramApiClient apiClient;
+    private final int intervalSeconds;
+    private final Map<String, ArrivalIndex> indexes = new ConcurrentHashMap<>(); // network -> index of its latest feed
+    private final Map<String, VehicleIndex> vehicles = new ConcurrentHashMap<>(); // network -> vehicles of its latest feed
+    private final Map<String, Long> lastPolled = new ConcurrentHashMap<>(); // network -> last successful poll, millis
+    private final Map<String, Boolean> polling = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public GtfsRtPoller(TramApiClient apiClient, AOBConfig config) {
+        this(apiClient, config.getGtfsRtPollSeconds());
+    }
+
+    /**
+     * @param intervalSeconds seconds between polls of each network; 0 disables polling
+     */
+    public GtfsRtPoller(TramApiClient apiClient, int intervalSeconds) {
+        this.apiClient = apiClient;
+        this.intervalSeconds = Math.max(0, intervalSeconds);
+    }
+
+    /** Start polling (no-op if disabled or already started). The first poll of each network runs right away. */
+    public synchronized void start() {
+        if (intervalSeconds == 0 || scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("aon-gtfs-rt", true));
+        for (String network : NETWORKS) {
+            scheduler.scheduleWithFixedDelay(() -> poll(network), 0, intervalSeconds, TimeUnit.SECONDS);
+        }
+        AOBLogger.log("GTFS-RT poller started: every " + intervalSeconds + "s for " + NETWORKS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * Refresh one network's feed and index. Does nothing if the previous poll of the network is still running;
+     * the download completes on the HTTP client's threads, so the scheduler thread never waits on it.
+     *
+     * @return future completing with the network's index after the poll, or with the poll's failure
+     */
+    public CompletableFuture<ArrivalIndex> poll(String network) {
+        if (polling.putIfAbsent(network, Boolean.TRUE) != null) {
+            return CompletableFuture.completedFuture(indexes.get(network));
+        }
+        CompletableFuture<ArrivalIndex> result;
+        try {
+            result = apiClient.refreshGtfsrtDataAsync(network).thenApply(feed -> {
+                ArrivalIndex previous = indexes.get(network);
+                ArrivalIndex index = arrivalIndex(network, feed);
+                vehicleIndex(network, feed);
+                lastPolled.put(network, System.currentTimeMillis());
+                if (index != previous) {
+                    AOBLogger.debug("GTFS-RT " + network + ": " + index.changedTrips() + " trips changed, "
+                            + index.size() + " arrivals indexed");
+                }
+                return index;
+            });
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((index, error) -> {
+            polling.remove(network);
+            if (error != null) AOBLogger.error("GTFS-RT poll failed for " + network, Futures.unwrap(error));
+        });
+    }
+
+    /**
+     * Index for a network's feed: the current one if it was built from this feed instance, otherwise the current
+     * one updated to it (or a new one if there is none yet).
+     */
+    public ArrivalIndex arrivalIndex(String network, RealtimeFeed feed) {
+        ArrivalIndex current = indexes.get(network);
+        if (current != null && current.feed() == feed) return current;
+        return indexes.compute(network, (k, prev) -> prev == null ? ArrivalIndex.build(network, feed) : prev.update(feed));
+    }
+
+    /** Vehicle index for a network's feed, rebuilt only when its vehicleUpdate message is not the indexed one. */
+    public VehicleIndex vehicleIndex(String network, RealtimeFeed feed) {
+        VehicleIndex current = vehicles.get(network);
+        if (current != null && current.feed() == feed.getVehiclePositions()) return current;
+        return vehicles.compute(network, (k, prev) -> prev != null && prev.feed() == feed.getVehiclePositions()
+                ? prev : new VehicleIndex(network, feed.getVehiclePositions()));
+    }
+
+    /**
+     * Current index of a network. Completes immediately from the polled index while polling is healthy; otherwise
+     * from the cached feed, which may mean waiting for a download.
+     */
+    public CompletableFuture<ArrivalIndex> currentIndexAsync(String network) {
+        ArrivalIndex current = indexes.get(network);
+        if (current != null && pollingHealthy(network)) return CompletableFuture.completedFuture(current);
+        return apiClient.getGtfsrtDataAsync(network).thenApply(feed -> arrivalIndex(network, feed));
+    }
+
+    /** Current vehicle positions of a network, on the same terms as {@link #currentIndexAsync}. */
+    public CompletableFuture<VehicleIndex> currentVehiclesAsync(String network) {
+        VehicleIndex current = vehicles.get(network);
+        if (current != null && pollingHealthy(network)) return CompletableFuture.completedFuture(current);
+        return apiClient.getGtfsrtDataAsync(network).thenApply(feed -> vehicleIndex(network, feed));
+    }
+
+    private boolean pollingHealthy(String network) {
+        Long polled = lastPolled.get(network);
+        return polled != null && intervalSeconds > 0
+                && System.currentTimeMillis() - polled < MAX_MISSED_POLLS * intervalSeconds * 1000L;
+    }
+}
@@ -1,124 +1,433 @@
 package dev.x341.aonbas2srv.services;
 
-import com.google.gson.Gson;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import dev.x341.aonbas2srv.dto.MetroDto;
+import dev.x341.aonbas2srv.services.apiclients.TmbApiClient;
+import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import dev.x341.aonbas2srv.services.apiclients.UpstreamTimings;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
+import dev.x341.aonbas2srv.services.routing.Route;
+import dev.x341.aonbas2srv.services.routing.RouteMatch;
+import dev.x341.aonbas2srv.util.AOBConstants;
 import dev.x341.aonbas2srv.util.AOBLogger;
+import dev.x341.aonbas2srv.util.Futures;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
-import io.netty.util.CharsetUtil;
 
-import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * HTTP entry point. Requests are matched against the precompiled {@link Route#TABLE}. Routes that only
+ * touch in-memory state (e.g. /status) are answered directly on the event loop; everything that may reach
+ * TMB or TRAM is started from the handler executor through the services' asynchronous API, so no thread waits
+ * while the upstream call is in flight, and the response is written back on the channel's event loop once
+ * the returned future completes. Bodies of routes backed by a single cache entry are kept encoded in the
+ * {@link ResponseCache} and served from the event loop while that entry is unchanged.
+ * <p>
+ * Responses are gzip/deflate compressed according to Accept-Encoding: cached bodies use the variants stored in
+ * their snapshot, other large bodies are compressed on the handler executor, never on the event loop.
+ */
 public class HttpServerHandler extends SimpleChannelInboundHandler<HttpObject> {
 
     private final MetroService metroService;
     private final TramService tramService;
-    private static final Gson GSON = new Gson();
+    private final PlaceService placeService;
+    private final CacheService cacheService;
+    private final ResponseCache responseCache;
+    private final ResponseCompressor compressor;
+    private final UpstreamTimings upstreamTimings;
+    private final Executor executor;
+    private static final JsonCodec JSON = JsonCodec.shared();
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 50;
+    private static final int DEFAULT_RADIUS_METERS = 500;
+    private static final int MAX_RADIUS_METERS = 5_000;
 
     @Inject
-    public HttpServerHandler(MetroService metroService, TramService tramService) {
+    public HttpServerHandler(MetroService metroService, TramService tramService, PlaceService placeService,
+                             CacheService cacheService, ResponseCache responseCache, ResponseCompressor compressor,
+                             UpstreamTimings upstreamTimings, @Named(AOBConstants.HANDLER_EXECUTOR) Executor executor) {
         this.metroService = metroService;
         this.tramService = tramService;
+        this.placeService = placeService;
+        this.cacheService = cacheService;
+        this.responseCache = responseCache;
+        this.compressor = compressor;
+        this.upstreamTimings = upstreamTimings;
+        this.executor = executor;
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
         if (!(msg instanceof FullHttpRequest req)) return;
 
-        String uri = req.uri();
-        String path = uri.split("\\?")[0];
-        String[] segments = path.substring(1).split("/");
-
+        // The request is released when this method returns, so capture what the routes need up front
         boolean isApp = "app".equals(req.headers().get("X-Client-Type")); // <-- detect app
-        String content = "Not Found";
-        HttpResponseStatus status = HttpResponseStatus.NOT_FOUND;
-        String contentType = "text/plain";
+        boolean keepAlive = HttpUtil.isKeepAlive(req);
+        String ifNoneMatch = req.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+        ResponseCompressor.ContentEncoding encoding =
+                ResponseCompressor.negotiate(req.headers().get(HttpHeaderNames.ACCEPT_ENCODING));
+
+        RouteMatch<Route> match = Route.TABLE.match(req.method(), req.uri());
+        if (match == null) {
+            sendResponse(ctx, keepAlive, new HttpResult(HttpResponseStatus.NOT_FOUND, "Not Found", "text/plain"));
+            return;
+        }
+        if (!match.methodAllowed()) {
+            HttpResult result = new HttpResult(HttpResponseStatus.METHOD_NOT_ALLOWED, "Method Not Allowed", "text/plain");
+            result.headers().set(HttpHeaderNames.ALLOW, match.allow());
+            sendResponse(ctx, keepAlive, result);
+            return;
+        }
+
+        Route route = match.value();
+        if (!route.blocking()) {
+            sendResponse(ctx, keepAlive, dispatch(route, match, isApp));
+            return;
+        }
+
+        // Cached body for this exact route/variables/client: serve it from the event loop, no thread hop
+        String sourceKey = sourceKey(route, match);
+        String snapshotKey = sourceKey != null ? snapshotKey(route, match, isApp) : null;
+        if (snapshotKey != null) {
+            ResponseCache.Snapshot snap = responseCache.get(snapshotKey);
+            HttpResult cached = snap != null ? fromSnapshot(route, snap, ifNoneMatch, encoding) : null;
+            if (cached != null) {
+                sendResponse(ctx, keepAlive, cached);
+                return;
+            }
+        }
 
+        // Start the upstream calls from the executor and finish the response there too, but hold no thread while
+        // they are in flight: the service futures complete from the HTTP client's callbacks
+        CacheService.Stamp before = sourceKey != null ? responseCache.sourceStamp(sourceKey) : null;
         try {
-            if (path.equals("/status")) {
-                content = "Server is running";
-                status = HttpResponseStatus.OK;
-
-            } else if (path.equals("/metro/lines") && req.method().equals(HttpMethod.GET)) {
-                if (isApp) {
-                    MetroDto dto = metroService.getLinesDto();
-                    content = dto != null ? GSON.toJson(dto) : "{}"; // app recibe DTO
-                } else {
-                    content = metroService.getLinesJson(); // GET HTTP recibe JSON
+            CompletableFuture.supplyAsync(() -> dispatchAsync(route, match, isApp), executor)
+                    .thenCompose(f -> f)
+                    .thenApplyAsync(result -> {
+                        if (before != null && result.status().equals(HttpResponseStatus.OK)) {
+                            CacheService.Stamp after = responseCache.sourceStamp(sourceKey);
+                            if (after != null && after.version() == before.version()) {
+                                // The source entry did not change while we built the body, so it is safe to reuse
+                                ResponseCache.Snapshot snap = responseCache.put(snapshotKey, route.name(), sourceKey, before,
+                                        result.contentType(), result.content());
+                                HttpResult cached = snap != null ? fromSnapshot(route, snap, ifNoneMatch, encoding) : null;
+                                if (cached != null) result = cached;
+                            }
+                        }
+                        return result.body() == null ? compress(ctx, route, result, encoding) : result;
+                    }, executor)
+                    .exceptionally(e -> {
+                        if (Futures.unwrap(e) instanceof RejectedExecutionException) return busy(route);
+                        AOBLogger.error("Handler error", Futures.unwrap(e));
+                        return serverError();
+                    })
+                    .thenAccept(response -> ctx.executor().execute(() -> sendResponse(ctx, keepAlive, response)));
+        } catch (RejectedExecutionException e) {
+            sendResponse(ctx, keepAlive, busy(route));
+        }
+    }
+
+    private static HttpResult busy(Route route) {
+        AOBLogger.error("Handler executor saturated, rejecting " + route);
+        return new HttpResult(HttpResponseStatus.SERVICE_UNAVAILABLE,
+                "{\"error\":\"BUSY\",\"message\":\"Server busy, retry later\"}", "application/json");
+    }
+
+    private static HttpResult badRequest(String message) {
+        return new HttpResult(HttpResponseStatus.BAD_REQUEST,
+                "{\"error\":\"BAD_REQUEST\",\"message\":\"" + message + "\"}", "application/json");
+    }
+
+    private static HttpResult serverError() {
+        return new HttpResult(HttpResponseStatus.INTERNAL_SERVER_ERROR,
+                "{\"error\":\"SERVER_ERROR\",\"message\":\"Internal error\"}", "application/json");
+    }
+
+    /**
+     * Resolve a blocking route without waiting on upstream: routes with an asynchronous service API return its
+     * pending result, the rest are resolved with {@link #dispatch} on the calling (executor) thread.
+     */
+    private CompletableFuture<HttpResult> dispatchAsync(Route route, RouteMatch<Route> m, boolean isApp) {
+        CompletableFuture<String> body = switch (route) {
+            case METRO_LINES -> isApp
+                    ? metroService.getLinesDtoAsync().thenApply(dto -> dto != null ? JSON.toJson(dto) : "{}") // app recibe DTO
+                    : metroService.getLinesJsonAsync(); // GET HTTP recibe JSON
+            case METRO_LINE_STATIONS -> isApp
+                    ? metroService.getStationForLineDtoAsync(str(m, 0)).thenApply(JSON::toJson)
+                    : metroService.getStationForLineAsync(str(m, 0));
+            case METRO_STATION_TRAINS -> isApp
+                    ? metroService.getTrainTimesDtoAsync(str(m, 1)).thenApply(JSON::toJson)
+                    : metroService.getTrainTimesAsync(str(m, 1));
+            case METRO_INTERCHANGES -> isApp
+                    ? metroService.getInterchangesDtoAsync(str(m, 0), str(m, 1)).thenApply(JSON::toJson)
+                    : metroService.getInterchangesAsync(str(m, 0), str(m, 1));
+            case TRAM_LINES -> tramService.getLinesJsonAsync();
+            case TRAM_LINE_STOPS -> tramService.getStopsForLineAsync(str(m, 0)).thenApply(JSON::toJson);
+            case TRAM_STOP_TIMES -> tramService.getStopTimesAsync(str(m, 1));
+            case TRAM_VEHICLES, TRAM_LINE_VEHICLES -> {
+                String bbox = m.query("bbox");
+                double[] box = bbox(bbox);
+                yield bbox == null || box != null ? tramService.getVehiclesJsonAsync(vehicleLine(route, m), box) : null;
+            }
+            case SEARCH -> placeService.searchJsonAsync(searchQuery(m), limit(m));
+            case NEARBY -> {
+                Nearby q = nearby(m);
+                yield q != null ? placeService.nearbyJsonAsync(q.lat(), q.lon(), q.radius(), limit(m), q.arrivals()) : null;
+            }
+            default -> null;
+        };
+        if (body == null) return CompletableFuture.completedFuture(dispatch(route, m, isApp));
+        return body.handle((content, error) -> {
+            if (error == null) return json(content);
+            AOBLogger.error("Handler error", Futures.unwrap(error));
+            return serverError();
+        });
+    }
+
+    /**
+     * Resolve a matched route to its response. Blocking routes run on the handler executor and may wait
+     * on upstream APIs; the rest run on the event loop.
+     */
+    private HttpResult dispatch(Route route, RouteMatch<Route> m, boolean isApp) {
+        try {
+            return switch (route) {
+                case STATUS -> new HttpResult(HttpResponseStatus.OK, "Server is running", "text/plain");
+                case STATS_COMPRESSION -> jsonBody(compressor.statsSnapshot());
+                case STATS_UPSTREAM -> jsonBody(cacheService.upstreamStats());
+                case STATS_UPSTREAM_TIMINGS -> jsonBody(upstreamTimings.snapshot());
+                case METRO_LINES -> {
+                    if (isApp) {
+                        MetroDto dto = metroService.getLinesDto();
+                        yield json(dto != null ? JSON.toJson(dto) : "{}"); // app recibe DTO
+                    }
+                    yield json(metroService.getLinesJson()); // GET HTTP recibe JSON
                 }
-                status = HttpResponseStatus.OK;
-                contentType = "application/json";
-
-            } else if (segments.length > 1 && "metro".equals(segments[0])) {
-                content = handleMetroRoutes(req, segments, isApp);
-                if (content != null) {
-                    status = HttpResponseStatus.OK;
-                    contentType = "application/json";
+                case METRO_LINE_STATIONS -> json(isApp
+                        ? JSON.toJson(metroService.getStationForLineDto(str(m, 0)))
+                        : metroService.getStationForLine(str(m, 0)));
+                case METRO_STATION_TRAINS -> json(isApp
+                        ? JSON.toJson(metroService.getTrainTimesDto(str(m, 1)))
+                        : metroService.getTrainTimes(str(m, 1)));
+                case METRO_INTERCHANGES -> json(isApp
+                        ? JSON.toJson(metroService.getInterchangesDto(str(m, 0), str(m, 1)))
+                        : metroService.getInterchanges(str(m, 0), str(m, 1)));
+                case TRAM_LINES -> json(tramService.getLinesJson());
+                case TRAM_LINE_STOPS -> json(JSON.toJson(tramService.getStopsForLine(str(m, 0))));
+                case TRAM_STOP_TIMES -> json(tramService.getStopTimes(str(m, 1)));
+                case TRAM_VEHICLES, TRAM_LINE_VEHICLES -> {
+                    String bbox = m.query("bbox");
+                    double[] box = bbox(bbox);
+                    yield bbox == null || box != null
+                            ? json(tramService.getVehiclesJson(vehicleLine(route, m), box))
+                            : badRequest("bbox must be minLon,minLat,maxLon,maxLat");
                 }
-
-            } else if (segments.length > 0 && "tram".equals(segments[0])) {
-                content = handleTramRoutes(segments);
-                if (content != null) {
-                    status = HttpResponseStatus.OK;
-                    contentType = "application/json";
+                case TRAM_CODES -> json(JSON.toJson(tramService.listAllGtfsCodes()));
+                case TRAM_CHECK_MISSING -> json(JSON.toJson(tramService.findMissingStaticStopsInGtfsRt(str(m, 0))));
+                case TRAM_RAW_STOPS -> json("");
+                case SEARCH -> json(placeService.searchJson(searchQuery(m), limit(m)));
+                case NEARBY -> {
+                    Nearby q = nearby(m);
+                    yield q != null
+                            ? json(placeService.nearbyJson(q.lat(), q.lon(), q.radius(), limit(m), q.arrivals()))
+                            : badRequest("lat and lon are required; lat, lon and radius must be numbers");
                 }
-            }
+            };
         } catch (Exception e) {
             AOBLogger.error("Handler error", e);
-            status = HttpResponseStatus.INTERNAL_SERVER_ERROR;
-            content = "{\"error\":\"SERVER_ERROR\",\"message\":\"Internal error\"}";
-            contentType = "application/json";
+            return serverError();
         }
+    }
 
-        sendResponse(ctx, req, content, status, contentType);
+    private static HttpResult json(String content) {
+        return new HttpResult(HttpResponseStatus.OK, content, "application/json");
     }
 
-    private String handleMetroRoutes(FullHttpRequest req, String[] seg, boolean isApp) throws IOException {
-        if (seg.length == 3 && "line".equals(seg[1])) {
-            return isApp
-                    ? GSON.toJson(metroService.getStationForLineDto(seg[2]))
-                    : metroService.getStationForLine(seg[2]);
+    /**
+     * JSON response encoded straight into its body buffer, skipping the String; for event-loop routes whose bodies
+     * are neither cached nor compressed.
+     */
+    private static HttpResult jsonBody(Object value) {
+        ByteBuf body = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            JSON.write(value, body);
+        } catch (RuntimeException e) {
+            body.release();
+            throw e;
+        }
+        return new HttpResult(HttpResponseStatus.OK, null, "application/json", new DefaultHttpHeaders(), body);
+    }
 
-        } else if (seg.length == 5 && "line".equals(seg[1]) && "station".equals(seg[3])) {
-            if (isApp) {
-                return GSON.toJson(metroService.getTrainTimesDto(seg[4]));
-            } else {
-                return metroService.getTrainTimes(seg[4]);
-            }
+    /**
+     * Build a response from a snapshot: 304 if the client's If-None-Match already names the negotiated variant,
+     * otherwise the shared encoded body of that variant. Either way carries ETag/Cache-Control/Age.
+     *
+     * @return the response, or null if the snapshot was invalidated before its body could be borrowed
+     */
+    private HttpResult fromSnapshot(Route route, ResponseCache.Snapshot snap, String ifNoneMatch,
+                                    ResponseCompressor.ContentEncoding wanted) {
+        ResponseCompressor.ContentEncoding encoding = snap.select(wanted);
+        HttpHeaders headers = new DefaultHttpHeaders();
+        snap.applyCacheHeaders(headers, System.currentTimeMillis(), encoding);
+        headers.set(HttpHeaderNames.VARY, "X-Client-Type, Accept-Encoding");
+        if (ResponseCache.matchesIfNoneMatch(ifNoneMatch, snap.etag(encoding))) {
+            return new HttpResult(HttpResponseStatus.NOT_MODIFIED, null, snap.contentType(), headers, Unpooled.EMPTY_BUFFER);
+        }
+        ByteBuf body = snap.retainedContent(encoding);
+        if (body == null) return null;
+        compressor.recordServed(route.name(), encoding, snap.contentLength(), body.readableBytes());
+        return new HttpResult(HttpResponseStatus.OK, null, snap.contentType(), headers, body);
+    }
+
+    /**
+     * Compress a response that is not backed by a snapshot. Runs on the handler executor.
+     *
+     * @return the compressed response, or {@code result} unchanged if it is too small or does not shrink
+     */
+    private HttpResult compress(ChannelHandlerContext ctx, Route route, HttpResult result,
+                                ResponseCompressor.ContentEncoding encoding) {
+        if (encoding == ResponseCompressor.ContentEncoding.IDENTITY || result.content() == null) return result;
+        int length = ByteBufUtil.utf8Bytes(result.content());
+        if (!compressor.shouldCompress(length)) return result;
+
+        ByteBuf identity = ByteBufUtil.writeUtf8(ctx.alloc(), result.content());
+        ByteBuf compressed;
+        try {
+            compressed = compressor.compress(ctx.alloc(), identity, encoding, route.name());
+        } finally {
+            identity.release();
+        }
+        if (compressed == null) return result;
+        compressor.recordServed(route.name(), encoding, length, compressed.readableBytes());
+        result.headers().set(HttpHeaderNames.CONTENT_ENCODING, encoding.token());
+        result.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        return new HttpResult(result.status(), null, result.contentType(), result.headers(), compressed);
+    }
+
+    private static String str(RouteMatch<Route> m, int index) {
+        return m.param(index).toString();
+    }
+
+    private static String searchQuery(RouteMatch<Route> m) {
+        String q = m.query("q");
+        return q != null ? q : "";
+    }
+
+    /** The {@code limit} query parameter, clamped to 1..{@value #MAX_LIMIT}. */
+    private static int limit(RouteMatch<Route> m) {
+        String limit = m.query("limit");
+        if (limit == null || limit.isEmpty()) return DEFAULT_LIMIT;
+        try {
+            return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(limit)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    private static String vehicleLine(Route route, RouteMatch<Route> m) {
+        return route == Route.TRAM_LINE_VEHICLES ? str(m, 0) : null;
+    }
+
+    /**
+     * A {@code bbox} query parameter, "minLon,minLat,maxLon,maxLat" in decimal degrees as in GeoJSON.
+     *
+     * @return the four values in that order, or null if absent or malformed
+     */
+    private static double[] bbox(String bbox) {
+        if (bbox == null) return null;
+        String[] parts = bbox.split(",");
+        if (parts.length != 4) return null;
+        double[] box = new double[4];
+        try {
+            for (int i = 0; i < 4; i++) box[i] = Double.parseDouble(parts[i].trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!(box[0] <= box[2]) || !(box[1] <= box[3])) return null; // also rejects NaN
+        return box;
+    }
+
+    /** Parsed /nearby parameters. */
+    private record Nearby(double lat, double lon, int radius, boolean arrivals) {}
 
-        } else if (seg.length == 6 && "line".equals(seg[1]) && "station".equals(seg[3]) && "corresp".equals(seg[5])) {
-            if (isApp) {
-                return GSON.toJson(metroService.getInterchangesDto(seg[2], seg[4]));
-            } else {
-                return metroService.getInterchanges(seg[2], seg[4]);
+    /**
+     * The /nearby parameters: required {@code lat}/{@code lon}, {@code radius} in metres clamped to
+     * 1..{@value #MAX_RADIUS_METERS}, and {@code arrivals=true} to include next arrivals.
+     *
+     * @return the parameters, or null if lat/lon are missing or not valid coordinates
+     */
+    private static Nearby nearby(RouteMatch<Route> m) {
+        double lat, lon;
+        try {
+            lat = Double.parseDouble(String.valueOf(m.query("lat")));
+            lon = Double.parseDouble(String.valueOf(m.query("lon")));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (!(Math.abs(lat) <= 90) || !(Math.abs(lon) <= 180)) return null;
+        int radius = DEFAULT_RADIUS_METERS;
+        String r = m.query("radius");
+        if (r != null && !r.isEmpty()) {
+            try {
+                radius = Math.max(1, Math.min(MAX_RADIUS_METERS, Integer.parseInt(r)));
+            } catch (NumberFormatException e) {
+                return null;
             }
         }
-        return null;
+        String arrivals = m.query("arrivals");
+        return new Nearby(lat, lon, radius, "true".equals(arrivals) || "1".equals(arrivals));
     }
 
-    private String handleTramRoutes(String[] seg) throws IOException {
-        if (seg.length == 1) return tramService.getLinesJson();
-        if (seg.length == 3 && "line".equals(seg[1])) return GSON.toJson(tramService.getStopsForLine(seg[2]));
-        if (seg.length == 5 && "line".equals(seg[1]) && "stop".equals(seg[3])) return tramService.getStopTimes(seg[4]);
-        if (seg.length == 2 && "codes".equals(seg[1])) return GSON.toJson(tramService.listAllGtfsCodes());
-        if (seg.length == 3 && "check-missing".equals(seg[1])) return GSON.toJson(tramService.findMissingStaticStopsInGtfsRt(seg[2]));
-        if (seg.length == 2 && "raw-stops".equals(seg[1])) return "";
-        return null;
+    /**
+     * CacheService key whose value fully determines the route's response, or null if the route is not
+     * cacheable as a snapshot.
+     */
+    private static String sourceKey(Route route, RouteMatch<Route> m) {
+        return switch (route) {
+            case METRO_LINES -> MetroService.linesKey();
+            case METRO_LINE_STATIONS -> MetroService.stationsKey(str(m, 0));
+            case METRO_STATION_TRAINS -> TmbApiClient.trainsKey(str(m, 1));
+            case METRO_INTERCHANGES -> TmbApiClient.interchangesKey(str(m, 0), str(m, 1));
+            case TRAM_LINES -> TramApiClient.linesKey();
+            case TRAM_LINE_STOPS -> TramApiClient.lineStopsKey(str(m, 0));
+            default -> null;
+        };
     }
 
-    private void sendResponse(ChannelHandlerContext ctx, FullHttpRequest req, String content, HttpResponseStatus status, String contentType) {
-        FullHttpResponse response = new DefaultFullHttpResponse(
-                HttpVersion.HTTP_1_1, status,
-                Unpooled.copiedBuffer(content, CharsetUtil.UTF_8)
-        );
-        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
-        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+    private static String snapshotKey(Route route, RouteMatch<Route> m, boolean isApp) {
+        StringBuilder sb = new StringBuilder(64).append(route.name());
+        for (int i = 0; i < m.paramCount(); i++) sb.append('|').append(m.param(i));
+        return sb.append(isApp ? "|app" : "|web").toString();
+    }
+
+    private void sendResponse(ChannelHandlerContext ctx, boolean keepAlive, HttpResult result) {
+        ByteBuf body = result.body();
+        if (body == null) {
+            String content = result.content() != null ? result.content() : "";
+            body = ByteBufUtil.writeUtf8(ctx.alloc(), content);
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, result.status(), body);
+        response.headers().add(result.headers());
+        // A 304 has no body; Content-Length/Type would describe the cached representation, so leave them out
+        if (!HttpResponseStatus.NOT_MODIFIED.equals(result.status())) {
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, result.contentType());
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+        }
 
-        ctx.writeAndFlush(response);
-        if (!HttpUtil.isKeepAlive(req)) ctx.close();
+        if (keepAlive) {
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
     }
 
     @Override
@@ -127,6 +436,14 @@ public class HttpServerHandler extends SimpleChannelInboundHandler<HttpObject> {
         ctx.close();
     }
 
-    private record HttpResult(HttpResponseStatus status, String content) {}
+    /**
+     * Response to write. {@code body}, when set, is an already encoded (retained) buffer that takes precedence
+     * over {@code content}.
+     */
+    private record HttpResult(HttpResponseStatus status, String content, String contentType, HttpHeaders headers, ByteBuf body) {
+        HttpResult(HttpResponseStatus status, String content, String contentType) {
+            this(status, content, contentType, new DefaultHttpHeaders(), null);
+        }
+    }
     private static class OtpCreateRequest { String type; String payload; }
 }
@@ -1,105 +1,171 @@
 package dev.x341.aonbas2srv.services;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
+import dev.x341.aonbas2srv.dto.CompactMetroDto;
 import dev.x341.aonbas2srv.dto.MetroDto;
-import dev.x341.aonbas2srv.dto.MetroDto.Feature;
 import dev.x341.aonbas2srv.services.apiclients.TmbApiClient;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
 import dev.x341.aonbas2srv.util.AOBLogger;
-
-import java.io.IOException;
+import dev.x341.aonbas2srv.util.Futures;
+import java.util.concurrent.CompletableFuture;
 
 public class MetroService {
     private final TmbApiClient tmbApiClient;
     private final CacheService cacheService;
-    private final ObjectMapper objectMapper;
+    private final JsonCodec codec;
 
     private static final String KEY_LINES = "lines";
     private static final String KEY_STATIONS_PREFIX = "stations:";
 
+    /** Cache key holding the parsed metro lines and their JSON. */
+    public static String linesKey() { return KEY_LINES; }
+
+    /** Cache key holding the parsed stations of a metro line and their JSON. */
+    public static String stationsKey(String lineCode) { return KEY_STATIONS_PREFIX + lineCode; }
+
     @Inject
-    public MetroService(TmbApiClient tmbApiClient, CacheService cacheService, ObjectMapper objectMapper) {
+    public MetroService(TmbApiClient tmbApiClient, CacheService cacheService, JsonCodec codec) {
         this.tmbApiClient = tmbApiClient;
         this.cacheService = cacheService;
-        this.objectMapper = objectMapper;
+        this.codec = codec;
     }
 
+    // The *Async methods compose the upstream calls without blocking; failures are logged and complete with
+    // null DTOs ("{}"/"null" JSON), just like the blocking methods, which simply wait for them.
+    // The String methods give the web variant's JSON (JsonCodec.toWebJson); the app variant encodes the DTOs.
+
+    // Lines and stations live in the cache's object tier as a CompactMetroDto plus their JSON, both produced once
+    // per upstream load, so a hit neither parses nor serializes anything. The *Compact methods hand out the cached
+    // value; the DTO methods return its materialized view, which is shared and must not be modified.
+
     // -------------------- LINES --------------------
+    // Entries are refreshed in the background once expired; on upstream errors the last good value is served
+    private CompletableFuture<CacheService.Typed<CompactMetroDto>> linesAsync() {
+        return cacheService.getOrLoadObjectAsync(KEY_LINES, () -> tmbApiClient.getMetroLinesDtoAsync().thenApply(this::typed));
+    }
+
+    public CompletableFuture<CompactMetroDto> getLinesCompactAsync() {
+        return linesAsync().thenApply(MetroService::value)
+                .exceptionally(e -> logged("Error getting metro lines", e));
+    }
+
+    public CompletableFuture<MetroDto> getLinesDtoAsync() {
+        return getLinesCompactAsync().thenApply(MetroService::dto);
+    }
+
+    public CompletableFuture<String> getLinesJsonAsync() {
+        return linesAsync().thenApply(MetroService::encoded)
+                .exceptionally(e -> loggedJson("Error getting metro lines", e));
+    }
+
     public MetroDto getLinesDto() {
-        String cached = cacheService.get(KEY_LINES);
-        if (cached != null) {
-            try { return objectMapper.readValue(cached, MetroDto.class); }
-            catch (IOException e) { AOBLogger.error("Error parsing cached lines JSON", e); }
-        }
-        try {
-            MetroDto dto = tmbApiClient.getMetroLinesDto();
-            if (dto != null) cacheService.put(KEY_LINES, objectMapper.writeValueAsString(dto));
-            return dto;
-        } catch (IOException e) {
-            AOBLogger.error("Error getting metro lines", e);
-            if (cached != null) {
-                try { return objectMapper.readValue(cached, MetroDto.class); }
-                catch (IOException ex) { AOBLogger.error("Error parsing fallback cached lines JSON", ex); }
-            }
-            return null;
-        }
+        return getLinesDtoAsync().join();
     }
 
     public String getLinesJson() {
-        MetroDto dto = getLinesDto();
-        try { return objectMapper.writeValueAsString(dto); }
-        catch (IOException e) { AOBLogger.error("Error converting lines DTO to JSON", e); return "{}"; }
+        return getLinesJsonAsync().join();
     }
 
     // -------------------- STATIONS --------------------
+    private CompletableFuture<CacheService.Typed<CompactMetroDto>> stationsAsync(String lineCode) {
+        return cacheService.getOrLoadObjectAsync(stationsKey(lineCode),
+                () -> tmbApiClient.getStationsForLineDtoAsync(lineCode).thenApply(this::typed));
+    }
+
+    public CompletableFuture<CompactMetroDto> getStationForLineCompactAsync(String lineCode) {
+        return stationsAsync(lineCode).thenApply(MetroService::value)
+                .exceptionally(e -> logged("Error getting stations for line " + lineCode, e));
+    }
+
+    public CompletableFuture<MetroDto> getStationForLineDtoAsync(String lineCode) {
+        return getStationForLineCompactAsync(lineCode).thenApply(MetroService::dto);
+    }
+
+    public CompletableFuture<String> getStationForLineAsync(String lineCode) {
+        return stationsAsync(lineCode).thenApply(MetroService::encoded)
+                .exceptionally(e -> loggedJson("Error getting stations for line " + lineCode, e));
+    }
+
     public MetroDto getStationForLineDto(String lineCode) {
-        String key = KEY_STATIONS_PREFIX + lineCode;
-        String cached = cacheService.get(key);
-        if (cached != null) {
-            try { return objectMapper.readValue(cached, MetroDto.class); }
-            catch (IOException e) { AOBLogger.error("Error parsing cached stations JSON", e); }
-        }
-        try {
-            MetroDto dto = tmbApiClient.getStationsForLineDto(lineCode);
-            if (dto != null) cacheService.put(key, objectMapper.writeValueAsString(dto));
-            return dto;
-        } catch (IOException e) {
-            AOBLogger.error("Error getting stations for line " + lineCode, e);
-            if (cached != null) {
-                try { return objectMapper.readValue(cached, MetroDto.class); }
-                catch (IOException ex) { AOBLogger.error("Error parsing fallback cached stations JSON", ex); }
-            }
-            return null;
-        }
+        return getStationForLineDtoAsync(lineCode).join();
     }
 
     public String getStationForLine(String lineCode) {
-        MetroDto dto = getStationForLineDto(lineCode);
-        try { return objectMapper.writeValueAsString(dto); }
-        catch (IOException e) { AOBLogger.error("Error converting stations DTO to JSON", e); return "{}"; }
+        return getStationForLineAsync(lineCode).join();
     }
 
     // -------------------- TRAINS --------------------
+    public CompletableFuture<MetroDto> getTrainTimesDtoAsync(String stationCode) {
+        return tmbApiClient.getTrainsForStationDtoAsync(stationCode)
+                .exceptionally(e -> logged("Error getting train times for " + stationCode, e));
+    }
+
+    public CompletableFuture<String> getTrainTimesAsync(String stationCode) {
+        return getTrainTimesDtoAsync(stationCode).thenApply(dto -> writeJson(dto, "train times"));
+    }
+
     public MetroDto getTrainTimesDto(String stationCode) {
-        try { return tmbApiClient.getTrainsForStationDto(stationCode); }
-        catch (IOException e) { AOBLogger.error("Error getting train times for " + stationCode, e); return null; }
+        return getTrainTimesDtoAsync(stationCode).join();
     }
 
     public String getTrainTimes(String stationCode) {
-        MetroDto dto = getTrainTimesDto(stationCode);
-        try { return objectMapper.writeValueAsString(dto); }
-        catch (IOException e) { AOBLogger.error("Error converting train times DTO to JSON", e); return "{}"; }
+        return getTrainTimesAsync(stationCode).join();
     }
 
     // -------------------- INTERCHANGES --------------------
+    public CompletableFuture<MetroDto> getInterchangesDtoAsync(String lineCode, String stationCode) {
+        return tmbApiClient.getInterchangesDtoAsync(lineCode, stationCode)
+                .exceptionally(e -> logged("Error getting interchanges for " + lineCode + "/" + stationCode, e));
+    }
+
+    public CompletableFuture<String> getInterchangesAsync(String lineCode, String stationCode) {
+        return getInterchangesDtoAsync(lineCode, stationCode).thenApply(dto -> writeJson(dto, "interchanges"));
+    }
+
     public MetroDto getInterchangesDto(String lineCode, String stationCode) {
-        try { return tmbApiClient.getInterchangesDto(lineCode, stationCode); }
-        catch (IOException e) { AOBLogger.error("Error getting interchanges for " + lineCode + "/" + stationCode, e); return null; }
+        return getInterchangesDtoAsync(lineCode, stationCode).join();
     }
 
     public String getInterchanges(String lineCode, String stationCode) {
-        MetroDto dto = getInterchangesDto(lineCode, stationCode);
-        try { return objectMapper.writeValueAsString(dto); }
-        catch (IOException e) { AOBLogger.error("Error converting interchanges DTO to JSON", e); return "{}"; }
+        return getInterchangesAsync(lineCode, stationCode).join();
+    }
+
+    /**
+     * Cache value for a freshly loaded DTO: its compact form and its JSON. Weighed as what both retain; the DTO
+     * itself is dropped once encoded, and a view materialized later is only softly reachable.
+     */
+    private CacheService.Typed<CompactMetroDto> typed(MetroDto dto) {
+        if (dto == null) return null;
+        String json = codec.toWebJson(dto);
+        CompactMetroDto compact = CompactMetroDto.of(dto);
+        return new CacheService.Typed<>(compact, json, 2L * json.length() + compact.estimatedBytes());
+    }
+
+    private static CompactMetroDto value(CacheService.Typed<CompactMetroDto> typed) {
+        return typed != null ? typed.value() : null;
+    }
+
+    private static MetroDto dto(CompactMetroDto compact) {
+        return compact != null ? compact.toDto() : null;
+    }
+
+    private static String encoded(CacheService.Typed<CompactMetroDto> typed) {
+        return typed != null ? typed.encoded() : "null";
+    }
+
+    private String writeJson(MetroDto dto, String what) {
+        try { return codec.toWebJson(dto); }
+        catch (RuntimeException e) { AOBLogger.error("Error converting " + what + " DTO to JSON", e); return "{}"; }
+    }
+
+    private static <T> T logged(String message, Throwable error) {
+        AOBLogger.error(message, Futures.unwrap(error));
+        return null;
+    }
+
+    /** JSON answer for a failed lookup: what serializing its null DTO gives. */
+    private static String loggedJson(String message, Throwable error) {
+        logged(message, error);
+        return "null";
     }
 }
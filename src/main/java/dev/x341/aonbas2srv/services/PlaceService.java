@@ -0,0 +1,279 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.inject.Inject;
+import dev.x341.aonbas2srv.dto.CompactMetroDto;
+import dev.x341.aonbas2srv.dto.CompactMetroDto.IntProperty;
+import dev.x341.aonbas2srv.dto.CompactMetroDto.StringProperty;
+import dev.x341.aonbas2srv.dto.Stop;
+import dev.x341.aonbas2srv.services.apiclients.StopIndex;
+import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
+import dev.x341.aonbas2srv.services.search.GeoIndex;
+import dev.x341.aonbas2srv.services.search.Place;
+import dev.x341.aonbas2srv.services.search.SearchIndex;
+import dev.x341.aonbas2srv.util.AOBLogger;
+import dev.x341.aonbas2srv.util.Futures;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tram stops and metro stations as one list of {@link Place}s, with the indexes the search and nearby endpoints
+ * answer from.
+ * The list and its indexes are built once per version of the source data: requests read the current snapshot
+ * without waiting, and at most once a minute one of them starts a background check that rebuilds the snapshot only
+ * if the cached TRAM stop list or a cached TMB line/station list has changed. Only the very first request waits
+ * for the data.
+ */
+public class PlaceService {
+
+    private static final long CHECK_INTERVAL_MILLIS = 60_000;
+    private static final JsonCodec JSON = JsonCodec.shared();
+
+    private final TramApiClient tramApiClient;
+    private final MetroService metroService;
+    private final TramService tramService;
+    private final CacheService cacheService;
+    private final AtomicReference<CompletableFuture<Snapshot>> building = new AtomicReference<>();
+    private volatile Snapshot current;
+    private volatile long nextCheck;
+
+    /** Places of one version of the source data and the indexes over them. */
+    public static final class Snapshot {
+        private final StopIndex tramStops;
+        private final long[] metroVersions;
+        private final List<Place> places;
+        private final SearchIndex search;
+        private final GeoIndex geo;
+
+        Snapshot(StopIndex tramStops, long[] metroVersions, List<Place> places) {
+            this.tramStops = tramStops;
+            this.metroVersions = metroVersions;
+            this.places = List.copyOf(places);
+            this.search = new SearchIndex(this.places);
+            this.geo = new GeoIndex(this.places);
+        }
+
+        public List<Place> places() { return places; }
+        public SearchIndex search() { return search; }
+        public GeoIndex geo() { return geo; }
+
+        boolean builtFrom(StopIndex stops, long[] versions) {
+            return stops != null && stops == tramStops && Arrays.equals(versions, metroVersions);
+        }
+    }
+
+    /** Stations of one metro line as loaded. */
+    private record LineStations(String lineCode, String lineName, CompactMetroDto stations) {}
+
+    @Inject
+    public PlaceService(TramApiClient tramApiClient, MetroService metroService, TramService tramService,
+                        CacheService cacheService) {
+        this.tramApiClient = tramApiClient;
+        this.metroService = metroService;
+        this.tramService = tramService;
+        this.cacheService = cacheService;
+    }
+
+    /**
+     * Ranked tram stops and metro stations matching what the user has typed so far, as JSON.
+     *
+     * @param query partial name or code; accents and case are ignored
+     * @param limit maximum number of results
+     */
+    public CompletableFuture<String> searchJsonAsync(String query, int limit) {
+        return snapshotAsync().thenApply(snapshot -> {
+            JsonObject root = new JsonObject();
+            root.addProperty("query", query);
+            root.add("results", JSON.toJsonTree(snapshot.search().search(query, limit)));
+            return root.toString();
+        });
+    }
+
+    public String searchJson(String query, int limit) throws IOException {
+        return Futures.await(searchJsonAsync(query, limit));
+    }
+
+    /**
+     * Tram stops and metro stations closest to a point, as JSON. With {@code arrivals}, each result also carries its
+     * next arrivals: the lookups for all results are started together and the response waits for the slowest one;
+     * a result whose lookup fails gets null arrivals instead of failing the response.
+     *
+     * @param radiusMeters search radius
+     * @param limit maximum number of results
+     */
+    public CompletableFuture<String> nearbyJsonAsync(double lat, double lon, int radiusMeters, int limit,
+                                                     boolean arrivals) {
+        return snapshotAsync().thenCompose(snapshot -> {
+            List<GeoIndex.Hit> hits = snapshot.geo().nearest(lat, lon, radiusMeters, limit);
+            List<CompletableFuture<JsonElement>> times = new ArrayList<>(hits.size());
+            for (GeoIndex.Hit hit : hits) {
+                times.add(arrivals ? arrivalsAsync(hit.place()) : CompletableFuture.completedFuture(null));
+            }
+            return CompletableFuture.allOf(times.toArray(new CompletableFuture[0])).thenApply(done -> {
+                JsonArray results = new JsonArray(hits.size());
+                for (int i = 0; i < hits.size(); i++) {
+                    JsonObject result = JSON.toJsonTree(hits.get(i).place()).getAsJsonObject();
+                    result.addProperty("distance", hits.get(i).meters());
+                    if (arrivals) result.add("arrivals", times.get(i).join());
+                    results.add(result);
+                }
+                JsonObject root = new JsonObject();
+                root.addProperty("lat", lat);
+                root.addProperty("lon", lon);
+                root.addProperty("radius", radiusMeters);
+                root.add("results", results);
+                return root.toString();
+            });
+        });
+    }
+
+    public String nearbyJson(double lat, double lon, int radiusMeters, int limit, boolean arrivals) throws IOException {
+        return Futures.await(nearbyJsonAsync(lat, lon, radiusMeters, limit, arrivals));
+    }
+
+    /** Next arrivals at a place as the stop-times endpoints return them, or JSON null if they are unavailable. */
+    private CompletableFuture<JsonElement> arrivalsAsync(Place place) {
+        CompletableFuture<JsonElement> times;
+        try {
+            times = Place.TRAM.equals(place.type())
+                    ? tramService.getStopTimesAsync(place.code()).thenApply(json -> parse(json).getAsJsonObject().get("arrivals"))
+                    : metroService.getTrainTimesAsync(place.code()).thenApply(PlaceService::parse);
+        } catch (RuntimeException e) {
+            times = CompletableFuture.failedFuture(e);
+        }
+        return times.exceptionally(e -> {
+            AOBLogger.debug("Nearby: no arrivals for " + place.type() + " " + place.code() + ": " + Futures.unwrap(e));
+            return JsonNull.INSTANCE;
+        });
+    }
+
+    private static JsonElement parse(String json) {
+        return json != null ? JsonParser.parseString(json) : JsonNull.INSTANCE;
+    }
+
+    /** The current snapshot; completes immediately except before the first one is built. */
+    public CompletableFuture<Snapshot> snapshotAsync() {
+        Snapshot snapshot = current;
+        if (snapshot == null) return refresh();
+        if (System.currentTimeMillis() >= nextCheck) refresh(); // in the background; this request keeps the current one
+        return CompletableFuture.completedFuture(snapshot);
+    }
+
+    /**
+     * Load the source data (normally from cache) and publish a new snapshot if it changed. Concurrent calls share
+     * one load.
+     */
+    CompletableFuture<Snapshot> refresh() {
+        CompletableFuture<Snapshot> mine = new CompletableFuture<>();
+        CompletableFuture<Snapshot> running = building.compareAndExchange(null, mine);
+        if (running != null) return running;
+        nextCheck = System.currentTimeMillis() + CHECK_INTERVAL_MILLIS;
+        CompletableFuture<Snapshot> load;
+        try {
+            load = load();
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((snapshot, error) -> {
+            building.set(null);
+            if (error != null) {
+                AOBLogger.error("Failed to build places", Futures.unwrap(error));
+                mine.completeExceptionally(Futures.unwrap(error));
+                return;
+            }
+            if (snapshot != current) {
+                current = snapshot;
+                AOBLogger.log("Places index built: " + snapshot.places().size() + " tram stops and metro stations");
+            }
+            mine.complete(snapshot);
+        });
+        return mine;
+    }
+
+    private CompletableFuture<Snapshot> load() {
+        CompletableFuture<StopIndex> tram = tramApiClient.getStopIndexAsync().exceptionally(e -> {
+            AOBLogger.error("Places: TRAM stops unavailable", Futures.unwrap(e));
+            return null;
+        });
+        CompletableFuture<List<LineStations>> metro = metroService.getLinesCompactAsync().thenCompose(lines -> {
+            List<CompletableFuture<LineStations>> loads = new ArrayList<>();
+            for (int i = 0; lines != null && i < lines.size(); i++) {
+                if (!lines.hasProperties(i)) continue;
+                String code = String.valueOf(lines.intProperty(i, IntProperty.CODI_LINIA));
+                String name = lines.stringProperty(i, StringProperty.NOM_LINIA);
+                loads.add(metroService.getStationForLineCompactAsync(code).thenApply(dto -> new LineStations(code, name, dto)));
+            }
+            return CompletableFuture.allOf(loads.toArray(new CompletableFuture[0]))
+                    .thenApply(done -> loads.stream().map(CompletableFuture::join).toList());
+        });
+        return tram.thenCombine(metro, (stops, lines) -> {
+            long[] versions = metroVersions(lines);
+            Snapshot snapshot = current;
+            if (snapshot != null && snapshot.builtFrom(stops, versions)) return snapshot;
+            List<Place> places = new ArrayList<>();
+            if (stops != null) tramPlaces(stops.stops(), places);
+            metroPlaces(lines, places);
+            return new Snapshot(stops, versions, places);
+        });
+    }
+
+    /** Version of every cached metro list the places were built from; -1 where the list is not cached. */
+    private long[] metroVersions(List<LineStations> lines) {
+        long[] versions = new long[lines.size() + 1];
+        versions[0] = version(MetroService.linesKey());
+        for (int i = 0; i < lines.size(); i++) versions[i + 1] = version(MetroService.stationsKey(lines.get(i).lineCode()));
+        return versions;
+    }
+
+    private long version(String key) {
+        CacheService.Stamp stamp = cacheService.stamp(key);
+        return stamp != null ? stamp.version() : -1;
+    }
+
+    private static void tramPlaces(List<Stop> stops, List<Place> out) {
+        for (Stop s : stops) {
+            if (s == null || s.getName() == null) continue;
+            // TRAM leaves unknown coordinates at 0
+            boolean located = s.getLatitude() != 0 || s.getLongitude() != 0;
+            out.add(new Place(Place.TRAM, s.getId() != null ? String.valueOf(s.getId()) : null, s.getGtfsCode(),
+                    s.getName(), List.of(), located ? s.getLatitude() : null, located ? s.getLongitude() : null));
+        }
+    }
+
+    private static void metroPlaces(List<LineStations> lines, List<Place> out) {
+        // A station served by several lines is one place listing all of them
+        Map<String, Place> byCode = new LinkedHashMap<>();
+        for (LineStations line : lines) {
+            CompactMetroDto stations = line.stations();
+            for (int f = 0; stations != null && f < stations.size(); f++) {
+                String name = stations.stringProperty(f, StringProperty.NOM_ESTACIO);
+                if (name == null) continue;
+                int codi = stations.intProperty(f, IntProperty.CODI_ESTACIO);
+                int id = stations.intProperty(f, IntProperty.ID_ESTACIO);
+                String code = String.valueOf(codi != 0 ? codi : id);
+                double[] lonLat = stations.lonLat(f);
+                Place known = byCode.get(code);
+                List<String> served = new ArrayList<>(known != null ? known.lines() : List.of());
+                String lineName = line.lineName() != null ? line.lineName() : line.lineCode();
+                if (!served.contains(lineName)) served.add(lineName);
+                byCode.put(code, new Place(Place.METRO, String.valueOf(id), code, name,
+                        List.copyOf(served),
+                        known != null && known.hasLocation() ? known.lat() : lonLat != null ? lonLat[1] : null,
+                        known != null && known.hasLocation() ? known.lon() : lonLat != null ? lonLat[0] : null));
+            }
+        }
+        out.addAll(byCode.values());
+    }
+}
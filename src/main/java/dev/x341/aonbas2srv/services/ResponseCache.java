@@ -0,0 +1,296 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.inject.Inject;
+import dev.x341.aonbas2srv.util.AOBLogger;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encoded HTTP response bodies for routes whose content comes straight from a {@link CacheService} entry.
+ * <p>
+ * A snapshot is keyed by route, path variables and client type, holds the UTF-8 body in a pooled direct
+ * buffer and remembers the version of the cache entry it was built from. Hits hand out
+ * {@code retainedDuplicate()}s, so the body is neither re-serialized nor copied. A snapshot is dropped as soon
+ * as its source entry is replaced, removed or expires (listener) and is re-validated against the entry's
+ * current version on every lookup, so a stale body is never served.
+ * <p>
+ * Each snapshot also carries a strong ETag computed once from its bytes, plus the lifetime of its source entry,
+ * from which HTTP caching headers (Cache-Control max-age, Age) are derived. A snapshot of an entry that is past
+ * its TTL but within its grace period is still served, marked stale, and triggers the entry's background refresh.
+ * <p>
+ * Bodies above the compression threshold are also gzipped and deflated once, when the snapshot is stored,
+ * and kept next to the identity body; each variant gets its own ETag.
+ */
+public class ResponseCache {
+
+    private static final int MAX_SNAPSHOTS = 2048;
+    // Upper bound on the freshness advertised to clients, so year-long cache entries still get revalidated
+    private static final long MAX_AGE_CAP_SECONDS = 3600;
+    private static final String STALE_HEADER = "X-Cache-Status";
+
+    private final CacheService cacheService;
+    private final ResponseCompressor compressor;
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    @Inject
+    public ResponseCache(CacheService cacheService, ResponseCompressor compressor) {
+        this.cacheService = cacheService;
+        this.compressor = compressor;
+        cacheService.addInvalidationListener(this::invalidateSource);
+    }
+
+    /**
+     * Current stamp of a source cache entry, to be read before and after producing a response.
+     *
+     * @param sourceKey CacheService key
+     * @return the entry stamp, or null if the key is absent or expired
+     */
+    public CacheService.Stamp sourceStamp(String sourceKey) {
+        return cacheService.stamp(sourceKey);
+    }
+
+    private long sourceVersion(String sourceKey) {
+        CacheService.Stamp stamp = cacheService.stamp(sourceKey);
+        return stamp != null ? stamp.version() : -1;
+    }
+
+    /**
+     * Look up a snapshot that is still current.
+     *
+     * @param key snapshot key
+     * @return the snapshot, or null on a miss
+     */
+    public Snapshot get(String key) {
+        Snapshot snap = snapshots.get(key);
+        if (snap == null) return null;
+        if (sourceVersion(snap.sourceKey) != snap.version) {
+            drop(key, snap);
+            return null;
+        }
+        if (System.currentTimeMillis() >= snap.expiresAtMillis) cacheService.revalidate(snap.sourceKey);
+        return snap;
+    }
+
+    /**
+     * Encode and store a response body built from the given version of a source entry. Compressed variants are
+     * produced here, on the calling (handler) thread, so event loop hits never compress.
+     *
+     * @param key snapshot key
+     * @param route label for compression statistics
+     * @param sourceKey CacheService key the body was derived from
+     * @param source stamp of the source entry the body was derived from
+     * @param contentType response content type
+     * @param content response body
+     * @return the stored snapshot, or null if the cache is full
+     */
+    public Snapshot put(String key, String route, String sourceKey, CacheService.Stamp source, String contentType, String content) {
+        if (source == null || content == null) return null;
+        if (snapshots.size() >= MAX_SNAPSHOTS && !snapshots.containsKey(key)) {
+            AOBLogger.debug("Response cache full, not storing " + key);
+            return null;
+        }
+        ByteBuf buf = alloc.directBuffer(ByteBufUtil.utf8Bytes(content));
+        ByteBufUtil.writeUtf8(buf, content);
+        ByteBuf gzip = compressor.compress(alloc, buf, ResponseCompressor.ContentEncoding.GZIP, route);
+        ByteBuf deflate = compressor.compress(alloc, buf, ResponseCompressor.ContentEncoding.DEFLATE, route);
+        Snapshot snap = new Snapshot(sourceKey, source, contentType, buf, etagOf(buf), gzip, deflate);
+        Snapshot previous = snapshots.put(key, snap);
+        if (previous != null) previous.release();
+        return snap;
+    }
+
+    /** Drop every snapshot derived from a source key. Called by CacheService on invalidation. */
+    void invalidateSource(String sourceKey) {
+        for (Map.Entry<String, Snapshot> e : snapshots.entrySet()) {
+            if (e.getValue().sourceKey.equals(sourceKey)) drop(e.getKey(), e.getValue());
+        }
+    }
+
+    /** Drop and release every snapshot. */
+    public void clear() {
+        for (Map.Entry<String, Snapshot> e : snapshots.entrySet()) drop(e.getKey(), e.getValue());
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    private void drop(String key, Snapshot snap) {
+        if (snapshots.remove(key, snap)) snap.release();
+    }
+
+    /**
+     * Strong validator: identical bytes give the same tag, so a refresh that returns unchanged data keeps
+     * client caches valid.
+     */
+    private static String etagOf(ByteBuf buf) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(buf.nioBuffer());
+            byte[] digest = md.digest();
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Weak comparison of an If-None-Match header value against an ETag, as RFC 9110 requires for that header.
+     *
+     * @param ifNoneMatch header value, may be null
+     * @param etag our strong ETag
+     * @return true if the client already has this representation
+     */
+    public static boolean matchesIfNoneMatch(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) return false;
+        int len = ifNoneMatch.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && (ifNoneMatch.charAt(i) == ' ' || ifNoneMatch.charAt(i) == ',')) i++;
+            if (i >= len) break;
+            if (ifNoneMatch.charAt(i) == '*') return true;
+            if (ifNoneMatch.startsWith("W/", i)) i += 2;
+            int end = ifNoneMatch.indexOf(',', i);
+            if (end < 0) end = len;
+            String tag = ifNoneMatch.substring(i, end).trim();
+            if (tag.equals(etag)) return true;
+            i = end;
+        }
+        return false;
+    }
+
+    /**
+     * One encoded response body and its compressed variants. The cache owns one reference; readers borrow a
+     * buffer through {@link #retainedContent(ResponseCompressor.ContentEncoding)}, which never resurrects a
+     * snapshot that has already been released.
+     */
+    public static final class Snapshot {
+        private final String sourceKey;
+        private final long version;
+        private final long storedAtMillis;
+        private final long expiresAtMillis;
+        private final long staleUntilMillis;
+        private final String contentType;
+        private final ByteBuf content;
+        private final String etag;
+        private final ByteBuf gzip;
+        private final ByteBuf deflate;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private Snapshot(String sourceKey, CacheService.Stamp source, String contentType, ByteBuf content, String etag,
+                         ByteBuf gzip, ByteBuf deflate) {
+            this.sourceKey = sourceKey;
+            this.version = source.version();
+            this.storedAtMillis = source.storedAtMillis();
+            this.expiresAtMillis = source.expiresAtMillis();
+            this.staleUntilMillis = source.staleUntilMillis();
+            this.contentType = contentType;
+            this.content = content;
+            this.etag = etag;
+            this.gzip = gzip;
+            this.deflate = deflate;
+        }
+
+        public String contentType() { return contentType; }
+        public long version() { return version; }
+        public int contentLength() { return content.readableBytes(); }
+        public String etag() { return etag; }
+
+        /**
+         * @param wanted negotiated encoding
+         * @return {@code wanted} if this snapshot has that variant, identity otherwise
+         */
+        public ResponseCompressor.ContentEncoding select(ResponseCompressor.ContentEncoding wanted) {
+            return variant(wanted) != null ? wanted : ResponseCompressor.ContentEncoding.IDENTITY;
+        }
+
+        /** ETag of a variant: the identity tag with a coding suffix, since the bytes differ. */
+        public String etag(ResponseCompressor.ContentEncoding encoding) {
+            return switch (encoding) {
+                case GZIP -> etag.substring(0, etag.length() - 1) + "-gzip\"";
+                case DEFLATE -> etag.substring(0, etag.length() - 1) + "-deflate\"";
+                case IDENTITY -> etag;
+            };
+        }
+
+        private ByteBuf variant(ResponseCompressor.ContentEncoding encoding) {
+            return switch (encoding) {
+                case GZIP -> gzip;
+                case DEFLATE -> deflate;
+                case IDENTITY -> content;
+            };
+        }
+
+        /**
+         * @return true once the source entry is past its TTL (the body is then being served from the grace period)
+         */
+        public boolean isStale(long nowMillis) {
+            return nowMillis >= expiresAtMillis;
+        }
+
+        /**
+         * Set ETag, Cache-Control and Age. Age counts from when the source entry was fetched; max-age is chosen
+         * so the remaining freshness (max-age minus Age) ends when the entry expires, capped at one hour. Entries
+         * with a grace period advertise it as stale-while-revalidate/stale-if-error, and stale bodies carry
+         * {@code Warning: 110} plus {@code X-Cache-Status: STALE}.
+         *
+         * @param headers response headers to fill
+         * @param nowMillis current time
+         * @param encoding variant being served, as returned by {@link #select}
+         */
+        public void applyCacheHeaders(HttpHeaders headers, long nowMillis, ResponseCompressor.ContentEncoding encoding) {
+            long age = Math.max(0, (nowMillis - storedAtMillis) / 1000);
+            long remaining = Math.max(0, (expiresAtMillis - nowMillis) / 1000);
+            long maxAge = age + Math.min(remaining, MAX_AGE_CAP_SECONDS);
+            headers.set(HttpHeaderNames.ETAG, etag(encoding));
+            if (encoding.token() != null) headers.set(HttpHeaderNames.CONTENT_ENCODING, encoding.token());
+            long grace = Math.max(0, (staleUntilMillis - expiresAtMillis) / 1000);
+            String cacheControl = "public, max-age=" + maxAge;
+            if (grace > 0) cacheControl += ", stale-while-revalidate=" + grace + ", stale-if-error=" + grace;
+            headers.set(HttpHeaderNames.CACHE_CONTROL, cacheControl);
+            headers.set(HttpHeaderNames.AGE, age);
+            if (isStale(nowMillis)) {
+                headers.set(HttpHeaderNames.WARNING, "110 - \"Response is Stale\"");
+                headers.set(STALE_HEADER, "STALE");
+            }
+        }
+
+        /**
+         * @param encoding variant to borrow, as returned by {@link #select}
+         * @return a retained duplicate of the body the caller must release (writing it does), or null if the
+         *         snapshot was invalidated in the meantime
+         */
+        public ByteBuf retainedContent(ResponseCompressor.ContentEncoding encoding) {
+            int r;
+            do {
+                r = refs.get();
+                if (r <= 0) return null;
+            } while (!refs.compareAndSet(r, r + 1));
+            try {
+                return variant(encoding).retainedDuplicate();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() == 0) {
+                content.release();
+                if (gzip != null) gzip.release();
+                if (deflate != null) deflate.release();
+            }
+        }
+    }
+}
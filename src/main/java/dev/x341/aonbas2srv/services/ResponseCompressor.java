@@ -0,0 +1,214 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.inject.Inject;
+import dev.x341.aonbas2srv.util.AOBConfig;
+import dev.x341.aonbas2srv.util.AOBLogger;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Accept-Encoding negotiation and body compression for HTTP responses.
+ * <p>
+ * Bodies smaller than the configured threshold (COMPRESSION_MIN_BYTES) are sent as-is, and so are bodies
+ * that do not shrink. Per-route counters record how many bytes compression saved on the wire and how much
+ * CPU it cost; {@link #statsSnapshot()} exposes them.
+ */
+public class ResponseCompressor {
+
+    /** Content codings we can produce, in server preference order. */
+    public enum ContentEncoding {
+        GZIP("gzip"),
+        DEFLATE("deflate"),
+        IDENTITY(null);
+
+        private final String token;
+
+        ContentEncoding(String token) {
+            this.token = token;
+        }
+
+        /** @return the Content-Encoding header value, or null for identity */
+        public String token() { return token; }
+    }
+
+    private final int minBytes;
+    private final Map<String, RouteStats> stats = new ConcurrentHashMap<>();
+
+    @Inject
+    public ResponseCompressor(AOBConfig config) {
+        this(config.getCompressionMinBytes());
+    }
+
+    public ResponseCompressor(int minBytes) {
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * Pick the encoding for a request. gzip is preferred over deflate; either is skipped when the client gives
+     * it q=0 (explicitly or through "*;q=0").
+     *
+     * @param acceptEncoding Accept-Encoding header value, may be null
+     * @return the encoding to use
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) return ContentEncoding.IDENTITY;
+        float gzip = -1, deflate = -1, any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String p = part.trim();
+            if (p.isEmpty()) continue;
+            int semi = p.indexOf(';');
+            String coding = (semi < 0 ? p : p.substring(0, semi)).trim().toLowerCase();
+            float q = 1f;
+            if (semi >= 0) {
+                String params = p.substring(semi + 1).trim();
+                if (params.startsWith("q=")) {
+                    try { q = Float.parseFloat(params.substring(2).trim()); } catch (NumberFormatException e) { q = 0f; }
+                }
+            }
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = q;
+                case "deflate" -> deflate = q;
+                case "*" -> any = q;
+                default -> { }
+            }
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        if (gzip > 0 && gzip >= deflate) return ContentEncoding.GZIP;
+        if (deflate > 0) return ContentEncoding.DEFLATE;
+        return ContentEncoding.IDENTITY;
+    }
+
+    /**
+     * @return true if a body of this size is worth compressing
+     */
+    public boolean shouldCompress(int length) {
+        return length >= minBytes;
+    }
+
+    /**
+     * Compress a body into a new buffer, recording the cost under the route label.
+     *
+     * @param alloc allocator for the result
+     * @param body identity body; its reader index is not modified
+     * @param encoding GZIP or DEFLATE
+     * @param route label for the statistics
+     * @return the compressed body, or null if below the threshold or compression does not shrink it
+     */
+    public ByteBuf compress(ByteBufAllocator alloc, ByteBuf body, ContentEncoding encoding, String route) {
+        int length = body.readableBytes();
+        if (encoding == ContentEncoding.IDENTITY || !shouldCompress(length)) return null;
+        long start = System.nanoTime();
+        ByteBuf out = alloc.directBuffer(Math.max(64, length / 4));
+        boolean ok = false;
+        try (OutputStream os = encoder(new ByteBufOutputStream(out), encoding)) {
+            body.getBytes(body.readerIndex(), os, length);
+            os.close();
+            ok = out.readableBytes() < length;
+        } catch (IOException e) {
+            AOBLogger.error("Failed to " + encoding.token() + " response for " + route, e);
+        } finally {
+            if (!ok) out.release();
+        }
+        long nanos = System.nanoTime() - start;
+        if (!ok) return null;
+
+        RouteStats s = stats.computeIfAbsent(route, k -> new RouteStats());
+        s.of(encoding).recordCompression(length, out.readableBytes(), nanos);
+        AOBLogger.debug("Compressed " + route + " (" + encoding.token() + ") " + length + " -> "
+                + out.readableBytes() + " bytes in " + (nanos / 1000) + "us");
+        return out;
+    }
+
+    /**
+     * Record that a compressed body was sent instead of the identity one.
+     */
+    public void recordServed(String route, ContentEncoding encoding, int identityBytes, int sentBytes) {
+        if (encoding == ContentEncoding.IDENTITY) return;
+        stats.computeIfAbsent(route, k -> new RouteStats()).of(encoding).recordServed(identityBytes - sentBytes);
+    }
+
+    /**
+     * @return route -> encoding -> counters, suitable for JSON serialization
+     */
+    public Map<String, Map<String, Map<String, Long>>> statsSnapshot() {
+        Map<String, Map<String, Map<String, Long>>> out = new TreeMap<>();
+        stats.forEach((route, s) -> {
+            Map<String, Map<String, Long>> byEncoding = new TreeMap<>();
+            byEncoding.put(ContentEncoding.GZIP.token(), s.gzip.toMap());
+            byEncoding.put(ContentEncoding.DEFLATE.token(), s.deflate.toMap());
+            out.put(route, byEncoding);
+        });
+        return out;
+    }
+
+    private static OutputStream encoder(OutputStream sink, ContentEncoding encoding) throws IOException {
+        if (encoding == ContentEncoding.GZIP) return new GZIPOutputStream(sink, 8192);
+        // "deflate" content-coding is the zlib format (RFC 1950), which Deflater produces by default
+        // A caller-supplied Deflater is not ended by close(), so release its native zlib state here
+        return new DeflaterOutputStream(sink, new Deflater(Deflater.DEFAULT_COMPRESSION), 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    private static final class RouteStats {
+        final EncodingStats gzip = new EncodingStats();
+        final EncodingStats deflate = new EncodingStats();
+
+        EncodingStats of(ContentEncoding encoding) {
+            return encoding == ContentEncoding.GZIP ? gzip : deflate;
+        }
+    }
+
+    private static final class EncodingStats {
+        final LongAdder compressions = new LongAdder();
+        final LongAdder inputBytes = new LongAdder();
+        final LongAdder outputBytes = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder served = new LongAdder();
+        final LongAdder bytesSaved = new LongAdder();
+
+        void recordCompression(int in, int out, long nanos) {
+            compressions.increment();
+            inputBytes.add(in);
+            outputBytes.add(out);
+            cpuNanos.add(nanos);
+        }
+
+        void recordServed(int saved) {
+            served.increment();
+            bytesSaved.add(saved);
+        }
+
+        Map<String, Long> toMap() {
+            Map<String, Long> m = new TreeMap<>();
+            long n = compressions.sum();
+            m.put("compressions", n);
+            m.put("inputBytes", inputBytes.sum());
+            m.put("outputBytes", outputBytes.sum());
+            m.put("cpuMicros", cpuNanos.sum() / 1000);
+            m.put("cpuMicrosPerCompression", n == 0 ? 0 : cpuNanos.sum() / 1000 / n);
+            m.put("served", served.sum());
+            m.put("bytesSaved", bytesSaved.sum());
+            return m;
+        }
+    }
+}
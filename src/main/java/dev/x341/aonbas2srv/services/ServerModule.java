@@ -1,9 +1,33 @@
 package dev.x341.aonbas2srv.services;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Key;
+import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
 import dev.x341.aonbas2srv.services.apiclients.TmbApiClient;
+import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import dev.x341.aonbas2srv.services.apiclients.UpstreamTimings;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
 import dev.x341.aonbas2srv.util.AOBConfig;
+import dev.x341.aonbas2srv.util.AOBConstants;
+import dev.x341.aonbas2srv.util.AOBLogger;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.time.Duration;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ServerModule extends AbstractModule {
 
@@ -11,14 +35,78 @@ public class ServerModule extends AbstractModule {
     protected void configure() {
         bind(AOBConfig.class).in(Singleton.class);
 
+        bind(UpstreamTimings.class).in(Singleton.class);
+
+        bind(JsonCodec.class).toInstance(JsonCodec.shared());
+
         bind(TmbApiClient.class).in(Singleton.class);
 
         bind(CacheService.class).in(Singleton.class);
 
+        bind(ResponseCompressor.class).in(Singleton.class);
+
+        bind(ResponseCache.class).in(Singleton.class);
+
         bind(MetroService.class).in(Singleton.class);
 
+        bind(TramApiClient.class).in(Singleton.class);
+
+        bind(GtfsRtPoller.class).in(Singleton.class);
+
         bind(TramService.class).in(Singleton.class);
 
+        bind(PlaceService.class).in(Singleton.class);
+
         bind(HttpServerHandler.class);
+
+        bind(Executor.class).annotatedWith(Names.named(AOBConstants.HANDLER_EXECUTOR))
+                .to(Key.get(ExecutorService.class, Names.named(AOBConstants.HANDLER_EXECUTOR)));
+    }
+
+    /**
+     * Executor used by {@link HttpServerHandler} to run service calls that may block on upstream APIs,
+     * keeping the Netty event loops free. Defaults to one virtual thread per task; "platform" selects a
+     * bounded pool that rejects work (answered with 503) once its queue is full.
+     */
+    @Provides
+    @Singleton
+    @Named(AOBConstants.HANDLER_EXECUTOR)
+    ExecutorService provideHandlerExecutor(AOBConfig config) {
+        if ("platform".equals(config.getHandlerExecutor())) {
+            int threads = config.getHandlerPoolSize();
+            AOBLogger.log("Handler executor: platform pool (" + threads + " threads, queue " + config.getHandlerQueueSize() + ")");
+            return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(config.getHandlerQueueSize()),
+                    new DefaultThreadFactory("aon-handler"),
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+        AOBLogger.log("Handler executor: virtual threads");
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("aon-handler-", 0).factory());
+    }
+
+    /**
+     * One HTTP client for every upstream API so TMB and TRAM calls share a connection pool and dispatcher.
+     * HTTP/2 is negotiated via ALPN where the upstream supports it; the per-host limit keeps a burst against one
+     * API from queueing calls to the other.
+     */
+    @Provides
+    @Singleton
+    OkHttpClient provideHttpClient(AOBConfig config, UpstreamTimings timings) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getUpstreamMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getUpstreamMaxRequestsPerHost());
+        AOBLogger.log("Upstream client: pool " + config.getUpstreamMaxIdleConnections() + " idle / "
+                + config.getUpstreamKeepAliveSeconds() + "s keep-alive, " + config.getUpstreamMaxRequestsPerHost()
+                + " requests per host");
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(config.getUpstreamMaxIdleConnections(),
+                        config.getUpstreamKeepAliveSeconds(), TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(Duration.ofMillis(config.getUpstreamConnectTimeoutMs()))
+                .readTimeout(Duration.ofMillis(config.getUpstreamReadTimeoutMs()))
+                .callTimeout(Duration.ofMillis(config.getUpstreamCallTimeoutMs()))
+                .eventListenerFactory(timings)
+                .build();
     }
 }
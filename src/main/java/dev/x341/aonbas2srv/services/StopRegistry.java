@@ -0,0 +1,77 @@
+package dev.x341.aonbas2srv.services;
+
+import dev.x341.aonbas2srv.dto.Stop;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * TRAM stops by upper-case gtfsCode, as an immutable versioned snapshot. Readers take the current snapshot without
+ * locking; writers build a new map and publish it atomically, so a lookup never sees a half-updated map and never
+ * fails while the stops are being reloaded: it gets the previous snapshot until the new one is complete.
+ */
+public final class StopRegistry {
+
+    /**
+     * One published state of the registry.
+     *
+     * @param version increases with every published change
+     * @param byCode upper-case gtfsCode to stop; unmodifiable
+     */
+    public record Snapshot(long version, Map<String, Stop> byCode) {
+        public Stop get(String gtfsCode) {
+            return gtfsCode == null ? null : byCode.get(gtfsCode.toUpperCase());
+        }
+    }
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot(0, Map.of()));
+
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    public Stop get(String gtfsCode) {
+        return current.get().get(gtfsCode);
+    }
+
+    public int size() {
+        return current.get().byCode().size();
+    }
+
+    /**
+     * Publish a registry holding exactly these stops (first occurrence of a code wins), e.g. after a full load.
+     *
+     * @return the published snapshot
+     */
+    public Snapshot replace(Collection<Stop> stops) {
+        Map<String, Stop> byCode = new HashMap<>(stops.size() * 2);
+        for (Stop s : stops) {
+            if (s != null && s.getGtfsCode() != null) byCode.putIfAbsent(s.getGtfsCode().toUpperCase(), s);
+        }
+        Map<String, Stop> published = Collections.unmodifiableMap(byCode);
+        return current.updateAndGet(prev -> new Snapshot(prev.version() + 1, published));
+    }
+
+    /**
+     * Add the stops whose code is not registered yet, e.g. ones seen in a line's stop list or found by a fallback
+     * lookup. Publishes nothing if every code is already known, so repeated loads of the same line cost one read.
+     *
+     * @return the current snapshot after the update
+     */
+    public Snapshot addAbsent(Collection<Stop> stops) {
+        return current.updateAndGet(prev -> {
+            Map<String, Stop> byCode = null;
+            for (Stop s : stops) {
+                if (s == null || s.getGtfsCode() == null) continue;
+                String code = s.getGtfsCode().toUpperCase();
+                if (prev.byCode().containsKey(code) || (byCode != null && byCode.containsKey(code))) continue;
+                if (byCode == null) byCode = new HashMap<>(prev.byCode());
+                byCode.put(code, s);
+            }
+            return byCode == null ? prev : new Snapshot(prev.version() + 1, Collections.unmodifiableMap(byCode));
+        });
+    }
+}
@@ -1,53 +1,58 @@
 package dev.x341.aonbas2srv.services;
 
-import com.google.transit.realtime.GtfsRealtime.*;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import dev.x341.aonbas2srv.dto.Stop;
 import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
 import dev.x341.aonbas2srv.util.AOBLogger;
+import dev.x341.aonbas2srv.util.Futures;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class TramService {
 
-    private final TramApiClient apiClient;
-    private final Map<String, Stop> gtfsCodeMap = new HashMap<>(); // gtfsCode -> Stop
-
+    private static final JsonCodec JSON = JsonCodec.shared();
 
+    private final TramApiClient apiClient;
+    private final GtfsRtPoller poller;
+    // Read by request threads, updated from upstream completions on OkHttp dispatcher threads
+    private final StopRegistry stops = new StopRegistry(); // gtfsCode -> Stop
 
     @Inject
-    public TramService(TramApiClient apiClient) {
+    public TramService(TramApiClient apiClient, GtfsRtPoller poller) {
         this.apiClient = apiClient;
+        this.poller = poller;
         try {
-            loadAllStops();
+            Futures.await(loadAllStopsAsync());
         } catch (IOException e) {
             AOBLogger.error("Failed to load stops during TramService init", e);
         }
     }
 
-    /** Load all stops from API into map */
-    private void loadAllStops() throws IOException {
-        List<Stop> allStops = apiClient.getAllStops(); // llama a GET /api/v1/stops
-        for (Stop s : allStops) {
-            if (s == null) continue;
-            String code = s.getGtfsCode();
-            if (code == null) continue;
-            gtfsCodeMap.put(code.toUpperCase(), s);
-        }
-        AOBLogger.log("Loaded " + allStops.size() + " stops from API");
+    /** Load all stops from API and publish them as the new registry snapshot */
+    private CompletableFuture<Integer> loadAllStopsAsync() {
+        return apiClient.getAllStopsAsync().thenApply(allStops -> { // llama a GET /api/v1/stops
+            StopRegistry.Snapshot snapshot = stops.replace(allStops);
+            AOBLogger.log("Loaded " + allStops.size() + " stops from API (registry version " + snapshot.version() + ")");
+            return allStops.size();
+        });
     }
 
     /** Devuelve stops de una línea */
+    public CompletableFuture<List<Stop>> getStopsForLineAsync(String lineId) {
+        return apiClient.getStopsAsync(lineId).thenApply(lineStops -> { // GET /api/v1/lines/{lineId}/stops
+            stops.addAbsent(lineStops); // actualizar mapa
+            return lineStops;
+        });
+    }
+
     public List<Stop> getStopsForLine(String lineId) throws IOException {
-        List<Stop> stops = apiClient.getStops(lineId); // GET /api/v1/lines/{lineId}/stops
-        for (Stop s : stops) {
-            if (s == null) continue;
-            String code = s.getGtfsCode();
-            if (code == null) continue;
-            gtfsCodeMap.put(code.toUpperCase(), s); // actualizar mapa
-        }
-        return stops;
+        return Futures.await(getStopsForLineAsync(lineId));
     }
 
     /** Return all known GTFS codes (delegates to API client) */
@@ -62,61 +67,116 @@ public class TramService {
 
     /** Devuelve parada por gtfsCode */
     public Stop getStopByGtfsCode(String gtfsCode) {
-        if (gtfsCode == null) return null;
-        Stop s = gtfsCodeMap.get(gtfsCode.toUpperCase());
-        return s;
+        return stops.get(gtfsCode);
     }
 
-    /** Devuelve próximos trams para una parada usando GTFS */
-    public String getStopTimes(String gtfsCode) throws IOException {
-        Stop stop = getStopByGtfsCode(gtfsCode);
-        if (stop == null) {
-            // fallback: ask API client directly (handles flexible matching)
-            stop = apiClient.getStop(gtfsCode);
-            if (stop != null) {
-                gtfsCodeMap.put(stop.getGtfsCode().toUpperCase(), stop);
+    /**
+     * Devuelve próximos trams para una parada usando GTFS: JSON with the stop and its upcoming arrivals in both
+     * networks (TRAMBESOS and TRAMBAIX), earliest first. The feed is matched on the stop's gtfsCode, outbound and
+     * return codes through each feed's {@link ArrivalIndex}, so the cost is that of the arrivals at the stop. The
+     * indexes are kept current by the {@link GtfsRtPoller}, so this normally does not wait on TRAM at all.
+     */
+    public CompletableFuture<String> getStopTimesAsync(String gtfsCode) {
+        Stop known = getStopByGtfsCode(gtfsCode);
+        CompletableFuture<Stop> stop = known != null ? CompletableFuture.completedFuture(known)
+                // fallback: ask API client directly (handles flexible matching)
+                : apiClient.getStopAsync(gtfsCode).thenApply(found -> {
+                    if (found != null) stops.addAbsent(List.of(found));
+                    return found;
+                });
+        return stop.thenCompose(s -> {
+            if (s == null) {
+                AOBLogger.log("Stop not found for gtfsCode: " + gtfsCode);
+                return CompletableFuture.completedFuture(stopTimesJson(null, List.of(), System.currentTimeMillis() / 1000));
             }
+            // Check both networks' GTFS-RT feeds (TRAMBESOS and TRAMBAIX) so we find updates regardless of network
+            CompletableFuture<ArrivalIndex> besos = poller.currentIndexAsync("TRAMBESOS");
+            CompletableFuture<ArrivalIndex> baix = poller.currentIndexAsync("TRAMBAIX");
+            return besos.thenCombine(baix, (b, x) -> {
+                long now = System.currentTimeMillis() / 1000;
+                List<ArrivalIndex.Arrival> arrivals = new ArrayList<>();
+                arrivalsAt(b, s, now, arrivals);
+                arrivalsAt(x, s, now, arrivals);
+                ArrivalIndex.sort(arrivals);
+                return stopTimesJson(s, arrivals, now);
+            });
+        });
+    }
+
+    public String getStopTimes(String gtfsCode) throws IOException {
+        return Futures.await(getStopTimesAsync(gtfsCode));
+    }
+
+    private static void arrivalsAt(ArrivalIndex index, Stop stop, long now, List<ArrivalIndex.Arrival> out) {
+        Set<String> ids = new LinkedHashSet<>(3);
+        if (stop.getGtfsCode() != null) ids.add(stop.getGtfsCode().toUpperCase());
+        if (stop.getOutboundCode() != null) ids.add(String.valueOf(stop.getOutboundCode()));
+        if (stop.getReturnCode() != null) ids.add(String.valueOf(stop.getReturnCode()));
+        for (String id : ids) index.arrivalsAt(id, now, out);
+    }
+
+    static String stopTimesJson(Stop stop, List<ArrivalIndex.Arrival> arrivals, long now) {
+        JsonObject root = new JsonObject();
+        if (stop != null) {
+            JsonObject s = new JsonObject();
+            s.addProperty("id", stop.getId());
+            s.addProperty("gtfsCode", stop.getGtfsCode());
+            s.addProperty("name", stop.getName());
+            s.addProperty("outboundCode", stop.getOutboundCode());
+            s.addProperty("returnCode", stop.getReturnCode());
+            root.add("stop", s);
+        } else {
+            root.add("stop", JsonNull.INSTANCE);
         }
-        if (stop == null) {
-            AOBLogger.log("Stop not found for gtfsCode: " + gtfsCode);
-            return "";
+        root.addProperty("timestamp", now);
+        JsonArray list = new JsonArray(arrivals.size());
+        for (ArrivalIndex.Arrival a : arrivals) {
+            JsonObject o = new JsonObject();
+            o.addProperty("network", a.network());
+            o.addProperty("line", a.routeId());
+            o.addProperty("tripId", a.tripId());
+            o.addProperty("stopId", a.stopId());
+            o.addProperty("arrival", a.arrival());
+            o.addProperty("minutes", (a.arrival() - now) / 60);
+            if (a.delay() != null) o.addProperty("delay", a.delay());
+            list.add(o);
         }
-        // Check both networks' GTFS-RT feeds (TRAMBESOS and TRAMBAIX) so we find updates regardless of network
-        String[] networks = new String[]{"TRAMBESOS", "TRAMBAIX"};
-        long now = System.currentTimeMillis() / 1000;
-        for (String net : networks) {
-            FeedMessage feed = apiClient.getGtfsrtData(net);
-            for (FeedEntity entity : feed.getEntityList()) {
-                if (!entity.hasTripUpdate()) continue;
-                TripUpdate trip = entity.getTripUpdate();
-
-                for (TripUpdate.StopTimeUpdate stopUpdate : trip.getStopTimeUpdateList()) {
-                    String stopId = stopUpdate.getStopId();
-                    if (!stopId.equalsIgnoreCase(stop.getGtfsCode()) &&
-                            !stopId.equalsIgnoreCase(String.valueOf(stop.getOutboundCode())) &&
-                            !stopId.equalsIgnoreCase(String.valueOf(stop.getReturnCode())))
-                        continue;
-
-                    long arrivalSec;
-                    try {
-                        arrivalSec = stopUpdate.getArrival().getTime();
-                    } catch (Exception e) {
-                        continue;
-                    }
-                    if (arrivalSec <= 0) continue;
-
-                    long diffMin = (arrivalSec - now) / 60;
-                    AOBLogger.log("[" + net + "] Trip " + trip.getTrip().getTripId() +
-                            " | Line " + trip.getTrip().getRouteId() +
-                            " → " + diffMin + " min to stop " + stop.getName() +
-                            " (" + stop.getGtfsCode() + ")");
-                }
+        root.add("arrivals", list);
+        return root.toString();
+    }
+
+    /**
+     * Vehicle positions of both networks as JSON, from each network's {@link VehicleIndex}, so polling clients
+     * normally cost neither an upstream call nor a pass over the feed.
+     *
+     * @param line GTFS route id to keep (case-insensitive), or null for every line
+     * @param bbox {minLon, minLat, maxLon, maxLat} to keep, or null for everywhere
+     */
+    public CompletableFuture<String> getVehiclesJsonAsync(String line, double[] bbox) {
+        CompletableFuture<VehicleIndex> besos = poller.currentVehiclesAsync("TRAMBESOS");
+        CompletableFuture<VehicleIndex> baix = poller.currentVehiclesAsync("TRAMBAIX");
+        return besos.thenCombine(baix, (b, x) -> {
+            List<VehicleIndex.Vehicle> vehicles = new ArrayList<>(b.size() + x.size());
+            for (VehicleIndex index : List.of(b, x)) {
+                if (bbox == null) index.all(line, vehicles);
+                else index.within(bbox[1], bbox[0], bbox[3], bbox[2], line, vehicles);
             }
-        }
-        return "Check console";
+            JsonObject root = new JsonObject();
+            root.addProperty("timestamp", System.currentTimeMillis() / 1000);
+            root.add("vehicles", JSON.toJsonTree(vehicles));
+            return root.toString();
+        });
+    }
+
+    public String getVehiclesJson(String line, double[] bbox) throws IOException {
+        return Futures.await(getVehiclesJsonAsync(line, bbox));
     }
 
     /** Devuelve info JSON de todas las líneas */
+    public CompletableFuture<String> getLinesJsonAsync() {
+        return apiClient.getLinesAsync();
+    }
+
     public String getLinesJson() throws IOException {
         return apiClient.getLines();
     }
@@ -127,11 +187,18 @@ public class TramService {
         return stop != null ? stop.toJson() : "{}";
     }
 
-    /** Clear cached stops/lines and reload stops from API (useful during debugging). */
+    /**
+     * Clear cached stops/lines and reload stops from API (useful during debugging). The registry is replaced once
+     * the reload completes; until then lookups keep answering from the current one.
+     */
+    public CompletableFuture<Integer> refreshStopsAsync() {
+        apiClient.clearAllApiCache();
+        return loadAllStopsAsync();
+    }
+
     public String refreshStops() {
         try {
-            apiClient.clearAllApiCache();
-            loadAllStops();
+            Futures.await(refreshStopsAsync());
             return "ok";
         } catch (IOException e) {
             AOBLogger.error("Failed to refresh stops", e);
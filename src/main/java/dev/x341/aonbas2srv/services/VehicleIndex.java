@@ -0,0 +1,128 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import dev.x341.aonbas2srv.services.search.GeoGrid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Vehicle positions of one network's GTFS-RT vehicleUpdate feed, copied once per feed version into parallel
+ * primitive arrays with a {@link GeoGrid} and a per-route list on top. Bounding-box and line queries then cost the
+ * grid cells or the line's vehicles instead of a walk over the protobuf entities. Immutable.
+ */
+public final class VehicleIndex {
+
+    /**
+     * One vehicle position.
+     *
+     * @param network network the feed belongs to (e.g. TRAMBESOS)
+     * @param id vehicle id (entity id if the feed gives none)
+     * @param tripId GTFS trip id, or null
+     * @param routeId GTFS route (line) id, or null
+     * @param lat latitude
+     * @param lon longitude
+     * @param bearing degrees clockwise from north, or null if not reported
+     * @param timestamp when the position was measured, POSIX seconds
+     */
+    public record Vehicle(String network, String id, String tripId, String routeId, double lat, double lon,
+                          Float bearing, long timestamp) {}
+
+    private final String network;
+    private final FeedMessage feed;
+    private final String[] ids;
+    private final String[] tripIds;
+    private final String[] routeIds;
+    private final double[] lat;
+    private final double[] lon;
+    private final float[] bearing; // NaN where not reported
+    private final long[] timestamp;
+    private final GeoGrid grid;
+    private final Map<String, int[]> byRoute; // upper-case route id -> vehicle numbers
+
+    /**
+     * @param network network name recorded on each vehicle
+     * @param feed parsed vehicleUpdate feed; entities without a position are skipped
+     */
+    public VehicleIndex(String network, FeedMessage feed) {
+        this.network = network;
+        this.feed = feed;
+        List<FeedEntity> located = new ArrayList<>(feed.getEntityCount());
+        for (FeedEntity e : feed.getEntityList()) {
+            if (e.hasVehicle() && e.getVehicle().hasPosition()) located.add(e);
+        }
+        int n = located.size();
+        this.ids = new String[n];
+        this.tripIds = new String[n];
+        this.routeIds = new String[n];
+        this.lat = new double[n];
+        this.lon = new double[n];
+        this.bearing = new float[n];
+        this.timestamp = new long[n];
+        long fallbackTime = feed.getHeader().getTimestamp();
+        Map<String, List<Integer>> routes = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            FeedEntity e = located.get(i);
+            VehiclePosition v = e.getVehicle();
+            String id = v.hasVehicle() ? v.getVehicle().getId() : "";
+            ids[i] = id.isEmpty() ? e.getId() : id;
+            tripIds[i] = v.hasTrip() && !v.getTrip().getTripId().isEmpty() ? v.getTrip().getTripId() : null;
+            routeIds[i] = v.hasTrip() && !v.getTrip().getRouteId().isEmpty() ? v.getTrip().getRouteId() : null;
+            lat[i] = v.getPosition().getLatitude();
+            lon[i] = v.getPosition().getLongitude();
+            bearing[i] = v.getPosition().hasBearing() ? v.getPosition().getBearing() : Float.NaN;
+            timestamp[i] = v.getTimestamp() != 0 ? v.getTimestamp() : fallbackTime;
+            if (routeIds[i] != null) {
+                routes.computeIfAbsent(routeIds[i].toUpperCase(Locale.ROOT), k -> new ArrayList<>()).add(i);
+            }
+        }
+        this.grid = new GeoGrid(lat, lon);
+        this.byRoute = new HashMap<>(Math.max(16, routes.size() * 2));
+        routes.forEach((route, list) -> byRoute.put(route, list.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /** The feed this index was built from. */
+    public FeedMessage feed() { return feed; }
+    public String network() { return network; }
+    public int size() { return ids.length; }
+
+    /**
+     * Append the vehicles inside a box, optionally only those of one line.
+     *
+     * @param routeId line to keep (case-insensitive), or null for every line
+     * @param out list the vehicles are appended to
+     */
+    public void within(double minLat, double minLon, double maxLat, double maxLon, String routeId, List<Vehicle> out) {
+        int[] candidates = routeId != null ? byRoute.get(routeId.toUpperCase(Locale.ROOT))
+                : grid.candidates(minLat, minLon, maxLat, maxLon);
+        if (candidates == null) return;
+        for (int i : candidates) {
+            if (lat[i] >= minLat && lat[i] <= maxLat && lon[i] >= minLon && lon[i] <= maxLon) out.add(vehicle(i));
+        }
+    }
+
+    /**
+     * Append every vehicle, optionally only those of one line.
+     *
+     * @param routeId line to keep (case-insensitive), or null for every line
+     * @param out list the vehicles are appended to
+     */
+    public void all(String routeId, List<Vehicle> out) {
+        if (routeId == null) {
+            for (int i = 0; i < ids.length; i++) out.add(vehicle(i));
+            return;
+        }
+        int[] onRoute = byRoute.get(routeId.toUpperCase(Locale.ROOT));
+        if (onRoute != null) for (int i : onRoute) out.add(vehicle(i));
+    }
+
+    private Vehicle vehicle(int i) {
+        return new Vehicle(network, ids[i], tripIds[i], routeIds[i], lat[i], lon[i],
+                Float.isNaN(bearing[i]) ? null : bearing[i], timestamp[i]);
+    }
+}
@@ -0,0 +1,69 @@
+package dev.x341.aonbas2srv.services.apiclients;
+
+import dev.x341.aonbas2srv.util.Futures;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bridges OkHttp's {@code enqueue} to CompletableFuture. Calls run on the client's dispatcher, so the number of
+ * threads is bounded by its limits however many calls are waiting; cancelling the future cancels the call.
+ */
+final class AsyncHttp {
+    private AsyncHttp() {}
+
+    /**
+     * Reads what the caller needs from a response; runs on the dispatcher thread that received it.
+     *
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    interface ResponseReader<T> {
+        T read(Response response) throws IOException;
+    }
+
+    /**
+     * Enqueue a call. The caller owns (and must close) the response.
+     *
+     * @return future completing with the response, or with the transport failure
+     */
+    static CompletableFuture<Response> call(OkHttpClient client, Request request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (!future.complete(response)) response.close();
+            }
+        });
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) call.cancel();
+        });
+        return future;
+    }
+
+    /**
+     * Read a response as soon as it arrives and close it.
+     *
+     * @return future completing with what the reader returned, or with its failure
+     */
+    static <T> CompletableFuture<T> read(CompletableFuture<Response> response, ResponseReader<T> reader) {
+        return response.thenApply(res -> {
+            try (res) {
+                return reader.read(res);
+            } catch (IOException e) {
+                throw Futures.wrap(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,165 @@
+package dev.x341.aonbas2srv.services.apiclients;
+
+import dev.x341.aonbas2srv.dto.Stop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookup structures over one version of the TRAM stop list, built once when that version is first used. Answers
+ * {@link TramApiClient#getStop} with the same precedence as scanning the list: numeric id, then exact gtfsCode
+ * (case-insensitive), then gtfsCode without punctuation, then the first stop (in list order) whose code or name
+ * contains the query. Partial matches go through an index of every 1 to {@value #GRAM}-character substring of codes
+ * and names, so only stops sharing the query's rarest {@value #GRAM}-gram are checked.
+ * <p>
+ * Immutable. The stops themselves are shared by every caller and must not be modified.
+ */
+public final class StopIndex {
+
+    static final int GRAM = 3;
+    private static final int[] NONE = new int[0];
+
+    private final Object source;
+    private final List<Stop> stops;
+    private final Map<Integer, Stop> byId;
+    private final Map<String, Stop> byCode;
+    private final Map<String, Stop> bySanitizedCode;
+    private final Map<String, int[]> grams;
+    private final String[] codes;
+    private final String[] names;
+    private final Set<String> gtfsCodes;
+    private final Set<String> stopIds;
+
+    /**
+     * @param source what the stops were read from; {@link #isFor} compares it by identity to tell whether this index
+     *               still describes the current list
+     * @param stops stops in list order
+     */
+    public StopIndex(Object source, List<Stop> stops) {
+        this.source = source;
+        this.stops = Collections.unmodifiableList(new ArrayList<>(stops));
+        int n = this.stops.size();
+        Map<Integer, Stop> ids = new HashMap<>(n * 2);
+        Map<String, Stop> byCode = new HashMap<>(n * 2);
+        Map<String, Stop> bySanitized = new HashMap<>(n * 2);
+        Map<String, List<Integer>> grams = new HashMap<>();
+        Set<String> gtfsCodes = new LinkedHashSet<>();
+        Set<String> stopIds = new LinkedHashSet<>();
+        this.codes = new String[n];
+        this.names = new String[n];
+        for (int i = 0; i < n; i++) {
+            Stop s = this.stops.get(i);
+            if (s == null) continue;
+            if (s.getId() != null && s.getId() != 0) {
+                ids.putIfAbsent(s.getId(), s);
+                stopIds.add(String.valueOf(s.getId()));
+            }
+            String code = s.getGtfsCode();
+            if (code != null) {
+                if (!code.isEmpty()) {
+                    gtfsCodes.add(code);
+                    stopIds.add(code);
+                }
+                String upper = code.trim().toUpperCase();
+                byCode.putIfAbsent(upper, s);
+                bySanitized.putIfAbsent(sanitize(upper), s);
+                codes[i] = code.toUpperCase();
+                addGrams(grams, codes[i], i);
+            }
+            if (s.getName() != null) {
+                names[i] = s.getName().toUpperCase();
+                addGrams(grams, names[i], i);
+            }
+        }
+        this.byId = ids;
+        this.byCode = byCode;
+        this.bySanitizedCode = bySanitized;
+        this.grams = new HashMap<>(grams.size() * 2);
+        grams.forEach((gram, positions) -> this.grams.put(gram, positions.stream().mapToInt(Integer::intValue).toArray()));
+        this.gtfsCodes = Collections.unmodifiableSet(gtfsCodes);
+        this.stopIds = Collections.unmodifiableSet(stopIds);
+    }
+
+    private static void addGrams(Map<String, List<Integer>> grams, String text, int position) {
+        for (int start = 0; start < text.length(); start++) {
+            for (int end = start + 1; end <= Math.min(text.length(), start + GRAM); end++) {
+                List<Integer> positions = grams.computeIfAbsent(text.substring(start, end), k -> new ArrayList<>());
+                // Positions arrive in ascending order, so only the last one can repeat
+                if (positions.isEmpty() || positions.get(positions.size() - 1) != position) positions.add(position);
+            }
+        }
+    }
+
+    /** Upper case with everything but A-Z and 0-9 removed. */
+    static String sanitize(String upper) {
+        StringBuilder sb = new StringBuilder(upper.length());
+        for (int i = 0; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) sb.append(c);
+        }
+        return sb.length() == upper.length() ? upper : sb.toString();
+    }
+
+    /** Whether this index was built from {@code source} (by identity). */
+    public boolean isFor(Object source) {
+        return this.source == source;
+    }
+
+    /** All stops, in list order. */
+    public List<Stop> stops() { return stops; }
+
+    /** Non-empty gtfsCodes as given by TRAM. */
+    public Set<String> gtfsCodes() { return gtfsCodes; }
+
+    /** gtfsCodes plus numeric ids as strings. */
+    public Set<String> stopIds() { return stopIds; }
+
+    /**
+     * Find a stop by id, gtfsCode or partial code/name.
+     *
+     * @param query trimmed, non-empty query
+     * @return the stop, or null if nothing matches
+     */
+    public Stop find(String query) {
+        try {
+            Stop s = byId.get(Integer.parseInt(query));
+            if (s != null) return s;
+        } catch (NumberFormatException ignored) {}
+
+        String qUpper = query.toUpperCase();
+        Stop s = byCode.get(qUpper);
+        if (s != null) return s;
+
+        String sanitized = sanitize(qUpper);
+        if (!sanitized.equals(qUpper)) {
+            s = bySanitizedCode.get(sanitized);
+            if (s != null) return s;
+        }
+        return findPartial(qUpper);
+    }
+
+    private Stop findPartial(String qUpper) {
+        if (qUpper.length() <= GRAM) {
+            // The query is itself a gram: its positions are exactly the stops containing it
+            int[] positions = grams.get(qUpper);
+            return positions != null ? stops.get(positions[0]) : null;
+        }
+        int[] candidates = null;
+        for (int i = 0; i + GRAM <= qUpper.length(); i++) {
+            int[] positions = grams.getOrDefault(qUpper.substring(i, i + GRAM), NONE);
+            if (candidates == null || positions.length < candidates.length) candidates = positions;
+            if (candidates.length == 0) return null;
+        }
+        for (int i : candidates) {
+            if ((codes[i] != null && codes[i].contains(qUpper)) || (names[i] != null && names[i].contains(qUpper))) {
+                return stops.get(i);
+            }
+        }
+        return null;
+    }
+}
@@ -1,110 +1,158 @@
 package dev.x341.aonbas2srv.services.apiclients;
 
-import com.google.gson.Gson;
 import com.google.inject.Inject;
 import dev.x341.aonbas2srv.dto.MetroDto;
 import dev.x341.aonbas2srv.services.CacheService;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
 import dev.x341.aonbas2srv.util.AOBConfig;
 import dev.x341.aonbas2srv.util.AOBLogger;
+import dev.x341.aonbas2srv.util.Futures;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.Response;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 public class TmbApiClient {
     private final OkHttpClient client;
     private final String authParams;
     private final CacheService cacheService;
-    private final Gson gson = new Gson();
+    private final JsonCodec codec;
     private static final String BASE_URL = "https://api.tmb.cat/v1";
 
-    private static final String KEY_LINES = "tmb:lines";
-    private static final String KEY_STATIONS_PREFIX = "tmb:stations:";
     private static final String KEY_INTERCHANGES_PREFIX = "tmb:interchanges:";
     private static final String KEY_TRAINS_PREFIX = "tmb:trains:";
 
     private static final int TRAIN_DATA_TTL_SECONDS = 10;
+    // Arrival predictions a minute old are still better than an error while TMB is unreachable
+    private static final int TRAIN_DATA_GRACE_SECONDS = 60;
+
+    /** Cache key holding the raw real-time train JSON for a station. */
+    public static String trainsKey(String stationCode) { return KEY_TRAINS_PREFIX + stationCode; }
+
+    /** Cache key holding the raw interchanges JSON for a station of a line. */
+    public static String interchangesKey(String lineCode, String stationCode) {
+        return KEY_INTERCHANGES_PREFIX + lineCode + ":" + stationCode;
+    }
 
     @Inject
-    public TmbApiClient(AOBConfig config, CacheService cacheService) {
-        this.client = new OkHttpClient();
+    public TmbApiClient(AOBConfig config, CacheService cacheService, OkHttpClient client, JsonCodec codec) {
+        this.client = client;
         this.authParams = String.format("app_id=%s&app_key=%s", config.getTmbAppId(), config.getTmbAppKey());
         this.cacheService = cacheService;
+        this.codec = codec;
     }
 
     private String buildUrl(String endpoint) {
         return String.format("%s/%s?%s", BASE_URL, endpoint, authParams);
     }
 
-    private String executeGetUrl(String url) throws IOException {
+    private <T> CompletableFuture<T> executeGetUrlAsync(String url, AsyncHttp.ResponseReader<T> reader) {
         Request request = new Request.Builder().url(url).build();
         AOBLogger.log("Calling TMB API: " + url);
-        try (Response response = client.newCall(request).execute()) {
+        return AsyncHttp.read(AsyncHttp.call(client, request), response -> {
             if (!response.isSuccessful()) throw new IOException("TMB API call failed: " + response.code());
-            return response.body().string();
-        }
+            return reader.read(response);
+        });
+    }
+
+    private CompletableFuture<String> executeGetUrlAsync(String url) {
+        return executeGetUrlAsync(url, response -> response.body().string());
+    }
+
+    private CompletableFuture<String> executeTmbCallAsync(String endpoint) {
+        return executeGetUrlAsync(buildUrl(endpoint));
+    }
+
+    /** Decode the response straight from the body stream, without holding it as a String. */
+    private CompletableFuture<MetroDto> executeTmbDtoCallAsync(String endpoint) {
+        return executeGetUrlAsync(buildUrl(endpoint),
+                response -> codec.fromJson(response.body().charStream(), MetroDto.class));
     }
 
-    private String executeTmbCall(String endpoint) throws IOException {
-        return executeGetUrl(buildUrl(endpoint));
+    private MetroDto toDto(String json) {
+        return codec.fromJson(json, MetroDto.class);
     }
 
+    // The blocking methods wait for their *Async counterpart; the async ones never hold a thread while waiting
+    // on TMB, so prefer them on request paths.
+
+    // Lines and stations are not cached here: MetroService keeps them in the cache's object tier, which also shares
+    // concurrent loads. Caching the body as well would keep a second copy, and reloads of the object tier would
+    // keep being fed from it after their own entry had expired.
+
     // -------------------- LINES --------------------
+    public CompletableFuture<String> getMetroLinesJsonAsync() {
+        return executeTmbCallAsync("transit/linies/metro");
+    }
+
+    public CompletableFuture<MetroDto> getMetroLinesDtoAsync() {
+        return executeTmbDtoCallAsync("transit/linies/metro");
+    }
+
     public String getMetroLinesJson() throws IOException {
-        String cached = cacheService.get(KEY_LINES);
-        if (cached != null) return cached;
-        String result = executeTmbCall("transit/linies/metro");
-        if (result != null) cacheService.put(KEY_LINES, result);
-        return result;
+        return Futures.await(getMetroLinesJsonAsync());
     }
 
     public MetroDto getMetroLinesDto() throws IOException {
-        return gson.fromJson(getMetroLinesJson(), MetroDto.class);
+        return Futures.await(getMetroLinesDtoAsync());
     }
 
     // -------------------- STATIONS --------------------
+    private static String stationsEndpoint(String lineCode) {
+        return String.format("transit/linies/metro/%s/estacions", lineCode);
+    }
+
+    public CompletableFuture<String> getStationsForLineJsonAsync(String lineCode) {
+        return executeTmbCallAsync(stationsEndpoint(lineCode));
+    }
+
+    public CompletableFuture<MetroDto> getStationsForLineDtoAsync(String lineCode) {
+        return executeTmbDtoCallAsync(stationsEndpoint(lineCode));
+    }
+
     public String getStationsForLineJson(String lineCode) throws IOException {
-        String key = KEY_STATIONS_PREFIX + lineCode;
-        String cached = cacheService.get(key);
-        if (cached != null) return cached;
-        String endpoint = String.format("transit/linies/metro/%s/estacions", lineCode);
-        String result = executeTmbCall(endpoint);
-        if (result != null) cacheService.put(key, result);
-        return result;
+        return Futures.await(getStationsForLineJsonAsync(lineCode));
     }
 
     public MetroDto getStationsForLineDto(String lineCode) throws IOException {
-        return gson.fromJson(getStationsForLineJson(lineCode), MetroDto.class);
+        return Futures.await(getStationsForLineDtoAsync(lineCode));
     }
 
     // -------------------- TRAINS --------------------
-    public String getTrainsForStationJson(String stationCode) throws IOException {
-        String key = KEY_TRAINS_PREFIX + stationCode;
-        String cached = cacheService.get(key);
-        if (cached != null) return cached;
+    public CompletableFuture<String> getTrainsForStationJsonAsync(String stationCode) {
         String url = String.format("%s/itransit/metro/estacions?estacions=%s&%s", BASE_URL, stationCode, authParams);
-        String result = executeGetUrl(url);
-        if (result != null) cacheService.put(key, result, TRAIN_DATA_TTL_SECONDS);
-        return result;
+        return cacheService.getOrLoadAsync(trainsKey(stationCode), TRAIN_DATA_TTL_SECONDS, TRAIN_DATA_GRACE_SECONDS,
+                () -> executeGetUrlAsync(url));
+    }
+
+    public CompletableFuture<MetroDto> getTrainsForStationDtoAsync(String stationCode) {
+        return getTrainsForStationJsonAsync(stationCode).thenApply(this::toDto);
+    }
+
+    public String getTrainsForStationJson(String stationCode) throws IOException {
+        return Futures.await(getTrainsForStationJsonAsync(stationCode));
     }
 
     public MetroDto getTrainsForStationDto(String stationCode) throws IOException {
-        return gson.fromJson(getTrainsForStationJson(stationCode), MetroDto.class);
+        return Futures.await(getTrainsForStationDtoAsync(stationCode));
     }
 
     // -------------------- INTERCHANGES --------------------
-    public String getInterchangesJson(String lineCode, String stationCode) throws IOException {
-        String key = KEY_INTERCHANGES_PREFIX + lineCode + ":" + stationCode;
-        String cached = cacheService.get(key);
-        if (cached != null) return cached;
+    public CompletableFuture<String> getInterchangesJsonAsync(String lineCode, String stationCode) {
         String endpoint = String.format("transit/linies/metro/%s/estacions/%s/corresp", lineCode, stationCode);
-        String result = executeTmbCall(endpoint);
-        if (result != null) cacheService.put(key, result);
-        return result;
+        return cacheService.getOrLoadAsync(interchangesKey(lineCode, stationCode), () -> executeTmbCallAsync(endpoint));
+    }
+
+    public CompletableFuture<MetroDto> getInterchangesDtoAsync(String lineCode, String stationCode) {
+        return getInterchangesJsonAsync(lineCode, stationCode).thenApply(this::toDto);
+    }
+
+    public String getInterchangesJson(String lineCode, String stationCode) throws IOException {
+        return Futures.await(getInterchangesJsonAsync(lineCode, stationCode));
     }
 
     public MetroDto getInterchangesDto(String lineCode, String stationCode) throws IOException {
-        return gson.fromJson(getInterchangesJson(lineCode, stationCode), MetroDto.class);
+        return Futures.await(getInterchangesDtoAsync(lineCode, stationCode));
     }
 }
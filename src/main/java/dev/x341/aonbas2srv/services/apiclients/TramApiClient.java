@@ -1,292 +1,413 @@
 package dev.x341.aonbas2srv.services.apiclients;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.inject.Inject;
+import dev.x341.aonbas2srv.dto.RealtimeFeed;
 import dev.x341.aonbas2srv.dto.Stop;
 import dev.x341.aonbas2srv.services.CacheService;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
+import dev.x341.aonbas2srv.util.AOBConfig;
 import dev.x341.aonbas2srv.util.AOBLogger;
+import dev.x341.aonbas2srv.util.Futures;
+import com.google.protobuf.CodedInputStream;
 import com.google.transit.realtime.GtfsRealtime.*;
 import okhttp3.*;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
 
 public class TramApiClient {
     private static final String BASE_URL = "https://opendata.tram.cat/api/v1";
-    private final OkHttpClient client = new OkHttpClient();
+    private static final String[] NETWORK_IDS = new String[]{"1", "2"};
+    private final OkHttpClient client;
     private final CacheService cacheService;
-    private final Gson gson = new Gson();
+    private final String baseUrl;
+    private final int fetchConcurrency;
+    private final JsonCodec codec;
+    private volatile StopIndex stopIndex;
     private static final int HTTP_MAX_RETRIES = 3;
     private static final long HTTP_BACKOFF_MS = 500;
     private static final int DEFAULT_PAGE_SIZE = 100;
+    /** Keys a paginated endpoint may wrap its array of stops in, most preferred first. */
+    private static final String[] PAGE_ARRAY_KEYS = {"data", "stops", "items", "results", "features"};
+    private static final int GTFS_RT_TTL_SECONDS = 30;
+    // How long an expired feed may still be served while it is refreshed or while TRAM is failing
+    private static final int GTFS_RT_GRACE_SECONDS = 120;
+    // Last download of each GTFS-RT URL and last feed of each network, so an unchanged feed is neither parsed nor
+    // rebuilt again and its consumers can tell by identity that nothing changed
+    private final Map<String, FeedVersion> feedVersions = new ConcurrentHashMap<>();
+    private final Map<String, RealtimeFeed> realtimeFeeds = new ConcurrentHashMap<>();
+
+    private record FeedVersion(long checksum, long headerTimestamp, FeedMessage message) {}
 
     @Inject
-    public TramApiClient(CacheService cacheService) {
+    public TramApiClient(CacheService cacheService, OkHttpClient client, AOBConfig config, JsonCodec codec) {
+        this(cacheService, client, BASE_URL, config.getTramFetchConcurrency(), codec);
+    }
+
+    /**
+     * @param baseUrl API root, e.g. a local stub in tests and benchmarks
+     * @param fetchConcurrency page requests a stop load may have in flight; 1 fetches sequentially
+     */
+    public TramApiClient(CacheService cacheService, OkHttpClient client, String baseUrl, int fetchConcurrency) {
+        this(cacheService, client, baseUrl, fetchConcurrency, JsonCodec.shared());
+    }
+
+    private TramApiClient(CacheService cacheService, OkHttpClient client, String baseUrl, int fetchConcurrency,
+                          JsonCodec codec) {
         this.cacheService = cacheService;
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.fetchConcurrency = Math.max(1, fetchConcurrency);
+        this.codec = codec;
     }
 
+    /** Cache key holding the raw lines JSON. */
+    public static String linesKey() { return "lines:all"; }
+
+    /** Cache key holding the parsed stop list of a line (object tier). */
+    public static String lineStopsKey(String lineId) { return "stops:line:" + lineId; }
+
+    // The blocking methods wait for their *Async counterpart; the async ones never hold a thread while waiting
+    // on TRAM, so prefer them on request paths.
+
     /** Obtiene todas las líneas (cached as JSON string) */
+    public CompletableFuture<String> getLinesAsync() {
+        return cacheService.getOrLoadAsync(linesKey(), this::fetchLinesAsync);
+    }
+
     public String getLines() throws IOException {
-        String cacheKey = "lines:all";
-        String cached = cacheService.get(cacheKey);
-        if (cached != null) return cached;
+        return Futures.await(getLinesAsync());
+    }
 
+    private CompletableFuture<String> fetchLinesAsync() {
         Request req = new Request.Builder()
-                .url(BASE_URL + "/lines?page=0&pageSize=100")
+                .url(baseUrl + "/lines?page=0&pageSize=100")
                 .build();
-        try (Response res = executeRequest(req)) {
+        return executeRequestAsync(req, res -> {
             if (!res.isSuccessful() || res.body() == null)
                 throw new IOException("Failed to fetch lines: " + res);
-            String json = res.body().string();
-            cacheService.put(cacheKey, json);
-            return json;
-        }
+            return res.body().string();
+        });
+    }
+
+    /**
+     * Obtiene todas las paradas de una línea como lista de Stop (cached). The list is kept parsed in the object tier,
+     * so it is read once per upstream load and shared by every caller until it is replaced; do not modify it.
+     */
+    public CompletableFuture<List<Stop>> getStopsAsync(String lineId) {
+        return cacheService.getOrLoadObjectAsync(lineStopsKey(lineId), () -> fetchStopsAsync(lineId).thenApply(this::typedStops))
+                .thenApply(typed -> typed != null ? typed.value() : List.of());
+    }
+
+    /** Cache value for a freshly fetched line: the stops and their JSON, weighed as both at about two bytes a char. */
+    private CacheService.Typed<List<Stop>> typedStops(List<Stop> stops) {
+        String json = codec.toJson(stops);
+        return new CacheService.Typed<>(List.copyOf(stops), json, 4L * json.length());
     }
 
-    /** Obtiene todas las paradas de una línea como lista de Stop (uses cache) */
     public List<Stop> getStops(String lineId) throws IOException {
-         String cacheKey = "stops:line:" + lineId;
-         String cached = cacheService.get(cacheKey);
-         if (cached != null) {
-             JsonArray arr = JsonParser.parseString(cached).getAsJsonArray();
-             List<Stop> stops = new ArrayList<>();
-             for (JsonElement el : arr) {
-                 stops.add(Stop.fromJson(el));
-             }
-             return stops;
-         }
+        return Futures.await(getStopsAsync(lineId));
+    }
 
+    private CompletableFuture<List<Stop>> fetchStopsAsync(String lineId) {
         // Fetch from both networks (TRAMBESOS=1 and TRAMBAIX=2) and combine results
-        JsonArray combined = new JsonArray();
-        String[] networkIds = new String[]{"1", "2"};
-        for (String nid : networkIds) {
-            int page = 0;
-            while (true) {
-                Request req = new Request.Builder()
-                        .url(BASE_URL + "/lines/" + lineId + "/stops?page=" + page + "&pageSize=" + DEFAULT_PAGE_SIZE + "&networkId=" + nid)
-                        .build();
-                try (Response res = executeRequest(req)) {
-                    if (!res.isSuccessful() || res.body() == null)
-                        throw new IOException("Failed to fetch stops for line " + lineId + " networkId=" + nid + ": " + res);
-
-                    String json = res.body().string();
-                    JsonElement root = JsonParser.parseString(json);
-                    JsonArray arr = normalizeToArray(root);
-                    if (arr.isEmpty()) break;
-                    for (JsonElement e : arr) combined.add(e);
-                    if (arr.size() < DEFAULT_PAGE_SIZE) break;
-                    page++;
-                }
-            }
-        }
+        return fetchNetworksAsync("/lines/" + lineId + "/stops", "stops for line " + lineId).thenApply(combined -> {
+            List<Stop> stops = combined.list();
+            AOBLogger.log("Fetched " + stops.size() + " stops for line " + lineId);
+            if (!stops.isEmpty()) AOBLogger.log("Sample stop: " + stops.get(0).toJson());
+            return stops;
+        });
+    }
 
-        List<Stop> stops = new ArrayList<>();
-        // Deduplicate by gtfsCode (prefer), fallback to id
-        java.util.Map<String, Stop> uniq = new java.util.LinkedHashMap<>();
-        for (JsonElement o : combined) {
-            Stop s = Stop.fromJson(o);
-            if (s == null) continue;
-            String key = null;
-            if (s.getGtfsCode() != null && !s.getGtfsCode().isEmpty()) key = s.getGtfsCode().toUpperCase();
-            else if (s.getId() != 0) key = String.valueOf(s.getId());
-            else key = java.util.UUID.randomUUID().toString();
-            if (!uniq.containsKey(key)) uniq.put(key, s);
-        }
-        stops.addAll(uniq.values());
-        cacheService.put(cacheKey, gson.toJson(stops));
-        AOBLogger.log("Fetched " + stops.size() + " stops for line " + lineId);
-        if (!stops.isEmpty()) AOBLogger.log("Sample stop: " + stops.get(0).toJson());
-        return stops;
+    /**
+     * Obtiene todas las paradas del sistema (cached). The list and its stops are shared by every caller until the
+     * cached stop list changes; do not modify them.
+     */
+    public CompletableFuture<List<Stop>> getAllStopsAsync() {
+        return getStopIndexAsync().thenApply(StopIndex::stops);
+    }
+
+    /** Lookup index over the current stop list; rebuilt only when the cached list is replaced. */
+    public CompletableFuture<StopIndex> getStopIndexAsync() {
+        return cacheService.getOrLoadAsync("stops:all", () -> fetchAllStopsAsync().thenApply(codec::toJson))
+                .thenApply(this::stopIndex);
+    }
+
+    private StopIndex stopIndex(String json) {
+        StopIndex current = stopIndex;
+        if (current != null && current.isFor(json)) return current;
+        // The cache hands out the same String until the entry is replaced, so identity identifies the version
+        StopIndex index = new StopIndex(json, parseStops(json));
+        stopIndex = index;
+        return index;
     }
 
-    /** Obtiene todas las paradas del sistema (cached) */
     public List<Stop> getAllStops() throws IOException {
-         String cacheKey = "stops:all";
-         String cached = cacheService.get(cacheKey);
-         if (cached != null) {
-             JsonArray arr = JsonParser.parseString(cached).getAsJsonArray();
-             List<Stop> stops = new ArrayList<>();
-             for (JsonElement el : arr) stops.add(Stop.fromJson(el));
-             return stops;
-         }
+        return Futures.await(getAllStopsAsync());
+    }
+
+    private List<Stop> parseStops(String json) {
+        if (json == null) return new ArrayList<>();
+        return codec.readStops(new StringReader(json));
+    }
 
+    private CompletableFuture<List<Stop>> fetchAllStopsAsync() {
         // Fetch stops for both networks and combine
-        JsonArray combined = new JsonArray();
-        String[] networkIds = new String[]{"1", "2"};
-        for (String nid : networkIds) {
-            int page = 0;
-            while (true) {
-                Request req = new Request.Builder()
-                        .url(BASE_URL + "/stops?page=" + page + "&pageSize=" + DEFAULT_PAGE_SIZE + "&networkId=" + nid)
-                        .build();
-                try (Response res = executeRequest(req)) {
-                    if (!res.isSuccessful() || res.body() == null) {
-                        throw new IOException("Failed to fetch stops for networkId=" + nid + ": " + res);
-                    }
-
-                    String json = res.body().string();
-                    JsonElement root = JsonParser.parseString(json);
-                    JsonArray arr = normalizeToArray(root);
-                    if (arr.isEmpty()) break;
-                    for (JsonElement e : arr) combined.add(e);
-                    if (arr.size() < DEFAULT_PAGE_SIZE) break;
-                    page++;
-                }
+        return fetchNetworksAsync("/stops", "stops").thenApply(combined -> {
+            List<Stop> stops = combined.list();
+            AOBLogger.log("Fetched all stops: " + stops.size());
+            if (!stops.isEmpty()) AOBLogger.log("Sample stop (all): " + stops.get(0).toJson());
+            return stops;
+        });
+    }
+
+    /**
+     * Every page of a paginated endpoint for network 1 followed by network 2, each in page order, regardless of
+     * the order responses arrive in, so deduplication keeps the same stop as a sequential walk would.
+     * <p>
+     * With a concurrency above 1 both networks are fetched at the same time and each network requests a window
+     * of pages at once (its share of the concurrency), speculating that the pages exist. Pages after the first
+     * short one are dropped, including their failures. At concurrency 1 the walk is one page at a time.
+     */
+    private CompletableFuture<UniqueStops> fetchNetworksAsync(String path, String what) {
+        if (fetchConcurrency == 1) {
+            UniqueStops combined = new UniqueStops();
+            CompletableFuture<UniqueStops> chain = CompletableFuture.completedFuture(combined);
+            for (String nid : NETWORK_IDS) {
+                chain = chain.thenCompose(acc -> fetchPageWindowsAsync(path, nid, 0, 1, what, acc));
             }
+            return chain;
         }
+        int window = Math.max(1, fetchConcurrency / NETWORK_IDS.length);
+        List<CompletableFuture<UniqueStops>> networks = new ArrayList<>();
+        for (String nid : NETWORK_IDS) networks.add(fetchPageWindowsAsync(path, nid, 0, window, what, new UniqueStops()));
+        return CompletableFuture.allOf(networks.toArray(new CompletableFuture[0])).thenApply(done -> {
+            UniqueStops combined = new UniqueStops();
+            for (CompletableFuture<UniqueStops> network : networks) combined.addAll(network.join());
+            return combined;
+        });
+    }
 
-        // Deduplicate by gtfsCode/id and produce list
-        java.util.Map<String, Stop> uniqAll = new java.util.LinkedHashMap<>();
-        for (JsonElement el : combined) {
-            Stop s = Stop.fromJson(el);
-            if (s == null) continue;
-            String key = null;
-            if (s.getGtfsCode() != null && !s.getGtfsCode().isEmpty()) key = s.getGtfsCode().toUpperCase();
-            else if (s.getId() != 0) key = String.valueOf(s.getId());
-            else key = java.util.UUID.randomUUID().toString();
-            if (!uniqAll.containsKey(key)) uniqAll.put(key, s);
-        }
-        List<Stop> stops = new ArrayList<>(uniqAll.values());
+    private CompletableFuture<UniqueStops> fetchPageWindowsAsync(String path, String nid, int firstPage, int window,
+                                                                String what, UniqueStops combined) {
+        List<CompletableFuture<List<Stop>>> pages = new ArrayList<>(window);
+        for (int page = firstPage; page < firstPage + window; page++) pages.add(fetchPageAsync(path, nid, page, what));
+        // Wait for every page of the window, failed or not; whether a failure matters depends on the pages before it
+        CompletableFuture<?>[] settled = pages.stream().map(f -> f.handle((v, e) -> null)).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(settled).thenCompose(done -> {
+            for (CompletableFuture<List<Stop>> page : pages) {
+                List<Stop> stops = page.join(); // rethrows the failure of a page that is still needed
+                combined.addAll(stops);
+                if (stops.size() < DEFAULT_PAGE_SIZE) return CompletableFuture.completedFuture(combined);
+            }
+            return fetchPageWindowsAsync(path, nid, firstPage + window, window, what, combined);
+        });
+    }
 
-        cacheService.put(cacheKey, gson.toJson(stops));
-        AOBLogger.log("Fetched all stops: " + stops.size());
-        if (!stops.isEmpty()) AOBLogger.log("Sample stop (all): " + stops.get(0).toJson());
-        return stops;
+    private CompletableFuture<List<Stop>> fetchPageAsync(String path, String nid, int page, String what) {
+        Request req = new Request.Builder()
+                .url(baseUrl + path + "?page=" + page + "&pageSize=" + DEFAULT_PAGE_SIZE + "&networkId=" + nid)
+                .build();
+        return executeRequestAsync(req, res -> {
+            if (!res.isSuccessful() || res.body() == null)
+                throw new IOException("Failed to fetch " + what + " networkId=" + nid + ": " + res);
+            return readStopPage(res.body().charStream());
+        });
     }
 
-    /** Obtiene una parada individual por ID o por gtfs code */
-    public Stop getStop(String stopId) throws IOException {
-        if (stopId == null) return null;
-        String query = stopId.trim();
-        if (query.isEmpty()) return null;
+    /**
+     * Decode a page of stops straight from the response body, one stop at a time. A page is an array of stops, an
+     * object holding that array under one of {@link #PAGE_ARRAY_KEYS} (failing those, its first array property),
+     * or a single stop. Only the array that is used is decoded; the others are skipped unread.
+     *
+     * @return the page's elements in order, one per array element (null elements stay null)
+     */
+    private List<Stop> readStopPage(Reader body) throws IOException {
+        JsonReader in = codec.newReader(body);
+        JsonToken token = in.peek();
+        if (token == JsonToken.BEGIN_ARRAY) return codec.readStops(in);
+        List<Stop> single = new ArrayList<>(1);
+        if (token == JsonToken.NULL) return single;
+        if (token != JsonToken.BEGIN_OBJECT) {
+            single.add(codec.stopAdapter().read(in));
+            return single;
+        }
+        List<Stop> best = null;
+        int bestRank = Integer.MAX_VALUE;
+        // Everything but arrays, in case the object turns out to be the stop itself
+        JsonObject rest = new JsonObject();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() != JsonToken.BEGIN_ARRAY) {
+                rest.add(name, JsonParser.parseReader(in));
+                continue;
+            }
+            int rank = pageArrayRank(name);
+            if (rank < bestRank) {
+                best = codec.readStops(in);
+                bestRank = rank;
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        if (best != null) return best;
+        single.add(codec.stopAdapter().fromJsonTree(rest));
+        return single;
+    }
 
-        String qUpper = query.toUpperCase();
+    /** Preference of an array property of a page object: its place in {@link #PAGE_ARRAY_KEYS}, others after. */
+    private static int pageArrayRank(String name) {
+        for (int i = 0; i < PAGE_ARRAY_KEYS.length; i++) if (PAGE_ARRAY_KEYS[i].equals(name)) return i;
+        return PAGE_ARRAY_KEYS.length;
+    }
 
-        List<Stop> all = getAllStops();
+    /**
+     * Stops in the order they were added, keeping the first stop of each gtfsCode (case-insensitive) or, for stops
+     * without one, of each id. Stops with neither are all kept.
+     */
+    private static final class UniqueStops {
+        private final Map<Object, Stop> byKey = new LinkedHashMap<>();
+
+        void add(Stop s) {
+            if (s == null) return;
+            Object key;
+            if (s.getGtfsCode() != null && !s.getGtfsCode().isEmpty()) key = s.getGtfsCode().toUpperCase(Locale.ROOT);
+            else if (s.getId() != null && s.getId() != 0) key = String.valueOf(s.getId());
+            else key = new Object();
+            byKey.putIfAbsent(key, s);
+        }
 
-        // 1) exact numeric id match
-        for (Stop s : all) {
-            if (s == null) continue;
-            if (s.getId() != 0) {
-                try { if (Integer.parseInt(query) == s.getId()) return s; } catch (NumberFormatException ignored) {}
-            }
+        void addAll(List<Stop> stops) {
+            for (Stop s : stops) add(s);
         }
 
-        // 2) exact gtfs code match
-        for (Stop s : all) {
-            if (s == null) continue;
-            if (s.getGtfsCode() != null && s.getGtfsCode().trim().equalsIgnoreCase(query)) return s;
-            if (s.getGtfsCode() != null && s.getGtfsCode().trim().toUpperCase().equals(qUpper)) return s;
+        void addAll(UniqueStops other) {
+            for (Stop s : other.byKey.values()) add(s);
         }
 
-        // 3) sanitized match: remove non-alphanumeric and compare
-        String sanitize = qUpper.replaceAll("[^A-Z0-9]", "");
-        if (!sanitize.equals(qUpper)) {
-            for (Stop s : all) {
-                if (s == null || s.getGtfsCode() == null) continue;
-                String sSan = s.getGtfsCode().trim().toUpperCase().replaceAll("[^A-Z0-9]", "");
-                if (sSan.equals(sanitize)) return s;
-            }
+        List<Stop> list() {
+            return new ArrayList<>(byKey.values());
         }
+    }
 
-        // 4) partial contains/startsWith (case-insensitive)
-        for (Stop s : all) {
-            if (s == null) continue;
-            if (s.getGtfsCode() != null) {
-                String code = s.getGtfsCode().toUpperCase();
-                if (code.contains(qUpper) || code.startsWith(qUpper) || code.endsWith(qUpper)) return s;
-            }
-            if (s.getName() != null) {
-                String name = s.getName().toUpperCase();
-                if (name.contains(qUpper)) return s;
+    /** Obtiene una parada individual por ID o por gtfs code */
+    public CompletableFuture<Stop> getStopAsync(String stopId) {
+        if (stopId == null || stopId.trim().isEmpty()) return CompletableFuture.completedFuture(null);
+        String query = stopId.trim();
+        return getStopIndexAsync().thenApply(index -> {
+            Stop stop = index.find(query);
+            if (stop == null) {
+                AOBLogger.log("Stop not found for gtfsCode: " + query);
+                AOBLogger.log("Available codes sample: " + String.join(", ", index.gtfsCodes().stream().limit(10).toList()));
             }
-        }
+            return stop;
+        });
+    }
 
-        AOBLogger.log("Stop not found for gtfsCode: " + query);
-        AOBLogger.log("Available codes sample: " + listAllGtfsCodesString(10));
-        return null;
+    public Stop getStop(String stopId) throws IOException {
+        return Futures.await(getStopAsync(stopId));
     }
 
     /** Return a set of all GTFS codes (for debugging). */
     public Set<String> listAllGtfsCodes() throws IOException {
-        List<Stop> stops = getAllStops();
-        Set<String> codes = new HashSet<>();
-        for (Stop s : stops) if (s != null && s.getGtfsCode() != null && !s.getGtfsCode().isEmpty()) codes.add(s.getGtfsCode());
-        return codes;
-    }
-
-    private String listAllGtfsCodesString(int limit) throws IOException {
-        Set<String> codes = listAllGtfsCodes();
-        StringBuilder sb = new StringBuilder();
-        int i = 0;
-        for (String c : codes) {
-            if ( i++ >= limit) break;
-            if (sb.length() > 0) sb.append(", ");
-            sb.append(c);
-        }
-        return sb.toString();
+        return Futures.await(getStopIndexAsync()).gtfsCodes();
+    }
+
+    /** Cache key holding a network's {@link RealtimeFeed}. */
+    public static String gtfsRtKey(String network) { return "gtfs:rt:" + network; }
+
+    public CompletableFuture<RealtimeFeed> getGtfsrtDataAsync(String network) {
+        return cacheService.getOrLoadGtfsRtAsync(gtfsRtKey(network), GTFS_RT_TTL_SECONDS, GTFS_RT_GRACE_SECONDS,
+                () -> fetchGtfsrtDataAsync(network));
     }
 
-    public FeedMessage getGtfsrtData(String network) throws IOException {
-        String cacheKey = "gtfs:rt:" + network;
-        FeedMessage cached = cacheService.getGtfsRt(cacheKey);
-        if (cached != null) return cached;
+    public RealtimeFeed getGtfsrtData(String network) throws IOException {
+        return Futures.await(getGtfsrtDataAsync(network));
+    }
 
+    /**
+     * Download a network's feeds now, whatever the state of the cached ones, and cache the result. If neither
+     * feed changed since the last download the previous {@link RealtimeFeed} instance is returned (and kept).
+     */
+    public CompletableFuture<RealtimeFeed> refreshGtfsrtDataAsync(String network) {
+        return cacheService.refreshGtfsRtAsync(gtfsRtKey(network), GTFS_RT_TTL_SECONDS, GTFS_RT_GRACE_SECONDS,
+                () -> fetchGtfsrtDataAsync(network));
+    }
+
+    private CompletableFuture<RealtimeFeed> fetchGtfsrtDataAsync(String network) {
         String networkId = network.equalsIgnoreCase("TRAMBESOS") ? "1" : "2";
 
         Request tripReq = new Request.Builder()
-                .url(BASE_URL + "/gtfsrealtime?networkId=" + networkId)
+                .url(baseUrl + "/gtfsrealtime?networkId=" + networkId)
                 .build();
 
         Request vehicleReq = new Request.Builder()
-                .url(BASE_URL + "/gtfsrealtime/vehicleUpdate?networkId=" + networkId)
+                .url(baseUrl + "/gtfsrealtime/vehicleUpdate?networkId=" + networkId)
                 .build();
 
-        FeedMessage.Builder merged = FeedMessage.newBuilder();
-        try (Response tripRes = executeRequest(tripReq);
-             Response vehRes = executeRequest(vehicleReq)) {
-
-            if (!tripRes.isSuccessful() || tripRes.body() == null)
-                throw new IOException("Failed to fetch trip feed: " + tripReq);
-            if (!vehRes.isSuccessful() || vehRes.body() == null)
-                throw new IOException("Failed to fetch vehicle feed: " + vehicleReq);
-
-            FeedMessage tripFeed = FeedMessage.parseFrom(tripRes.body().bytes());
-            FeedMessage vehFeed = FeedMessage.parseFrom(vehRes.body().bytes());
-
-            merged.addAllEntity(tripFeed.getEntityList());
-            merged.addAllEntity(vehFeed.getEntityList());
-        }
-
-        FeedHeader header = FeedHeader.newBuilder()
-                .setGtfsRealtimeVersion("2")
-                .setTimestamp(System.currentTimeMillis() / 1000)
-                .build();
-        merged.setHeader(header);
+        // Both feeds are requested at once; the result references them instead of copying entities into one message
+        return fetchFeedAsync(tripReq, "trip").thenCombine(fetchFeedAsync(vehicleReq, "vehicle"), (tripFeed, vehFeed) -> {
+            RealtimeFeed previous = realtimeFeeds.get(networkId);
+            if (previous != null && previous.getTripUpdates() == tripFeed && previous.getVehiclePositions() == vehFeed) {
+                return previous;
+            }
+            RealtimeFeed feed = new RealtimeFeed(tripFeed, vehFeed, System.currentTimeMillis() / 1000);
+            realtimeFeeds.put(networkId, feed);
+            return feed;
+        });
+    }
 
-        FeedMessage feed = merged.build();
-        cacheService.putGtfsRt(cacheKey, feed, 30);
-        return feed;
+    /**
+     * Download and parse a feed, checksumming the body as it streams through the parser: the same bytes as the last
+     * download, or a feed whose header carries the same (non-zero) timestamp, yield the previously parsed message.
+     */
+    private CompletableFuture<FeedMessage> fetchFeedAsync(Request req, String kind) {
+        String url = req.url().toString();
+        return executeRequestAsync(req, res -> {
+            if (!res.isSuccessful() || res.body() == null)
+                throw new IOException("Failed to fetch " + kind + " feed: " + req);
+            // Parse while the body streams in rather than buffering it into a byte[] first; the parser reads to EOF
+            CheckedInputStream body = new CheckedInputStream(res.body().byteStream(), new CRC32C());
+            FeedMessage message = FeedMessage.parseFrom(CodedInputStream.newInstance(body));
+            long checksum = body.getChecksum().getValue();
+            FeedVersion previous = feedVersions.get(url);
+            if (previous != null && previous.checksum() == checksum) return previous.message();
+
+            long timestamp = message.getHeader().getTimestamp();
+            if (previous != null && timestamp > 0 && timestamp == previous.headerTimestamp()) {
+                // Same snapshot encoded differently; remember these bytes too
+                feedVersions.put(url, new FeedVersion(checksum, timestamp, previous.message()));
+                return previous.message();
+            }
+            feedVersions.put(url, new FeedVersion(checksum, timestamp, message));
+            return message;
+        });
     }
 
     /**
      * Collect a set of all GTFS stop identifiers found in the static stop list (gtfsCode or id).
      */
     public Set<String> getAllStopIds() throws IOException {
-        List<Stop> stops = getAllStops();
-        Set<String> ids = new HashSet<>();
-        for (Stop s : stops) {
-            if (s.getGtfsCode() != null && !s.getGtfsCode().isEmpty()) ids.add(s.getGtfsCode());
-            // also add numeric id as string
-            if (s.getId() != 0) ids.add(String.valueOf(s.getId()));
-        }
-        return ids;
+        return Futures.await(getStopIndexAsync()).stopIds();
     }
 
     /**
@@ -294,7 +415,7 @@ public class TramApiClient {
      */
     public Set<String> findMissingStaticStopsInGtfsRt(String network) throws IOException {
          Set<String> staticIds = getAllStopIds();
-         FeedMessage feed = getGtfsrtData(network);
+         RealtimeFeed feed = getGtfsrtData(network);
          Set<String> rtIds = new HashSet<>();
          for (FeedEntity entity : feed.getEntityList()) {
              if (!entity.hasTripUpdate()) continue;
@@ -319,56 +440,23 @@ public class TramApiClient {
     }
 
     /**
-     * Execute a request with a small retry/backoff policy for transient network errors.
-     * The caller is responsible for closing the returned Response.
+     * Enqueue a request with a small retry/backoff policy for transient network errors, then read the response
+     * (closing it) with {@code reader}. Reader failures such as error statuses are not retried. Backoff waits are
+     * scheduled, not slept.
      */
-    private Response executeRequest(Request req) throws IOException {
-        int attempt = 0;
-        long backoff = HTTP_BACKOFF_MS;
-        while (true) {
-            attempt++;
-            try {
-                return client.newCall(req).execute();
-            } catch (IOException e) {
-                if (attempt >= HTTP_MAX_RETRIES) throw e;
-                try {
-                    Thread.sleep(backoff);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new IOException("Interrupted during retry backoff", ie);
-                }
-                backoff *= 2;
-            }
-        }
+    private <T> CompletableFuture<T> executeRequestAsync(Request req, AsyncHttp.ResponseReader<T> reader) {
+        return AsyncHttp.read(callWithRetry(req, 1, HTTP_BACKOFF_MS), reader);
     }
 
-    /**
-     * Normalize a JsonElement into a JsonArray.
-     * If the element is already an array, return it.
-     * If it's an object, try common array container keys (data, stops, items, results).
-     * If it's a single object, wrap it into a one-element array.
-     */
-    private JsonArray normalizeToArray(JsonElement root) {
-        JsonArray arr = new JsonArray();
-        if (root == null || root.isJsonNull()) return arr;
-        if (root.isJsonArray()) return root.getAsJsonArray();
-        if (root.isJsonObject()) {
-            var obj = root.getAsJsonObject();
-            String[] keys = new String[]{"data", "stops", "items", "results", "features"};
-            for (String k : keys) {
-                if (obj.has(k) && obj.get(k).isJsonArray()) return obj.get(k).getAsJsonArray();
-            }
-            // some APIs return an object with numeric keys or a single object representing a stop
-            // try to find a nested array anywhere
-            for (var entry : obj.entrySet()) {
-                if (entry.getValue().isJsonArray()) return entry.getValue().getAsJsonArray();
-            }
-            // fallback: wrap the object itself
-            arr.add(root);
-            return arr;
-        }
-        // primitive -> treat as single value
-        arr.add(root);
-        return arr;
+    private CompletableFuture<Response> callWithRetry(Request req, int attempt, long backoff) {
+        return AsyncHttp.call(client, req)
+                .handle((res, error) -> {
+                    if (error == null) return CompletableFuture.completedFuture(res);
+                    if (attempt >= HTTP_MAX_RETRIES) return CompletableFuture.<Response>failedFuture(error);
+                    return CompletableFuture.runAsync(() -> { },
+                                    CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> callWithRetry(req, attempt + 1, backoff * 2));
+                })
+                .thenCompose(f -> f);
     }
 }
@@ -0,0 +1,148 @@
+package dev.x341.aonbas2srv.services.apiclients;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OkHttp event listener factory shared by all upstream calls. Per host it records how long DNS lookups, TCP
+ * connects, TLS handshakes and time to first byte (request sent until response headers start) took, and how
+ * many calls failed. Pooled connections skip DNS/connect/TLS, so those counts show how often a new connection
+ * was needed.
+ */
+public class UpstreamTimings implements EventListener.Factory {
+
+    private final Map<String, Map<Phase, Timer>> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    enum Phase {
+        DNS("dns"), CONNECT("connect"), TLS("tls"), TTFB("ttfb"), CALL("call");
+
+        private final String label;
+
+        Phase(String label) { this.label = label; }
+    }
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener(call.request().url().host());
+    }
+
+    /**
+     * @return host -> phase -> {"count", "avgMillis", "maxMillis"}, plus "failures" per host
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> out = new TreeMap<>();
+        timers.forEach((host, phases) -> {
+            Map<String, Object> byPhase = new LinkedHashMap<>();
+            for (Phase phase : Phase.values()) {
+                Timer t = phases.get(phase);
+                if (t != null) byPhase.put(phase.label, t.snapshot());
+            }
+            out.put(host, byPhase);
+        });
+        failures.forEach((host, count) -> out.computeIfAbsent(host, h -> new LinkedHashMap<>()).put("failures", count.sum()));
+        return out;
+    }
+
+    private void record(String host, Phase phase, long startNanos) {
+        if (startNanos == 0) return;
+        timers.computeIfAbsent(host, h -> new ConcurrentHashMap<>())
+                .computeIfAbsent(phase, p -> new Timer())
+                .add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Per-call listener; OkHttp delivers a call's events sequentially, so plain fields are enough.
+     */
+    private final class CallListener extends EventListener {
+        private final String host;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long tlsStart;
+        private long requestStart;
+
+        CallListener(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void callStart(Call call) { callStart = System.nanoTime(); }
+
+        @Override
+        public void dnsStart(Call call, String domainName) { dnsStart = System.nanoTime(); }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            record(host, Phase.DNS, dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) { tlsStart = System.nanoTime(); }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) { record(host, Phase.TLS, tlsStart); }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            record(host, Phase.CONNECT, connectStart);
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            // Retries and redirects send again; measure from the last request
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) { record(host, Phase.TTFB, requestStart); }
+
+        @Override
+        public void callEnd(Call call) { record(host, Phase.CALL, callStart); }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            failures.computeIfAbsent(host, h -> new LongAdder()).increment();
+        }
+    }
+
+    private static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void add(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        Map<String, Object> snapshot() {
+            long n = count.sum();
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("count", n);
+            out.put("avgMillis", n == 0 ? 0.0 : totalNanos.sum() / 1e6 / n);
+            out.put("maxMillis", maxNanos.get() / 1e6);
+            return out;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package dev.x341.aonbas2srv.services.json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import dev.x341.aonbas2srv.dto.MetroDto;
+import dev.x341.aonbas2srv.dto.Stop;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The server's JSON codec: one {@link Gson} with hand-written streaming adapters for the DTOs on hot paths
+ * ({@link Stop}, and {@link MetroDto} with its nested classes), which read and write them field by field instead of
+ * through reflection. Every other type (stats snapshots, records) keeps Gson's default handling. The output is the
+ * same as a plain {@code new Gson()} gives, so callers can switch without changing what clients see.
+ * {@link #toWebJson} keeps the format the web variant of the /metro routes has always had.
+ * <p>
+ * Thread-safe. Bound as a singleton in ServerModule; {@link #shared()} is the same instance for code that is not
+ * injected (DTO helpers, static fields).
+ */
+public final class JsonCodec {
+
+    private static final JsonCodec SHARED = new JsonCodec();
+
+    private final StopAdapter stopAdapter = new StopAdapter();
+    private final Gson gson;
+    private final Gson webGson;
+
+    public JsonCodec() {
+        this.gson = new GsonBuilder()
+                .registerTypeAdapter(Stop.class, stopAdapter)
+                .registerTypeAdapterFactory(MetroDtoAdapter.FACTORY)
+                .create();
+        this.webGson = new GsonBuilder()
+                .serializeNulls()
+                .disableHtmlEscaping()
+                .registerTypeAdapterFactory(MetroDtoAdapter.WEB_FACTORY)
+                .create();
+    }
+
+    public static JsonCodec shared() {
+        return SHARED;
+    }
+
+    /** The underlying Gson, for APIs that take one. */
+    public Gson gson() {
+        return gson;
+    }
+
+    public String toJson(Object value) {
+        return gson.toJson(value);
+    }
+
+    /**
+     * Encode a {@link MetroDto} for the web variant of the /metro routes, as Jackson wrote it before this codec:
+     * Properties keys named after their getters ({@code id_LINIA}, {@code nom_ESTACIO}), null fields included and
+     * no HTML escaping. Only the key order may differ from Jackson's, which follows reflection. The app variant gets
+     * {@link #toJson}.
+     */
+    public String toWebJson(MetroDto value) {
+        return webGson.toJson(value, MetroDto.class);
+    }
+
+    public JsonElement toJsonTree(Object value) {
+        return gson.toJsonTree(value);
+    }
+
+    public <T> T fromJson(String json, Class<T> type) {
+        return gson.fromJson(json, type);
+    }
+
+    public <T> T fromJson(Reader json, Class<T> type) {
+        return gson.fromJson(json, type);
+    }
+
+    public <T> T fromJson(JsonElement json, Class<T> type) {
+        return gson.fromJson(json, type);
+    }
+
+    /**
+     * Encode {@code value} as UTF-8 JSON at the writer index of {@code out}, without building the String first.
+     * The buffer grows as needed and is not released.
+     */
+    public void write(Object value, ByteBuf out) {
+        try (Writer writer = new OutputStreamWriter(new ByteBufOutputStream(out), StandardCharsets.UTF_8)) {
+            gson.toJson(value, writer);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Read a JSON array of stops one element at a time, accepting the same key variants as {@link Stop#fromJson}.
+     *
+     * @throws JsonSyntaxException if the input is not an array
+     */
+    public List<Stop> readStops(Reader json) {
+        try (JsonReader in = gson.newJsonReader(json)) {
+            return readStops(in);
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /** Read the array of stops {@code in} is positioned at, one element at a time; null elements stay null. */
+    public List<Stop> readStops(JsonReader in) throws IOException {
+        List<Stop> stops = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) stops.add(stopAdapter.read(in));
+        in.endArray();
+        return stops;
+    }
+
+    /** A reader with the codec's settings, for callers that walk a document themselves. */
+    public JsonReader newReader(Reader json) {
+        return gson.newJsonReader(json);
+    }
+
+    /** Adapter reading and writing stops, for callers that drive a {@link JsonReader} themselves. */
+    public TypeAdapter<Stop> stopAdapter() {
+        return stopAdapter;
+    }
+}
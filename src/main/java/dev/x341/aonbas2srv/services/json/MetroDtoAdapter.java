@@ -0,0 +1,502 @@
+package dev.x341.aonbas2srv.services.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dev.x341.aonbas2srv.dto.MetroDto;
+import dev.x341.aonbas2srv.dto.MetroDto.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming adapter for {@link MetroDto} and its nested classes, written out by hand so TMB responses are read
+ * and written without reflection. It mirrors what reflective Gson does with these classes: fields in declaration
+ * order, null fields left out, primitives always written, a JSON null leaving a primitive at its default and
+ * unknown keys skipped. {@code Geometry.coordinates} is untyped: nested arrays of numbers are read as lists of
+ * Doubles, and objects go through Gson's {@code Object} adapter.
+ * <p>
+ * {@link #WEB_FACTORY} writes the web variant of the /metro routes, which used to be written with Jackson: the
+ * Properties keys named after their getters ({@code id_LINIA}, {@code data}) and, with a Gson that serializes
+ * nulls, null fields included. Every field goes through {@code name()} followed by a value or a null, so which
+ * nulls appear is decided by the writer alone. Reading always expects TMB's names.
+ */
+final class MetroDtoAdapter extends TypeAdapter<MetroDto> {
+
+    /** Properties keys as TMB and Gson name them, in the order they are written. */
+    private static final String[] PROPERTY_NAMES = {
+            "ID_LINIA", "CODI_LINIA", "NOM_LINIA", "DESC_LINIA", "ORIGEN_LINIA", "DESTI_LINIA", "NUM_PAQUETS",
+            "ID_OPERADOR", "NOM_OPERADOR", "NOM_TIPUS_TRANSPORT", "CODI_FAMILIA", "NOM_FAMILIA", "ORDRE_FAMILIA",
+            "ORDRE_LINIA", "CODI_TIPUS_CALENDARI", "NOM_TIPUS_CALENDARI", "DATA", "COLOR_LINIA", "COLOR_AUX_LINIA",
+            "COLOR_TEXT_LINIA", "ID_ESTACIO_LINIA", "CODI_ESTACIO_LINIA", "ID_ESTACIO", "CODI_ESTACIO", "NOM_ESTACIO",
+            "ORDRE_ESTACIO", "DESC_SERVEI", "ORIGEN_SERVEI", "DESTI_SERVEI", "NOM_TIPUS_ACCESSIBILITAT",
+            "NOM_TIPUS_ESTAT", "DATA_INAUGURACIO", "PICTO"};
+    /** The same keys as Jackson derives them from the getters: the leading capitals lower-cased. */
+    private static final String[] WEB_PROPERTY_NAMES = new String[PROPERTY_NAMES.length];
+
+    static {
+        for (int i = 0; i < PROPERTY_NAMES.length; i++) {
+            String name = PROPERTY_NAMES[i];
+            int upper = 0;
+            while (upper < name.length() && Character.isUpperCase(name.charAt(upper))) upper++;
+            WEB_PROPERTY_NAMES[i] = name.substring(0, upper).toLowerCase(Locale.ROOT) + name.substring(upper);
+        }
+    }
+
+    static final TypeAdapterFactory FACTORY = factory(PROPERTY_NAMES);
+    static final TypeAdapterFactory WEB_FACTORY = factory(WEB_PROPERTY_NAMES);
+
+    private static TypeAdapterFactory factory(String[] propertyNames) {
+        return new TypeAdapterFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+                return type.getRawType() == MetroDto.class
+                        ? (TypeAdapter<T>) new MetroDtoAdapter(gson.getAdapter(Object.class), propertyNames)
+                        : null;
+            }
+        };
+    }
+
+    private final TypeAdapter<Object> any;
+    private final String[] propertyNames;
+
+    private MetroDtoAdapter(TypeAdapter<Object> any, String[] propertyNames) {
+        this.any = any;
+        this.propertyNames = propertyNames;
+    }
+
+    // -------------------- WRITE --------------------
+    @Override
+    public void write(JsonWriter out, MetroDto dto) throws IOException {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("type").value(dto.getType());
+        out.name("features");
+        if (dto.getFeatures() == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (Feature f : dto.getFeatures()) writeFeature(out, f);
+            out.endArray();
+        }
+        out.name("timestamp").value(dto.getTimestamp());
+        out.name("linies");
+        if (dto.getLinies() == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (Linia l : dto.getLinies()) writeLinia(out, l);
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    private void writeFeature(JsonWriter out, Feature f) throws IOException {
+        if (f == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("type").value(f.getType());
+        out.name("id").value(f.getId());
+        out.name("geometry");
+        writeGeometry(out, f.getGeometry());
+        out.name("geometry_name").value(f.getGeometry_name());
+        out.name("properties");
+        writeProperties(out, f.getProperties());
+        out.endObject();
+    }
+
+    private void writeGeometry(JsonWriter out, Geometry g) throws IOException {
+        if (g == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("type").value(g.getType());
+        out.name("coordinates");
+        writeAny(out, g.getCoordinates());
+        out.endObject();
+    }
+
+    /** Coordinates: lists and numbers directly, anything else through Gson's runtime-type handling. */
+    private void writeAny(JsonWriter out, Object value) throws IOException {
+        if (value instanceof List<?> list) {
+            out.beginArray();
+            for (Object item : list) writeAny(out, item);
+            out.endArray();
+        } else if (value instanceof Double d) {
+            out.value(d.doubleValue());
+        } else {
+            any.write(out, value);
+        }
+    }
+
+    private void writeProperties(JsonWriter out, Properties p) throws IOException {
+        if (p == null) {
+            out.nullValue();
+            return;
+        }
+        String[] n = propertyNames;
+        int i = 0;
+        out.beginObject();
+        out.name(n[i++]).value(p.getID_LINIA());
+        out.name(n[i++]).value(p.getCODI_LINIA());
+        out.name(n[i++]).value(p.getNOM_LINIA());
+        out.name(n[i++]).value(p.getDESC_LINIA());
+        out.name(n[i++]).value(p.getORIGEN_LINIA());
+        out.name(n[i++]).value(p.getDESTI_LINIA());
+        out.name(n[i++]).value(p.getNUM_PAQUETS());
+        out.name(n[i++]).value(p.getID_OPERADOR());
+        out.name(n[i++]).value(p.getNOM_OPERADOR());
+        out.name(n[i++]).value(p.getNOM_TIPUS_TRANSPORT());
+        out.name(n[i++]).value(p.getCODI_FAMILIA());
+        out.name(n[i++]).value(p.getNOM_FAMILIA());
+        out.name(n[i++]).value(p.getORDRE_FAMILIA());
+        out.name(n[i++]).value(p.getORDRE_LINIA());
+        out.name(n[i++]).value(p.getCODI_TIPUS_CALENDARI());
+        out.name(n[i++]).value(p.getNOM_TIPUS_CALENDARI());
+        out.name(n[i++]).value(p.getDATA());
+        out.name(n[i++]).value(p.getCOLOR_LINIA());
+        out.name(n[i++]).value(p.getCOLOR_AUX_LINIA());
+        out.name(n[i++]).value(p.getCOLOR_TEXT_LINIA());
+        out.name(n[i++]).value(p.getID_ESTACIO_LINIA());
+        out.name(n[i++]).value(p.getCODI_ESTACIO_LINIA());
+        out.name(n[i++]).value(p.getID_ESTACIO());
+        out.name(n[i++]).value(p.getCODI_ESTACIO());
+        out.name(n[i++]).value(p.getNOM_ESTACIO());
+        out.name(n[i++]).value(p.getORDRE_ESTACIO());
+        out.name(n[i++]).value(p.getDESC_SERVEI());
+        out.name(n[i++]).value(p.getORIGEN_SERVEI());
+        out.name(n[i++]).value(p.getDESTI_SERVEI());
+        out.name(n[i++]).value(p.getNOM_TIPUS_ACCESSIBILITAT());
+        out.name(n[i++]).value(p.getNOM_TIPUS_ESTAT());
+        out.name(n[i++]).value(p.getDATA_INAUGURACIO());
+        out.name(n[i++]).value(p.getPICTO());
+        out.endObject();
+    }
+
+    private static void writeLinia(JsonWriter out, Linia l) throws IOException {
+        if (l == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("codi_linia").value(l.getCodi_linia());
+        out.name("nom_linia").value(l.getNom_linia());
+        out.name("nom_familia").value(l.getNom_familia());
+        out.name("codi_familia").value(l.getCodi_familia());
+        out.name("color_linia").value(l.getColor_linia());
+        out.name("estacions");
+        if (l.getEstacions() == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (Estacio e : l.getEstacions()) writeEstacio(out, e);
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    private static void writeEstacio(JsonWriter out, Estacio e) throws IOException {
+        if (e == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("codi_via").value(e.getCodi_via());
+        out.name("id_sentit").value(e.getId_sentit());
+        out.name("codi_estacio").value(e.getCodi_estacio());
+        out.name("linies_trajectes");
+        if (e.getLinies_trajectes() == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (LiniaTrajecte t : e.getLinies_trajectes()) writeTrajecte(out, t);
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    private static void writeTrajecte(JsonWriter out, LiniaTrajecte t) throws IOException {
+        if (t == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("codi_linia").value(t.getCodi_linia());
+        out.name("nom_linia").value(t.getNom_linia());
+        out.name("color_linia").value(t.getColor_linia());
+        out.name("codi_trajecte").value(t.getCodi_trajecte());
+        out.name("desti_trajecte").value(t.getDesti_trajecte());
+        out.name("propers_trens");
+        if (t.getPropers_trens() == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (ProximTren p : t.getPropers_trens()) {
+                if (p == null) {
+                    out.nullValue();
+                    continue;
+                }
+                out.beginObject();
+                out.name("codi_servei").value(p.getCodi_servei());
+                out.name("temps_arribada").value(p.getTemps_arribada());
+                out.endObject();
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    // -------------------- READ --------------------
+    @Override
+    public MetroDto read(JsonReader in) throws IOException {
+        if (isNull(in)) return null;
+        MetroDto dto = new MetroDto();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "type" -> dto.setType(string(in));
+                case "features" -> dto.setFeatures(list(in, this::readFeature));
+                case "timestamp" -> { if (!isNull(in)) dto.setTimestamp(longValue(in)); }
+                case "linies" -> dto.setLinies(list(in, MetroDtoAdapter::readLinia));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return dto;
+    }
+
+    private Feature readFeature(JsonReader in) throws IOException {
+        Feature f = new Feature();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "type" -> f.setType(string(in));
+                case "id" -> f.setId(string(in));
+                case "geometry" -> f.setGeometry(isNull(in) ? null : readGeometry(in));
+                case "geometry_name" -> f.setGeometry_name(string(in));
+                case "properties" -> f.setProperties(isNull(in) ? null : readProperties(in));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return f;
+    }
+
+    private Geometry readGeometry(JsonReader in) throws IOException {
+        Geometry g = new Geometry();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "type" -> g.setType(string(in));
+                case "coordinates" -> g.setCoordinates(readAny(in));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return g;
+    }
+
+    private Object readAny(JsonReader in) throws IOException {
+        return switch (in.peek()) {
+            case BEGIN_ARRAY -> {
+                List<Object> list = new ArrayList<>();
+                in.beginArray();
+                while (in.hasNext()) list.add(readAny(in));
+                in.endArray();
+                yield list;
+            }
+            case NUMBER -> in.nextDouble();
+            default -> any.read(in);
+        };
+    }
+
+    private static Properties readProperties(JsonReader in) throws IOException {
+        Properties p = new Properties();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL && isPrimitive(name)) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "ID_LINIA" -> p.setID_LINIA(intValue(in));
+                case "CODI_LINIA" -> p.setCODI_LINIA(intValue(in));
+                case "NOM_LINIA" -> p.setNOM_LINIA(string(in));
+                case "DESC_LINIA" -> p.setDESC_LINIA(string(in));
+                case "ORIGEN_LINIA" -> p.setORIGEN_LINIA(string(in));
+                case "DESTI_LINIA" -> p.setDESTI_LINIA(string(in));
+                case "NUM_PAQUETS" -> p.setNUM_PAQUETS(intValue(in));
+                case "ID_OPERADOR" -> p.setID_OPERADOR(intValue(in));
+                case "NOM_OPERADOR" -> p.setNOM_OPERADOR(string(in));
+                case "NOM_TIPUS_TRANSPORT" -> p.setNOM_TIPUS_TRANSPORT(string(in));
+                case "CODI_FAMILIA" -> p.setCODI_FAMILIA(intValue(in));
+                case "NOM_FAMILIA" -> p.setNOM_FAMILIA(string(in));
+                case "ORDRE_FAMILIA" -> p.setORDRE_FAMILIA(intValue(in));
+                case "ORDRE_LINIA" -> p.setORDRE_LINIA(intValue(in));
+                case "CODI_TIPUS_CALENDARI" -> p.setCODI_TIPUS_CALENDARI(string(in));
+                case "NOM_TIPUS_CALENDARI" -> p.setNOM_TIPUS_CALENDARI(string(in));
+                case "DATA" -> p.setDATA(string(in));
+                case "COLOR_LINIA" -> p.setCOLOR_LINIA(string(in));
+                case "COLOR_AUX_LINIA" -> p.setCOLOR_AUX_LINIA(string(in));
+                case "COLOR_TEXT_LINIA" -> p.setCOLOR_TEXT_LINIA(string(in));
+                case "ID_ESTACIO_LINIA" -> p.setID_ESTACIO_LINIA(intValue(in));
+                case "CODI_ESTACIO_LINIA" -> p.setCODI_ESTACIO_LINIA(intValue(in));
+                case "ID_ESTACIO" -> p.setID_ESTACIO(intValue(in));
+                case "CODI_ESTACIO" -> p.setCODI_ESTACIO(intValue(in));
+                case "NOM_ESTACIO" -> p.setNOM_ESTACIO(string(in));
+                case "ORDRE_ESTACIO" -> p.setORDRE_ESTACIO(intValue(in));
+                case "DESC_SERVEI" -> p.setDESC_SERVEI(string(in));
+                case "ORIGEN_SERVEI" -> p.setORIGEN_SERVEI(string(in));
+                case "DESTI_SERVEI" -> p.setDESTI_SERVEI(string(in));
+                case "NOM_TIPUS_ACCESSIBILITAT" -> p.setNOM_TIPUS_ACCESSIBILITAT(string(in));
+                case "NOM_TIPUS_ESTAT" -> p.setNOM_TIPUS_ESTAT(string(in));
+                case "DATA_INAUGURACIO" -> p.setDATA_INAUGURACIO(string(in));
+                case "PICTO" -> p.setPICTO(string(in));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return p;
+    }
+
+    /** Whether a Properties key is an int field, which a JSON null leaves at 0. */
+    private static boolean isPrimitive(String name) {
+        return switch (name) {
+            case "ID_LINIA", "CODI_LINIA", "NUM_PAQUETS", "ID_OPERADOR", "CODI_FAMILIA", "ORDRE_FAMILIA",
+                 "ORDRE_LINIA", "ID_ESTACIO_LINIA", "CODI_ESTACIO_LINIA", "ID_ESTACIO", "CODI_ESTACIO",
+                 "ORDRE_ESTACIO" -> true;
+            default -> false;
+        };
+    }
+
+    private static Linia readLinia(JsonReader in) throws IOException {
+        Linia l = new Linia();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "codi_linia" -> { if (!isNull(in)) l.setCodi_linia(intValue(in)); }
+                case "nom_linia" -> l.setNom_linia(string(in));
+                case "nom_familia" -> l.setNom_familia(string(in));
+                case "codi_familia" -> { if (!isNull(in)) l.setCodi_familia(intValue(in)); }
+                case "color_linia" -> l.setColor_linia(string(in));
+                case "estacions" -> l.setEstacions(list(in, MetroDtoAdapter::readEstacio));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return l;
+    }
+
+    private static Estacio readEstacio(JsonReader in) throws IOException {
+        Estacio e = new Estacio();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "codi_via" -> { if (!isNull(in)) e.setCodi_via(intValue(in)); }
+                case "id_sentit" -> { if (!isNull(in)) e.setId_sentit(intValue(in)); }
+                case "codi_estacio" -> { if (!isNull(in)) e.setCodi_estacio(intValue(in)); }
+                case "linies_trajectes" -> e.setLinies_trajectes(list(in, MetroDtoAdapter::readTrajecte));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return e;
+    }
+
+    private static LiniaTrajecte readTrajecte(JsonReader in) throws IOException {
+        LiniaTrajecte t = new LiniaTrajecte();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "codi_linia" -> { if (!isNull(in)) t.setCodi_linia(intValue(in)); }
+                case "nom_linia" -> t.setNom_linia(string(in));
+                case "color_linia" -> t.setColor_linia(string(in));
+                case "codi_trajecte" -> t.setCodi_trajecte(string(in));
+                case "desti_trajecte" -> t.setDesti_trajecte(string(in));
+                case "propers_trens" -> t.setPropers_trens(list(in, MetroDtoAdapter::readTren));
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return t;
+    }
+
+    private static ProximTren readTren(JsonReader in) throws IOException {
+        ProximTren p = new ProximTren();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "codi_servei" -> p.setCodi_servei(string(in));
+                case "temps_arribada" -> { if (!isNull(in)) p.setTemps_arribada(longValue(in)); }
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return p;
+    }
+
+    // -------------------- READ HELPERS --------------------
+    private interface ElementReader<T> {
+        T read(JsonReader in) throws IOException;
+    }
+
+    /** A JSON array as an ArrayList, null for a JSON null; null elements stay null. */
+    private static <T> List<T> list(JsonReader in, ElementReader<T> element) throws IOException {
+        if (isNull(in)) return null;
+        List<T> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) list.add(isNull(in) ? null : element.read(in));
+        in.endArray();
+        return list;
+    }
+
+    /** Consume a JSON null if that is what comes next. */
+    private static boolean isNull(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.NULL) return false;
+        in.nextNull();
+        return true;
+    }
+
+    /** A String field: strings and numbers as written, booleans as "true"/"false". */
+    private static String string(JsonReader in) throws IOException {
+        return switch (in.peek()) {
+            case NULL -> {
+                in.nextNull();
+                yield null;
+            }
+            case BOOLEAN -> Boolean.toString(in.nextBoolean());
+            default -> in.nextString();
+        };
+    }
+
+    private static int intValue(JsonReader in) throws IOException {
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static long longValue(JsonReader in) throws IOException {
+        try {
+            return in.nextLong();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package dev.x341.aonbas2srv.services.json;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import dev.x341.aonbas2srv.dto.Stop;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Streaming {@link Stop} adapter. Writes the fields in declaration order, as reflective Gson does. Reads the
+ * flexible shapes the TRAM API returns: alias keys (lat/lon/lng, gtfs_id, stopId...), where the first alias of a
+ * field wins whatever order the keys come in; numbers given as strings; a description that is a string or an
+ * object of translations; and a whole stop embedded as a JSON string. Values of an unexpected type are ignored
+ * rather than failing the stop.
+ */
+final class StopAdapter extends TypeAdapter<Stop> {
+
+    private static final int NAME = 0, DESCRIPTION = 1, LATITUDE = 2, LONGITUDE = 3, OUTBOUND_CODE = 4,
+            RETURN_CODE = 5, GTFS_CODE = 6, ORDER = 7, IMAGE = 8, ID = 9, FIELDS = 10;
+    private static final String[] DESCRIPTION_KEYS = {"ca", "es", "en", "text", "value"};
+
+    @Override
+    public void write(JsonWriter out, Stop stop) throws IOException {
+        if (stop == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value(stop.getName());
+        out.name("description").value(stop.getDescription());
+        out.name("latitude").value(stop.getLatitude());
+        out.name("longitude").value(stop.getLongitude());
+        out.name("outboundCode").value(stop.getOutboundCode());
+        out.name("returnCode").value(stop.getReturnCode());
+        out.name("gtfsCode").value(stop.getGtfsCode());
+        out.name("order").value(stop.getOrder());
+        out.name("image").value(stop.getImage());
+        out.name("id").value(stop.getId());
+        out.endObject();
+    }
+
+    /** @return the stop, null for a JSON null, or an empty stop for anything that is not a stop object */
+    @Override
+    public Stop read(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL -> {
+                in.nextNull();
+                return null;
+            }
+            case BEGIN_OBJECT -> {
+                return readObject(in);
+            }
+            case STRING -> {
+                return readEmbedded(in.nextString());
+            }
+            default -> {
+                in.skipValue();
+                return new Stop();
+            }
+        }
+    }
+
+    private static Stop readEmbedded(String json) {
+        try {
+            JsonReader in = new JsonReader(new StringReader(json));
+            if (in.peek() == JsonToken.BEGIN_OBJECT) return readObject(in);
+        } catch (IOException | RuntimeException ignored) {
+        }
+        return new Stop();
+    }
+
+    private static Stop readObject(JsonReader in) throws IOException {
+        Stop stop = new Stop();
+        // Alias rank each field was taken from; a lower rank (earlier alias) wins, a repeated key replaces
+        int[] taken = new int[FIELDS];
+        Arrays.fill(taken, Integer.MAX_VALUE);
+        in.beginObject();
+        while (in.hasNext()) {
+            int slot = slot(in.nextName());
+            if (slot < 0 || (slot & 7) > taken[slot >>> 3]) {
+                in.skipValue();
+                continue;
+            }
+            if (read(stop, slot >>> 3, in)) taken[slot >>> 3] = slot & 7;
+        }
+        in.endObject();
+        return stop;
+    }
+
+    /** Field (high bits) and alias rank (low three bits) of a key, or -1 if the key is not read. */
+    private static int slot(String key) {
+        return switch (key) {
+            case "name" -> NAME << 3;
+            case "description" -> DESCRIPTION << 3;
+            case "latitude" -> LATITUDE << 3;
+            case "lat" -> LATITUDE << 3 | 1;
+            case "longitude" -> LONGITUDE << 3;
+            case "lon" -> LONGITUDE << 3 | 1;
+            case "lng" -> LONGITUDE << 3 | 2;
+            case "outboundCode" -> OUTBOUND_CODE << 3;
+            case "outbound_code" -> OUTBOUND_CODE << 3 | 1;
+            case "returnCode" -> RETURN_CODE << 3;
+            case "return_code" -> RETURN_CODE << 3 | 1;
+            case "gtfsCode" -> GTFS_CODE << 3;
+            case "gtfs_id" -> GTFS_CODE << 3 | 1;
+            case "gtfsId" -> GTFS_CODE << 3 | 2;
+            case "code" -> GTFS_CODE << 3 | 3;
+            case "order" -> ORDER << 3;
+            case "image" -> IMAGE << 3;
+            case "img" -> IMAGE << 3 | 1;
+            case "id" -> ID << 3;
+            case "stopId" -> ID << 3 | 1;
+            default -> -1;
+        };
+    }
+
+    /** Read one value into {@code field}; @return false if it was null or unusable, leaving the field unset */
+    private static boolean read(Stop stop, int field, JsonReader in) throws IOException {
+        switch (field) {
+            case NAME, GTFS_CODE, IMAGE -> {
+                String value = string(in);
+                if (value == null) return false;
+                if (field == NAME) stop.setName(value);
+                else if (field == GTFS_CODE) stop.setGtfsCode(value);
+                else stop.setImage(value);
+            }
+            case DESCRIPTION -> {
+                String value = description(in);
+                if (value == null) return false;
+                stop.setDescription(value);
+            }
+            case LATITUDE, LONGITUDE -> {
+                Double value = decimal(in);
+                if (value == null) return false;
+                if (field == LATITUDE) stop.setLatitude(value);
+                else stop.setLongitude(value);
+            }
+            default -> {
+                Integer value = integer(in);
+                if (value == null) return false;
+                switch (field) {
+                    case OUTBOUND_CODE -> stop.setOutboundCode(value);
+                    case RETURN_CODE -> stop.setReturnCode(value);
+                    case ORDER -> stop.setOrder(value);
+                    default -> stop.setId(value);
+                }
+            }
+        }
+        return true;
+    }
+
+    /** A primitive as its string form; null (consumed) for a JSON null, an object or an array. */
+    private static String string(JsonReader in) throws IOException {
+        return switch (in.peek()) {
+            case STRING, NUMBER -> in.nextString();
+            case BOOLEAN -> Boolean.toString(in.nextBoolean());
+            case NULL -> {
+                in.nextNull();
+                yield null;
+            }
+            default -> {
+                in.skipValue();
+                yield null;
+            }
+        };
+    }
+
+    /** A number, or a string holding an integer. Decimal numbers are truncated. */
+    private static Integer integer(JsonReader in) throws IOException {
+        boolean number = in.peek() == JsonToken.NUMBER;
+        String value = string(in);
+        if (value == null) return null;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            if (!number) return null;
+            try {
+                return new BigDecimal(value).intValue();
+            } catch (NumberFormatException ignored) {
+                return null;
+            }
+        }
+    }
+
+    /** A number, or a string holding one. */
+    private static Double decimal(JsonReader in) throws IOException {
+        String value = string(in);
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A description given as a primitive, or as an object of translations: Catalan first, then Spanish, English,
+     * "text"/"value", then the first property that has a string form. Anything else is kept as its JSON text.
+     */
+    private static String description(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token != JsonToken.BEGIN_OBJECT && token != JsonToken.BEGIN_ARRAY) return string(in);
+        JsonElement el = JsonParser.parseReader(in);
+        if (el.isJsonObject()) {
+            JsonObject obj = el.getAsJsonObject();
+            for (String key : DESCRIPTION_KEYS) {
+                JsonElement value = obj.get(key);
+                if (value != null && !value.isJsonNull()) {
+                    try { return value.getAsString(); } catch (RuntimeException ignored) {}
+                }
+            }
+            for (String key : obj.keySet()) {
+                try { return obj.get(key).getAsString(); } catch (RuntimeException ignored) {}
+            }
+        }
+        return el.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package dev.x341.aonbas2srv.services.routing;
+
+import io.netty.handler.codec.http.HttpMethod;
+
+/**
+ * Every HTTP route the server answers. {@link #TABLE} is compiled once when the class loads.
+ */
+public enum Route {
+    STATUS(HttpMethod.GET, "/status", false),
+    STATS_COMPRESSION(HttpMethod.GET, "/stats/compression", false),
+    STATS_UPSTREAM(HttpMethod.GET, "/stats/upstream", false),
+    STATS_UPSTREAM_TIMINGS(HttpMethod.GET, "/stats/upstream/timings", false),
+
+    METRO_LINES(HttpMethod.GET, "/metro/lines", true),
+    METRO_LINE_STATIONS(HttpMethod.GET, "/metro/line/{line}", true),
+    METRO_STATION_TRAINS(HttpMethod.GET, "/metro/line/{line}/station/{station}", true),
+    METRO_INTERCHANGES(HttpMethod.GET, "/metro/line/{line}/station/{station}/corresp", true),
+
+    TRAM_LINES(HttpMethod.GET, "/tram", true),
+    TRAM_LINE_STOPS(HttpMethod.GET, "/tram/line/{line}", true),
+    TRAM_STOP_TIMES(HttpMethod.GET, "/tram/line/{line}/stop/{stop}", true),
+    TRAM_LINE_VEHICLES(HttpMethod.GET, "/tram/line/{line}/vehicles", true),
+    TRAM_VEHICLES(HttpMethod.GET, "/tram/vehicles", true),
+    TRAM_CODES(HttpMethod.GET, "/tram/codes", true),
+    TRAM_CHECK_MISSING(HttpMethod.GET, "/tram/check-missing/{network}", true),
+    TRAM_RAW_STOPS(HttpMethod.GET, "/tram/raw-stops", false),
+
+    SEARCH(HttpMethod.GET, "/search", true),
+    NEARBY(HttpMethod.GET, "/nearby", true);
+
+    public static final Router<Route> TABLE = compile();
+
+    private final HttpMethod method;
+    private final String pattern;
+    private final boolean blocking;
+
+    Route(HttpMethod method, String pattern, boolean blocking) {
+        this.method = method;
+        this.pattern = pattern;
+        this.blocking = blocking;
+    }
+
+    public HttpMethod method() { return method; }
+    public String pattern() { return pattern; }
+
+    /**
+     * @return true if the route may call upstream APIs and must run off the event loop
+     */
+    public boolean blocking() { return blocking; }
+
+    private static Router<Route> compile() {
+        Router.Builder<Route> b = Router.builder();
+        for (Route r : values()) b.add(r.method, r.pattern, r);
+        return b.build();
+    }
+}
@@ -0,0 +1,140 @@
+package dev.x341.aonbas2srv.services.routing;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Result of {@link Router#match}. Path variables are exposed as {@link CharSequence} views over the
+ * request URI; call {@code toString()} only where a String is really needed.
+ *
+ * @param <T> route value type
+ */
+public final class RouteMatch<T> {
+    private final T value;
+    private final String[] paramNames;
+    private final String uri;
+    private final int[] offsets;
+    private final boolean methodAllowed;
+    private final String allow;
+
+    RouteMatch(T value, String[] paramNames, String uri, int[] offsets, boolean methodAllowed, String allow) {
+        this.value = value;
+        this.paramNames = paramNames;
+        this.uri = uri;
+        this.offsets = offsets;
+        this.methodAllowed = methodAllowed;
+        this.allow = allow;
+    }
+
+    /**
+     * @return the matched route value, or null when the path matched but the method did not
+     */
+    public T value() { return value; }
+
+    /**
+     * @return false if the path exists but not for this method (answer 405)
+     */
+    public boolean methodAllowed() { return methodAllowed; }
+
+    /**
+     * @return value for the Allow header when {@link #methodAllowed()} is false
+     */
+    public String allow() { return allow; }
+
+    public int paramCount() { return paramNames == null ? 0 : paramNames.length; }
+
+    /**
+     * @param index position of the variable in the pattern, starting at 0
+     * @return a view of the variable's segment
+     */
+    public CharSequence param(int index) {
+        if (index < 0 || index >= paramCount()) throw new IndexOutOfBoundsException("No path variable " + index);
+        return new Segment(uri, offsets[index * 2], offsets[index * 2 + 1]);
+    }
+
+    /**
+     * @param name variable name as written in the pattern
+     * @return a view of the variable's segment, or null if the route has no such variable
+     */
+    public CharSequence param(String name) {
+        for (int i = 0; i < paramCount(); i++) {
+            if (paramNames[i].equals(name)) return param(i);
+        }
+        return null;
+    }
+
+    /**
+     * @param name query parameter name
+     * @return the first value of the parameter, percent-decoded ("" if it has no value, as written if it is not
+     *         valid percent-encoding), or null if absent
+     */
+    public String query(String name) {
+        int q = uri.indexOf('?');
+        if (q < 0) return null;
+        int end = uri.indexOf('#', q);
+        if (end < 0) end = uri.length();
+        int start = q + 1;
+        while (start < end) {
+            int amp = uri.indexOf('&', start);
+            if (amp < 0 || amp > end) amp = end;
+            int eq = uri.indexOf('=', start);
+            int keyEnd = eq >= 0 && eq < amp ? eq : amp;
+            if (keyEnd - start == name.length() && uri.startsWith(name, start)) {
+                return keyEnd == amp ? "" : decode(uri.substring(keyEnd + 1, amp));
+            }
+            start = amp + 1;
+        }
+        return null;
+    }
+
+    /** A malformed escape is left for the caller's own validation, which answers 400, rather than failing the request. */
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    /** Read-only window over part of the URI. */
+    static final class Segment implements CharSequence {
+        private final String src;
+        private final int start;
+        private final int end;
+
+        Segment(String src, int start, int end) {
+            this.src = src;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override public int length() { return end - start; }
+
+        @Override public char charAt(int index) {
+            if (index < 0 || index >= length()) throw new IndexOutOfBoundsException(index);
+            return src.charAt(start + index);
+        }
+
+        @Override public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > length() || from > to) throw new IndexOutOfBoundsException(from + ".." + to);
+            return new Segment(src, start + from, start + to);
+        }
+
+        @Override public String toString() { return src.substring(start, end); }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CharSequence other) || other.length() != length()) return false;
+            for (int i = 0; i < length(); i++) {
+                if (other.charAt(i) != src.charAt(start + i)) return false;
+            }
+            return true;
+        }
+
+        @Override public int hashCode() {
+            int h = 0;
+            for (int i = start; i < end; i++) h = 31 * h + src.charAt(i);
+            return h;
+        }
+    }
+}
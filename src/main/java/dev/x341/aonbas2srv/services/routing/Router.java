@@ -0,0 +1,225 @@
+package dev.x341.aonbas2srv.services.routing;
+
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Path router compiled once into a segment trie.
+ * <p>
+ * Patterns are literal segments and {@code {name}} variables, e.g. {@code /metro/line/{line}/station/{station}}.
+ * Matching walks the request URI in place: no regex, no split arrays, no substrings. Literal children are
+ * preferred over a variable at the same depth, with backtracking if the literal branch dead-ends. The query
+ * string is ignored and a single trailing slash is tolerated. HEAD is served by GET routes.
+ * <p>
+ * A match allocates two small objects per request: the {@link RouteMatch} and the array of variable offsets it
+ * reads from (two ints per variable of the deepest pattern). Neither is pooled, because asynchronous routes keep
+ * using the match after the handler thread has moved on to its next request.
+ *
+ * @param <T> value attached to each route
+ */
+public final class Router<T> {
+
+    private final Node<T> root;
+
+    private Router(Node<T> root) {
+        this.root = root;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Match a request.
+     *
+     * @param method request method
+     * @param uri raw request URI (path plus optional query)
+     * @return null if no pattern matches the path; otherwise a match that may report a disallowed method
+     */
+    public RouteMatch<T> match(HttpMethod method, String uri) {
+        int end = pathEnd(uri);
+        // Tolerate one trailing slash ("/tram/" == "/tram"), but not for the root path itself
+        if (end > 1 && uri.charAt(end - 1) == '/') end--;
+        if (end == 0 || uri.charAt(0) != '/') return null;
+
+        int[] offsets = new int[root.maxParams * 2];
+        Node<T> node = end == 1 ? root : find(root, uri, 1, end, offsets, 0);
+        if (node == null || node.methods == null) return null;
+
+        HttpMethod lookup = HttpMethod.HEAD.equals(method) ? HttpMethod.GET : method;
+        for (int i = 0; i < node.methods.length; i++) {
+            if (node.methods[i].equals(lookup)) {
+                return new RouteMatch<>(node.values[i], node.paramNames[i], uri, offsets, true, null);
+            }
+        }
+        return new RouteMatch<>(null, null, uri, offsets, false, node.allow);
+    }
+
+    private static int pathEnd(String uri) {
+        int len = uri.length();
+        for (int i = 0; i < len; i++) {
+            char c = uri.charAt(i);
+            if (c == '?' || c == '#') return i;
+        }
+        return len;
+    }
+
+    /**
+     * Resolve the segment starting at {@code start} against {@code node}'s children, recursing into the rest.
+     */
+    private static <T> Node<T> find(Node<T> node, String uri, int start, int end, int[] offsets, int depth) {
+        int segEnd = start;
+        while (segEnd < end && uri.charAt(segEnd) != '/') segEnd++;
+        int segLen = segEnd - start;
+        boolean last = segEnd >= end;
+
+        String[] literals = node.literals;
+        for (int i = 0; i < literals.length; i++) {
+            String lit = literals[i];
+            if (lit.length() == segLen && uri.regionMatches(start, lit, 0, segLen)) {
+                Node<T> child = node.literalChildren[i];
+                Node<T> found = last ? child : find(child, uri, segEnd + 1, end, offsets, depth);
+                if (found != null && found.methods != null) return found;
+                break;
+            }
+        }
+
+        Node<T> param = node.paramChild;
+        if (param != null && segLen > 0) {
+            offsets[depth * 2] = start;
+            offsets[depth * 2 + 1] = segEnd;
+            Node<T> found = last ? param : find(param, uri, segEnd + 1, end, offsets, depth + 1);
+            if (found != null && found.methods != null) return found;
+        }
+        return null;
+    }
+
+    /** Compiled, immutable trie node. */
+    private static final class Node<T> {
+        final String[] literals;
+        final Node<T>[] literalChildren;
+        final Node<T> paramChild;
+        final HttpMethod[] methods;
+        final T[] values;
+        final String[][] paramNames;
+        final String allow;
+        final int maxParams;
+
+        Node(String[] literals, Node<T>[] literalChildren, Node<T> paramChild,
+             HttpMethod[] methods, T[] values, String[][] paramNames, int maxParams) {
+            this.literals = literals;
+            this.literalChildren = literalChildren;
+            this.paramChild = paramChild;
+            this.methods = methods;
+            this.values = values;
+            this.paramNames = paramNames;
+            this.maxParams = maxParams;
+            if (methods == null) {
+                this.allow = null;
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (HttpMethod m : methods) {
+                    if (sb.length() > 0) sb.append(", ");
+                    sb.append(m.name());
+                    if (HttpMethod.GET.equals(m)) sb.append(", HEAD");
+                }
+                this.allow = sb.toString();
+            }
+        }
+    }
+
+    /**
+     * Collects route patterns and compiles them into a {@link Router}.
+     */
+    public static final class Builder<T> {
+        private final MutableNode<T> root = new MutableNode<>();
+
+        private Builder() {}
+
+        /**
+         * Register a route.
+         *
+         * @param method HTTP method (GET routes also answer HEAD)
+         * @param pattern path pattern starting with '/', variables written as {name}
+         * @param value value returned on match
+         * @return this builder
+         */
+        public Builder<T> add(HttpMethod method, String pattern, T value) {
+            if (pattern == null || !pattern.startsWith("/")) {
+                throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+            }
+            MutableNode<T> node = root;
+            List<String> names = new ArrayList<>();
+            String path = pattern.length() > 1 && pattern.endsWith("/") ? pattern.substring(0, pattern.length() - 1) : pattern;
+            if (path.length() > 1) {
+                for (String seg : path.substring(1).split("/")) {
+                    if (seg.isEmpty()) throw new IllegalArgumentException("Empty segment in route pattern: " + pattern);
+                    if (seg.startsWith("{") && seg.endsWith("}")) {
+                        String name = seg.substring(1, seg.length() - 1);
+                        if (node.param == null) node.param = new MutableNode<>();
+                        node = node.param;
+                        names.add(name);
+                    } else {
+                        node = node.literals.computeIfAbsent(seg, k -> new MutableNode<>());
+                    }
+                }
+            }
+            if (node.handlers.containsKey(method)) {
+                throw new IllegalArgumentException("Duplicate route " + method + " " + pattern);
+            }
+            node.handlers.put(method, new Handler<>(value, names.toArray(new String[0])));
+            return this;
+        }
+
+        public Router<T> build() {
+            return new Router<>(compile(root, 0, maxDepth(root, 0)));
+        }
+
+        private static <T> int maxDepth(MutableNode<T> node, int params) {
+            int max = params;
+            for (MutableNode<T> child : node.literals.values()) max = Math.max(max, maxDepth(child, params));
+            if (node.param != null) max = Math.max(max, maxDepth(node.param, params + 1));
+            return max;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T> compile(MutableNode<T> node, int depth, int maxParams) {
+            String[] literals = node.literals.keySet().toArray(new String[0]);
+            Node<T>[] children = new Node[literals.length];
+            for (int i = 0; i < literals.length; i++) {
+                children[i] = compile(node.literals.get(literals[i]), depth, maxParams);
+            }
+            Node<T> param = node.param != null ? compile(node.param, depth + 1, maxParams) : null;
+
+            HttpMethod[] methods = null;
+            T[] values = null;
+            String[][] names = null;
+            if (!node.handlers.isEmpty()) {
+                int n = node.handlers.size();
+                methods = new HttpMethod[n];
+                values = (T[]) new Object[n];
+                names = new String[n][];
+                int i = 0;
+                for (Map.Entry<HttpMethod, Handler<T>> e : node.handlers.entrySet()) {
+                    methods[i] = e.getKey();
+                    values[i] = e.getValue().value;
+                    names[i] = e.getValue().paramNames;
+                    i++;
+                }
+            }
+            return new Node<>(literals, children, param, methods, values, names, maxParams);
+        }
+    }
+
+    private static final class MutableNode<T> {
+        final Map<String, MutableNode<T>> literals = new LinkedHashMap<>();
+        final Map<HttpMethod, Handler<T>> handlers = new LinkedHashMap<>();
+        MutableNode<T> param;
+    }
+
+    private record Handler<T>(T value, String[] paramNames) {}
+}
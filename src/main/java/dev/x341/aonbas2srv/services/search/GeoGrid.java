@@ -0,0 +1,104 @@
+package dev.x341.aonbas2srv.services.search;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over a fixed set of points given as primitive lat/lon arrays. Point numbers are kept ordered by the
+ * cell (0.01 degrees, about 1.1 x 0.8 km in Barcelona) they fall in, so a box query visits only the cells the box
+ * overlaps, each row of cells being one contiguous run found by binary search. Immutable once built.
+ */
+public final class GeoGrid {
+
+    private static final double CELL_DEGREES = 0.01;
+    private static final int COLUMNS = 36_001;
+    /** Past this many cells a query returns every point instead. */
+    private static final int MAX_CELLS = 4_096;
+
+    /** Point numbers ordered by cell. */
+    private final int[] order;
+    /** Distinct cell keys, ascending. */
+    private final int[] cells;
+    /** Points of cells[i] are order[cellStart[i]] .. order[cellStart[i + 1] - 1]. */
+    private final int[] cellStart;
+
+    /**
+     * @param lat latitude of each point
+     * @param lon longitude of each point, same length
+     */
+    public GeoGrid(double[] lat, double[] lon) {
+        int n = lat.length;
+        // Sort points by cell, keeping their order within a cell
+        long[] keyed = new long[n];
+        for (int i = 0; i < n; i++) keyed[i] = ((long) cell(row(lat[i]), column(lon[i])) << 32) | i;
+        Arrays.sort(keyed);
+
+        this.order = new int[n];
+        int[] cellKeys = new int[n];
+        int[] starts = new int[n + 1];
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keyed[i];
+            int key = (int) (keyed[i] >>> 32);
+            if (distinct == 0 || cellKeys[distinct - 1] != key) {
+                cellKeys[distinct] = key;
+                starts[distinct++] = i;
+            }
+        }
+        starts[distinct] = n;
+        this.cells = Arrays.copyOf(cellKeys, distinct);
+        this.cellStart = Arrays.copyOf(starts, distinct + 1);
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * Points in the cells a box overlaps: a superset of the points inside the box, which callers filter exactly.
+     *
+     * @return point numbers, ascending by cell
+     */
+    public int[] candidates(double minLat, double minLon, double maxLat, double maxLon) {
+        int fromRow = row(minLat), toRow = row(maxLat);
+        int fromCol = column(minLon), toCol = column(maxLon);
+        if (fromRow > toRow || fromCol > toCol) return new int[0];
+        if ((long) (toRow - fromRow + 1) * (toCol - fromCol + 1) > MAX_CELLS) return order.clone();
+
+        int[] out = new int[16];
+        int count = 0;
+        for (int row = fromRow; row <= toRow; row++) {
+            int last = cell(row, toCol);
+            int c = lowerBound(cell(row, fromCol));
+            if (c == cells.length || cells[c] > last) continue;
+            int end = c;
+            while (end < cells.length && cells[end] <= last) end++;
+            int from = cellStart[c], to = cellStart[end];
+            if (count + to - from > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, count + to - from));
+            System.arraycopy(order, from, out, count, to - from);
+            count += to - from;
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    private static int row(double latitude) {
+        return (int) Math.floor((Math.max(-90, Math.min(90, latitude)) + 90) / CELL_DEGREES);
+    }
+
+    private static int column(double longitude) {
+        return (int) Math.floor((Math.max(-180, Math.min(180, longitude)) + 180) / CELL_DEGREES);
+    }
+
+    private static int cell(int row, int column) {
+        return row * COLUMNS + column;
+    }
+
+    private int lowerBound(int key) {
+        int lo = 0, hi = cells.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cells[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,76 @@
+package dev.x341.aonbas2srv.services.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Nearest-place lookups over the located places, built once per version of the stop and station data. Coordinates
+ * live in primitive arrays under a {@link GeoGrid}; a radius query computes exact distances only for the points in
+ * the grid cells the radius overlaps.
+ */
+public final class GeoIndex {
+
+    /** A place within the queried radius and its distance in metres. */
+    public record Hit(Place place, int meters) {}
+
+    private static final double METERS_PER_DEGREE = 111_320;
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+
+    private final Place[] places;
+    private final double[] lat;
+    private final double[] lon;
+    private final GeoGrid grid;
+
+    public GeoIndex(List<Place> all) {
+        List<Place> located = new ArrayList<>(all.size());
+        for (Place p : all) if (p.hasLocation()) located.add(p);
+        this.places = located.toArray(new Place[0]);
+        this.lat = new double[places.length];
+        this.lon = new double[places.length];
+        for (int i = 0; i < places.length; i++) {
+            lat[i] = places[i].lat();
+            lon[i] = places[i].lon();
+        }
+        this.grid = new GeoGrid(lat, lon);
+    }
+
+    public int size() {
+        return places.length;
+    }
+
+    /**
+     * @param radiusMeters search radius
+     * @param limit maximum number of results
+     * @return places within the radius, closest first
+     */
+    public List<Hit> nearest(double latitude, double longitude, int radiusMeters, int limit) {
+        if (limit <= 0 || radiusMeters <= 0 || places.length == 0) return List.of();
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double dLon = radiusMeters / (METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(latitude))));
+        int[] candidates = grid.candidates(latitude - dLat, longitude - dLon, latitude + dLat, longitude + dLon);
+
+        long[] found = new long[candidates.length];
+        int count = 0;
+        for (int i : candidates) {
+            int meters = distance(latitude, longitude, lat[i], lon[i]);
+            if (meters <= radiusMeters) found[count++] = ((long) meters << 32) | i;
+        }
+
+        // Closest first; equal distances in list order
+        Arrays.sort(found, 0, count);
+        int n = Math.min(limit, count);
+        List<Hit> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(new Hit(places[(int) found[i]], (int) (found[i] >>> 32)));
+        return out;
+    }
+
+    /** Great-circle distance in whole metres. */
+    static int distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return (int) Math.round(2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a))));
+    }
+}
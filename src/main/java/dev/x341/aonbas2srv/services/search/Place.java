@@ -0,0 +1,24 @@
+package dev.x341.aonbas2srv.services.search;
+
+import java.util.List;
+
+/**
+ * A tram stop or metro station as returned by the search and nearby endpoints.
+ *
+ * @param type "tram" or "metro"
+ * @param id TRAM stop id or TMB station id
+ * @param code code used by the other endpoints: gtfsCode for tram stops, station code for metro
+ * @param name display name
+ * @param lines metro lines serving the station (empty for tram stops, whose lines TRAM does not list per stop)
+ * @param lat latitude, or null if unknown
+ * @param lon longitude, or null if unknown
+ */
+public record Place(String type, String id, String code, String name, List<String> lines, Double lat, Double lon) {
+
+    public static final String TRAM = "tram";
+    public static final String METRO = "metro";
+
+    public boolean hasLocation() {
+        return lat != null && lon != null;
+    }
+}
@@ -0,0 +1,123 @@
+package dev.x341.aonbas2srv.services.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Typeahead index over places, built once per version of the stop and station data. Every folded word of a place's
+ * name and code is kept in one sorted array with the ascending positions of the places it occurs in; all words
+ * starting with a query word are then a contiguous range found by binary search (a prefix trie flattened into an
+ * array). A query matches the places in which every query word prefixes some word; answering it touches only the
+ * postings of the matching words and ranks only the places that matched.
+ * <p>
+ * Ranking, best first: folded name equal to the query, name starting with the query, then the number of query words
+ * that are whole words of the place, then shorter names, then name order.
+ */
+public final class SearchIndex {
+
+    private final Place[] places;
+    private final String[] folded;
+    private final String[] words;
+    private final int[][] postings;
+
+    public SearchIndex(List<Place> places) {
+        // By name, so that ranking ties (broken by position) come out alphabetically
+        this.places = places.toArray(new Place[0]);
+        Arrays.sort(this.places, Comparator.comparing((Place p) -> TextFold.fold(p.name())));
+        this.folded = new String[this.places.length];
+        Map<String, List<Integer>> byWord = new TreeMap<>();
+        for (int i = 0; i < this.places.length; i++) {
+            Place p = this.places[i];
+            folded[i] = TextFold.fold(p.name());
+            List<String> placeWords = new ArrayList<>(TextFold.tokens(p.name()));
+            placeWords.addAll(TextFold.tokens(p.code()));
+            // The code without separators too, so "GLO1" finds "GLO-1"
+            String code = TextFold.fold(p.code()).replace(" ", "");
+            if (!code.isEmpty()) placeWords.add(code);
+            for (String w : placeWords) {
+                List<Integer> list = byWord.computeIfAbsent(w, k -> new ArrayList<>());
+                if (list.isEmpty() || list.get(list.size() - 1) != i) list.add(i);
+            }
+        }
+        this.words = byWord.keySet().toArray(new String[0]);
+        this.postings = new int[words.length][];
+        int w = 0;
+        for (List<Integer> list : byWord.values()) postings[w++] = list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public int size() {
+        return places.length;
+    }
+
+    /**
+     * @param query what the user typed so far
+     * @param limit maximum number of results
+     * @return matching places, best first
+     */
+    public List<Place> search(String query, int limit) {
+        List<String> terms = TextFold.tokens(query);
+        if (terms.isEmpty() || limit <= 0) return List.of();
+
+        BitSet matches = null;
+        for (String term : terms) {
+            BitSet termMatches = new BitSet(places.length);
+            int from = lowerBound(term);
+            for (int w = from; w < words.length && words[w].startsWith(term); w++) {
+                for (int p : postings[w]) termMatches.set(p);
+            }
+            if (matches == null) matches = termMatches;
+            else matches.and(termMatches);
+            if (matches.isEmpty()) return List.of();
+        }
+
+        String q = String.join(" ", terms);
+        int[] candidates = matches.stream().toArray();
+        long[] keyed = new long[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            // Higher score first, then position
+            keyed[i] = ((long) (Integer.MAX_VALUE - score(candidates[i], q, terms)) << 32) | candidates[i];
+        }
+        Arrays.sort(keyed);
+        int n = Math.min(limit, keyed.length);
+        List<Place> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(places[(int) keyed[i]]);
+        return out;
+    }
+
+    private int score(int place, String q, List<String> terms) {
+        String name = folded[place];
+        int score = 0;
+        if (name.equals(q)) score += 1_000_000;
+        else if (name.startsWith(q)) score += 500_000;
+        for (String term : terms) {
+            if (containsWord(name, term)) score += 10_000;
+        }
+        return score + Math.max(0, 1_000 - name.length());
+    }
+
+    private static boolean containsWord(String text, String word) {
+        int from = 0;
+        while (true) {
+            int at = text.indexOf(word, from);
+            if (at < 0) return false;
+            int end = at + word.length();
+            if ((at == 0 || text.charAt(at - 1) == ' ') && (end == text.length() || text.charAt(end) == ' ')) return true;
+            from = at + 1;
+        }
+    }
+
+    private int lowerBound(String term) {
+        int lo = 0, hi = words.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (words[mid].compareTo(term) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,53 @@
+package dev.x341.aonbas2srv.services.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accent and case folding for Catalan/Spanish place names: "Plaça de les Glòries" and "placa de les glories" fold
+ * to the same text. Diacritics are dropped (ç to c, à/á to a, ñ to n...), the Catalan middle dot of "l·l" disappears
+ * and everything but letters and digits separates words.
+ */
+public final class TextFold {
+    private TextFold() {}
+
+    /** Lower-case, accent-free form of {@code text} with single spaces between words. */
+    public static String fold(String text) {
+        if (text == null || text.isEmpty()) return "";
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean space = true;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            int type = Character.getType(c);
+            if (type == Character.NON_SPACING_MARK || c == '·' || c == '‧' || c == '\'' || c == '’') {
+                continue; // accents, "l·l" and apostrophes ("d'Ebre") join rather than split
+            }
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == ' ') sb.setLength(len - 1);
+        return sb.toString();
+    }
+
+    /** Words of the folded text. */
+    public static List<String> tokens(String text) {
+        String folded = fold(text);
+        List<String> out = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= folded.length(); i++) {
+            if (i == folded.length() || folded.charAt(i) == ' ') {
+                if (i > start) out.add(folded.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return out;
+    }
+}
@@ -11,8 +11,46 @@ public class AOBConfig {
     private final String tramClientId;
     private final String tramClientSecret;
 
+    // Handler executor: "virtual" (one virtual thread per request) or "platform" (bounded pool)
+    private final String handlerExecutor;
+    private final int handlerPoolSize;
+    private final int handlerQueueSize;
+
+    // Netty transport: "auto" (io_uring, then epoll, then nio) or a specific one
+    private final String serverTransport;
+    private final boolean serverReusePort;
+    private final int serverListeners;
+
+    private final int compressionMinBytes;
+
+    private final int cacheMaxMb;
+    private final int gtfsCacheMaxMb;
+    private final int objectCacheMaxMb;
+
+    private final boolean serverH2c;
+    private final int h2MaxConcurrentStreams;
+    private final int h2InitialWindowSize;
+    private final int h2MaxFrameSize;
+    private final int h2MaxHeaderListSize;
+
+    // Shared OkHttp client used for the TMB and TRAM APIs
+    private final int upstreamMaxIdleConnections;
+    private final int upstreamKeepAliveSeconds;
+    private final int upstreamConnectTimeoutMs;
+    private final int upstreamReadTimeoutMs;
+    private final int upstreamCallTimeoutMs;
+    private final int upstreamMaxRequests;
+    private final int upstreamMaxRequestsPerHost;
+
+    // Page requests one TRAM stop load may have in flight (1 = one page at a time, network after network)
+    private final int tramFetchConcurrency;
+    private final int gtfsRtPollSeconds;
+
     public AOBConfig() {
-        Dotenv dotenv = Dotenv.load();
+        this(Dotenv.load());
+    }
+
+    AOBConfig(Dotenv dotenv) {
         this.tmbAppId = dotenv.get("TMB_APP_ID");
         this.tmbAppKey = dotenv.get("TMB_APP_KEY");
 
@@ -26,6 +64,76 @@ public class AOBConfig {
         if (this.tramClientId == null || this.tramClientSecret == null) {
             throw new RuntimeException("Missing TRAM_CLIENT_ID or TRAM_CLIENT_SECRET in .env file.");
         }
+
+        this.handlerExecutor = dotenv.get("HANDLER_EXECUTOR", "virtual").trim().toLowerCase();
+        this.handlerPoolSize = getInt(dotenv, "HANDLER_POOL_SIZE", Runtime.getRuntime().availableProcessors() * 8);
+        this.handlerQueueSize = getInt(dotenv, "HANDLER_QUEUE_SIZE", 1024);
+
+        this.serverTransport = dotenv.get("SERVER_TRANSPORT", "auto").trim().toLowerCase();
+        this.serverReusePort = getBool(dotenv, "SERVER_REUSEPORT", false);
+        this.serverListeners = getInt(dotenv, "SERVER_LISTENERS", Runtime.getRuntime().availableProcessors());
+
+        this.compressionMinBytes = getInt(dotenv, "COMPRESSION_MIN_BYTES", 1024);
+
+        this.cacheMaxMb = getInt(dotenv, "CACHE_MAX_MB", 64);
+        this.gtfsCacheMaxMb = getInt(dotenv, "GTFS_CACHE_MAX_MB", 32);
+        this.objectCacheMaxMb = getInt(dotenv, "OBJECT_CACHE_MAX_MB", 32);
+
+        this.serverH2c = getBool(dotenv, "SERVER_H2C", true);
+        this.h2MaxConcurrentStreams = getInt(dotenv, "H2_MAX_CONCURRENT_STREAMS", 100);
+        this.h2InitialWindowSize = getInt(dotenv, "H2_INITIAL_WINDOW_SIZE", 65535);
+        this.h2MaxFrameSize = getInt(dotenv, "H2_MAX_FRAME_SIZE", 16384);
+        this.h2MaxHeaderListSize = getInt(dotenv, "H2_MAX_HEADER_LIST_SIZE", 8192);
+
+        this.upstreamMaxIdleConnections = getInt(dotenv, "UPSTREAM_MAX_IDLE_CONNECTIONS", 16);
+        this.upstreamKeepAliveSeconds = getInt(dotenv, "UPSTREAM_KEEP_ALIVE_SECONDS", 300);
+        this.upstreamConnectTimeoutMs = getInt(dotenv, "UPSTREAM_CONNECT_TIMEOUT_MS", 3000);
+        this.upstreamReadTimeoutMs = getInt(dotenv, "UPSTREAM_READ_TIMEOUT_MS", 10000);
+        this.upstreamCallTimeoutMs = getInt(dotenv, "UPSTREAM_CALL_TIMEOUT_MS", 20000);
+        this.upstreamMaxRequests = getInt(dotenv, "UPSTREAM_MAX_REQUESTS", 64);
+        this.upstreamMaxRequestsPerHost = getInt(dotenv, "UPSTREAM_MAX_REQUESTS_PER_HOST", 16);
+
+        this.tramFetchConcurrency = getInt(dotenv, "TRAM_FETCH_CONCURRENCY", 8);
+        this.gtfsRtPollSeconds = getInt(dotenv, "GTFS_RT_POLL_SECONDS", 15, 0); // 0 disables polling
+
+        // Ranges from RFC 9113 section 6.5.2
+        if (this.h2MaxFrameSize < 16384 || this.h2MaxFrameSize > 16777215) {
+            throw new RuntimeException("H2_MAX_FRAME_SIZE must be between 16384 and 16777215 in .env file.");
+        }
+    }
+
+    /**
+     * Read an optional positive integer setting, falling back to the default when missing. A value that is not an
+     * integer, or is below 1, is rejected.
+     */
+    private static int getInt(Dotenv dotenv, String key, int def) {
+        return getInt(dotenv, key, def, 1);
+    }
+
+    /**
+     * Read an optional integer setting whose smallest accepted value is {@code min}, falling back to the default
+     * when missing. A value that is not an integer, or is below {@code min}, is rejected.
+     */
+    private static int getInt(Dotenv dotenv, String key, int def, int min) {
+        String raw = dotenv.get(key);
+        if (raw == null || raw.isBlank()) return def;
+        try {
+            int v = Integer.parseInt(raw.trim());
+            if (v >= min) return v;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new RuntimeException("Invalid integer for " + key + " in .env file (must be at least " + min + "): " + raw);
+    }
+
+    /**
+     * Read an optional boolean setting ("true"/"1"/"yes"), falling back to the default when missing.
+     */
+    private static boolean getBool(Dotenv dotenv, String key, boolean def) {
+        String raw = dotenv.get(key);
+        if (raw == null || raw.isBlank()) return def;
+        String v = raw.trim().toLowerCase();
+        return v.equals("true") || v.equals("1") || v.equals("yes");
     }
 
     public String getTmbAppId() { return tmbAppId; };
@@ -33,4 +141,35 @@ public class AOBConfig {
 
     public String getTramClientId() { return tramClientId; };
     public String getTramClientSecret() { return  tramClientSecret; };
+
+    public String getHandlerExecutor() { return handlerExecutor; }
+    public int getHandlerPoolSize() { return handlerPoolSize; }
+    public int getHandlerQueueSize() { return handlerQueueSize; }
+
+    public String getServerTransport() { return serverTransport; }
+    public boolean isServerReusePort() { return serverReusePort; }
+    public int getServerListeners() { return serverListeners; }
+
+    public int getCompressionMinBytes() { return compressionMinBytes; }
+
+    public int getCacheMaxMb() { return cacheMaxMb; }
+    public int getGtfsCacheMaxMb() { return gtfsCacheMaxMb; }
+    public int getObjectCacheMaxMb() { return objectCacheMaxMb; }
+
+    public boolean isServerH2c() { return serverH2c; }
+    public int getH2MaxConcurrentStreams() { return h2MaxConcurrentStreams; }
+    public int getH2InitialWindowSize() { return h2InitialWindowSize; }
+    public int getH2MaxFrameSize() { return h2MaxFrameSize; }
+    public int getH2MaxHeaderListSize() { return h2MaxHeaderListSize; }
+
+    public int getUpstreamMaxIdleConnections() { return upstreamMaxIdleConnections; }
+    public int getUpstreamKeepAliveSeconds() { return upstreamKeepAliveSeconds; }
+    public int getUpstreamConnectTimeoutMs() { return upstreamConnectTimeoutMs; }
+    public int getUpstreamReadTimeoutMs() { return upstreamReadTimeoutMs; }
+    public int getUpstreamCallTimeoutMs() { return upstreamCallTimeoutMs; }
+    public int getUpstreamMaxRequests() { return upstreamMaxRequests; }
+    public int getUpstreamMaxRequestsPerHost() { return upstreamMaxRequestsPerHost; }
+
+    public int getTramFetchConcurrency() { return tramFetchConcurrency; }
+    public int getGtfsRtPollSeconds() { return gtfsRtPollSeconds; }
 }
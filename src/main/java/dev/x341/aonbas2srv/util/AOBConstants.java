@@ -6,6 +6,9 @@ public class AOBConstants {
     public static final String NAME = "aonbas2srv";
     public static final String CREATOR = "x341dev";
 
+    // Guice binding name of the executor that runs blocking service work for HTTP handlers
+    public static final String HANDLER_EXECUTOR = "handlerExecutor";
+
     //Version
     public static final int VERSION_MAJOR = 0;
     public static final int VERSION_MINOR = 2;
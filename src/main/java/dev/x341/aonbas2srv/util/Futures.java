@@ -0,0 +1,53 @@
+package dev.x341.aonbas2srv.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Helpers for bridging the asynchronous upstream API back to blocking callers.
+ */
+public final class Futures {
+    private Futures() {}
+
+    /**
+     * Wait for a future, rethrowing its failure the way a blocking call would have.
+     *
+     * @param future the future to wait for
+     * @return its value
+     * @throws IOException the future's I/O failure, or one wrapping any other checked failure
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for upstream call");
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return the failure inside any CompletionException/ExecutionException layers
+     */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * Wrap a checked failure so it can escape a CompletableFuture stage; {@link #unwrap} takes it off again.
+     */
+    public static CompletionException wrap(Throwable t) {
+        return t instanceof CompletionException ce ? ce : new CompletionException(t);
+    }
+}
@@ -0,0 +1,140 @@
+package dev.x341.aonbas2srv.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent calls for the same key into one: the first caller runs the call, everyone who asks for
+ * the key while it is in flight waits for (or asynchronously joins) that result instead of starting their own.
+ * Nothing is remembered once the call completes; caching the result is up to the caller.
+ * <p>
+ * Per key it counts the calls actually made and the callers that joined one, see {@link #stats()}. Keys carry
+ * client-chosen path segments (station codes, line ids), so the counters are kept for at most
+ * {@value #MAX_COUNTED_KEYS} keys, the most used ones winning.
+ *
+ * @param <T> result type
+ */
+public class SingleFlight<T> {
+
+    /**
+     * Blocking call that may fail with an I/O error.
+     *
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    private static final int MAX_COUNTED_KEYS = 1024;
+
+    private final Map<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final Cache<String, Counters> counters = Caffeine.newBuilder().maximumSize(MAX_COUNTED_KEYS).build();
+
+    /**
+     * Run the call for a key on the calling thread, or wait for the one already running.
+     *
+     * @param key deduplication key
+     * @param call upstream call
+     * @return the call's result
+     * @throws IOException if the call failed (for joiners, wrapping the leader's failure)
+     */
+    public T execute(String key, Call<T> call) throws IOException {
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            counters(key).joined.increment();
+            return await(key, existing);
+        }
+        counters(key).calls.increment();
+        try {
+            T value = call.call();
+            mine.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // Errors too, or the callers waiting on this call would never wake up
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Start an asynchronous call for a key, or join the one already running (started either way).
+     *
+     * @param key deduplication key
+     * @param call starts the upstream call
+     * @return a future completing with the shared result; completing it does not affect other callers
+     */
+    public CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            counters(key).joined.increment();
+            return existing.copy();
+        }
+        counters(key).calls.increment();
+        CompletableFuture<T> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        started.whenComplete((value, error) -> {
+            inFlight.remove(key, mine);
+            if (error != null) mine.completeExceptionally(error);
+            else mine.complete(value);
+        });
+        return mine.copy();
+    }
+
+    /**
+     * @return number of calls currently running
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return key -> {"calls": upstream calls made, "joined": callers that shared another caller's call}
+     */
+    public Map<String, Map<String, Long>> stats() {
+        Map<String, Map<String, Long>> out = new TreeMap<>();
+        counters.asMap().forEach((key, c) -> out.put(key, Map.of("calls", c.calls.sum(), "joined", c.joined.sum())));
+        return out;
+    }
+
+    private Counters counters(String key) {
+        return counters.get(key, k -> new Counters());
+    }
+
+    private T await(String key, CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for shared call " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IOException("Shared call failed for " + key + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder calls = new LongAdder();
+        final LongAdder joined = new LongAdder();
+    }
+}
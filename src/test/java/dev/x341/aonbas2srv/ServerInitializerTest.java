@@ -0,0 +1,167 @@
+package dev.x341.aonbas2srv;
+
+import dev.x341.aonbas2srv.services.*;
+import dev.x341.aonbas2srv.services.apiclients.UpstreamTimings;
+import dev.x341.aonbas2srv.util.AOBConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http2.*;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The same routes answered over HTTP/1.1, h2c upgrade and prior-knowledge HTTP/2.
+ */
+public class ServerInitializerTest {
+
+    private EventLoopGroup group;
+    private Channel serverChannel;
+    private int port;
+
+    @BeforeEach
+    void setup() throws Exception {
+        MetroService metroService = mock(MetroService.class);
+        when(metroService.getLinesJsonAsync()).thenReturn(CompletableFuture.completedFuture("{\"lines\":[]}"));
+        ResponseCompressor compressor = new ResponseCompressor(1024);
+        CacheService cacheService = new CacheService();
+        ResponseCache responseCache = new ResponseCache(cacheService, compressor);
+
+        AOBConfig config = mock(AOBConfig.class);
+        when(config.isServerH2c()).thenReturn(true);
+        when(config.getH2MaxConcurrentStreams()).thenReturn(100);
+        when(config.getH2InitialWindowSize()).thenReturn(65535);
+        when(config.getH2MaxFrameSize()).thenReturn(16384);
+        when(config.getH2MaxHeaderListSize()).thenReturn(8192);
+        ServerInitializer initializer = new ServerInitializer(config, () ->
+                new HttpServerHandler(metroService, mock(TramService.class), mock(PlaceService.class), cacheService, responseCache, compressor, new UpstreamTimings(), Runnable::run));
+
+        group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+        serverChannel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(initializer)
+                .bind("127.0.0.1", 0).sync().channel();
+        port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        serverChannel.close().syncUninterruptibly();
+        group.shutdownGracefully().syncUninterruptibly();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path)).timeout(Duration.ofSeconds(10)).GET().build();
+    }
+
+    @Test
+    void http11StillServed() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        for (int i = 0; i < 2; i++) {
+            HttpResponse<String> res = client.send(get("/status"), HttpResponse.BodyHandlers.ofString());
+            assertEquals(HttpClient.Version.HTTP_1_1, res.version());
+            assertEquals(200, res.statusCode());
+            assertEquals("Server is running", res.body());
+        }
+        assertEquals(404, client.send(get("/nope"), HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    @Test
+    void h2cUpgradeMultiplexesRequests() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        // The first request carries Upgrade: h2c and is answered on stream 1
+        HttpResponse<String> first = client.send(get("/status"), HttpResponse.BodyHandlers.ofString());
+        assertEquals(HttpClient.Version.HTTP_2, first.version());
+        assertEquals("Server is running", first.body());
+
+        List<CompletableFuture<HttpResponse<String>>> inFlight = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            inFlight.add(client.sendAsync(get(i % 2 == 0 ? "/status" : "/metro/lines"), HttpResponse.BodyHandlers.ofString()));
+        }
+        for (int i = 0; i < inFlight.size(); i++) {
+            HttpResponse<String> res = inFlight.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(HttpClient.Version.HTTP_2, res.version());
+            assertEquals(200, res.statusCode());
+            assertEquals(i % 2 == 0 ? "Server is running" : "{\"lines\":[]}", res.body());
+        }
+    }
+
+    @Test
+    void priorKnowledgeStreamsShareOneConnection() throws Exception {
+        Channel connection = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(Http2FrameCodecBuilder.forClient().build());
+                        ch.pipeline().addLast(new Http2MultiplexHandler(new ChannelInitializer<Channel>() {
+                            @Override
+                            protected void initChannel(Channel ch) { }
+                        }));
+                    }
+                })
+                .connect("127.0.0.1", port).sync().channel();
+        try {
+            List<CompletableFuture<FullHttpResponse>> responses = new ArrayList<>();
+            for (String path : List.of("/status", "/metro/lines", "/metro/nope")) {
+                CompletableFuture<FullHttpResponse> future = new CompletableFuture<>();
+                Http2StreamChannel stream = new Http2StreamChannelBootstrap(connection)
+                        .handler(new ChannelInitializer<Http2StreamChannel>() {
+                            @Override
+                            protected void initChannel(Http2StreamChannel ch) {
+                                ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(false));
+                                ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                                ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+                                        future.complete(msg.retainedDuplicate());
+                                    }
+                                });
+                            }
+                        })
+                        .open().sync().getNow();
+                FullHttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path, Unpooled.EMPTY_BUFFER);
+                req.headers().set(HttpConversionUtil.ExtensionHeaderNames.SCHEME.text(), "http");
+                stream.writeAndFlush(req);
+                responses.add(future);
+            }
+
+            FullHttpResponse status = responses.get(0).get(10, TimeUnit.SECONDS);
+            assertEquals(HttpResponseStatus.OK, status.status());
+            assertEquals("Server is running", status.content().toString(CharsetUtil.UTF_8));
+            FullHttpResponse lines = responses.get(1).get(10, TimeUnit.SECONDS);
+            assertEquals("{\"lines\":[]}", lines.content().toString(CharsetUtil.UTF_8));
+            assertEquals(HttpResponseStatus.NOT_FOUND, responses.get(2).get(10, TimeUnit.SECONDS).status());
+        } finally {
+            connection.close().syncUninterruptibly();
+        }
+    }
+}
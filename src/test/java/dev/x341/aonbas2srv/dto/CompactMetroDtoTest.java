@@ -0,0 +1,57 @@
+package dev.x341.aonbas2srv.dto;
+
+import dev.x341.aonbas2srv.dto.CompactMetroDto.IntProperty;
+import dev.x341.aonbas2srv.dto.CompactMetroDto.StringProperty;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactMetroDtoTest {
+
+    private final JsonCodec codec = new JsonCodec();
+
+    private static final String STATIONS = "{\"type\":\"FeatureCollection\",\"timestamp\":5,\"features\":["
+            + "{\"type\":\"Feature\",\"id\":\"E.1\",\"geometry_name\":\"GEOMETRY\","
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[2.19,41.4]},"
+            + "\"properties\":{\"CODI_ESTACIO\":126,\"NOM_ESTACIO\":\"Glòries\",\"COLOR_LINIA\":\"CE1126\"}},"
+            + "null,"
+            + "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\"}},"
+            + "{\"geometry\":{\"type\":\"MultiLineString\",\"coordinates\":[[[2.1,41.3,0.0],[2.2,41.4,0.0]],[]]},"
+            + "\"properties\":{\"COLOR_LINIA\":\"CE1126\"}},"
+            + "{\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[2.1,41.3],[2.2]]}},"
+            + "{\"geometry\":{\"type\":\"Point\",\"coordinates\":\"2.1 41.3\"}}],"
+            + "\"linies\":[{\"codi_linia\":1}]}";
+
+    @Test
+    void viewWritesTheJsonOfTheOriginal() {
+        MetroDto dto = codec.fromJson(STATIONS, MetroDto.class);
+        CompactMetroDto compact = CompactMetroDto.of(dto);
+        assertEquals(codec.toJson(dto), codec.toJson(compact.toDto()));
+        assertSame(compact.toDto(), compact.toDto(), "the view is built once while it is reachable");
+
+        for (String json : new String[]{"{}", "{\"features\":[]}", codec.toJson(new MetroDto())}) {
+            MetroDto other = codec.fromJson(json, MetroDto.class);
+            assertEquals(codec.toJson(other), codec.toJson(CompactMetroDto.of(other).toDto()));
+        }
+        assertNull(CompactMetroDto.of(null));
+    }
+
+    @Test
+    void accessorsReadWithoutMaterializing() {
+        CompactMetroDto compact = CompactMetroDto.of(codec.fromJson(STATIONS, MetroDto.class));
+        assertEquals(6, compact.size());
+        assertEquals(126, compact.intProperty(0, IntProperty.CODI_ESTACIO));
+        assertEquals("Glòries", compact.stringProperty(0, StringProperty.NOM_ESTACIO));
+        assertSame(compact.stringProperty(0, StringProperty.COLOR_LINIA), compact.stringProperty(3, StringProperty.COLOR_LINIA),
+                "repeated values are stored once");
+        assertFalse(compact.hasProperties(1));
+        assertNull(compact.stringProperty(1, StringProperty.NOM_ESTACIO));
+
+        assertArrayEquals(new double[]{2.19, 41.4}, compact.lonLat(0));
+        assertNull(compact.lonLat(2), "no coordinates");
+        assertNull(compact.lonLat(3), "not a point");
+        assertNull(compact.lonLat(5), "not a position");
+        assertTrue(compact.estimatedBytes() > 0);
+    }
+}
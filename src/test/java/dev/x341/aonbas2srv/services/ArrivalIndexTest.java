@@ -0,0 +1,171 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.transit.realtime.GtfsRealtime.*;
+import dev.x341.aonbas2srv.dto.RealtimeFeed;
+import dev.x341.aonbas2srv.dto.Stop;
+import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ArrivalIndexTest {
+
+    private static final long NOW = 1_700_000_000L;
+
+    private static FeedEntity trip(String tripId, String routeId, Object... stopAndTime) {
+        TripUpdate.Builder trip = TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId).setRouteId(routeId));
+        for (int i = 0; i < stopAndTime.length; i += 2) {
+            trip.addStopTimeUpdate(TripUpdate.StopTimeUpdate.newBuilder()
+                    .setStopId((String) stopAndTime[i])
+                    .setArrival(TripUpdate.StopTimeEvent.newBuilder().setTime((Long) stopAndTime[i + 1])));
+        }
+        return FeedEntity.newBuilder().setId(tripId).setTripUpdate(trip).build();
+    }
+
+    private static RealtimeFeed feed(FeedEntity... trips) {
+        FeedHeader header = FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").build();
+        FeedMessage tripUpdates = FeedMessage.newBuilder().setHeader(header).addAllEntity(List.of(trips)).build();
+        FeedMessage vehicles = FeedMessage.newBuilder().setHeader(header)
+                .addEntity(FeedEntity.newBuilder().setId("v1").setVehicle(VehiclePosition.getDefaultInstance()))
+                .build();
+        return new RealtimeFeed(tripUpdates, vehicles, NOW);
+    }
+
+    @Test
+    void arrivalsAreGroupedByStopAndSortedByTime() {
+        RealtimeFeed feed = feed(
+                trip("t1", "T4", "ab1", NOW + 600, "CD2", NOW + 900),
+                trip("t2", "T4", "AB1", NOW - 60, "CD2", NOW + 300),
+                trip("t3", "T5", "AB1", NOW + 120, "EF3", 0L));
+
+        ArrivalIndex index = ArrivalIndex.build("TRAMBESOS", feed);
+        assertEquals(5, index.size(), "arrivals without a time are not indexed");
+
+        List<ArrivalIndex.Arrival> out = new ArrayList<>();
+        index.arrivalsAt("Ab1", NOW, out);
+        assertEquals(List.of("t3", "t1"), out.stream().map(ArrivalIndex.Arrival::tripId).toList());
+        assertEquals("T5", out.get(0).routeId());
+        assertEquals("TRAMBESOS", out.get(0).network());
+
+        out.clear();
+        index.arrivalsAt("AB1", NOW - 3600, out);
+        assertEquals(List.of("t2", "t3", "t1"), out.stream().map(ArrivalIndex.Arrival::tripId).toList());
+
+        out.clear();
+        index.arrivalsAt("EF3", NOW, out);
+        index.arrivalsAt("ZZ9", NOW, out);
+        index.arrivalsAt("CD2", NOW + 901, out);
+        assertTrue(out.isEmpty());
+    }
+
+    @Test
+    void stopTimesComeFromBothNetworksByAnyStopCode() throws Exception {
+        // The service filters on the wall clock
+        long now = System.currentTimeMillis() / 1000;
+        RealtimeFeed besos = feed(trip("b1", "T5", "BES1", now + 10_000), trip("b2", "T6", "OTHER", now + 10_000));
+        RealtimeFeed baix = feed(trip("x1", "T1", "101", now + 5_000), trip("x2", "T1", "102", now + 20_000));
+
+        Stop stop = new Stop();
+        stop.setId(7);
+        stop.setName("Glòries");
+        stop.setGtfsCode("bes1");
+        stop.setOutboundCode(101);
+        stop.setReturnCode(102);
+
+        TramApiClient api = mock(TramApiClient.class);
+        when(api.getAllStopsAsync()).thenReturn(CompletableFuture.completedFuture(List.of(stop)));
+        when(api.getGtfsrtDataAsync("TRAMBESOS")).thenReturn(CompletableFuture.completedFuture(besos));
+        when(api.getGtfsrtDataAsync("TRAMBAIX")).thenReturn(CompletableFuture.completedFuture(baix));
+        GtfsRtPoller poller = new GtfsRtPoller(api, 0);
+        TramService service = new TramService(api, poller);
+
+        JsonObject json = JsonParser.parseString(service.getStopTimes("BES1")).getAsJsonObject();
+        assertEquals("bes1", json.getAsJsonObject("stop").get("gtfsCode").getAsString());
+        JsonArray arrivals = json.getAsJsonArray("arrivals");
+        assertEquals(3, arrivals.size());
+        assertEquals("x1", arrivals.get(0).getAsJsonObject().get("tripId").getAsString());
+        assertEquals("TRAMBAIX", arrivals.get(0).getAsJsonObject().get("network").getAsString());
+        assertEquals("b1", arrivals.get(1).getAsJsonObject().get("tripId").getAsString());
+        assertEquals("T5", arrivals.get(1).getAsJsonObject().get("line").getAsString());
+        assertEquals("x2", arrivals.get(2).getAsJsonObject().get("tripId").getAsString());
+
+        // The index is built once per feed instance and rebuilt for a new one
+        ArrivalIndex first = poller.arrivalIndex("TRAMBESOS", besos);
+        service.getStopTimes("BES1");
+        assertSame(first, poller.arrivalIndex("TRAMBESOS", besos));
+        assertNotSame(first, poller.arrivalIndex("TRAMBESOS", feed()));
+
+        when(api.getStopAsync(anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        JsonObject unknown = JsonParser.parseString(service.getStopTimes("NOPE")).getAsJsonObject();
+        assertTrue(unknown.get("stop").isJsonNull());
+        assertEquals(0, unknown.getAsJsonArray("arrivals").size());
+    }
+
+    @Test
+    void disabledPollerReadsTheCachedFeed() throws Exception {
+        RealtimeFeed besos = feed(trip("b1", "T5", "BES1", NOW + 60));
+        TramApiClient api = mock(TramApiClient.class);
+        when(api.refreshGtfsrtDataAsync("TRAMBESOS")).thenReturn(CompletableFuture.completedFuture(besos));
+        when(api.getGtfsrtDataAsync("TRAMBESOS")).thenReturn(CompletableFuture.completedFuture(besos));
+        GtfsRtPoller poller = new GtfsRtPoller(api, 0);
+
+        poller.start();
+        verify(api, never()).refreshGtfsrtDataAsync(anyString());
+        // Even with an index from a manual poll, requests go through the cache
+        ArrivalIndex polled = poller.poll("TRAMBESOS").get();
+        assertSame(polled, poller.currentIndexAsync("TRAMBESOS").get());
+        verify(api).getGtfsrtDataAsync("TRAMBESOS");
+        poller.stop();
+    }
+
+    @Test
+    void updateRedoesOnlyChangedTrips() {
+        FeedEntity unchanged = trip("t1", "T4", "AB1", NOW + 600, "CD2", NOW + 900);
+        ArrivalIndex first = ArrivalIndex.build("TRAMBESOS", feed(
+                unchanged,
+                trip("t2", "T4", "AB1", NOW + 300),
+                trip("t3", "T5", "EF3", NOW + 120)));
+        assertEquals(3, first.changedTrips());
+
+        // t2 is delayed, t3 is gone, t4 is new
+        ArrivalIndex second = first.update(feed(
+                unchanged,
+                trip("t2", "T4", "AB1", NOW + 700),
+                trip("t4", "T5", "GH4", NOW + 60)));
+        assertEquals(4, second.changedTrips());
+        assertEquals(4, second.size());
+
+        List<ArrivalIndex.Arrival> out = new ArrayList<>();
+        second.arrivalsAt("AB1", NOW, out);
+        assertEquals(List.of("t1", "t2"), out.stream().map(ArrivalIndex.Arrival::tripId).toList());
+        assertEquals(NOW + 700, out.get(1).arrival());
+        out.clear();
+        second.arrivalsAt("EF3", NOW, out);
+        assertTrue(out.isEmpty());
+        second.arrivalsAt("GH4", NOW, out);
+        assertEquals("t4", out.get(0).tripId());
+
+        // Arrivals of untouched trips are carried over, not rebuilt
+        out.clear();
+        List<ArrivalIndex.Arrival> before = new ArrayList<>();
+        first.arrivalsAt("CD2", NOW, before);
+        second.arrivalsAt("CD2", NOW, out);
+        assertSame(before.get(0), out.get(0));
+
+        // The same content again: nothing to redo
+        ArrivalIndex third = second.update(feed(unchanged, trip("t2", "T4", "AB1", NOW + 700), trip("t4", "T5", "GH4", NOW + 60)));
+        assertEquals(0, third.changedTrips());
+        assertEquals(4, third.size());
+        assertSame(second, second.update(second.feed()));
+    }
+}
@@ -0,0 +1,262 @@
+package dev.x341.aonbas2srv.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheServiceTest {
+
+    @Test
+    void frequentlyUsedEntrySurvivesBurstOfOneOffKeys() {
+        CacheService cache = new CacheService(64 * 1024, 64 * 1024);
+        cache.put(MetroService.linesKey(), "{\"lines\":[1,2,3]}");
+        for (int i = 0; i < 50; i++) assertNotNull(cache.get(MetroService.linesKey()));
+
+        String payload = "x".repeat(1000);
+        for (int i = 0; i < 500; i++) cache.put(MetroService.stationsKey("L" + i), payload);
+        cache.cleanUp();
+
+        assertEquals("{\"lines\":[1,2,3]}", cache.get(MetroService.linesKey()));
+        assertTrue(cache.weightedSize() <= 64 * 1024, "weight " + cache.weightedSize());
+    }
+
+    @Test
+    void tramTokenIsNeverEvictedForSize() {
+        CacheService cache = new CacheService(16 * 1024, 16 * 1024);
+        cache.putTramAccessToken("token");
+        String payload = "y".repeat(2000);
+        for (int i = 0; i < 200; i++) cache.put("k" + i, payload);
+        cache.cleanUp();
+        assertEquals("token", cache.getTramAccessToken());
+    }
+
+    @Test
+    void entriesExpireAfterTheirOwnTtl() throws Exception {
+        CacheService cache = new CacheService();
+        cache.put("short", "a", 1);
+        cache.put("long", "b", 60);
+        assertNotNull(cache.stamp("short"));
+        Thread.sleep(1100);
+        assertNull(cache.get("short"));
+        assertNull(cache.stamp("short"));
+        assertEquals("b", cache.get("long"));
+    }
+
+    @Test
+    void listenersHearReplaceRemoveAndClear() {
+        CacheService cache = new CacheService();
+        List<String> invalidated = new ArrayList<>();
+        cache.addInvalidationListener(invalidated::add);
+
+        cache.put("a", "1");
+        assertTrue(invalidated.isEmpty());
+        long v1 = cache.stamp("a").version();
+        cache.put("a", "2");
+        assertTrue(cache.stamp("a").version() > v1);
+        cache.put("b", "1");
+        cache.put("b", null);
+        cache.clear();
+        cache.cleanUp();
+        assertEquals(List.of("a", "b", "a"), invalidated);
+    }
+
+    @Test
+    void concurrentReadersAndWritersSeeConsistentValues() throws Exception {
+        CacheService cache = new CacheService();
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 5_000; i++) {
+                        String key = "k" + (i % 64);
+                        if ((i + id) % 4 == 0) cache.put(key, key + ":" + i);
+                        String v = cache.get(key);
+                        if (v != null && !v.startsWith(key + ":")) throw new AssertionError(key + " -> " + v);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void staleValueServedWhileRefreshing() throws Exception {
+        // Direct refresh executor: the background refresh completes before getOrLoad returns
+        CacheService cache = new CacheService(1 << 20, 1 << 20, Runnable::run);
+        AtomicInteger calls = new AtomicInteger();
+        CacheService.Loader<String> loader = () -> "v" + calls.incrementAndGet();
+
+        assertEquals("v1", cache.getOrLoad("trains", 1, 60, loader));
+        assertEquals("v1", cache.getOrLoad("trains", 1, 60, loader));
+        Thread.sleep(1100);
+        assertNull(cache.get("trains"), "plain get only returns fresh values");
+        assertNotNull(cache.stamp("trains"), "stale entry is still live during the grace period");
+
+        assertEquals("v1", cache.getOrLoad("trains", 1, 60, loader), "stale value is returned immediately");
+        assertEquals("v2", cache.getOrLoad("trains", 1, 60, loader));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void upstreamErrorsServeLastGoodValueUntilGraceEnds() throws Exception {
+        CacheService cache = new CacheService(1 << 20, 1 << 20, Runnable::run);
+        AtomicInteger calls = new AtomicInteger();
+        CacheService.Loader<String> failing = () -> {
+            calls.incrementAndGet();
+            throw new IOException("upstream down");
+        };
+
+        assertEquals("good", cache.getOrLoad("lines", 1, 1, () -> "good"));
+        Thread.sleep(1100);
+        assertEquals("good", cache.getOrLoad("lines", 1, 1, failing));
+        assertEquals("good", cache.getOrLoad("lines", 1, 1, failing));
+        assertEquals(1, calls.get(), "failed refresh is not retried on every request");
+
+        Thread.sleep(1000);
+        assertThrows(IOException.class, () -> cache.getOrLoad("lines", 1, 1, failing));
+        assertNull(cache.stamp("lines"));
+    }
+
+    @Test
+    void concurrentStaleReadersTriggerOneRefresh() throws Exception {
+        ExecutorService refresher = Executors.newSingleThreadExecutor();
+        try {
+            CacheService cache = new CacheService(1 << 20, 1 << 20, refresher);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger refreshes = new AtomicInteger();
+            assertEquals("old", cache.getOrLoad("k", 1, 60, () -> "old"));
+            Thread.sleep(1100);
+
+            CacheService.Loader<String> slow = () -> {
+                refreshes.incrementAndGet();
+                try { release.await(); } catch (InterruptedException e) { throw new IOException(e); }
+                return "new";
+            };
+            for (int i = 0; i < 20; i++) assertEquals("old", cache.getOrLoad("k", 1, 60, slow));
+            release.countDown();
+            refresher.submit(() -> { }).get();
+            assertEquals(1, refreshes.get());
+            assertEquals("new", cache.get("k"));
+        } finally {
+            refresher.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentMissesShareOneUpstreamCall() throws Exception {
+        CacheService cache = new CacheService();
+        int threads = 32;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        CacheService.Loader<String> slow = () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            try { release.await(); } catch (InterruptedException e) { throw new IOException(e); }
+            return "lines";
+        };
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            futures.add(pool.submit(() -> cache.getOrLoad("metro:lines", 60, 0, slow)));
+            started.await();
+            for (int i = 1; i < threads; i++) futures.add(pool.submit(() -> cache.getOrLoad("metro:lines", 60, 0, slow)));
+            // Let the joiners reach the in-flight call before it completes
+            while (cache.upstreamStats().getOrDefault("metro:lines", Map.of()).getOrDefault("joined", 0L) < threads - 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<String> f : futures) assertEquals("lines", f.get());
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(Map.of("calls", 1L, "joined", (long) threads - 1), cache.upstreamStats().get("metro:lines"));
+    }
+
+    @Test
+    void callersJoiningALoadThatThrowsAnErrorAreReleased() throws Exception {
+        CacheService cache = new CacheService();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CacheService.Loader<String> failing = () -> {
+            started.countDown();
+            try { release.await(); } catch (InterruptedException e) { throw new IOException(e); }
+            throw new AssertionError("boom");
+        };
+        try {
+            Future<String> leader = pool.submit(() -> cache.getOrLoad("k", 60, 0, failing));
+            started.await();
+            Future<String> joiner = pool.submit(() -> cache.getOrLoad("k", 60, 0, failing));
+            while (cache.upstreamStats().getOrDefault("k", Map.of()).getOrDefault("joined", 0L) < 1) Thread.sleep(5);
+            release.countDown();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> joiner.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(AssertionError.class, e.getCause());
+            assertInstanceOf(AssertionError.class, assertThrows(ExecutionException.class, leader::get).getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void asyncMissesShareOneUpstreamCallWithBlockingCallers() throws Exception {
+        CacheService cache = new CacheService();
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        CacheService.AsyncLoader<String> loader = () -> {
+            calls.incrementAndGet();
+            return upstream;
+        };
+
+        List<CompletableFuture<String>> pending = new ArrayList<>();
+        for (int i = 0; i < 10; i++) pending.add(cache.getOrLoadAsync("tram:lines", 60, 0, loader));
+        for (CompletableFuture<String> f : pending) assertFalse(f.isDone(), "nothing waits on a thread for the call");
+        CompletableFuture<String> blocking = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.getOrLoad("tram:lines", 60, 0, () -> "should not be called");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        upstream.complete("lines");
+        for (CompletableFuture<String> f : pending) assertEquals("lines", f.get(5, TimeUnit.SECONDS));
+        assertEquals("lines", blocking.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals("lines", cache.get("tram:lines"));
+        assertEquals("lines", cache.getOrLoadAsync("tram:lines", 60, 0, loader).getNow(null), "hits complete immediately");
+    }
+
+    @Test
+    void asyncLoadFailuresAreNotCached() {
+        CacheService cache = new CacheService();
+        CompletableFuture<String> failed = cache.getOrLoadAsync("k", 60, 0,
+                () -> CompletableFuture.failedFuture(new IOException("upstream down")));
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertInstanceOf(IOException.class, e.getCause());
+        assertNull(cache.stamp("k"));
+    }
+}
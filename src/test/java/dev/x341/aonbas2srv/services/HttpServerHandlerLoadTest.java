@@ -0,0 +1,133 @@
+package dev.x341.aonbas2srv.services;
+
+import dev.x341.aonbas2srv.services.apiclients.UpstreamTimings;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Load test: a single worker event loop serves many connections while the upstream behind
+ * /metro/lines is slow. /status must keep answering quickly because the slow calls never run on the
+ * event loop, and the slow calls must overlap even though the handler executor only has two threads,
+ * because no thread waits while an upstream call is in flight.
+ */
+public class HttpServerHandlerLoadTest {
+    private static final long UPSTREAM_DELAY_MS = 1500;
+    private static final int SLOW_REQUESTS = 32;
+    private static final int EXECUTOR_THREADS = 2;
+
+    private EventLoopGroup group;
+    private ExecutorService executor;
+    private Channel serverChannel;
+    private HttpClient client;
+    private String baseUrl;
+
+    @BeforeEach
+    void setup() throws Exception {
+        MetroService metroService = mock(MetroService.class);
+        TramService tramService = mock(TramService.class);
+        // Completes later from a timer, like an enqueued HTTP call completing from the client's callback
+        when(metroService.getLinesJsonAsync()).thenAnswer(inv -> CompletableFuture.supplyAsync(() -> "{\"lines\":[]}",
+                CompletableFuture.delayedExecutor(UPSTREAM_DELAY_MS, TimeUnit.MILLISECONDS)));
+
+        ResponseCompressor compressor = new ResponseCompressor(1024);
+        CacheService cacheService = new CacheService();
+        ResponseCache responseCache = new ResponseCache(cacheService, compressor);
+        executor = Executors.newFixedThreadPool(EXECUTOR_THREADS);
+        // One event loop for everything: any blocking on it would stall every connection
+        group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+
+        ServerBootstrap b = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpServerCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(65536));
+                        ch.pipeline().addLast(new HttpServerHandler(metroService, tramService, mock(PlaceService.class), cacheService, responseCache, compressor, new UpstreamTimings(), executor));
+                    }
+                });
+        serverChannel = b.bind("127.0.0.1", 0).sync().channel();
+        baseUrl = "http://127.0.0.1:" + ((InetSocketAddress) serverChannel.localAddress()).getPort();
+
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        serverChannel.close().syncUninterruptibly();
+        group.shutdownGracefully().syncUninterruptibly();
+        executor.shutdownNow();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30)).GET().build();
+    }
+
+    @Test
+    void slowUpstreamDoesNotDegradeStatusLatency() throws Exception {
+        // Warm up the connection path so the measurement below is not dominated by class loading
+        assertEquals(200, client.send(get("/status"), HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        List<CompletableFuture<HttpResponse<String>>> slow = new ArrayList<>();
+        for (int i = 0; i < SLOW_REQUESTS; i++) {
+            slow.add(client.sendAsync(get("/metro/lines"), HttpResponse.BodyHandlers.ofString()));
+        }
+        // Give the slow requests time to reach the handler and park on the upstream delay
+        Thread.sleep(200);
+
+        long worstNanos = 0;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            HttpResponse<String> status = client.send(get("/status"), HttpResponse.BodyHandlers.ofString());
+            worstNanos = Math.max(worstNanos, System.nanoTime() - start);
+            assertEquals(200, status.statusCode());
+            assertEquals("Server is running", status.body());
+        }
+        long worstMs = worstNanos / 1_000_000;
+        assertTrue(worstMs < UPSTREAM_DELAY_MS / 3,
+                "/status took " + worstMs + "ms while upstream calls were in flight");
+
+        long slowStart = System.nanoTime();
+        for (CompletableFuture<HttpResponse<String>> f : slow) {
+            HttpResponse<String> res = f.get();
+            assertEquals(200, res.statusCode());
+            assertEquals("{\"lines\":[]}", res.body());
+        }
+        // Slow calls overlap instead of queueing behind each other on the event loop
+        long totalMs = (System.nanoTime() - slowStart) / 1_000_000;
+        assertTrue(totalMs < UPSTREAM_DELAY_MS * 4, "slow requests took " + totalMs + "ms in total");
+        verify(metroService, times(SLOW_REQUESTS)).getLinesJsonAsync();
+    }
+}
@@ -2,18 +2,29 @@ package dev.x341.aonbas2srv.services;
 
 import com.google.gson.Gson;
 import dev.x341.aonbas2srv.dto.MetroDto;
+import dev.x341.aonbas2srv.services.apiclients.TmbApiClient;
+import dev.x341.aonbas2srv.services.apiclients.UpstreamTimings;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.*;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.util.CharsetUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 public class HttpServerHandlerTest {
     private MetroService metroService;
     private TramService tramService;
+    private PlaceService placeService;
+    private CacheService cacheService;
     private EmbeddedChannel channel;
     private static final Gson GSON = new Gson();
 
@@ -21,15 +32,25 @@ public class HttpServerHandlerTest {
     void setup() {
         metroService = mock(MetroService.class);
         tramService = mock(TramService.class);
+        placeService = mock(PlaceService.class);
+
+        // Direct executor: service work runs inline and the write is queued on the embedded event loop
+        cacheService = new CacheService();
+        ResponseCompressor compressor = new ResponseCompressor(256);
+        channel = new EmbeddedChannel(new HttpServerHandler(metroService, tramService, placeService, cacheService,
+                new ResponseCache(cacheService, compressor), compressor, new UpstreamTimings(), Runnable::run));
+    }
 
-        channel = new EmbeddedChannel(new HttpServerHandler(metroService, tramService));
+    private FullHttpResponse readResponse() {
+        channel.runPendingTasks();
+        return channel.readOutbound();
     }
 
     @Test
     void testStatus() {
         FullHttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/status");
         channel.writeInbound(req);
-        FullHttpResponse resp = channel.readOutbound();
+        FullHttpResponse resp = readResponse();
 
         assertEquals(HttpResponseStatus.OK, resp.status());
         String content = resp.content().toString(CharsetUtil.UTF_8);
@@ -39,21 +60,21 @@ public class HttpServerHandlerTest {
     @Test
     void testMetroLines() throws Exception {
         MetroDto dto = new MetroDto();
-        when(metroService.getLinesDto()).thenReturn(dto);
-        when(metroService.getLinesJson()).thenReturn("{\"lines\":[]}");
+        when(metroService.getLinesDtoAsync()).thenReturn(CompletableFuture.completedFuture(dto));
+        when(metroService.getLinesJsonAsync()).thenReturn(CompletableFuture.completedFuture("{\"lines\":[]}"));
 
         // App client
         FullHttpRequest reqApp = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines");
         reqApp.headers().set("X-Client-Type", "app");
         channel.writeInbound(reqApp);
-        FullHttpResponse respApp = channel.readOutbound();
+        FullHttpResponse respApp = readResponse();
         assertEquals(HttpResponseStatus.OK, respApp.status());
         assertEquals(GSON.toJson(dto), respApp.content().toString(io.netty.util.CharsetUtil.UTF_8));
 
         // Regular GET
         FullHttpRequest reqHttp = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines");
         channel.writeInbound(reqHttp);
-        FullHttpResponse respHttp = channel.readOutbound();
+        FullHttpResponse respHttp = readResponse();
         assertEquals(HttpResponseStatus.OK, respHttp.status());
         assertEquals("{\"lines\":[]}", respHttp.content().toString(io.netty.util.CharsetUtil.UTF_8));
     }
@@ -61,21 +82,21 @@ public class HttpServerHandlerTest {
     @Test
     void testMetroLineById() throws Exception {
         MetroDto lineDto = new MetroDto();
-        when(metroService.getStationForLineDto("1a5")).thenReturn(lineDto);
-        when(metroService.getStationForLine("1a5")).thenReturn("{\"stations\":[]}");
+        when(metroService.getStationForLineDtoAsync("1a5")).thenReturn(CompletableFuture.completedFuture(lineDto));
+        when(metroService.getStationForLineAsync("1a5")).thenReturn(CompletableFuture.completedFuture("{\"stations\":[]}"));
 
         // App
         FullHttpRequest reqApp = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/1a5");
         reqApp.headers().set("X-Client-Type", "app");
         channel.writeInbound(reqApp);
-        FullHttpResponse respApp = channel.readOutbound();
+        FullHttpResponse respApp = readResponse();
         assertEquals(HttpResponseStatus.OK, respApp.status());
         assertEquals(GSON.toJson(lineDto), respApp.content().toString(io.netty.util.CharsetUtil.UTF_8));
 
         // HTTP
         FullHttpRequest reqHttp = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/1a5");
         channel.writeInbound(reqHttp);
-        FullHttpResponse respHttp = channel.readOutbound();
+        FullHttpResponse respHttp = readResponse();
         assertEquals(HttpResponseStatus.OK, respHttp.status());
         assertEquals("{\"stations\":[]}", respHttp.content().toString(io.netty.util.CharsetUtil.UTF_8));
     }
@@ -83,14 +104,243 @@ public class HttpServerHandlerTest {
     @Test
     void testMetroLineStationTimes() throws Exception {
         String trainTimesJson = "{\"trains\":[{\"code\":\"319a325\",\"time\":12345}]}";
-        when(metroService.getTrainTimes("319a325")).thenReturn(trainTimesJson);
+        when(metroService.getTrainTimesAsync("319a325")).thenReturn(CompletableFuture.completedFuture(trainTimesJson));
 
         FullHttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/3/station/319a325");
         channel.writeInbound(req);
-        FullHttpResponse resp = channel.readOutbound();
+        FullHttpResponse resp = readResponse();
 
         assertEquals(HttpResponseStatus.OK, resp.status());
         assertEquals(trainTimesJson, resp.content().toString(io.netty.util.CharsetUtil.UTF_8));
     }
 
+    @Test
+    void testSearchPassesDecodedQueryAndClampedLimit() {
+        when(placeService.searchJsonAsync("plaça", 50)).thenReturn(CompletableFuture.completedFuture("{\"results\":[]}"));
+        when(placeService.searchJsonAsync("", 10)).thenReturn(CompletableFuture.completedFuture("{\"results\":[]}"));
+
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/search?q=pla%C3%A7a&limit=500"));
+        FullHttpResponse resp = readResponse();
+        assertEquals(HttpResponseStatus.OK, resp.status());
+        assertEquals("{\"results\":[]}", resp.content().toString(CharsetUtil.UTF_8));
+
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/search?limit=abc"));
+        assertEquals(HttpResponseStatus.OK, readResponse().status());
+        verify(placeService).searchJsonAsync("", 10);
+    }
+
+    @Test
+    void testNearbyValidatesCoordinates() {
+        when(placeService.nearbyJsonAsync(41.4, 2.18, 5_000, 10, true))
+                .thenReturn(CompletableFuture.completedFuture("{\"results\":[]}"));
+
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                "/nearby?lat=41.4&lon=2.18&radius=99999&arrivals=true"));
+        FullHttpResponse resp = readResponse();
+        assertEquals(HttpResponseStatus.OK, resp.status());
+        assertEquals("{\"results\":[]}", resp.content().toString(CharsetUtil.UTF_8));
+
+        for (String uri : new String[]{"/nearby", "/nearby?lat=41.4", "/nearby?lat=91&lon=2", "/nearby?lat=x&lon=2",
+                "/nearby?lat=%zz&lon=2", "/nearby?lat=41.4&lon=2.18&radius=far"}) {
+            channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri));
+            assertEquals(HttpResponseStatus.BAD_REQUEST, readResponse().status(), uri);
+        }
+        verify(placeService, times(1)).nearbyJsonAsync(anyDouble(), anyDouble(), anyInt(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    void testVehiclesBboxAndLine() {
+        when(tramService.getVehiclesJsonAsync(eq("T4"), isNull())).thenReturn(CompletableFuture.completedFuture("{\"vehicles\":[]}"));
+        when(tramService.getVehiclesJsonAsync(isNull(), any())).thenReturn(CompletableFuture.completedFuture("{\"vehicles\":[]}"));
+
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/tram/line/T4/vehicles"));
+        assertEquals(HttpResponseStatus.OK, readResponse().status());
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                "/tram/vehicles?bbox=2.18,41.40,2.21,41.42"));
+        assertEquals(HttpResponseStatus.OK, readResponse().status());
+        verify(tramService).getVehiclesJsonAsync(isNull(), eq(new double[]{2.18, 41.40, 2.21, 41.42}));
+
+        for (String bbox : new String[]{"1,2,3", "a,b,c,d", "2.21,41.40,2.18,41.42"}) {
+            channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/tram/vehicles?bbox=" + bbox));
+            assertEquals(HttpResponseStatus.BAD_REQUEST, readResponse().status(), bbox);
+        }
+    }
+
+    @Test
+    void testWrongMethodAndUnknownPath() {
+        FullHttpRequest post = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/metro/lines");
+        channel.writeInbound(post);
+        FullHttpResponse resp = readResponse();
+        assertEquals(HttpResponseStatus.METHOD_NOT_ALLOWED, resp.status());
+        assertEquals("GET, HEAD", resp.headers().get(HttpHeaderNames.ALLOW));
+
+        FullHttpRequest unknown = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/nope");
+        channel.writeInbound(unknown);
+        assertEquals(HttpResponseStatus.NOT_FOUND, readResponse().status());
+        verifyNoInteractions(metroService);
+    }
+
+    @Test
+    void testCachedBodyServedUntilSourceChanges() throws Exception {
+        // MetroService keeps the lines in the cache's object tier, loaded and refreshed through their loader
+        AtomicReference<String> source = new AtomicReference<>("v1");
+        CacheService.AsyncLoader<CacheService.Typed<String>> loader =
+                () -> CompletableFuture.completedFuture(new CacheService.Typed<>(source.get(), source.get(), 2));
+        cacheService.getOrLoadObjectAsync(MetroService.linesKey(), 1, 60, loader).join();
+        when(metroService.getLinesJsonAsync()).thenReturn(CompletableFuture.completedFuture("{\"lines\":[1]}"));
+
+        for (int i = 0; i < 3; i++) {
+            channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines"));
+            FullHttpResponse resp = readResponse();
+            assertEquals(HttpResponseStatus.OK, resp.status());
+            assertEquals("{\"lines\":[1]}", resp.content().toString(CharsetUtil.UTF_8));
+            resp.release();
+        }
+        // First request built the snapshot, the next two were served from it
+        verify(metroService, times(1)).getLinesJsonAsync();
+
+        // Refreshing the source entry once it expires invalidates the snapshot
+        source.set("v2");
+        Thread.sleep(1100);
+        cacheService.revalidate(MetroService.linesKey());
+        assertEquals("v2", cacheService.<String>getOrLoadObjectAsync(MetroService.linesKey(), 1, 60, loader).join().value());
+        when(metroService.getLinesJsonAsync()).thenReturn(CompletableFuture.completedFuture("{\"lines\":[2]}"));
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines"));
+        assertEquals("{\"lines\":[2]}", readResponse().content().toString(CharsetUtil.UTF_8));
+        verify(metroService, times(2)).getLinesJsonAsync();
+
+        // App clients get their own snapshot
+        FullHttpRequest reqApp = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines");
+        reqApp.headers().set("X-Client-Type", "app");
+        when(metroService.getLinesDtoAsync()).thenReturn(CompletableFuture.completedFuture(new MetroDto()));
+        channel.writeInbound(reqApp);
+        assertEquals(GSON.toJson(new MetroDto()), readResponse().content().toString(CharsetUtil.UTF_8));
+    }
+
+    @Test
+    void testEtagAndNotModified() throws Exception {
+        cacheService.put(TmbApiClient.trainsKey("319a325"), "raw", 10);
+        when(metroService.getTrainTimesAsync("319a325")).thenReturn(CompletableFuture.completedFuture("{\"trains\":[]}"));
+
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/3/station/319a325"));
+        FullHttpResponse first = readResponse();
+        assertEquals(HttpResponseStatus.OK, first.status());
+        String etag = first.headers().get(HttpHeaderNames.ETAG);
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        // max-age follows the 10s train TTL rather than a fixed value
+        String cacheControl = first.headers().get(HttpHeaderNames.CACHE_CONTROL);
+        int maxAge = Integer.parseInt(cacheControl.substring(cacheControl.indexOf("max-age=") + 8));
+        assertTrue(maxAge <= 10, cacheControl);
+        assertNotNull(first.headers().get(HttpHeaderNames.AGE));
+
+        FullHttpRequest revalidate = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/3/station/319a325");
+        revalidate.headers().set(HttpHeaderNames.IF_NONE_MATCH, "\"other\", " + etag);
+        channel.writeInbound(revalidate);
+        FullHttpResponse second = readResponse();
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, second.status());
+        assertEquals(etag, second.headers().get(HttpHeaderNames.ETAG));
+        assertEquals(0, second.content().readableBytes());
+
+        // Weak form of the same tag also matches
+        FullHttpRequest weak = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/3/station/319a325");
+        weak.headers().set(HttpHeaderNames.IF_NONE_MATCH, "W/" + etag);
+        channel.writeInbound(weak);
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, readResponse().status());
+        verify(metroService, times(1)).getTrainTimesAsync("319a325");
+    }
+
+    @Test
+    void testStaleSnapshotIsMarkedStale() throws Exception {
+        cacheService.getOrLoad(TmbApiClient.trainsKey("123"), 1, 30, () -> "raw");
+        when(metroService.getTrainTimesAsync("123")).thenReturn(CompletableFuture.completedFuture("{\"trains\":[1]}"));
+
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/1/station/123"));
+        FullHttpResponse fresh = readResponse();
+        assertTrue(fresh.headers().get(HttpHeaderNames.CACHE_CONTROL).contains("stale-while-revalidate=30"));
+        assertNull(fresh.headers().get("X-Cache-Status"));
+        fresh.release();
+
+        Thread.sleep(1100);
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/1/station/123"));
+        FullHttpResponse stale = readResponse();
+        assertEquals(HttpResponseStatus.OK, stale.status());
+        assertEquals("{\"trains\":[1]}", stale.content().toString(CharsetUtil.UTF_8));
+        assertEquals("STALE", stale.headers().get("X-Cache-Status"));
+        assertTrue(stale.headers().get(HttpHeaderNames.WARNING).startsWith("110"));
+        verify(metroService, times(1)).getTrainTimesAsync("123");
+    }
+
+    @Test
+    void testCompressedVariantsNegotiated() throws Exception {
+        String big = "{\"lines\":[" + "\"L1\",".repeat(200) + "\"L2\"]}";
+        cacheService.put(MetroService.linesKey(), "v1");
+        when(metroService.getLinesJsonAsync()).thenReturn(CompletableFuture.completedFuture(big));
+
+        FullHttpRequest gzipReq = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines");
+        gzipReq.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "deflate;q=0.5, gzip");
+        channel.writeInbound(gzipReq);
+        FullHttpResponse gz = readResponse();
+        assertEquals("gzip", gz.headers().get(HttpHeaderNames.CONTENT_ENCODING));
+        assertTrue(gz.headers().get(HttpHeaderNames.VARY).contains("Accept-Encoding"));
+        assertTrue(gz.content().readableBytes() < big.length());
+        assertEquals(gz.content().readableBytes(), gz.headers().getInt(HttpHeaderNames.CONTENT_LENGTH));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteBufInputStream(gz.content()))) {
+            assertEquals(big, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        String gzipEtag = gz.headers().get(HttpHeaderNames.ETAG);
+        gz.release();
+
+        FullHttpRequest deflateReq = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines");
+        deflateReq.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip;q=0, deflate");
+        channel.writeInbound(deflateReq);
+        FullHttpResponse df = readResponse();
+        assertEquals("deflate", df.headers().get(HttpHeaderNames.CONTENT_ENCODING));
+        try (InflaterInputStream in = new InflaterInputStream(new ByteBufInputStream(df.content()))) {
+            assertEquals(big, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertNotEquals(gzipEtag, df.headers().get(HttpHeaderNames.ETAG));
+        df.release();
+
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines"));
+        FullHttpResponse plain = readResponse();
+        assertNull(plain.headers().get(HttpHeaderNames.CONTENT_ENCODING));
+        assertEquals(big, plain.content().toString(CharsetUtil.UTF_8));
+        assertNotEquals(gzipEtag, plain.headers().get(HttpHeaderNames.ETAG));
+
+        // All three variants came from the one snapshot
+        verify(metroService, times(1)).getLinesJsonAsync();
+
+        FullHttpRequest notModified = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/lines");
+        notModified.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        notModified.headers().set(HttpHeaderNames.IF_NONE_MATCH, gzipEtag);
+        channel.writeInbound(notModified);
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, readResponse().status());
+
+        channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/stats/compression"));
+        String stats = readResponse().content().toString(CharsetUtil.UTF_8);
+        assertTrue(stats.contains("METRO_LINES"), stats);
+        assertTrue(stats.contains("bytesSaved"), stats);
+    }
+
+    @Test
+    void testSmallBodiesAreNotCompressed() throws Exception {
+        when(metroService.getTrainTimesAsync("1")).thenReturn(CompletableFuture.completedFuture("{\"trains\":[]}"));
+        FullHttpRequest req = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metro/line/1/station/1");
+        req.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip, deflate");
+        channel.writeInbound(req);
+        FullHttpResponse resp = readResponse();
+        assertNull(resp.headers().get(HttpHeaderNames.CONTENT_ENCODING));
+        assertEquals("{\"trains\":[]}", resp.content().toString(CharsetUtil.UTF_8));
+    }
+
+    @Test
+    void testAcceptEncodingNegotiation() {
+        assertEquals(ResponseCompressor.ContentEncoding.IDENTITY, ResponseCompressor.negotiate(null));
+        assertEquals(ResponseCompressor.ContentEncoding.GZIP, ResponseCompressor.negotiate("gzip, deflate, br"));
+        assertEquals(ResponseCompressor.ContentEncoding.DEFLATE, ResponseCompressor.negotiate("gzip;q=0.2, deflate"));
+        assertEquals(ResponseCompressor.ContentEncoding.GZIP, ResponseCompressor.negotiate("*"));
+        assertEquals(ResponseCompressor.ContentEncoding.IDENTITY, ResponseCompressor.negotiate("*;q=0"));
+        assertEquals(ResponseCompressor.ContentEncoding.IDENTITY, ResponseCompressor.negotiate("br, identity"));
+    }
 }
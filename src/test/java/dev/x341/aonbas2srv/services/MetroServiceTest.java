@@ -0,0 +1,66 @@
+package dev.x341.aonbas2srv.services;
+
+import dev.x341.aonbas2srv.dto.CompactMetroDto;
+import dev.x341.aonbas2srv.dto.MetroDto;
+import dev.x341.aonbas2srv.services.apiclients.TmbApiClient;
+import dev.x341.aonbas2srv.services.json.JsonCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class MetroServiceTest {
+
+    private static MetroDto lines() {
+        MetroDto.Properties p = new MetroDto.Properties();
+        p.setCODI_LINIA(1);
+        p.setNOM_LINIA("L1");
+        MetroDto.Feature f = new MetroDto.Feature();
+        f.setProperties(p);
+        MetroDto dto = new MetroDto();
+        dto.setFeatures(List.of(f));
+        return dto;
+    }
+
+    @Test
+    void hitsServeTheStoredValueAndItsJsonWithoutReparsing() throws Exception {
+        TmbApiClient tmb = mock(TmbApiClient.class);
+        MetroDto loaded = lines();
+        when(tmb.getMetroLinesDtoAsync()).thenReturn(CompletableFuture.completedFuture(loaded));
+        CacheService cache = new CacheService();
+        JsonCodec codec = new JsonCodec();
+        MetroService service = new MetroService(tmb, cache, codec);
+
+        String json = service.getLinesJson();
+        assertEquals(codec.toWebJson(loaded), json);
+        assertTrue(json.contains("\"nom_LINIA\":\"L1\""), "the web variant keeps its getter-derived names");
+        assertSame(json, service.getLinesJson(), "the JSON is encoded once per load");
+        assertEquals(json, codec.toWebJson(service.getLinesDto()), "the DTO view matches what was loaded");
+        assertSame(service.getLinesCompactAsync().get(), service.getLinesCompactAsync().get());
+        assertEquals("L1", service.getLinesCompactAsync().get().stringProperty(0, CompactMetroDto.StringProperty.NOM_LINIA));
+        verify(tmb, times(1)).getMetroLinesDtoAsync();
+        assertNotNull(cache.stamp(MetroService.linesKey()), "derived responses can still track the entry");
+
+        cache.clear();
+        assertNull(cache.stamp(MetroService.linesKey()));
+        service.getLinesDto();
+        verify(tmb, times(2)).getMetroLinesDtoAsync();
+    }
+
+    @Test
+    void failedLoadsAreNotCached() {
+        TmbApiClient tmb = mock(TmbApiClient.class);
+        when(tmb.getStationsForLineDtoAsync("1"))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("TMB down")))
+                .thenReturn(CompletableFuture.completedFuture(lines()));
+        MetroService service = new MetroService(tmb, new CacheService(), new JsonCodec());
+
+        assertNull(service.getStationForLineDto("1"));
+        assertTrue(service.getStationForLine("1").contains("L1"), "the next request loads again");
+        verify(tmb, times(2)).getStationsForLineDtoAsync("1");
+    }
+}
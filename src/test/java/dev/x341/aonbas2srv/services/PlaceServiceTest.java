@@ -0,0 +1,86 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import dev.x341.aonbas2srv.dto.CompactMetroDto;
+import dev.x341.aonbas2srv.dto.MetroDto;
+import dev.x341.aonbas2srv.dto.Stop;
+import dev.x341.aonbas2srv.services.apiclients.StopIndex;
+import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PlaceServiceTest {
+    private TramService tramService;
+    private PlaceService places;
+
+    private static Stop stop(int id, String code, String name, double lat, double lon) {
+        Stop s = new Stop();
+        s.setId(id);
+        s.setGtfsCode(code);
+        s.setName(name);
+        s.setLatitude(lat);
+        s.setLongitude(lon);
+        return s;
+    }
+
+    @BeforeEach
+    void setup() {
+        List<Stop> stops = List.of(
+                stop(1, "GLO", "Glòries", 41.4036, 2.1874),
+                stop(2, "MON", "Monumental", 41.3999, 2.1806),
+                stop(3, "SAN", "Sant Martí", 41.4160, 2.1990));
+        TramApiClient api = mock(TramApiClient.class);
+        when(api.getStopIndexAsync()).thenReturn(CompletableFuture.completedFuture(new StopIndex(stops, stops)));
+        MetroService metroService = mock(MetroService.class);
+        when(metroService.getLinesCompactAsync())
+                .thenReturn(CompletableFuture.completedFuture(CompactMetroDto.of(new MetroDto())));
+        tramService = mock(TramService.class);
+        places = new PlaceService(api, metroService, tramService, new CacheService());
+    }
+
+    @Test
+    void nearbyArrivalLookupsRunInParallel() throws Exception {
+        CompletableFuture<String> glories = new CompletableFuture<>();
+        CompletableFuture<String> monumental = new CompletableFuture<>();
+        when(tramService.getStopTimesAsync("GLO")).thenReturn(glories);
+        when(tramService.getStopTimesAsync("MON")).thenReturn(monumental);
+
+        CompletableFuture<String> response = places.nearbyJsonAsync(41.4030, 2.1870, 1_000, 10, true);
+        // Both lookups are in flight before either answers
+        verify(tramService).getStopTimesAsync("GLO");
+        verify(tramService).getStopTimesAsync("MON");
+        verify(tramService, never()).getStopTimesAsync("SAN");
+        assertFalse(response.isDone());
+
+        monumental.completeExceptionally(new IOException("TRAM down"));
+        assertFalse(response.isDone());
+        glories.complete("{\"stop\":{},\"arrivals\":[{\"line\":\"T4\",\"minutes\":3}]}");
+
+        JsonArray results = JsonParser.parseString(response.get()).getAsJsonObject().getAsJsonArray("results");
+        assertEquals(2, results.size());
+        JsonObject first = results.get(0).getAsJsonObject();
+        assertEquals("Glòries", first.get("name").getAsString());
+        assertEquals("T4", first.getAsJsonArray("arrivals").get(0).getAsJsonObject().get("line").getAsString());
+        assertTrue(results.get(1).getAsJsonObject().get("arrivals").isJsonNull(), "a failed lookup does not fail the response");
+    }
+
+    @Test
+    void nearbyWithoutArrivalsDoesNotCallUpstream() throws Exception {
+        JsonObject root = JsonParser.parseString(places.nearbyJson(41.4030, 2.1870, 3_000, 2, false)).getAsJsonObject();
+        JsonArray results = root.getAsJsonArray("results");
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getAsJsonObject().get("distance").getAsInt()
+                <= results.get(1).getAsJsonObject().get("distance").getAsInt());
+        assertFalse(results.get(0).getAsJsonObject().has("arrivals"));
+        verifyNoInteractions(tramService);
+    }
+}
@@ -0,0 +1,100 @@
+package dev.x341.aonbas2srv.services;
+
+import dev.x341.aonbas2srv.dto.Stop;
+import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class StopRegistryTest {
+
+    private static Stop stop(int id, String code) {
+        Stop s = new Stop();
+        s.setId(id);
+        s.setGtfsCode(code);
+        s.setName("Stop " + id);
+        return s;
+    }
+
+    private static List<Stop> stops(int from, int count) {
+        List<Stop> out = new ArrayList<>();
+        for (int i = from; i < from + count; i++) out.add(stop(i, "S" + i));
+        return out;
+    }
+
+    @Test
+    void addAbsentKeepsKnownStopsAndPublishesOnlyOnChange() {
+        StopRegistry registry = new StopRegistry();
+        List<Stop> all = stops(0, 10);
+        StopRegistry.Snapshot first = registry.replace(all);
+        assertEquals(1, first.version());
+        assertSame(all.get(3), registry.get("s3"));
+
+        // Same codes again (a line's stops parsed anew): nothing is published
+        assertSame(first, registry.addAbsent(stops(0, 5)));
+        assertSame(all.get(3), registry.get("S3"));
+
+        StopRegistry.Snapshot second = registry.addAbsent(List.of(stop(99, "new")));
+        assertEquals(2, second.version());
+        assertEquals(11, registry.size());
+        assertNull(first.get("NEW"), "published snapshots never change");
+        assertThrows(UnsupportedOperationException.class, () -> second.byCode().clear());
+    }
+
+    @Test
+    void readersNeverMissAStopWhileTheRegistryIsReplaced() throws Exception {
+        StopRegistry registry = new StopRegistry();
+        registry.replace(stops(0, 500));
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                readers.add(pool.submit(() -> {
+                    int misses = 0;
+                    while (!done.get()) {
+                        for (int i = 0; i < 500; i += 7) if (registry.get("S" + i) == null) misses++;
+                    }
+                    return misses;
+                }));
+            }
+            for (int round = 0; round < 200; round++) {
+                registry.replace(stops(0, 500));
+                registry.addAbsent(stops(500 + round, 1));
+            }
+            done.set(true);
+            for (Future<Integer> reader : readers) assertEquals(0, reader.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void refreshKeepsServingTheOldStopsUntilTheReloadCompletes() throws Exception {
+        Stop old = stop(1, "GLO");
+        Stop reloaded = stop(1, "GLO");
+        CompletableFuture<List<Stop>> pending = new CompletableFuture<>();
+        TramApiClient api = mock(TramApiClient.class);
+        when(api.getAllStopsAsync())
+                .thenReturn(CompletableFuture.completedFuture(List.of(old)))
+                .thenReturn(pending);
+        TramService service = new TramService(api, new GtfsRtPoller(api, 0));
+
+        CompletableFuture<Integer> refresh = service.refreshStopsAsync();
+        verify(api).clearAllApiCache();
+        assertSame(old, service.getStopByGtfsCode("glo"), "lookups keep working during the reload");
+
+        pending.complete(List.of(reloaded));
+        assertEquals(1, refresh.get());
+        assertSame(reloaded, service.getStopByGtfsCode("glo"));
+    }
+}
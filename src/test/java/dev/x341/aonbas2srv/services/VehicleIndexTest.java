@@ -0,0 +1,104 @@
+package dev.x341.aonbas2srv.services;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.transit.realtime.GtfsRealtime.*;
+import dev.x341.aonbas2srv.dto.RealtimeFeed;
+import dev.x341.aonbas2srv.services.apiclients.TramApiClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class VehicleIndexTest {
+
+    private static final long NOW = 1_700_000_000L;
+
+    private static FeedEntity vehicle(String id, String routeId, float lat, float lon, Float bearing) {
+        Position.Builder position = Position.newBuilder().setLatitude(lat).setLongitude(lon);
+        if (bearing != null) position.setBearing(bearing);
+        return FeedEntity.newBuilder().setId("e-" + id)
+                .setVehicle(VehiclePosition.newBuilder()
+                        .setVehicle(VehicleDescriptor.newBuilder().setId(id))
+                        .setTrip(TripDescriptor.newBuilder().setTripId("trip-" + id).setRouteId(routeId))
+                        .setPosition(position))
+                .build();
+    }
+
+    private static FeedMessage vehicles(FeedEntity... entities) {
+        return FeedMessage.newBuilder()
+                .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(NOW))
+                .addAllEntity(List.of(entities))
+                .build();
+    }
+
+    private static final FeedMessage FEED = vehicles(
+            vehicle("1", "T4", 41.4036f, 2.1874f, 90f),
+            vehicle("2", "T5", 41.4100f, 2.2000f, null),
+            vehicle("3", "T4", 41.3800f, 2.1400f, 180f),
+            FeedEntity.newBuilder().setId("no-position").setVehicle(VehiclePosition.getDefaultInstance()).build());
+
+    private static List<String> ids(List<VehicleIndex.Vehicle> vehicles) {
+        return vehicles.stream().map(VehicleIndex.Vehicle::id).sorted().toList();
+    }
+
+    @Test
+    void bboxAndLineQueriesKeepOnlyMatchingVehicles() {
+        VehicleIndex index = new VehicleIndex("TRAMBESOS", FEED);
+        assertEquals(3, index.size(), "entities without a position are skipped");
+
+        List<VehicleIndex.Vehicle> out = new ArrayList<>();
+        index.within(41.40, 2.18, 41.42, 2.21, null, out);
+        assertEquals(List.of("1", "2"), ids(out));
+
+        out.clear();
+        index.within(41.40, 2.18, 41.42, 2.21, "t4", out);
+        assertEquals(List.of("1"), ids(out));
+
+        out.clear();
+        index.all("T4", out);
+        assertEquals(List.of("1", "3"), ids(out));
+
+        out.clear();
+        index.all("T9", out);
+        assertTrue(out.isEmpty());
+
+        out.clear();
+        index.all(null, out);
+        VehicleIndex.Vehicle second = out.stream().filter(v -> v.id().equals("2")).findFirst().orElseThrow();
+        assertNull(second.bearing());
+        assertEquals(NOW, second.timestamp(), "positions without a timestamp take the feed's");
+        assertEquals("trip-2", second.tripId());
+        assertEquals("TRAMBESOS", second.network());
+    }
+
+    @Test
+    void pollerRebuildsVehiclesOnlyWhenTheirFeedChanges() throws Exception {
+        FeedMessage tripUpdates = vehicles();
+        TramApiClient api = mock(TramApiClient.class);
+        when(api.getAllStopsAsync()).thenReturn(CompletableFuture.completedFuture(List.of()));
+        when(api.getGtfsrtDataAsync("TRAMBESOS"))
+                .thenReturn(CompletableFuture.completedFuture(new RealtimeFeed(tripUpdates, FEED, NOW)));
+        when(api.getGtfsrtDataAsync("TRAMBAIX"))
+                .thenReturn(CompletableFuture.completedFuture(new RealtimeFeed(tripUpdates, vehicles(), NOW)));
+        GtfsRtPoller poller = new GtfsRtPoller(api, 0);
+
+        VehicleIndex first = poller.currentVehiclesAsync("TRAMBESOS").get();
+        // A new trip-update feed with the same vehicleUpdate message keeps the index
+        assertSame(first, poller.vehicleIndex("TRAMBESOS", new RealtimeFeed(vehicles(), FEED, NOW + 15)));
+        assertNotSame(first, poller.vehicleIndex("TRAMBESOS", new RealtimeFeed(tripUpdates, vehicles(), NOW + 15)));
+
+        poller.vehicleIndex("TRAMBESOS", new RealtimeFeed(tripUpdates, FEED, NOW));
+        TramService service = new TramService(api, poller);
+        JsonArray all = JsonParser.parseString(service.getVehiclesJson(null, new double[]{2.18, 41.40, 2.21, 41.42}))
+                .getAsJsonObject().getAsJsonArray("vehicles");
+        assertEquals(2, all.size());
+        JsonArray line = JsonParser.parseString(service.getVehiclesJson("T4", null))
+                .getAsJsonObject().getAsJsonArray("vehicles");
+        assertEquals(2, line.size());
+    }
+}
@@ -0,0 +1,67 @@
+package dev.x341.aonbas2srv.services.apiclients;
+
+import dev.x341.aonbas2srv.dto.Stop;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StopIndexTest {
+
+    private static Stop stop(int id, String code, String name) {
+        Stop s = new Stop();
+        s.setId(id);
+        s.setGtfsCode(code);
+        s.setName(name);
+        return s;
+    }
+
+    private static final Stop GLORIES = stop(101, "GLO-1", "Glòries");
+    private static final Stop CIUTADELLA = stop(102, "CIU1", "Ciutadella | Vila Olímpica");
+    private static final Stop NUMERIC = stop(103, "101", "Wellington");
+    private static final Stop GLORIES_DUP = stop(104, "glo-1", "Glòries (dup)");
+    private static final StopIndex INDEX = new StopIndex("v1", List.of(GLORIES, CIUTADELLA, NUMERIC, GLORIES_DUP));
+
+    @Test
+    void lookupsKeepTheLinearScanPrecedence() {
+        // A number is an id before it is a code
+        assertSame(GLORIES, INDEX.find("101"));
+        assertSame(CIUTADELLA, INDEX.find("ciu1"));
+        // First occurrence wins on duplicated codes
+        assertSame(GLORIES, INDEX.find("GLO-1"));
+        assertSame(GLORIES, INDEX.find("GLO_1"), "punctuation is ignored when the exact code does not match");
+        assertSame(CIUTADELLA, INDEX.find("vila ol"), "partial name");
+        assertSame(NUMERIC, INDEX.find("WELL"));
+        assertSame(GLORIES, INDEX.find("LO"), "short partials match the first stop containing them");
+        assertSame(CIUTADELLA, INDEX.find("U1"));
+        assertNull(INDEX.find("NOWHERE"));
+        assertNull(INDEX.find("ZZ"));
+    }
+
+    @Test
+    void partialMatchesAgreeWithContains() {
+        List<Stop> stops = new ArrayList<>();
+        for (int i = 0; i < 300; i++) stops.add(stop(i + 1, "C" + i, "Stop number " + (i * 7)));
+        StopIndex index = new StopIndex("v2", stops);
+        for (String q : List.of("NUMBER 7", "R 14", "C29", "MBER 2", "P N", "9", "STOP NUMBER 700", "X")) {
+            Stop expected = stops.stream()
+                    .filter(s -> s.getGtfsCode().toUpperCase().contains(q) || s.getName().toUpperCase().contains(q))
+                    .findFirst().orElse(null);
+            // Skip queries an earlier rule answers
+            if (q.matches("\\d+") || q.startsWith("C")) continue;
+            assertSame(expected, index.find(q), q);
+        }
+    }
+
+    @Test
+    void setsAndVersionArePrecomputed() {
+        assertEquals(Set.of("GLO-1", "CIU1", "101", "glo-1"), INDEX.gtfsCodes());
+        assertTrue(INDEX.stopIds().containsAll(Set.of("101", "102", "103", "104", "GLO-1", "CIU1")));
+        assertThrows(UnsupportedOperationException.class, () -> INDEX.stops().add(GLORIES));
+        assertTrue(INDEX.isFor("v1"));
+        assertFalse(INDEX.isFor(new String("v1")));
+    }
+}
@@ -0,0 +1,239 @@
+package dev.x341.aonbas2srv.services.apiclients;
+
+import com.google.transit.realtime.GtfsRealtime.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.x341.aonbas2srv.dto.RealtimeFeed;
+import dev.x341.aonbas2srv.dto.Stop;
+import dev.x341.aonbas2srv.services.CacheService;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The client against a local stub of the TRAM API. For stops, network 1 has 250 (pages of 100, 100, 50) and
+ * network 2 has 120, of which the first 10 repeat network 1 codes. Each GTFS-RT endpoint serves a small feed.
+ * Every request takes a few milliseconds so concurrent requests overlap.
+ */
+public class TramApiClientTest {
+
+    private static final int DELAY_MS = 30;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String baseUrl;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/stops", this::stops);
+        server.createContext("/gtfsrealtime", this::gtfsRealtime);
+        server.createContext("/lines", this::wrappedLineStops);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private void stops(HttpExchange exchange) throws IOException {
+        int now = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(now, Math::max);
+        requests.incrementAndGet();
+        try {
+            Thread.sleep(DELAY_MS);
+            Map<String, String> q = query(exchange.getRequestURI());
+            int page = Integer.parseInt(q.get("page"));
+            int size = Integer.parseInt(q.get("pageSize"));
+            int network = Integer.parseInt(q.get("networkId"));
+            int total = network == 1 ? 250 : 120;
+            if (page * size > total) {
+                // Past the end: only ever requested speculatively
+                send(exchange, 404, "not found");
+                return;
+            }
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = page * size; i < Math.min(total, (page + 1) * size); i++) {
+                if (sb.length() > 1) sb.append(',');
+                // Network 2 reuses the first ten network 1 codes under its own ids
+                String code = network == 2 && i < 10 ? "N1-" + i : "N" + network + "-" + i;
+                sb.append("{\"id\":").append(network * 1000 + i).append(",\"gtfsCode\":\"").append(code)
+                        .append("\",\"name\":\"Stop ").append(network).append('-').append(i).append("\"}");
+            }
+            send(exchange, 200, sb.append(']').toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops of any line as one short page per network, wrapped in an object: network 1 under "data" next to other
+     * arrays, network 2 under "results", repeating a network 1 code in another case.
+     */
+    private void wrappedLineStops(HttpExchange exchange) throws IOException {
+        Map<String, String> q = query(exchange.getRequestURI());
+        if (!q.get("page").equals("0")) {
+            send(exchange, 404, "not found");
+            return;
+        }
+        send(exchange, 200, q.get("networkId").equals("1")
+                ? "{\"links\":[\"next\"],\"stops\":[{\"id\":99}],\"total\":2,"
+                        + "\"data\":[{\"gtfsCode\":\"glo\",\"id\":1},{\"gtfsCode\":\"LLA\",\"id\":2}]}"
+                : "{\"count\":3,\"results\":[{\"gtfsCode\":\"GLO\",\"id\":3},{\"stopId\":4},{\"name\":\"anonymous\"}]}");
+    }
+
+    private void gtfsRealtime(HttpExchange exchange) throws IOException {
+        int now = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(now, Math::max);
+        try {
+            Thread.sleep(DELAY_MS);
+            boolean vehicles = exchange.getRequestURI().getPath().endsWith("/vehicleUpdate");
+            FeedMessage.Builder feed = FeedMessage.newBuilder()
+                    .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(1));
+            for (int i = 0; i < 3; i++) {
+                FeedEntity.Builder entity = FeedEntity.newBuilder().setId((vehicles ? "v" : "t") + i);
+                if (vehicles) entity.setVehicle(VehiclePosition.newBuilder().setTrip(TripDescriptor.newBuilder().setTripId("trip" + i)));
+                else entity.setTripUpdate(TripUpdate.newBuilder().setTrip(TripDescriptor.newBuilder().setTripId("trip" + i)));
+                feed.addEntity(entity);
+            }
+            send(exchange, 200, feed.build().toByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> out = new HashMap<>();
+        for (String pair : uri.getQuery().split("&")) {
+            int eq = pair.indexOf('=');
+            out.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return out;
+    }
+
+    private TramApiClient client(int concurrency) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(64);
+        OkHttpClient http = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+        return new TramApiClient(new CacheService(), http, baseUrl, concurrency);
+    }
+
+    @Test
+    void parallelLoadMergesLikeSequentialWalk() throws IOException {
+        List<Stop> sequential = client(1).getAllStops();
+        assertEquals(1, maxInFlight.get());
+        int sequentialRequests = requests.get();
+        assertEquals(5, sequentialRequests);
+
+        maxInFlight.set(0);
+        List<Stop> parallel = client(8).getAllStops();
+
+        assertEquals(360, sequential.size());
+        assertEquals(sequential.stream().map(Stop::getId).toList(), parallel.stream().map(Stop::getId).toList());
+        // Duplicated codes keep the network 1 stop, as before
+        assertEquals(1000, parallel.get(0).getId());
+        assertTrue(parallel.stream().noneMatch(s -> s.getId() >= 2000 && s.getId() < 2010));
+        assertTrue(maxInFlight.get() > 1, "pages were fetched concurrently");
+        assertTrue(maxInFlight.get() <= 8, "at most 8 page requests in flight, saw " + maxInFlight.get());
+    }
+
+    @Test
+    void parallelLoadIsFasterThanSequential() throws IOException {
+        long start = System.nanoTime();
+        client(1).getAllStops();
+        long sequentialMs = (System.nanoTime() - start) / 1_000_000;
+
+        start = System.nanoTime();
+        client(8).getAllStops();
+        long parallelMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Five pages one after another against one round of windows per network
+        assertTrue(sequentialMs >= 5 * DELAY_MS, "sequential took " + sequentialMs + "ms");
+        assertTrue(parallelMs < sequentialMs, "parallel " + parallelMs + "ms vs sequential " + sequentialMs + "ms");
+    }
+
+    @Test
+    void wrappedPagesAreReadFromTheirContainerKey() throws IOException {
+        for (int concurrency : new int[]{1, 8}) {
+            List<Stop> stops = client(concurrency).getStops("T4");
+            assertEquals(List.of(1, 2, 4), stops.stream().map(Stop::getId).filter(Objects::nonNull).toList());
+            assertEquals("anonymous", stops.get(3).getName(), "stops without code or id are kept");
+            assertEquals("glo", stops.get(0).getGtfsCode(), "codes dedup case-insensitively, first one wins");
+        }
+    }
+
+    @Test
+    void lineStopsAreParsedOncePerLoad() throws IOException {
+        TramApiClient client = client(8);
+        List<Stop> stops = client.getStops("T4");
+        assertSame(stops, client.getStops("T4"), "a hit hands out the cached list instead of re-reading its JSON");
+        assertThrows(UnsupportedOperationException.class, () -> stops.add(new Stop()));
+    }
+
+    @Test
+    void realtimeFeedsAreFetchedTogetherAndReferencedNotCopied() throws IOException {
+        RealtimeFeed feed = client(8).getGtfsrtData("TRAMBESOS");
+
+        assertEquals(2, maxInFlight.get(), "trip and vehicle feeds were requested at the same time");
+        assertEquals(6, feed.getEntityCount());
+        assertEquals(List.of("t0", "t1", "t2", "v0", "v1", "v2"), feed.getEntityList().stream().map(FeedEntity::getId).toList());
+        assertSame(feed.getTripUpdates().getEntity(0), feed.getEntityList().get(0));
+        assertSame(feed.getVehiclePositions().getEntity(2), feed.getEntityList().get(5));
+        assertThrows(UnsupportedOperationException.class, () -> feed.getEntityList().add(FeedEntity.getDefaultInstance()));
+
+        List<FeedEntity> both = new ArrayList<>(feed.getTripUpdates().getEntityList());
+        both.addAll(feed.getVehiclePositions().getEntityList());
+        assertEquals(both, feed.getEntityList());
+    }
+
+    @Test
+    void unchangedFeedKeepsItsInstance() {
+        TramApiClient client = client(8);
+        RealtimeFeed first = client.refreshGtfsrtDataAsync("TRAMBAIX").join();
+        RealtimeFeed second = client.refreshGtfsrtDataAsync("TRAMBAIX").join();
+
+        // Same bytes: the previously parsed messages are kept, so consumers can skip re-indexing by identity
+        assertSame(first, second);
+        assertSame(second, client.getGtfsrtDataAsync("TRAMBAIX").join());
+        assertNotSame(first, client.refreshGtfsrtDataAsync("TRAMBESOS").join());
+    }
+}
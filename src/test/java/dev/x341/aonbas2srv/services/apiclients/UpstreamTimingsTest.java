@@ -0,0 +1,70 @@
+package dev.x341.aonbas2srv.services.apiclients;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpstreamTimingsTest {
+
+    private HttpServer server;
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> {
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void pooledConnectionIsOnlyConnectedOnce() throws IOException {
+        UpstreamTimings timings = new UpstreamTimings();
+        OkHttpClient client = new OkHttpClient.Builder().eventListenerFactory(timings).build();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/ok";
+        for (int i = 0; i < 3; i++) {
+            try (Response res = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                assertEquals("{}", res.body().string());
+            }
+        }
+
+        Map<String, Object> host = timings.snapshot().get("127.0.0.1");
+        assertNotNull(host);
+        assertEquals(1L, ((Map<String, Object>) host.get("connect")).get("count"));
+        assertEquals(3L, ((Map<String, Object>) host.get("ttfb")).get("count"));
+        assertEquals(3L, ((Map<String, Object>) host.get("call")).get("count"));
+        assertNull(host.get("tls"), "plain HTTP has no handshake");
+        assertNull(host.get("failures"));
+    }
+
+    @Test
+    void failedCallsAreCounted() {
+        UpstreamTimings timings = new UpstreamTimings();
+        OkHttpClient client = new OkHttpClient.Builder().eventListenerFactory(timings).build();
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        assertThrows(IOException.class, () -> client.newCall(new Request.Builder()
+                .url("http://127.0.0.1:" + port + "/ok").build()).execute().close());
+        assertEquals(1L, timings.snapshot().get("127.0.0.1").get("failures"));
+    }
+}
@@ -0,0 +1,171 @@
+package dev.x341.aonbas2srv.services.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import dev.x341.aonbas2srv.dto.MetroDto;
+import dev.x341.aonbas2srv.dto.Stop;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonCodecTest {
+
+    private static final Gson REFLECTIVE = new Gson();
+    private final JsonCodec codec = new JsonCodec();
+
+    private static MetroDto metro() {
+        MetroDto.Properties p = new MetroDto.Properties();
+        p.setID_LINIA(1);
+        p.setCODI_LINIA(1);
+        p.setNOM_LINIA("L1");
+        p.setDESC_LINIA("Hospital de Bellvitge - Fondo");
+        p.setCOLOR_LINIA("CE1126");
+        p.setCODI_ESTACIO(126);
+        p.setNOM_ESTACIO("Glòries <\"&\">");
+        MetroDto.Geometry g = new MetroDto.Geometry();
+        g.setType("MultiLineString");
+        g.setCoordinates(List.of(List.of(List.of(2.1, 41.35), List.of(2.11, 41.36))));
+        MetroDto.Feature f = new MetroDto.Feature();
+        f.setType("Feature");
+        f.setId("LINIES_METRO.1");
+        f.setGeometry(g);
+        f.setProperties(p);
+
+        MetroDto.ProximTren tren = new MetroDto.ProximTren();
+        tren.setCodi_servei("101");
+        tren.setTemps_arribada(1_700_000_000_000L);
+        MetroDto.LiniaTrajecte trajecte = new MetroDto.LiniaTrajecte();
+        trajecte.setCodi_linia(1);
+        trajecte.setDesti_trajecte("Fondo");
+        trajecte.setPropers_trens(List.of(tren));
+        MetroDto.Estacio estacio = new MetroDto.Estacio();
+        estacio.setCodi_estacio(126);
+        estacio.setLinies_trajectes(List.of(trajecte));
+        MetroDto.Linia linia = new MetroDto.Linia();
+        linia.setCodi_linia(1);
+        linia.setNom_linia("L1");
+        linia.setEstacions(List.of(estacio));
+
+        MetroDto dto = new MetroDto();
+        dto.setType("FeatureCollection");
+        dto.setFeatures(List.of(f));
+        dto.setTimestamp(1_700_000_000_000L);
+        dto.setLinies(List.of(linia));
+        return dto;
+    }
+
+    @Test
+    void metroAdapterWritesWhatReflectiveGsonWrites() {
+        MetroDto dto = metro();
+        assertEquals(REFLECTIVE.toJson(dto), codec.toJson(dto));
+        assertEquals(REFLECTIVE.toJson(new MetroDto()), codec.toJson(new MetroDto()));
+        assertEquals("null", codec.toJson(null));
+    }
+
+    /** What the web variant of /metro/* returned when it was written with Jackson's default ObjectMapper. */
+    private static final String JACKSON_METRO = "{\"type\":\"FeatureCollection\","
+            + "\"features\":[{\"type\":\"Feature\",\"id\":\"LINIES_METRO.1\","
+            + "\"geometry\":{\"type\":\"MultiLineString\",\"coordinates\":[[[2.1,41.35],[2.11,41.36]]]},"
+            + "\"geometry_name\":null,\"properties\":{\"id_LINIA\":1,\"codi_LINIA\":1,\"nom_LINIA\":\"L1\","
+            + "\"desc_LINIA\":\"Hospital de Bellvitge - Fondo\",\"color_LINIA\":\"CE1126\",\"codi_ESTACIO\":126,"
+            + "\"nom_ESTACIO\":\"Glòries <\\\"&\\\">\",\"nom_TIPUS_ACCESSIBILITAT\":null,\"origen_LINIA\":null,"
+            + "\"desti_LINIA\":null,\"num_PAQUETS\":0,\"id_OPERADOR\":0,\"nom_OPERADOR\":null,"
+            + "\"nom_TIPUS_TRANSPORT\":null,\"codi_FAMILIA\":0,\"nom_FAMILIA\":null,\"ordre_FAMILIA\":0,"
+            + "\"ordre_LINIA\":0,\"codi_TIPUS_CALENDARI\":null,\"nom_TIPUS_CALENDARI\":null,\"data\":null,"
+            + "\"color_AUX_LINIA\":null,\"color_TEXT_LINIA\":null,\"id_ESTACIO_LINIA\":0,\"codi_ESTACIO_LINIA\":0,"
+            + "\"id_ESTACIO\":0,\"ordre_ESTACIO\":0,\"desc_SERVEI\":null,\"origen_SERVEI\":null,"
+            + "\"desti_SERVEI\":null,\"nom_TIPUS_ESTAT\":null,\"data_INAUGURACIO\":null,\"picto\":null}},"
+            + "{\"type\":null,\"id\":null,\"geometry\":{\"type\":null,\"coordinates\":null},\"geometry_name\":null,"
+            + "\"properties\":null},null],\"timestamp\":1700000000000,\"linies\":[{\"codi_linia\":1,"
+            + "\"nom_linia\":\"L1\",\"nom_familia\":null,\"codi_familia\":0,\"color_linia\":null,"
+            + "\"estacions\":[{\"codi_via\":0,\"id_sentit\":0,\"codi_estacio\":126,"
+            + "\"linies_trajectes\":[{\"codi_linia\":1,\"nom_linia\":null,\"color_linia\":null,"
+            + "\"codi_trajecte\":null,\"desti_trajecte\":\"Fondo\",\"propers_trens\":[{\"codi_servei\":\"101\","
+            + "\"temps_arribada\":1700000000000}]}]}]}]}";
+
+    @Test
+    void webJsonKeepsTheJacksonFormat() {
+        MetroDto dto = metro();
+        MetroDto.Feature bare = new MetroDto.Feature();
+        bare.setGeometry(new MetroDto.Geometry());
+        List<MetroDto.Feature> features = new ArrayList<>(dto.getFeatures());
+        features.add(bare);
+        features.add(null);
+        dto.setFeatures(features);
+
+        String web = codec.toWebJson(dto);
+        assertEquals(JsonParser.parseString(JACKSON_METRO), JsonParser.parseString(web));
+        assertTrue(web.contains("\"nom_ESTACIO\":\"Glòries <\\\"&\\\">\""), "no HTML escaping, as Jackson wrote it");
+        assertEquals("{\"type\":null,\"features\":null,\"timestamp\":0,\"linies\":null}", codec.toWebJson(new MetroDto()));
+        assertEquals("null", codec.toWebJson(null));
+        assertEquals(REFLECTIVE.toJson(dto), codec.toJson(dto), "the app variant is unchanged");
+    }
+
+    @Test
+    void metroAdapterReadsWhatReflectiveGsonReads() {
+        String json = "{\"type\":\"FeatureCollection\",\"timestamp\":null,\"unknown\":{\"a\":[1,2]},"
+                + "\"features\":[{\"id\":7,\"geometry\":{\"type\":\"Point\",\"coordinates\":[2.19,41.4]},"
+                + "\"properties\":{\"CODI_LINIA\":\"3\",\"ID_LINIA\":null,\"NOM_LINIA\":true}}],"
+                + "\"linies\":[{\"estacions\":[{\"linies_trajectes\":[{\"propers_trens\":[{\"temps_arribada\":5}]}]}]}]}";
+        MetroDto reflective = REFLECTIVE.fromJson(json, MetroDto.class);
+        MetroDto streamed = codec.fromJson(json, MetroDto.class);
+        assertEquals(REFLECTIVE.toJson(reflective), REFLECTIVE.toJson(streamed));
+        assertEquals(3, streamed.getFeatures().get(0).getProperties().getCODI_LINIA());
+        assertEquals("true", streamed.getFeatures().get(0).getProperties().getNOM_LINIA());
+        assertEquals(List.of(2.19, 41.4), streamed.getFeatures().get(0).getGeometry().getCoordinates());
+
+        String populated = codec.toJson(metro());
+        assertEquals(populated, codec.toJson(codec.fromJson(populated, MetroDto.class)));
+    }
+
+    @Test
+    void stopAdapterPrefersTheFirstAliasWhateverTheKeyOrder() {
+        Stop stop = Stop.fromJson(JsonParser.parseString("{\"lng\":2.1,\"lat\":\"41.4\",\"longitude\":2.2,"
+                + "\"code\":\"x\",\"gtfs_id\":\"glo\",\"stopId\":\"12\",\"id\":\"not a number\","
+                + "\"description\":{\"es\":\"Glorias\",\"ca\":\"Glòries\"}}"));
+        assertEquals(41.4, stop.getLatitude());
+        assertEquals(2.2, stop.getLongitude());
+        assertEquals("glo", stop.getGtfsCode());
+        assertEquals(12, stop.getId(), "an unusable value falls back to the next alias");
+        assertEquals("Glòries", stop.getDescription());
+
+        Stop embedded = Stop.fromJson(JsonParser.parseString("\"{\\\"name\\\":\\\"Glòries\\\",\\\"order\\\":3}\""));
+        assertEquals("Glòries", embedded.getName());
+        assertEquals(3, embedded.getOrder());
+        assertNull(Stop.fromJson(JsonParser.parseString("[1]")).getName());
+    }
+
+    @Test
+    void stopsRoundTripAndStream() {
+        Stop stop = new Stop();
+        stop.setName("Glòries");
+        stop.setLatitude(41.4036);
+        stop.setLongitude(2.1874);
+        stop.setGtfsCode("GLO");
+        stop.setId(7);
+        assertEquals(REFLECTIVE.toJson(stop), stop.toJson());
+
+        List<Stop> stops = codec.readStops(new StringReader("[" + stop.toJson() + ",{\"stopId\":8}]"));
+        assertEquals(2, stops.size());
+        assertEquals(stop.toJson(), stops.get(0).toJson());
+        assertEquals(8, stops.get(1).getId());
+    }
+
+    @Test
+    void writesUtf8IntoByteBuf() {
+        ByteBuf buf = Unpooled.buffer(4);
+        try {
+            codec.write(metro(), buf);
+            assertEquals(codec.toJson(metro()), buf.toString(CharsetUtil.UTF_8));
+        } finally {
+            buf.release();
+        }
+    }
+}
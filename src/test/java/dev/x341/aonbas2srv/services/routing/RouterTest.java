@@ -0,0 +1,96 @@
+package dev.x341.aonbas2srv.services.routing;
+
+import io.netty.handler.codec.http.HttpMethod;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouterTest {
+
+    @Test
+    void matchesLiteralAndVariableSegments() {
+        RouteMatch<Route> m = Route.TABLE.match(HttpMethod.GET, "/metro/line/3/station/319a325/corresp");
+        assertNotNull(m);
+        assertTrue(m.methodAllowed());
+        assertEquals(Route.METRO_INTERCHANGES, m.value());
+        assertEquals(2, m.paramCount());
+        assertEquals("3", m.param(0).toString());
+        assertEquals("319a325", m.param("station").toString());
+    }
+
+    @Test
+    void literalIsPreferredOverVariable() {
+        assertEquals(Route.METRO_LINES, Route.TABLE.match(HttpMethod.GET, "/metro/lines").value());
+        assertEquals(Route.METRO_LINE_STATIONS, Route.TABLE.match(HttpMethod.GET, "/metro/line/lines").value());
+        assertEquals(Route.TRAM_CODES, Route.TABLE.match(HttpMethod.GET, "/tram/codes").value());
+    }
+
+    @Test
+    void ignoresQueryAndTrailingSlash() {
+        RouteMatch<Route> m = Route.TABLE.match(HttpMethod.GET, "/tram/line/T4/?foo=bar");
+        assertNotNull(m);
+        assertEquals(Route.TRAM_LINE_STOPS, m.value());
+        assertEquals("T4", m.param(0).toString());
+        assertEquals(Route.TRAM_LINES, Route.TABLE.match(HttpMethod.GET, "/tram/").value());
+    }
+
+    @Test
+    void decodesQueryParameters() {
+        RouteMatch<Route> m = Route.TABLE.match(HttpMethod.GET, "/search?q=pla%C3%A7a+gl%C3%B2&limit=5&flag#frag");
+        assertEquals(Route.SEARCH, m.value());
+        assertEquals("plaça glò", m.query("q"));
+        assertEquals("5", m.query("limit"));
+        assertEquals("", m.query("flag"));
+        assertNull(m.query("missing"));
+        assertNull(Route.TABLE.match(HttpMethod.GET, "/search").query("q"));
+    }
+
+    @Test
+    void keepsMalformedEscapesAsWritten() {
+        RouteMatch<Route> m = Route.TABLE.match(HttpMethod.GET, "/search?q=%E&lat=%zz&bbox=%&ok=%41");
+        assertEquals("%E", m.query("q"));
+        assertEquals("%zz", m.query("lat"));
+        assertEquals("%", m.query("bbox"));
+        assertEquals("A", m.query("ok"));
+    }
+
+    @Test
+    void unknownPathsDoNotMatch() {
+        assertNull(Route.TABLE.match(HttpMethod.GET, "/"));
+        assertNull(Route.TABLE.match(HttpMethod.GET, "/metro"));
+        assertNull(Route.TABLE.match(HttpMethod.GET, "/metro/line"));
+        assertNull(Route.TABLE.match(HttpMethod.GET, "/metro/line//station/1"));
+        assertNull(Route.TABLE.match(HttpMethod.GET, "/metro/line/1/station/2/corresp/extra"));
+    }
+
+    @Test
+    void wrongMethodReportsAllowedMethods() {
+        RouteMatch<Route> m = Route.TABLE.match(HttpMethod.POST, "/metro/lines");
+        assertNotNull(m);
+        assertFalse(m.methodAllowed());
+        assertNull(m.value());
+        assertEquals("GET, HEAD", m.allow());
+
+        RouteMatch<Route> head = Route.TABLE.match(HttpMethod.HEAD, "/metro/lines");
+        assertTrue(head.methodAllowed());
+        assertEquals(Route.METRO_LINES, head.value());
+    }
+
+    @Test
+    void backtracksFromLiteralToVariable() {
+        Router<String> router = Router.<String>builder()
+                .add(HttpMethod.GET, "/a/b/d", "literal")
+                .add(HttpMethod.GET, "/a/{x}/c", "variable")
+                .build();
+        assertEquals("literal", router.match(HttpMethod.GET, "/a/b/d").value());
+        RouteMatch<String> m = router.match(HttpMethod.GET, "/a/b/c");
+        assertEquals("variable", m.value());
+        assertEquals("b", m.param("x").toString());
+    }
+
+    @Test
+    void rejectsDuplicateRoutes() {
+        Router.Builder<String> b = Router.<String>builder().add(HttpMethod.GET, "/x/{a}", "one");
+        assertThrows(IllegalArgumentException.class, () -> b.add(HttpMethod.GET, "/x/{b}", "two"));
+    }
+}
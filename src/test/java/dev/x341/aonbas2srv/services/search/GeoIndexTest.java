@@ -0,0 +1,59 @@
+package dev.x341.aonbas2srv.services.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GeoIndexTest {
+
+    private static Place at(String name, Double lat, Double lon) {
+        return new Place(Place.TRAM, name, name, name, List.of(), lat, lon);
+    }
+
+    @Test
+    void returnsPlacesWithinTheRadiusClosestFirst() {
+        GeoIndex index = new GeoIndex(List.of(
+                at("Glòries", 41.4036, 2.1874),
+                at("Monumental", 41.3999, 2.1806),
+                at("Llacuna", 41.4006, 2.1976),
+                at("Sants", 41.3792, 2.1403),
+                at("Unknown", null, null)));
+        assertEquals(4, index.size(), "places without coordinates are not indexed");
+
+        List<GeoIndex.Hit> hits = index.nearest(41.4030, 2.1870, 1_000, 10);
+        assertEquals(List.of("Glòries", "Monumental", "Llacuna"), hits.stream().map(h -> h.place().name()).toList());
+        assertTrue(hits.get(0).meters() < 100);
+        assertTrue(hits.get(2).meters() > 800 && hits.get(2).meters() <= 1_000);
+
+        assertEquals(1, index.nearest(41.4030, 2.1870, 1_000, 1).size());
+        assertTrue(index.nearest(41.4030, 2.1870, 10, 10).isEmpty());
+        assertEquals(4, index.nearest(41.4030, 2.1870, 6_000, 10).size());
+    }
+
+    @Test
+    void matchesABruteForceScanAcrossCellBoundaries() {
+        Random rnd = new Random(7);
+        List<Place> places = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            places.add(at("p" + i, 41.30 + rnd.nextDouble() * 0.2, 2.05 + rnd.nextDouble() * 0.25));
+        }
+        GeoIndex index = new GeoIndex(places);
+        for (int q = 0; q < 50; q++) {
+            double lat = 41.30 + rnd.nextDouble() * 0.2, lon = 2.05 + rnd.nextDouble() * 0.25;
+            int radius = 100 + rnd.nextInt(3_000);
+            List<Integer> expected = places.stream()
+                    .map(p -> GeoIndex.distance(lat, lon, p.lat(), p.lon()))
+                    .filter(d -> d <= radius)
+                    .sorted(Comparator.naturalOrder())
+                    .limit(20)
+                    .toList();
+            List<Integer> actual = index.nearest(lat, lon, radius, 20).stream().map(GeoIndex.Hit::meters).toList();
+            assertEquals(expected, actual);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package dev.x341.aonbas2srv.services.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest {
+
+    private static Place tram(String code, String name) {
+        return new Place(Place.TRAM, code, code, name, List.of(), 41.4, 2.18);
+    }
+
+    private static Place metro(String code, String name) {
+        return new Place(Place.METRO, code, code, name, List.of("L1"), 41.4, 2.18);
+    }
+
+    private static final SearchIndex INDEX = new SearchIndex(List.of(
+            tram("GLO", "Glòries"),
+            metro("126", "Glòries"),
+            tram("PLA", "Plaça de les Glòries Catalanes"),
+            metro("232", "Passeig de Gràcia"),
+            metro("113", "Plaça de Sants"),
+            metro("114", "Plaça d'Espanya"),
+            tram("LLA", "Llacuna"),
+            metro("421", "Paral·lel"),
+            tram("CIU", "Ciutadella | Vila Olímpica")));
+
+    private static List<String> names(String query) {
+        return INDEX.search(query, 10).stream().map(Place::name).toList();
+    }
+
+    @Test
+    void foldsAccentsCaseAndCatalanPunctuation() {
+        assertEquals("placa de les glories", TextFold.fold("Plaça de les Glòries"));
+        assertEquals("parallel", TextFold.fold("Paral·lel"));
+        assertEquals("ciutadella vila olimpica", TextFold.fold("  Ciutadella | Vila Olímpica "));
+        assertEquals(List.of("placa", "despanya"), TextFold.tokens("PLAÇA D'ESPANYA"));
+
+        assertEquals(names("Plaça"), names("placa"));
+        assertEquals(List.of("Paral·lel"), names("parallel"));
+    }
+
+    @Test
+    void everyQueryWordPrefixesSomeWord() {
+        assertEquals(List.of("Plaça de Sants", "Plaça d'Espanya", "Plaça de les Glòries Catalanes"), names("pla"));
+        assertEquals(List.of("Plaça de les Glòries Catalanes"), names("pl glo"));
+        assertEquals(List.of("Ciutadella | Vila Olímpica"), names("vila oli"));
+        assertTrue(names("glories sants").isEmpty());
+        assertTrue(names("").isEmpty());
+    }
+
+    @Test
+    void exactAndPrefixNamesRankFirst() {
+        List<Place> results = INDEX.search("glories", 10);
+        assertEquals(3, results.size());
+        assertEquals("Glòries", results.get(0).name());
+        assertEquals("Glòries", results.get(1).name());
+        assertEquals("Plaça de les Glòries Catalanes", results.get(2).name());
+        // Tram and metro stations of the same name are separate results
+        assertNotEquals(results.get(0).type(), results.get(1).type());
+
+        assertEquals("Passeig de Gràcia", names("passeig de gr").get(0));
+    }
+
+    @Test
+    void codesAreSearchableAndLimitIsApplied() {
+        assertEquals(List.of("Llacuna"), names("lla"));
+        assertEquals(List.of("Glòries"), names("126"));
+        assertEquals(1, INDEX.search("pla", 1).size());
+        assertTrue(INDEX.search("pla", 0).isEmpty());
+    }
+}
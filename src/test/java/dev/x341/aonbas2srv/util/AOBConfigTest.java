@@ -0,0 +1,44 @@
+package dev.x341.aonbas2srv.util;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class AOBConfigTest {
+
+    private static AOBConfig config(String... keyValues) {
+        Map<String, String> env = new HashMap<>(Map.of(
+                "TMB_APP_ID", "id", "TMB_APP_KEY", "key",
+                "TRAM_CLIENT_ID", "client", "TRAM_CLIENT_SECRET", "secret"));
+        for (int i = 0; i < keyValues.length; i += 2) env.put(keyValues[i], keyValues[i + 1]);
+        Dotenv dotenv = mock(Dotenv.class);
+        when(dotenv.get(anyString())).thenAnswer(inv -> env.get(inv.<String>getArgument(0)));
+        when(dotenv.get(anyString(), anyString()))
+                .thenAnswer(inv -> env.getOrDefault(inv.getArgument(0), inv.getArgument(1)));
+        return new AOBConfig(dotenv);
+    }
+
+    @Test
+    void gtfsRtPollingCanBeDisabled() {
+        assertEquals(15, config().getGtfsRtPollSeconds());
+        assertEquals(30, config("GTFS_RT_POLL_SECONDS", "30").getGtfsRtPollSeconds());
+        assertEquals(0, config("GTFS_RT_POLL_SECONDS", "0").getGtfsRtPollSeconds());
+    }
+
+    @Test
+    void integersBelowTheirMinimumAreRejectedLikeNonNumbers() {
+        assertEquals(1024, config().getHandlerQueueSize());
+        assertEquals(4, config("SERVER_LISTENERS", " 4 ").getServerListeners());
+        for (String[] bad : new String[][]{{"HANDLER_QUEUE_SIZE", "0"}, {"SERVER_LISTENERS", "-1"},
+                {"CACHE_MAX_MB", "lots"}, {"GTFS_RT_POLL_SECONDS", "-5"}}) {
+            RuntimeException e = assertThrows(RuntimeException.class, () -> config(bad));
+            assertTrue(e.getMessage().contains(bad[0]), e.getMessage());
+        }
+    }
+}